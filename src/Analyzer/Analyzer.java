@@ -13,6 +13,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 
+import structures.CorpusCache;
+import structures.IntDoubleMap;
 import structures._Corpus;
 import structures._Doc;
 import structures._SparseFeature;
@@ -185,6 +187,10 @@ public abstract class Analyzer {
 		}
 	}
 	
+	void rollBack(IntDoubleMap spVct, int y){
+		rollBack(spVct.toHashMap(), y);// only happens for the rejected documents
+	}
+	
 	//Give the option, which would be used as the method to calculate feature value and returned corpus, calculate the feature values.
 	public void setFeatureValues(String fValue, int norm) {
 		ArrayList<_Doc> docs = m_corpus.getCollection(); // Get the collection of all the documents.
@@ -322,6 +328,10 @@ public abstract class Analyzer {
 		} else
 			System.out.println("No normalizaiton is adopted here or wrong parameters in setFeatureValues()!");
 		
+		//feature values have been changed in place, the packed snapshots are outdated
+		for(_Doc d:docs)
+			d.resetPackedSpVct();
+		
 		System.out.format("Text feature generated for %d documents...\n", m_corpus.getSize());
 	}
 
@@ -519,6 +529,49 @@ public abstract class Analyzer {
 		}
 	}
 	
+	//Save the analyzed corpus (vocabulary, feature statistics and documents) into a binary cache.
+	public void saveCorpusCache(String filename) {
+		try {
+			CorpusCache.write(filename, m_featureNames, m_featureStat, m_classMemberNo, m_corpus.getCollection(), null);
+		} catch (IOException e) {
+			System.err.format("[Error]Failed to save corpus cache to %s!\n", filename);
+			e.printStackTrace();
+		}
+	}
+	
+	//Restore the vocabulary, feature statistics and documents from a binary cache instead of analyzing the raw files.
+	public boolean loadCorpusCache(String filename) {
+		if (filename==null || filename.isEmpty() || !new File(filename).exists())
+			return false;
+		
+		try {
+			CorpusCache cache = new CorpusCache(filename);
+			loadCorpusCache(cache);
+			cache.close();//the mapped document section stays valid after the channel is closed
+			
+			System.out.format("%d documents with %d features are loaded from corpus cache %s...\n", m_corpus.getSize(), m_featureNames.size(), filename);
+			return true;
+		} catch (IOException e) {
+			System.err.format("[Error]Failed to load corpus cache from %s!\n", filename);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	protected void loadCorpusCache(CorpusCache cache) throws IOException {
+		if (cache.getClassNo()!=m_classNo)
+			throw new IOException(String.format("The corpus cache has %d classes rather than %d!", cache.getClassNo(), m_classNo));
+		
+		reset();
+		int[] classMemberNo = cache.loadVocabulary(m_featureNames, m_featureStat);
+		System.arraycopy(classMemberNo, 0, m_classMemberNo, 0, m_classNo);
+		for(int i=0; i<m_featureNames.size(); i++)
+			m_featureNameIndex.put(m_featureNames.get(i), i);
+		m_isCVLoaded = true; // no new features will be created
+		
+		m_corpus.setCache(cache);//documents are decoded when accessed
+	}
+	
 	//Return the number of features.
 	public int getFeatureSize(){
 		return m_featureNames.size();
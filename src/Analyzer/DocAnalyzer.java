@@ -28,11 +28,13 @@ import opennlp.tools.util.InvalidFormatException;
 import org.tartarus.snowball.SnowballStemmer;
 import org.tartarus.snowball.ext.englishStemmer;
 
+import structures.IntDoubleMap;
 import structures.SentiWordNet;
 import structures.TokenizeResult;
 import structures._Doc;
 import structures._Post;
 import structures._Stn;
+import structures._stat;
 import utils.Utils;
 
 /**
@@ -56,6 +58,10 @@ public class DocAnalyzer extends Analyzer {
 	protected HashMap<String, Integer> m_posTaggingFeatureNameIndex;//Added by Lin
 	protected SentiWordNet m_sentiWordNet;
 	
+	// reusable primitive builders for document and sentence vectors (this analyzer is single-threaded)
+	protected IntDoubleMap m_docVct = new IntDoubleMap(1024);
+	protected IntDoubleMap m_stnVct = new IntDoubleMap(256);
+	
 	//Constructor with TokenModel, ngram and fValue.
 	public DocAnalyzer(String tokenModel, int classNo, String providedCV, int Ngram, int threshold) 
 			throws InvalidFormatException, FileNotFoundException, IOException {
@@ -422,6 +428,37 @@ public class DocAnalyzer extends Analyzer {
 		return spVct;
 	}
 	
+	//primitive version of constructSpVct(): the counts are written into the reusable spVct (cleared here), no boxing or per-document map
+	protected IntDoubleMap constructSpVct(String[] tokens, int y, IntDoubleMap docWordMap, IntDoubleMap spVct) {
+		Integer index;
+		_stat stat;
+		spVct.clear();
+		
+		for (String token : tokens) {//tokens could come from a sentence or a document
+			index = m_featureNameIndex.get(token);
+			if (!m_isCVLoaded) {// CV is not loaded, take all the tokens as features.
+				if (index == null) {// indicate we allow the analyzer to dynamically expand the feature vocabulary
+					expandVocabulary(token);
+					index = m_featureNameIndex.get(token);
+				}
+				
+				stat = m_featureStat.get(token);
+				if (spVct.add(index, 1)==1 && stat!=null && (docWordMap==null || !docWordMap.containsKey(index)))
+					stat.addOneDF(y);
+				if (stat!=null)
+					stat.addOneTTF(y);
+			} else if (index != null) {// CV is loaded.
+				if (spVct.add(index, 1)==1 && !m_isCVStatLoaded && (docWordMap==null || !docWordMap.containsKey(index)))
+					m_featureStat.get(token).addOneDF(y);
+				
+				if (!m_isCVStatLoaded)
+					m_featureStat.get(token).addOneTTF(y);
+			}
+			// if the token is not in the vocabulary, nothing to do.
+		}
+		return spVct;
+	}
+	
 	//Added by Lin for constructing pos tagging vectors.
 	public HashMap<Integer, Double> constructPOSSpVct(String[] tokens, String[] tags){
 		int posIndex = 0;
@@ -480,8 +517,7 @@ public class DocAnalyzer extends Analyzer {
 		String[] tokens = result.getTokens();
 		int y = doc.getYLabel();
 		
-		HashMap<Integer, Double> spVct = constructSpVct(tokens, y, null);
-		doc.createSpVct(spVct);
+		doc.createSpVct(constructSpVct(tokens, y, null, m_docVct));
 		m_corpus.addDoc(doc);
 		m_classMemberNo[y]++;
 
@@ -491,13 +527,14 @@ public class DocAnalyzer extends Analyzer {
 	protected boolean AnalyzeDocByStn(_Doc doc, String[] sentences) {
 		TokenizeResult result;
 		int y = doc.getYLabel(), index = 0;		
-		HashMap<Integer, Double> spVct = new HashMap<Integer, Double>(); // Collect the index and counts of features.
+		IntDoubleMap spVct = m_docVct; // Collect the index and counts of features.
 		ArrayList<_Stn> stnList = new ArrayList<_Stn>(); // sparse sentence feature vectors 
 		double stopwordCnt = 0, rawCnt = 0;
 		
+		spVct.clear();
 		for(String sentence : sentences) {
 			result = TokenizerNormalizeStemmer(sentence);// Three-step analysis.
-			HashMap<Integer, Double> sentence_vector = constructSpVct(result.getTokens(), y, spVct);// construct bag-of-word vector based on normalized tokens	
+			IntDoubleMap sentence_vector = constructSpVct(result.getTokens(), y, spVct, m_stnVct);// construct bag-of-word vector based on normalized tokens	
 
 			if (sentence_vector.size()>2) {//avoid empty sentence	
 				String[] posTags;
@@ -506,8 +543,8 @@ public class DocAnalyzer extends Analyzer {
 				else
 					posTags = m_tagger.tag(result.getRawTokens());
 				
-				stnList.add(new _Stn(index, Utils.createSpVct(sentence_vector), result.getRawTokens(), posTags, sentence));
-				Utils.mergeVectors(sentence_vector, spVct);
+				stnList.add(new _Stn(index, sentence_vector.toSpVct(), result.getRawTokens(), posTags, sentence));
+				spVct.addAll(sentence_vector);
 				
 				stopwordCnt += result.getStopwordCnt();
 				rawCnt += result.getRawCnt();
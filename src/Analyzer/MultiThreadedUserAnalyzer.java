@@ -13,6 +13,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.tartarus.snowball.SnowballStemmer;
@@ -22,11 +24,13 @@ import opennlp.tools.tokenize.Tokenizer;
 import opennlp.tools.tokenize.TokenizerME;
 import opennlp.tools.tokenize.TokenizerModel;
 import opennlp.tools.util.InvalidFormatException;
+import structures.IntDoubleMap;
 import structures.TokenizeResult;
 import structures._Doc;
 import structures._Review;
 import structures._Doc.rType;
 import structures._User;
+import structures._stat;
 import utils.Utils;
 
 /**
@@ -46,6 +50,12 @@ public class MultiThreadedUserAnalyzer extends UserAnalyzer {
 	
 	protected String m_suffix = null;//filter by suffix
 	
+	// concurrent indexing mode: workers only read the vocabulary and collect thread-local feature statistics,
+	// which are merged per user file in file order, so feature and review indices stay deterministic 
+	protected boolean m_concurrentIndexing = false;
+	protected int m_indexBatchSize = 1000; // number of user files tokenized and indexed together in the concurrent mode
+	protected IntDoubleMap[] m_spVctPool; // reusable sparse vector builders, one per core
+	
 	public MultiThreadedUserAnalyzer(String tokenModel, int classNo,
 			String providedCV, int Ngram, int threshold, int numberOfCores, boolean b)
 					throws InvalidFormatException, FileNotFoundException, IOException {
@@ -66,12 +76,25 @@ public class MultiThreadedUserAnalyzer extends UserAnalyzer {
 		m_rollbackLock = new Object(); // lock when revising corpus statistics
 		m_featureStatLock = new Object();
 		m_mapLock = new Object();
+		
+		m_spVctPool = new IntDoubleMap[m_numberOfCores];
+		for(int i=0;i<m_numberOfCores;++i)
+			m_spVctPool[i] = new IntDoubleMap(1024);
 	}
 	
 	public void setSuffixFilter(String suffix) {
 		m_suffix = suffix;
 	}
 	
+	public void setConcurrentIndexing(boolean concurrent) {
+		m_concurrentIndexing = concurrent;
+	}
+	
+	public void setIndexBatchSize(int batchSize) {
+		if (batchSize>0)
+			m_indexBatchSize = batchSize;
+	}
+	
 	//Load all the users.
 	@Override
 	public void loadUserDir(String folder){
@@ -80,6 +103,11 @@ public class MultiThreadedUserAnalyzer extends UserAnalyzer {
 
 		File dir = new File(folder);
 		final File[] files=dir.listFiles();
+		if (m_concurrentIndexing) {
+			loadUserDirConcurrently(folder, files);
+			return;
+		}
+		
 		ArrayList<Thread> threads = new ArrayList<Thread>();
 		for(int i=0;i<m_numberOfCores;++i){
 			threads.add(  (new Thread() {
@@ -334,6 +362,219 @@ public class MultiThreadedUserAnalyzer extends UserAnalyzer {
 	}
 	
 	
+	/***
+	 * Concurrent indexing of user files. Each batch of files goes through four phases:
+	 * 1. parallel: read and tokenize the files;
+	 * 2. serial: expand the vocabulary in file order (only when no CV is loaded), so that feature indices are deterministic;
+	 * 3. parallel: construct the sparse vectors against the read-only vocabulary and collect per-user feature statistics;
+	 * 4. serial: merge the per-user statistics and commit the reviews and users in file order.
+	 * No lock is touched per token or per review.
+	 */
+	class UserBuffer {
+		String m_userID;
+		ArrayList<_Review> m_reviews = new ArrayList<_Review>();
+		ArrayList<TokenizeResult> m_results = new ArrayList<TokenizeResult>();
+		HashMap<Integer, _stat> m_localStat = new HashMap<Integer, _stat>(); // thread-local DF/TTF of this user's accepted reviews
+		
+		UserBuffer(String userID) {
+			m_userID = userID;
+		}
+	}
+	
+	protected void loadUserDirConcurrently(String folder, File[] files) {
+		ArrayList<File> userFiles = new ArrayList<File>();
+		ArrayList<File> subDirs = new ArrayList<File>();
+		for(File f:files) {
+			if (f.isDirectory())
+				subDirs.add(f);
+			else if (f.isFile() && (m_suffix==null || f.getAbsolutePath().endsWith(m_suffix)))
+				userFiles.add(f);
+		}
+		
+		final UserBuffer[] buffers = new UserBuffer[Math.min(m_indexBatchSize, userFiles.size())];
+		for(int start=0; start<userFiles.size(); start+=m_indexBatchSize) {
+			final int size = Math.min(m_indexBatchSize, userFiles.size()-start);
+			final List<File> batch = userFiles.subList(start, start+size);
+			
+			// phase 1: read and tokenize
+			runInThreads(new IndexingTask() {
+				@Override
+				public void process(int i, int core) {
+					buffers[i] = readUserFile(batch.get(i), core);
+				}
+			}, size);
+			
+			// phase 2: deterministic vocabulary expansion
+			if (!m_isCVLoaded) {
+				for(int i=0; i<size; i++) {
+					if (buffers[i]==null)
+						continue;
+					for(TokenizeResult result:buffers[i].m_results) {
+						for(String token:result.getTokens()) {
+							if (!m_featureNameIndex.containsKey(token))
+								expandVocabulary(token);
+						}
+					}
+				}
+			}
+			
+			// phase 3: sparse vectors and thread-local statistics
+			runInThreads(new IndexingTask() {
+				@Override
+				public void process(int i, int core) {
+					if (buffers[i]!=null)
+						indexUserReviews(buffers[i], core);
+				}
+			}, size);
+			
+			// phase 4: merge and commit in file order
+			for(int i=0; i<size; i++) {
+				if (buffers[i]!=null)
+					commitUser(buffers[i]);
+				buffers[i] = null;
+			}
+		}
+		
+		for(File f:subDirs)
+			loadUserDir(f.getAbsolutePath());
+		
+		if (userFiles.size()>0)
+			System.out.format("%d users are loaded from %s...\n", userFiles.size(), folder);
+	}
+	
+	interface IndexingTask {
+		public void process(int i, int core);
+	}
+	
+	// run the task over [0, size) with one thread per core, items are assigned in a strided manner
+	void runInThreads(final IndexingTask task, final int size) {
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for(int i=0;i<m_numberOfCores;++i){
+			threads.add(  (new Thread() {
+				int core;
+				@Override
+				public void run() {
+					try {
+						for (int j = core; j < size; j += m_numberOfCores)
+							task.process(j, core);
+					} catch(Exception ex) {
+						ex.printStackTrace(); 
+					}
+				}
+				
+				private Thread initialize(int core ) {
+					this.core = core;
+					return this;
+				}
+			}).initialize(i));
+			
+			threads.get(i).start();
+		}
+		for(int i=0;i<m_numberOfCores;++i){
+			try {
+				threads.get(i).join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} 
+		}
+	}
+	
+	// read one user file and tokenize its reviews, nothing shared is touched here
+	protected UserBuffer readUserFile(File file, int core) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			String line;			
+			UserBuffer buffer = new UserBuffer(extractUserID(file.getName())); //UserId is contained in the filename.
+			
+			// Skip the first line since it is user name.
+			reader.readLine(); 
+
+			String productID, source, category;
+			int ylabel;
+			long timestamp;
+			while((line = reader.readLine()) != null){
+				productID = line;
+				source = reader.readLine(); // review content
+				category = reader.readLine(); // review category
+				ylabel = Integer.valueOf(reader.readLine());
+				timestamp = Long.valueOf(reader.readLine());
+							
+				if(ylabel != 3){
+					ylabel = (ylabel >= 4) ? 1:0;
+					_Review review = new _Review(-1, source, ylabel, buffer.m_userID, productID, category, timestamp);// ID will be assigned when committed
+					buffer.m_reviews.add(review);
+					buffer.m_results.add(TokenizerNormalizeStemmer(source, core));
+				}
+			}
+			reader.close();
+			return buffer;
+		} catch(IOException e){
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	// construct the sparse vectors of one user's reviews against the read-only vocabulary
+	protected void indexUserReviews(UserBuffer buffer, int core) {
+		ArrayList<_Review> reviews = new ArrayList<_Review>();
+		IntDoubleMap spVct = m_spVctPool[core];
+		for(int i=0; i<buffer.m_reviews.size(); i++) {
+			_Review review = buffer.m_reviews.get(i);
+			TokenizeResult result = buffer.m_results.get(i);
+			constructLocalSpVct(result.getTokens(), spVct);
+			
+			if (spVct.size()>m_lengthThreshold) {
+				review.createSpVct(spVct);
+				review.setStopwordProportion(result.getStopwordProportion());
+				reviews.add(review);
+				
+				if (!m_isCVStatLoaded) {
+					int y = review.getYLabel();
+					for(int j=0; j<spVct.size(); j++) {
+						_stat stat = buffer.m_localStat.get(spVct.getKey(j));
+						if (stat==null) {
+							stat = new _stat(m_classNo);
+							buffer.m_localStat.put(spVct.getKey(j), stat);
+						}
+						stat.addOneDF(y);
+						stat.addNTTF(y, spVct.getValue(j));
+					}
+				}
+			}
+		}
+		buffer.m_reviews = reviews;
+		buffer.m_results = null; // tokens are no longer needed
+	}
+	
+	// only look up the vocabulary, the feature statistics are collected by the caller
+	void constructLocalSpVct(String[] tokens, IntDoubleMap spVct) {
+		Integer index;
+		spVct.clear();
+		for (String token : tokens) {
+			if ((index=m_featureNameIndex.get(token)) != null)
+				spVct.add(index, 1);
+		}
+	}
+	
+	// assign the review IDs, add them to corpus and merge the user's statistics
+	protected void commitUser(UserBuffer buffer) {
+		for(_Review review:buffer.m_reviews) {
+			review.setID(m_corpus.getCollection().size());
+			m_corpus.addDoc(review);
+			m_classMemberNo[review.getYLabel()]++;
+			if (m_releaseContent)
+				review.clearSource();
+		}
+		
+		if(buffer.m_reviews.size() > 1){//at least one for adaptation and one for testing
+			for(Map.Entry<Integer, _stat> entry:buffer.m_localStat.entrySet())
+				m_featureStat.get(m_featureNames.get(entry.getKey())).add(entry.getValue());
+			
+			allocateReviews(buffer.m_reviews);	
+			m_users.add(new _User(buffer.m_userID, m_classNo, buffer.m_reviews));
+		}// otherwise, the statistics of this user are simply dropped (no rollback is needed)
+	}
+	
 	// return a tokenizer using the core number
 	private Tokenizer getTokenizer(int index){
 		if(index==m_numberOfCores-1)
@@ -1,6 +1,7 @@
 package Analyzer;
 
 import opennlp.tools.util.InvalidFormatException;
+import structures.CorpusCache;
 import structures._Doc;
 import structures._Doc.rType;
 import structures._Review;
@@ -10,6 +11,7 @@ import utils.Utils;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -236,6 +238,47 @@ public class UserAnalyzer extends DocAnalyzer {
 		}
 	}
 
+	//Save the analyzed corpus together with the users.
+	@Override
+	public void saveCorpusCache(String filename) {
+		try {
+			CorpusCache.write(filename, m_featureNames, m_featureStat, m_classMemberNo, m_corpus.getCollection(), m_users);
+		} catch (IOException e) {
+			System.err.format("[Error]Failed to save corpus cache to %s!\n", filename);
+			e.printStackTrace();
+		}
+	}
+	
+	//Restore the users as well, the train/adapt/test split is kept as it was when the cache was saved.
+	@Override
+	protected void loadCorpusCache(CorpusCache cache) throws IOException {
+		super.loadCorpusCache(cache);
+		
+		m_users = cache.loadUsers();
+		m_trainSize = 0;
+		m_adaptSize = 0;
+		m_testSize = 0;
+		Arrays.fill(m_pCount, 0);
+		for(_User u:m_users) {
+			for(_Review r:u.getReviews()) {
+				if (r.getType()==rType.TRAIN) {
+					m_trainSize ++;
+					if (r.getYLabel()==1)
+						m_pCount[0] ++;
+				} else if (r.getType()==rType.ADAPTATION) {
+					m_adaptSize ++;
+					if (r.getYLabel()==1)
+						m_pCount[1] ++;
+				} else if (r.getType()==rType.TEST) {
+					m_testSize ++;
+					if (r.getYLabel()==1)
+						m_pCount[2] ++;
+				}
+			}
+		}
+		System.out.format("%d users are loaded from corpus cache...\n", m_users.size());
+	}
+	
 	//Return all the users.
 	public ArrayList<_User> getUsers(){
 		System.out.format("[Info]Training size: %d(%.2f), adaptation size: %d(%.2f), and testing size: %d(%.2f)\n",
@@ -6,11 +6,15 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import structures._Corpus;
 import structures._Doc;
 import structures._PerformanceStat;
+import utils.ExperimentRunner;
 import utils.Utils;
+import utils.WorkerPool;
 
 
 public abstract class BaseClassifier {
@@ -29,6 +33,7 @@ public abstract class BaseClassifier {
 	
 	protected String m_debugOutput; // set up debug output (default: no debug output)
 	protected BufferedWriter m_debugWriter; // debug output writer
+	protected int m_numberOfCores = Runtime.getRuntime().availableProcessors(); // threads available to the model
 	
 	public double train() {
 		return train(m_trainSet);
@@ -40,10 +45,34 @@ public abstract class BaseClassifier {
 	protected abstract void init(); // to be called before training starts
 	protected abstract void debug(_Doc d);
 	
+	public void setNumberOfCores(int cores) {
+		m_numberOfCores = Math.max(1, cores);
+	}
+	
+	//scores of all the classes for a batch of documents, [doc][class]; the documents may be split among the threads of the given pool (null for the calling thread)
+	public double[][] batchScore(List<_Doc> docs, WorkerPool pool) {
+		double[][] scores = new double[docs.size()][m_classNo];
+		for(int d=0; d<docs.size(); d++) {
+			for(int i=0; i<m_classNo; i++)
+				scores[d][i] = score(docs.get(d), i);
+		}
+		return scores;
+	}
+	
+	//predicted labels of a batch of documents, the same as predict() one document after another
+	public int[] batchPredict(List<_Doc> docs) {
+		int[] labels = new int[docs.size()];
+		for(int d=0; d<docs.size(); d++)
+			labels[d] = predict(docs.get(d));
+		return labels;
+	}
+	
 	public double test() {
 		double acc = 0;
-		for(_Doc doc: m_testSet){
-			doc.setPredictLabel(predict(doc)); //Set the predict label according to the probability of different classes.
+		int[] labels = batchPredict(m_testSet);
+		for(int d=0; d<m_testSet.size(); d++){
+			_Doc doc = m_testSet.get(d);
+			doc.setPredictLabel(labels[d]); //Set the predict label according to the probability of different classes.
 			int pred = doc.getPredictLabel(), ans = doc.getYLabel();
 			m_TPTable[pred][ans] += 1; //Compare the predicted label and original label, construct the TPTable.
 			
@@ -128,19 +157,7 @@ public abstract class BaseClassifier {
 			ArrayList<_Doc> docs = c.getCollection();
 			//Use this loop to iterate all the ten folders, set the train set and test set.
 			for (int i = 0; i < k; i++) {
-				for (int j = 0; j < masks.length; j++) {
-					//more for testing
-					if( masks[j]==(i+1)%k || masks[j]==(i+2)%k ) // || masks[j]==(i+3)%k 
-						m_trainSet.add(docs.get(j));
-					else
-						m_testSet.add(docs.get(j));
-					
-//					//more for training
-//					if(masks[j]==i) 
-//						m_testSet.add(docs.get(j));
-//					else
-//						m_trainSet.add(docs.get(j));
-				}
+				splitFold(i, k, masks, docs, m_trainSet, m_testSet);
 				
 				long start = System.currentTimeMillis();
 				train();
@@ -159,6 +176,154 @@ public abstract class BaseClassifier {
 		}
 	}
 	
+	//split the documents of the i-th fold into the given train and test sets
+	static public void splitFold(int i, int k, int[] masks, ArrayList<_Doc> docs, ArrayList<_Doc> trainSet, ArrayList<_Doc> testSet) {
+		for (int j = 0; j < masks.length; j++) {
+			//more for testing
+			if( masks[j]==(i+1)%k || masks[j]==(i+2)%k ) // || masks[j]==(i+3)%k 
+				trainSet.add(docs.get(j));
+			else
+				testSet.add(docs.get(j));
+			
+//			//more for training
+//			if(masks[j]==i) 
+//				testSet.add(docs.get(j));
+//			else
+//				trainSet.add(docs.get(j));
+		}
+	}
+	
+	//train and test on one fold, the prediction table [pred][ans] is returned instead of setting the documents' predicted labels
+	public int[][] runFold(Collection<_Doc> trainSet, Collection<_Doc> testSet) {
+		m_trainSet = new ArrayList<_Doc>(trainSet);
+		m_testSet = new ArrayList<_Doc>(testSet);
+		
+		train();
+		int[][] tpTable = new int[m_classNo][m_classNo];
+		int[] labels = batchPredict(m_testSet);
+		try {
+			if (m_debugOutput!=null){
+				m_debugWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(m_debugOutput, false), "UTF-8"));
+				m_debugWriter.write(this.toString() + "\n");
+			}
+			for(int d=0; d<m_testSet.size(); d++) {
+				_Doc doc = m_testSet.get(d);
+				int pred = labels[d], ans = doc.getYLabel();
+				tpTable[pred][ans] ++;
+				
+				if (m_debugOutput!=null && Math.random()<(pred!=ans ? 0.2 : 0.02))//sampled as in test()
+					debug(doc);
+			}
+			
+			if (m_debugOutput!=null)
+				m_debugWriter.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return tpTable;
+	}
+	
+	//create a new classifier under the given hyper-parameter setting
+	public interface Factory {
+		BaseClassifier create(int setting);
+	}
+	
+	static class FoldResult {
+		String m_model; // the trained classifier is not kept
+		int[][] m_tpTable;
+		double m_time; // in seconds
+		
+		FoldResult(String model, int[][] tpTable, double time) {
+			m_model = model;
+			m_tpTable = tpTable;
+			m_time = time;
+		}
+	}
+	
+	/**
+	 * k-fold cross validation of a grid of hyper-parameter settings, where every fold of every setting is trained
+	 * on a new classifier from the factory and at most parallelism of them are trained at the same time.
+	 * All the settings share the same folds and documents, so the classifiers should only read the documents.
+	 * A classifier created with a debug output writes it to a file of its own, suffixed by the setting and the fold.
+	 * The statistics are reported in the order of settings and folds, and the accuracies are returned as [setting][fold];
+	 * if any fold fails, the failure is thrown once all the other folds are done.
+	 */
+	static public double[][] crossValidation(int k, _Corpus c, final Factory factory, int settings, int parallelism) {
+		c.shuffle(k);
+		int[] masks = c.getMasks();
+		ArrayList<_Doc> docs = c.getCollection();
+		
+		final ArrayList<ArrayList<_Doc>> trainSets = new ArrayList<ArrayList<_Doc>>(), testSets = new ArrayList<ArrayList<_Doc>>();
+		for (int i = 0; i < k; i++) {
+			trainSets.add(new ArrayList<_Doc>());
+			testSets.add(new ArrayList<_Doc>());
+			splitFold(i, k, masks, docs, trainSets.get(i), testSets.get(i));
+		}
+		
+		ExperimentRunner<FoldResult> runner = new ExperimentRunner<FoldResult>(parallelism);
+		for(int s=0; s<settings; s++) {
+			for (int i = 0; i < k; i++) {
+				final int setting = s, fold = i;
+				runner.submit(new Callable<FoldResult>() {
+					@Override
+					public FoldResult call() {
+						long start = System.currentTimeMillis();
+						BaseClassifier model = factory.create(setting);
+						if (model.m_debugOutput!=null)
+							model.m_debugOutput = String.format("%s.%d.%d", model.m_debugOutput, setting, fold); // every fold writes its own debug output
+						int[][] tpTable = model.runFold(trainSets.get(fold), testSets.get(fold));
+						return new FoldResult(model.toString(), tpTable, (System.currentTimeMillis()-start)/1000.0);
+					}
+				});
+			}
+		}
+		ArrayList<FoldResult> results = runner.run();
+		
+		double[][] accuracy = new double[settings][k];
+		for(int s=0; s<settings; s++) {
+			_PerformanceStat[] foldStats = new _PerformanceStat[k];
+			String model = null;
+			for (int i = 0; i < k; i++) {
+				FoldResult result = results.get(s*k + i);
+				model = result.m_model;
+				foldStats[i] = new _PerformanceStat(result.m_tpTable);
+				foldStats[i].calculatePRF();
+				accuracy[s][i] = foldStats[i].getAccuracy();
+				
+				StringBuffer f1 = new StringBuffer(128);
+				for(int j=0; j<result.m_tpTable.length; j++)
+					f1.append(String.format("%d:%.3f ", j, foldStats[i].getF1(j)));
+				System.out.format("%s Train/Test finished in %.2f seconds with accuracy %.4f and F1 (%s)...\n", model, result.m_time, accuracy[s][i], f1.toString().trim());
+			}
+			reportFolds(model, foldStats);
+		}
+		return accuracy;
+	}
+	
+	//mean and standard deviation of the per-fold precision and recall of each class, and the micro F1 over all the folds
+	static void reportFolds(String model, _PerformanceStat[] foldStats) {
+		int classNo = foldStats[0].getPerformanceTable().length, k = foldStats.length;
+		_PerformanceStat microStat = new _PerformanceStat(classNo);
+		for(_PerformanceStat stat:foldStats)
+			microStat.accumulateConfusionMat(stat);
+		microStat.calculatePRF();
+		
+		System.out.println("*************************************************");
+		System.out.format("The final result of %s is as follows:\n", model);
+		for(int c=0; c<classNo; c++) {
+			double[] mean = new double[2], sd = new double[2];
+			for(_PerformanceStat stat:foldStats) {
+				for(int m=0; m<2; m++)
+					mean[m] += stat.getPerformanceTable()[c][m] / k;
+			}
+			for(_PerformanceStat stat:foldStats) {
+				for(int m=0; m<2; m++)
+					sd[m] += (stat.getPerformanceTable()[c][m]-mean[m]) * (stat.getPerformanceTable()[c][m]-mean[m]);
+			}
+			System.out.format("Class %d:\tprecision(%.3f+/-%.3f)\trecall(%.3f+/-%.3f)\tmicro F1 %.4f\n", c, mean[0], Math.sqrt(sd[0]/k), mean[1], Math.sqrt(sd[1]/k), microStat.getF1(c));
+		}
+	}
+	
 	abstract public void saveModel(String modelLocation);
 	
 	protected void calcMicroPerfStat() {
@@ -0,0 +1,107 @@
+package Classifier;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import structures._Doc;
+import utils.WorkerPool;
+
+/**
+ * Scores a batch of documents against a batch of linear models at once: s_dj = w_j[0] + \sum_f x_df * w_j[f+1].
+ * The documents are read through their packed indices/values, i.e., the rows of a CSR matrix.
+ * The models are stored feature-major in blocks of m_modelBlock models, so that each non-zero feature of a document
+ * updates the scores of a whole block of models from one contiguous slice; a block of documents is swept for one block of models
+ * before moving to the next, to keep the slices in cache. Blocks of documents are split among the threads of a WorkerPool owned by the caller.
+ */
+public class BatchScorer {
+	int m_featureSize; // without the bias term
+	int m_modelSize;
+	int m_modelBlock = 16; // models updated together by one non-zero feature
+	int m_docBlock = 256; // documents swept for one block of models
+
+	double[][] m_blocks; // m_blocks[b][f*width+j]: weight of feature f (0 is bias) in the j-th model of block b
+
+	//the j-th model is weights[j*stride, j*stride+featureSize+1), with the bias term first
+	public BatchScorer(double[] weights, int modelSize, int stride, int featureSize) {
+		m_featureSize = featureSize;
+		m_modelSize = modelSize;
+
+		int dim = featureSize + 1, blockSize = (modelSize + m_modelBlock - 1) / m_modelBlock;
+		m_blocks = new double[blockSize][];
+		for(int b=0; b<blockSize; b++) {
+			int start = b*m_modelBlock, width = Math.min(m_modelBlock, modelSize-start);
+			m_blocks[b] = new double[dim*width];
+			for(int j=0; j<width; j++) {
+				int offset = (start+j) * stride;
+				for(int f=0; f<dim; f++)
+					m_blocks[b][f*width+j] = weights[offset+f];
+			}
+		}
+	}
+
+	public BatchScorer(double[][] models, int featureSize) {
+		this(concatenate(models, featureSize+1), models.length, featureSize+1, featureSize);
+	}
+
+	static double[] concatenate(double[][] models, int dim) {
+		double[] weights = new double[models.length*dim];
+		for(int j=0; j<models.length; j++)
+			System.arraycopy(models[j], 0, weights, j*dim, dim);
+		return weights;
+	}
+
+	public int getModelSize() {
+		return m_modelSize;
+	}
+
+	//scores of all the documents, [doc][model], with the blocks of documents split among the threads of the pool (null for the calling thread)
+	public double[][] score(final List<? extends _Doc> docs, WorkerPool pool) {
+		final double[][] scores = new double[docs.size()][m_modelSize];
+		int blocks = (docs.size() + m_docBlock - 1) / m_docBlock, threads = pool==null ? 1 : Math.min(pool.size(), blocks);
+
+		if (threads<=1)
+			score(docs, 0, docs.size(), scores);
+		else {
+			final AtomicInteger nextBlock = new AtomicInteger(0);
+			Runnable[] tasks = new Runnable[threads];
+			for(int t=0; t<threads; t++) {
+				tasks[t] = new Runnable() {
+					@Override
+					public void run() {
+						int start;
+						while((start=nextBlock.getAndIncrement()*m_docBlock)<docs.size())
+							score(docs, start, Math.min(docs.size(), start+m_docBlock), scores);
+					}
+				};
+			}
+
+			pool.execute(tasks);
+		}
+		return scores;
+	}
+
+	//scores of the documents in [start, end) into scores[start, end) in the calling thread
+	public void score(List<? extends _Doc> docs, int start, int end, double[][] scores) {
+		for(int b=0; b<m_blocks.length; b++) {
+			double[] block = m_blocks[b];
+			int base = b*m_modelBlock, width = Math.min(m_modelBlock, m_modelSize-base);
+
+			for(int d=start; d<end; d++) {
+				_Doc doc = docs.get(d);
+				int[] idx = doc.getPackedIndices();
+				double[] val = doc.getPackedValues();
+				double[] s = scores[d];
+
+				System.arraycopy(block, 0, s, base, width);//bias term
+				for(int n=0; n<idx.length; n++) {
+					if (idx[n]>=m_featureSize)
+						break; // beyond text feature range
+					int offset = (idx[n]+1) * width;
+					double v = val[n];
+					for(int j=0; j<width; j++)
+						s[base+j] += v * block[offset+j];
+				}
+			}
+		}
+	}
+}
@@ -83,6 +83,12 @@ public class L2RMetricLearning extends GaussianFieldsByRandomWalk {
 		return String.format("%s-[%s]", super.toString(), ranker);
 	}
 	
+	//the learned similarity does not require any shared feature
+	@Override
+	protected boolean useOverlapCandidates() {
+		return false;
+	}
+	
 	//NOTE: this similarity is no longer symmetric!!
 	@Override
 	public double getSimilarity(_Doc di, _Doc dj) {
@@ -148,11 +154,8 @@ public class L2RMetricLearning extends GaussianFieldsByRandomWalk {
 			m_weights = lambdaRank.getWeights();
 		} else if (m_ranker==2) {
 			RankNet ranknet = new RankNet(RankFVSize, 5.0);
-			ArrayList<double[]> rfvs = new ArrayList<double[]>();
-			for(_Query q:m_queries)
-				q.extractPairs4RankNet(rfvs);
 			ranknet.setSigns(getRankingFVSigns());
-			double likelihood = ranknet.train(rfvs);
+			double likelihood = ranknet.train(m_queries);
 			m_weights = ranknet.getWeights();
 			
 			System.out.format("RankNet training performance:\nlog-likelihood: %.4f\t MAP: %.4f\n", likelihood, evaluate(OptimizationType.OT_MAP));
@@ -175,9 +178,7 @@ public class L2RMetricLearning extends GaussianFieldsByRandomWalk {
 		
 		double perf = 0;
 		for(_Query q:m_queries) {
-			for(_QUPair qu:q.m_docList)
-				qu.score(m_weights);
-			
+			q.score(m_weights);
 			perf += eval.eval(q);
 		}
 		return perf/m_queries.size();
@@ -301,10 +302,11 @@ public class L2RMetricLearning extends GaussianFieldsByRandomWalk {
 		
 		double size = 0;
 		for(_Query q:m_queries) {
-			for(_QUPair qu:q.m_docList) {
+			double[] fv = q.getFeatures();
+			for(int d=0; d<q.getDocSize(); d++) {
 				for(int i=0; i<RankFVSize; i++) {
-					m_mean[i] += qu.m_rankFv[i];
-					m_std[i] += qu.m_rankFv[i] * qu.m_rankFv[i];
+					m_mean[i] += fv[d*RankFVSize+i];
+					m_std[i] += fv[d*RankFVSize+i] * fv[d*RankFVSize+i];
 					size ++;
 				}
 			}
@@ -316,15 +318,20 @@ public class L2RMetricLearning extends GaussianFieldsByRandomWalk {
 		}
 		
 		for(_Query q:m_queries) {
-			for(_QUPair qu:q.m_docList) {
-				normalize(qu.m_rankFv);
-			}
+			double[] fv = q.getFeatures();
+			for(int d=0; d<q.getDocSize(); d++)
+				normalize(fv, d*RankFVSize);
 		}
 	}
 	
 	double[] normalize(double[] fv) {
+		return normalize(fv, 0);
+	}
+	
+	//normalize the features in fv[offset, offset+RankFVSize)
+	double[] normalize(double[] fv, int offset) {
 		for(int i=0; i<RankFVSize; i++)
-			fv[i] = (fv[i] - m_mean[i]) / m_std[i];
+			fv[offset+i] = (fv[offset+i] - m_mean[i]) / m_std[i];
 		return fv;
 	}
 	
@@ -55,6 +55,12 @@ public class LinearSVMMetricLearning extends GaussianFieldsByRandomWalk {
 		return "LinearSVM-based Metric Learning for " + super.toString();
 	}
 	
+	//the learned similarity does not require any shared feature
+	@Override
+	protected boolean useOverlapCandidates() {
+		return false;
+	}
+	
 	@Override
 	public double getSimilarity(_Doc di, _Doc dj) {
 		double similarity;
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import Classifier.BaseClassifier;
 import Classifier.semisupervised.PairwiseSimCalculator.ActionType;
@@ -40,6 +41,9 @@ public class GaussianFields extends BaseClassifier {
 	double[] m_pYSum; //\sum_i exp(-|c-fu(i)|)
 	
 	Thread[] m_threadpool;
+	int m_tileSize = 256; // number of documents in each tile of the all-pairs similarity computation
+	boolean m_overlapCandidates = true; // only compare the documents sharing at least one feature when the similarity is driven by bag-of-words
+	int[][] m_invertedIndex; // feature -> nodes containing it, labeled nodes are indexed after the unlabeled ones; null for all-pairs comparison
 	
 	public GaussianFields(_Corpus c, String classifier, double C){
 		super(c);
@@ -85,6 +89,14 @@ public class GaussianFields extends BaseClassifier {
 				m_classifier, m_k, m_kPrime, m_labelRatio, m_alpha, m_beta);
 	}
 	
+	public void setTileSize(int tileSize) {
+		m_tileSize = tileSize;
+	}
+	
+	public void setOverlapCandidates(boolean overlap) {
+		m_overlapCandidates = overlap;
+	}
+	
 	private void setClassifier(String classifier, double C) {
 		if (classifier.equals("NB"))
 			m_classifier = new NaiveBayes(m_classNo, m_featureSize);
@@ -163,18 +175,9 @@ public class GaussianFields extends BaseClassifier {
 	}
 	
 	protected void WaitUntilFinish(ActionType atype) {
-		int cores = Runtime.getRuntime().availableProcessors();
-		int start = 0, end, load = m_U/cores;
-		
-		for(int i=0; i<cores; i++) {
-			if (i==cores-1)
-				end = m_U;
-			else
-				end = start + load;
-			
-			m_threadpool[i] = new Thread(new PairwiseSimCalculator(this, start, end, atype));
-			start = end;
-			
+		AtomicInteger nextBlock = new AtomicInteger(0);//blocks of m_tileSize unlabeled nodes, claimed by the threads on demand
+		for(int i=0; i<m_threadpool.length; i++) {
+			m_threadpool[i] = new Thread(new PairwiseSimCalculator(this, nextBlock, atype));
 			m_threadpool[i].start();
 		}
 		
@@ -187,6 +190,34 @@ public class GaussianFields extends BaseClassifier {
 		}
 	}
 	
+	//the candidates are restricted to the documents sharing features only for the bag-of-words similarity,
+	//i.e., the documents carry no topic proportions for the KL term and getSimilarity() is not replaced by a learned metric
+	protected boolean useOverlapCandidates() {
+		return m_overlapCandidates && (m_U==0 || getTestDoc(0).m_topics==null);
+	}
+	
+	//inverted index over the sparse features of both unlabeled and labeled documents
+	void buildInvertedIndex() {
+		int[] df = new int[m_featureSize];
+		for(int i=0; i<m_U+m_L; i++) {
+			_Doc d = i<m_U ? getTestDoc(i) : getLabeledDoc(i-m_U);
+			for(int f:d.getPackedIndices())
+				df[f] ++;
+		}
+		
+		m_invertedIndex = new int[m_featureSize][];
+		for(int f=0; f<m_featureSize; f++) {
+			m_invertedIndex[f] = new int[df[f]];
+			df[f] = 0;
+		}
+		
+		for(int i=0; i<m_U+m_L; i++) {
+			_Doc d = i<m_U ? getTestDoc(i) : getLabeledDoc(i-m_U);
+			for(int f:d.getPackedIndices())
+				m_invertedIndex[f][df[f]++] = i;
+		}
+	}
+	
 	protected void calcSimilarityInThreads(){
 		//create the node list for constructing the nearest neighbor graph
 		if (m_nodeList==null || m_nodeList.length < m_U+m_L)
@@ -204,8 +235,12 @@ public class GaussianFields extends BaseClassifier {
 		System.out.format("Construct nearest neighbor graph nodes in parallel: L: %d, U: %d\n",  m_L, m_U);
 		WaitUntilFinish(ActionType.AT_node);
 		
+		if (useOverlapCandidates())
+			buildInvertedIndex();
+		
 		System.out.format("Construct nearest neighbor graph edges in parallel: L: %d, U: %d\n",  m_L, m_U);
 		WaitUntilFinish(ActionType.AT_graph);
+		m_invertedIndex = null;
 	}
 	
 	void SimilarityCheck() {
@@ -313,55 +348,6 @@ public class GaussianFields extends BaseClassifier {
 			System.out.println("Nearest neighbor graph construction finished!");
 			return;//stop here if we want to save memory and construct the graph on the fly (space speed trade-off)
 		}
-
-//		the following needs to be carefully revised accordingly! Currently, we only support random walk
-//		m_graph = new SparseDoubleMatrix2D(m_U+m_L, m_U+m_L);//we have to create this every time with exact dimension
-//		
-//		/****Construct the C+scale*\Delta matrix and Y vector.****/
-//		double scale = -m_alpha / (m_k + m_beta*m_kPrime), sum, value;
-//		int nz = 0;
-//		_Node node;
-//		for(int i = 0; i < m_U; i++) {
-//			node = m_nodeList[i];
-//			
-//			//set the part of unlabeled nodes. U-U			
-//			sum = 0;
-//			for(_RankItem n:m_kUU) {
-//				value = Math.max(m_beta*n.m_value, m_graph.getQuick(i, n.m_index)/scale);//recover the original Wij
-//				if (value!=0) {
-//					m_graph.setQuick(i, n.m_index, scale * value);
-//					m_graph.setQuick(n.m_index, i, scale * value);
-//					sum += value;
-//					nz ++;
-//				}
-//			}
-//			m_kUU.clear();
-//			
-//			//Set the part of labeled and unlabeled nodes. L-U and U-L
-//			for(int j=0; j<m_L; j++) 
-//				m_kUL.add(new _RankItem(m_U+j, getCache(i,m_U+j)));
-//			
-//			for(_RankItem n:m_kUL) {
-//				value = Math.max(n.m_value, m_graph.getQuick(i, n.m_index)/scale);//recover the original Wij
-//				if (value!=0) {
-//					m_graph.setQuick(i, n.m_index, scale * value);
-//					m_graph.setQuick(n.m_index, i, scale * value);
-//					sum += value;
-//					nz ++;
-//				}
-//			}
-//			m_graph.setQuick(i, i, 1-scale*sum);
-//			m_kUL.clear();
-//		}
-//		
-//		for(int i=m_U; i<m_L+m_U; i++) {
-//			sum = 0;
-//			for(int j=0; j<m_U; j++) 
-//				sum += m_graph.getQuick(i, j);
-//			m_graph.setQuick(i, i, m_M-sum); // scale has been already applied in each cell
-//		}
-//		
-//		System.out.format("Nearest neighbor graph (U[%d], L[%d], NZ[%d]) construction finished!\n", m_U, m_L, nz);
 	}
 	
 	//Test the data set.
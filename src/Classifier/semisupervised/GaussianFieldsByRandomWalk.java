@@ -3,11 +3,13 @@ package Classifier.semisupervised;
 import java.io.IOException;
 import java.util.Arrays;
 
+import structures.CSRGraph;
 import structures._Corpus;
 import structures._Doc;
 import structures._Edge;
 import structures._Node;
 import utils.Utils;
+import utils.WorkerPool;
 
 public class GaussianFieldsByRandomWalk extends GaussianFields {
 	double m_difference; //The difference between the previous labels and current labels.
@@ -18,6 +20,14 @@ public class GaussianFieldsByRandomWalk extends GaussianFields {
 	boolean m_weightedAvg; // random walk strategy: True - weighted average; False - majority vote
 	boolean m_simFlag; //This flag is used to determine whether we'll consider similarity as weight or not.
 	
+	//the nearest neighbor graph frozen in CSR format for weighted sum random walk
+	CSRGraph m_graphUU; // weights among unlabeled nodes
+	double[] m_labeledSum, m_labeledWeight, m_unlabeledWeight; // \sum_j w_ij f_j over labeled neighbors (fixed), \sum_j w_ij over labeled and unlabeled neighbors
+	double[] m_classifierPreds, m_trueLabels;
+	double[] m_fu, m_fuNext; // current and next solution of the random walk
+	boolean m_jacobi = true; // Jacobi iteration (parallel) or in-place Gauss-Seidel (sequential, the same as walking on the nodes)
+	boolean m_warmStart = false; // start from the last solution when the graph has the same size
+	
 	//Default constructor without any default parameters.
 	public GaussianFieldsByRandomWalk(_Corpus c, String classifier, double C){
 		super(c, classifier, C);
@@ -56,6 +66,147 @@ public class GaussianFieldsByRandomWalk extends GaussianFields {
 		m_simFlag = simFlag;
 	}
 	
+	public void setJacobi(boolean jacobi) {
+		m_jacobi = jacobi;
+	}
+	
+	public void setWarmStart(boolean warmStart) {
+		m_warmStart = warmStart;
+	}
+	
+	//freeze the neighbor lists of the nodes into CSR arrays
+	void freezeGraph() {
+		int nnz = 0;
+		for (int i = 0; i < m_U; i++) {
+			if (m_nodeList[i].m_unlabeledEdges!=null)
+				nnz += m_nodeList[i].m_unlabeledEdges.size();
+		}
+		
+		m_graphUU = new CSRGraph(m_U, nnz);
+		if (m_labeledSum==null || m_labeledSum.length!=m_U) {
+			m_labeledSum = new double[m_U];
+			m_labeledWeight = new double[m_U];
+			m_unlabeledWeight = new double[m_U];
+			m_classifierPreds = new double[m_U];
+			m_trueLabels = new double[m_U];
+		}
+		
+		_Node node;
+		double w;
+		for (int i = 0; i < m_U; i++) {
+			node = m_nodeList[i];
+			m_labeledSum[i] = 0;
+			m_labeledWeight[i] = 0;
+			m_unlabeledWeight[i] = 0;
+			
+			if (node.m_unlabeledEdges!=null) {
+				for (_Edge edge:node.m_unlabeledEdges) {
+					w = m_simFlag?edge.getSimilarity():1;
+					m_graphUU.addEdge(edge.getNodeId(), w);
+					m_unlabeledWeight[i] += w;
+				}
+			}
+			m_graphUU.endRow();
+			
+			if (node.m_labeledEdges!=null) {
+				for (_Edge edge:node.m_labeledEdges) {
+					w = m_simFlag?edge.getSimilarity():1;
+					m_labeledSum[i] += w * edge.getPred();
+					m_labeledWeight[i] += w;
+				}
+			}
+			
+			m_classifierPreds[i] = node.m_classifierPred;
+			m_trueLabels[i] = node.m_label;
+		}
+	}
+	
+	//one sweep of weighted sum random walk over rows [start, end), returns {\sum |f_new-f_old|, #correct}
+	void randomWalkInCSR(double[] fu, double[] fuNext, int start, int end, double[] stat) {
+		double wL = m_alpha, wU = m_beta, f, diff = 0, acc = 0;
+		for (int i = start; i < end; i++) {
+			f = m_eta * (m_labeledSum[i]*wL + m_graphUU.multiplyRow(i, fu)*wU) / (m_labeledWeight[i]*wL + m_unlabeledWeight[i]*wU) + (1-m_eta) * m_classifierPreds[i];
+			diff += Math.abs(f - fu[i]);
+			fuNext[i] = f;
+			if ((int)m_trueLabels[i] == getLabel(f))
+				acc ++;
+		}
+		stat[0] = diff;
+		stat[1] = acc;
+	}
+	
+	//solve the random walk on the CSR graph until convergence, the results are written back to the nodes
+	void randomWalkByCSR() {
+		freezeGraph();
+		
+		boolean warm = m_warmStart && m_fu!=null && m_fu.length==m_U;
+		if (m_fu==null || m_fu.length!=m_U) {
+			m_fu = new double[m_U];
+			m_fuNext = new double[m_U];
+		}
+		if (!warm) {
+			for(int i=0; i<m_U; i++)
+				m_fu[i] = m_nodeList[i].m_pred;//random walk starts from multiple learner
+		}
+		
+		int cores = m_jacobi ? m_numberOfCores : 1;
+		final double[][] stats = new double[cores][2];
+		Runnable[] tasks = new Runnable[cores];
+		WorkerPool pool = cores>1 ? new WorkerPool(cores) : null; // released once the random walk finishes
+		
+		System.out.format("Random walk starts on CSR graph (U[%d], NNZ[%d], %s%s):\n", m_U, m_graphUU.getNNZ(), m_jacobi?"Jacobi":"Gauss-Seidel", warm?", warm start":"");
+		try {
+			int iter = 0;
+			double diff = 0, accuracy;
+			do {
+				final double[] fu = m_fu, fuNext = m_jacobi ? m_fuNext : m_fu;//Gauss-Seidel updates in place
+				int load = (m_U + cores - 1) / cores;
+				for(int t=0; t<cores; t++) {
+					final int start = Math.min(m_U, t*load), end = Math.min(m_U, start+load), id = t;
+					tasks[t] = new Runnable() {
+						@Override
+						public void run() {
+							randomWalkInCSR(fu, fuNext, start, end, stats[id]);
+						}
+					};
+				}
+			
+				if (cores>1)
+					pool.execute(tasks);
+				else
+					tasks[0].run();
+			
+				diff = 0;
+				accuracy = 0;
+				for(int t=0; t<cores; t++) {
+					diff += stats[t][0];
+					accuracy += stats[t][1];
+				}
+				diff /= m_U;
+				accuracy /= m_U;
+			
+				if (Double.isNaN(diff)) {
+					System.out.println("Encounter NaN in random walk!");
+					System.exit(-1);
+				}
+			
+				if (m_jacobi) {
+					m_fuNext = m_fu;
+					m_fu = fuNext;
+				}
+				System.out.format("Iteration %d, converge to %.3f with accuracy %.4f...\n", ++iter, diff, accuracy);
+			} while(diff > m_delta && iter<50);//maximum 50 iterations 
+		} finally {
+			if (pool!=null)
+				pool.shutdown();
+		}
+		
+		for(int i=0; i<m_U; i++) {
+			m_nodeList[i].m_pred = m_fu[i];
+			m_pred_last[i] = m_fu[i];
+		}
+	}
+	
 	//The random walk algorithm to generate new labels for unlabeled data.
 	//Take the average of all neighbors as the new label until they converge.
 	double randomWalkByWeightedSum(){//construct the sparse graph on the fly every time
@@ -395,18 +546,18 @@ public class GaussianFieldsByRandomWalk extends GaussianFields {
 			m_pred_last[i] = m_nodeList[i].m_pred;//random walk starts from multiple learner
 		
 		/***use random walk to solve matrix inverse***/
-		System.out.println("Random walk starts:");
-		int iter = 0;
-		double diff = 0, accuracy;
-		do {
-			if (m_weightedAvg)
-				accuracy = randomWalkByWeightedSum();	
-			else
+		if (m_weightedAvg)
+			randomWalkByCSR();
+		else {
+			System.out.println("Random walk starts:");
+			int iter = 0;
+			double diff = 0, accuracy;
+			do {
 				accuracy = randomWalkByMajorityVote();
-			
-			diff = updateFu();
-			System.out.format("Iteration %d, converge to %.3f with accuracy %.4f...\n", ++iter, diff, accuracy);
-		} while(diff > m_delta && iter<50);//maximum 50 iterations 
+				diff = updateFu();
+				System.out.format("Iteration %d, converge to %.3f with accuracy %.4f...\n", ++iter, diff, accuracy);
+			} while(diff > m_delta && iter<50);//maximum 50 iterations 
+		}
 		
 		/***check the purity of newly constructed neighborhood graph after random walk with ground-truth labels***/
 		SimilarityCheck();
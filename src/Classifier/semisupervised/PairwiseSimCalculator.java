@@ -1,88 +1,165 @@
 package Classifier.semisupervised;
 
-import structures.MyPriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import structures.TopKHeap;
 import structures._Doc;
 import structures._Node;
-import structures._RankItem;
 
 public class PairwiseSimCalculator implements Runnable {
-	
+
 	public enum ActionType {
 		AT_node,
 		AT_graph
 	}
-	
+
 	//pointer to the Gaussian Field object to calculate similarity in parallel
-	GaussianFields m_GFObj; 
-	int m_start, m_end;
+	GaussianFields m_GFObj;
+	AtomicInteger m_nextBlock; // blocks of unlabeled nodes are claimed dynamically, so that fast threads take over the remaining work
 	ActionType m_aType;
-	
-	//in the range of [start, end)
-	public PairwiseSimCalculator(GaussianFields obj, int start, int end, ActionType atype) {
+
+	//only the top k (k') neighbors of the rows in current block are kept
+	TopKHeap[] m_kUL, m_kUU;
+	int[] m_visited; // the last row visited the candidate (when candidates are generated by the inverted index)
+	int[] m_candidates;
+
+	public PairwiseSimCalculator(GaussianFields obj, AtomicInteger nextBlock, ActionType atype) {
 		m_GFObj = obj;
-		m_start = start;
-		m_end = end;
+		m_nextBlock = nextBlock;
 		m_aType = atype;
 	}
-	
-	void constructNodes() {
+
+	void constructNodes(int start, int end) {
 		_Doc d;
-		for (int i = m_start; i < m_end; i++) {
+		for (int i = start; i < end; i++) {
 			d = m_GFObj.getTestDoc(i);
 			m_GFObj.m_nodeList[i] = new _Node(i, d.getYLabel(), m_GFObj.predict(d));
 		}
 	}
-	
-	void constructNearestGraph() {
+
+	void initHeaps() {
+		int tile = m_GFObj.m_tileSize;
+		m_kUL = new TopKHeap[tile];
+		m_kUU = new TopKHeap[tile];
+		for(int r=0; r<tile; r++) {
+			m_kUL[r] = new TopKHeap(m_GFObj.m_k);
+			m_kUU[r] = new TopKHeap(m_GFObj.m_kPrime);
+		}
+
+		if (m_GFObj.m_invertedIndex!=null) {
+			m_visited = new int[m_GFObj.m_U + m_GFObj.m_L];
+			m_candidates = new int[m_GFObj.m_U + m_GFObj.m_L];
+		}
+	}
+
+	//all-pairs similarity between the rows [start, end) and the columns in [colStart, colEnd), tile by tile; row i is kept in heap i-base
+	void scanTiles(int start, int end, int base, int colStart, int colEnd, boolean labeled) {
+		int tile = m_GFObj.m_tileSize;
 		_Doc di, dj;
-		double similarity;
-		
-		MyPriorityQueue<_RankItem> kUL = new MyPriorityQueue<_RankItem>(m_GFObj.m_k);
-		MyPriorityQueue<_RankItem> kUU = new MyPriorityQueue<_RankItem>(m_GFObj.m_kPrime);
-		_Node node;
-		
-		for (int i = m_start; i < m_end; i++) {
-			di = m_GFObj.getTestDoc(i);
-			node = m_GFObj.m_nodeList[i];
-			
-			//find the nearest unlabeled examples among all candidates since the similarity might not be symmetric
-			for (int j = 0; j < m_GFObj.m_U; j++) {
-				if (i==j)
-					continue;
-				
+		for(int cs=colStart; cs<colEnd; cs+=tile) {
+			int ce = Math.min(colEnd, cs+tile);
+			for(int i=start; i<end; i++) {
+				di = m_GFObj.getTestDoc(i);
+				TopKHeap heap = labeled ? m_kUL[i-base] : m_kUU[i-base];
+				for(int j=cs; j<ce; j++) {
+					if (!labeled && i==j)
+						continue;
+
+					dj = labeled ? m_GFObj.getLabeledDoc(j) : m_GFObj.getTestDoc(j);
+					heap.add(labeled ? m_GFObj.m_U + j : j, m_GFObj.getSimilarity(di, dj));
+				}
+			}
+		}
+	}
+
+	//only the documents sharing at least one feature with the row are compared; return false if there are not enough of them
+	boolean scanCandidates(int i, int row) {
+		_Doc di = m_GFObj.getTestDoc(i), dj;
+		int size = 0, mark = i + 1, U = m_GFObj.m_U;
+		for(int f:di.getPackedIndices()) {
+			for(int j:m_GFObj.m_invertedIndex[f]) {
+				if (j!=i && m_visited[j]!=mark) {
+					m_visited[j] = mark;
+					m_candidates[size++] = j;
+				}
+			}
+		}
+
+		int uSize = 0;
+		for(int c=0; c<size; c++) {
+			if (m_candidates[c]<U)
+				uSize ++;
+		}
+		if (uSize<m_GFObj.m_kPrime || size-uSize<m_GFObj.m_k)
+			return false;
+
+		for(int c=0; c<size; c++) {
+			int j = m_candidates[c];
+			if (j<U) {
 				dj = m_GFObj.getTestDoc(j);
-				similarity = m_GFObj.getSimilarity(di, dj);
-				kUU.add(new _RankItem(j, similarity));
+				m_kUU[row].add(j, m_GFObj.getSimilarity(di, dj));
+			} else {
+				dj = m_GFObj.getLabeledDoc(j-U);
+				m_kUL[row].add(j, m_GFObj.getSimilarity(di, dj));
 			}
-			
-			for(_RankItem it:kUU) 
-				node.addUnlabeledEdge(m_GFObj.m_nodeList[it.m_index], it.m_value);
-			kUU.clear();
+		}
+		return true;
+	}
 
-			//find the nearest labeled examples
-			for (int j = 0; j < m_GFObj.m_L; j++) {
-				dj = m_GFObj.getLabeledDoc(j);
-				similarity = m_GFObj.getSimilarity(di, dj);
-				kUL.add(new _RankItem(m_GFObj.m_U + j, similarity));
+	void constructNearestGraph(int start, int end) {
+		if (m_kUU==null)
+			initHeaps();
+
+		if (m_GFObj.m_invertedIndex!=null) {
+			for (int i = start; i < end; i++) {
+				if (!scanCandidates(i, i-start)) {//too few overlapping documents, fall back to all pairs for this row
+					m_kUU[i-start].clear();
+					m_kUL[i-start].clear();
+					scanTiles(i, i+1, start, 0, m_GFObj.m_U, false);
+					scanTiles(i, i+1, start, 0, m_GFObj.m_L, true);
+				}
 			}
-			
-			for(_RankItem it:kUL) 
-				node.addLabeledEdge(m_GFObj.m_nodeList[it.m_index], it.m_value);
-			kUL.clear();
-			
-			// sort the edges to accelerate debug output
-			node.sortEdges();
-		}	
-		
-		System.out.format("[%d,%d) finished...\n", m_start, m_end);
+		} else {
+			//find the nearest unlabeled examples among all candidates since the similarity might not be symmetric
+			scanTiles(start, end, start, 0, m_GFObj.m_U, false);
+			//find the nearest labeled examples
+			scanTiles(start, end, start, 0, m_GFObj.m_L, true);
+		}
+
+		_Node node;
+		TopKHeap heap;
+		for (int i = start; i < end; i++) {
+			node = m_GFObj.m_nodeList[i];
+
+			//the edges are added in descending order of similarity to accelerate debug output
+			heap = m_kUU[i-start];
+			heap.sortDescending();
+			for(int n=0; n<heap.size(); n++)
+				node.addUnlabeledEdge(m_GFObj.m_nodeList[heap.getId(n)], heap.getValue(n));
+			heap.clear();
+
+			heap = m_kUL[i-start];
+			heap.sortDescending();
+			for(int n=0; n<heap.size(); n++)
+				node.addLabeledEdge(m_GFObj.m_nodeList[heap.getId(n)], heap.getValue(n));
+			heap.clear();
+		}
 	}
 
 	@Override
 	public void run() {
+		int tile = m_GFObj.m_tileSize, start, count = 0;
+		while((start = m_nextBlock.getAndIncrement() * tile) < m_GFObj.m_U) {
+			int end = Math.min(m_GFObj.m_U, start + tile);
+			if (m_aType.equals(ActionType.AT_graph))
+				constructNearestGraph(start, end);
+			else
+				constructNodes(start, end);
+			count += end - start;
+		}
+
 		if (m_aType.equals(ActionType.AT_graph))
-			constructNearestGraph();
-		else
-			constructNodes();
+			System.out.format("%s finished %d nodes...\n", Thread.currentThread().getName(), count);
 	}
 
 }
@@ -11,6 +11,7 @@ import Classifier.supervised.liblinear.Parameter;
 import Classifier.supervised.liblinear.Problem;
 import Classifier.supervised.liblinear.SolverType;
 import Classifier.supervised.modelAdaptation.ModelAdaptation;
+import Classifier.supervised.modelAdaptation.ParallelUserTrainer;
 import Classifier.supervised.modelAdaptation._AdaptStruct;
 import structures._PerformanceStat.TestMode;
 import structures._Review;
@@ -60,76 +61,107 @@ public class IndividualSVM extends ModelAdaptation {
 	public double train() {
 		init();
 		
-		//Transfer all user reviews to instances recognized by SVM, indexed by users.
-		int trainSize = 0, validUserIndex = 0;
-		ArrayList<Feature []> fvs = new ArrayList<Feature []>();
-		ArrayList<Double> ys = new ArrayList<Double>();		
+		final ArrayList<_AdaptStruct> userList = m_supFlag?m_supUserList:m_userList;
+		final double[][] clusterWeights = m_supFlag?new double[userList.size()][]:null;
 		
-		//Two for loop to access the reviews, indexed by users.
-		ArrayList<_Review> reviews;
-		for(_AdaptStruct user:m_supFlag?m_supUserList:m_userList){
-			trainSize = 0;
-			reviews = user.getReviews();		
-			boolean validUser = false;
-			for(_Review r:reviews) {				
-				if (r.getType() == rType.ADAPTATION) {//we will only use the adaptation data for this purpose
-					fvs.add(createLibLinearFV(r, validUserIndex));
-					ys.add(new Double(r.getYLabel()));
-					trainSize ++;
-					validUser = true;
-				}
+		//the users are independent, so that they are trained concurrently
+		new ParallelUserTrainer(m_numberOfCores).train(userList, new ParallelUserTrainer.UserWorkerFactory() {
+			@Override
+			public ParallelUserTrainer.UserWorker create() {
+				return new ParallelUserTrainer.UserWorker() {
+					//buffers reused by all the users of this thread
+					ArrayList<Feature[]> m_fvs = new ArrayList<Feature []>();
+					ArrayList<Double> m_ys = new ArrayList<Double>();
+					double[] m_weights = new double[m_featureSize+1];
+					
+					@Override
+					public double train(int userIndex, _AdaptStruct user) {
+						Model model = trainUser(user, userIndex, m_fvs, m_ys);
+						if (model==null)
+							return 0;
+						
+						if (clusterWeights!=null)// users in the same cluster are set after all the super users are trained
+							clusterWeights[userIndex] = calcPersonalizedWeights(model, new double[m_featureSize+1]);
+						else
+							user.setPersonalizedModel(calcPersonalizedWeights(model, m_weights));
+						return 0;
+					}
+				};
 			}
-			
-			if (validUser)
-				validUserIndex ++;
-			
-			// Train individual model for each user.
-			Problem libProblem = new Problem();
-			libProblem.l = trainSize;		
-			libProblem.x = new Feature[trainSize][];
-			libProblem.y = new double[trainSize];
-			for(int i=0; i<trainSize; i++) {
-				libProblem.x[i] = fvs.get(i);
-				libProblem.y[i] = ys.get(i);
-			}
-			if (m_bias) {
-				libProblem.n = m_featureSize + 1; // including bias term; global model + user models
-				libProblem.bias = 1;// bias term in liblinear.
-			} else {
-				libProblem.n = m_featureSize;
-				libProblem.bias = -1;// no bias term in liblinear.
+		});
+		
+		// Set users in the same cluster.
+		if (m_supFlag) {
+			for(int i=0; i<userList.size(); i++) {
+				if (clusterWeights[i]!=null)
+					setPersonalizedModelInCluster(userList.get(i).getUser().getClusterIndex(), clusterWeights[i]);
 			}
-			m_libModel = Linear.train(libProblem, new Parameter(m_solverType, m_C, SVM.EPS));
-			
-			// Set users in the same cluster.
-			if(m_supFlag)
-				setPersonalizedModelInCluster(user.getUser().getClusterIndex());
-			else
-				setPersonalizedModel(user);
 		}
 		return 0;
 	}
 	
+	//Transfer the user's adaptation reviews to instances recognized by SVM in the given buffers and train the individual model
+	protected Model trainUser(_AdaptStruct user, int userIndex, ArrayList<Feature[]> fvs, ArrayList<Double> ys) {
+		fvs.clear();
+		ys.clear();
+		for(_Review r:user.getReviews()) {				
+			if (r.getType() == rType.ADAPTATION) {//we will only use the adaptation data for this purpose
+				fvs.add(createLibLinearFV(r, userIndex));
+				ys.add(new Double(r.getYLabel()));
+			}
+		}
+		
+		int trainSize = fvs.size();
+		if (trainSize==0)// no adaptation data to train the model
+			return null;
+		
+		// Train individual model for each user.
+		Problem libProblem = new Problem();
+		libProblem.l = trainSize;		
+		libProblem.x = fvs.toArray(new Feature[trainSize][]);
+		libProblem.y = new double[trainSize];
+		for(int i=0; i<trainSize; i++)
+			libProblem.y[i] = ys.get(i);
+		if (m_bias) {
+			libProblem.n = m_featureSize + 1; // including bias term; global model + user models
+			libProblem.bias = 1;// bias term in liblinear.
+		} else {
+			libProblem.n = m_featureSize;
+			libProblem.bias = -1;// no bias term in liblinear.
+		}
+		return Linear.train(libProblem, new Parameter(m_solverType, m_C, SVM.EPS));
+	}
+	
 	HashMap<Integer, ArrayList<Integer>> m_cIndexUIndex;
 	public void setCIndexUIndex(HashMap<Integer, ArrayList<Integer>> cIndexUIndex){
 		m_cIndexUIndex = cIndexUIndex;
 	}
 	
 	public void calcPersonalizedWeights(){
-		double[] weight = m_libModel.getWeights();//our model always assume the bias term
-		int class0 = m_libModel.getLabels()[0];
+		calcPersonalizedWeights(m_libModel, m_pWeights);
+	}
+	
+	//our model always assume the bias term at position 0 of pWeights
+	protected double[] calcPersonalizedWeights(Model libModel, double[] pWeights){
+		double[] weight = libModel.getWeights();
+		int class0 = libModel.getLabels()[0];
 		double sign = class0 > 0 ? 1 : -1;
 		
 		for(int i=0; i<m_featureSize; i++) // no personal model since no adaptation data
-			m_pWeights[i+1] = sign*weight[i];
+			pWeights[i+1] = sign*weight[i];
 		if (m_bias)
-			m_pWeights[0] = sign*weight[m_featureSize];
+			pWeights[0] = sign*weight[m_featureSize];
+		return pWeights;
 	}
 	
 	protected void setPersonalizedModelInCluster(int c){
 		calcPersonalizedWeights();
+		setPersonalizedModelInCluster(c, m_pWeights);
+	}
+	
+	protected void setPersonalizedModelInCluster(int c, double[] pWeights){
 		for(int uIndex: m_cIndexUIndex.get(c))
-			m_userList.get(uIndex).setPersonalizedModel(m_pWeights);//our model always assume the bias term
+			m_userList.get(uIndex).setPersonalizedModel(pWeights);//our model always assume the bias term
 	}	
 
 	protected void setPersonalizedModel(_AdaptStruct user){
@@ -1,136 +1,139 @@
 package Classifier.supervised;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Random;
+import java.util.Iterator;
 
 import Classifier.BaseClassifier;
+import structures.LSHIndex;
 import structures.MyPriorityQueue;
 import structures._Corpus;
 import structures._Doc;
 import structures._RankItem;
 import utils.Utils;
 
+/**
+ * k nearest neighbors over an LSH index of the training documents.
+ * The index shares its query buffers, so a KNN instance should not predict from more than one thread at a time.
+ */
 public class KNN extends BaseClassifier{
 	int m_k;
-	int m_l;
-	double[][] m_randomVcts;
-	HashMap<Integer, ArrayList<_Doc>> m_buckets;
-	
+	int m_l; // number of random projections in each hash table
+	int m_tables; // number of hash tables
+	int m_probes; // number of buckets to probe in each table
+	int m_maxCandidates; // budget of candidates for exact re-ranking
+	LSHIndex m_index;
+
 	public KNN(_Corpus c){
 		super(c);
 		m_k = 5;
 		m_l = 10;
-		m_buckets = new HashMap<Integer, ArrayList<_Doc>>();
+		m_tables = 8;
+		m_probes = 10;
+		m_maxCandidates = 2000;
 	}
-	
+
 	public KNN(_Corpus c, int k, int l){
 		super(c);
 		m_k = k;
 		m_l = l;
-		m_randomVcts = new double[m_l][m_featureSize];
-		m_buckets = new HashMap<Integer, ArrayList<_Doc>>();
+		m_tables = 8;
+		m_probes = 10;
+		m_maxCandidates = 2000;
 	}
-	
+
 	@Override
 	public String toString() {
-		return String.format("kNN [k:%d, l:%d]", m_k, m_l);
+		return String.format("kNN [k:%d, l:%d, tables:%d, probes:%d, candidates:%d]", m_k, m_l, m_tables, m_probes, m_maxCandidates);
 	}
 
-	//Initialize the random vectors.
-	protected void init() {		
-		m_buckets.clear();
-		Random r = new Random();
-		for(int i = 0; i < m_l; i++){
-			for(int j = 0; j < m_featureSize; j++){
-				m_randomVcts[i][j] = 2*r.nextDouble()-1;
-			}
-		}
+	@Override
+	protected void init() {
+		m_index = null;
 	}
-	
+
 	public void setKL(int k, int l){
 		m_k = k;
 		m_l = l;
-		m_randomVcts = new double[m_l][m_featureSize];
-	}	
-	
-	//Group all the documents based on their hashcodes.
+	}
+
+	public void setLSH(int tables, int probes, int maxCandidates) {
+		m_tables = tables;
+		m_probes = probes;
+		m_maxCandidates = maxCandidates;
+	}
+
+	//Index all the documents by multiple hash tables.
 	@Override
 	public double train(Collection<_Doc> trainSet) {
 		init();
-		
+
 		if (m_l<=0)//no need to perform random projection
 			return 0;
-		
-		for(_Doc d: trainSet){
-			int hashCode = getHashCode(d);
-			if(m_buckets.containsKey(hashCode)){
-				m_buckets.get(hashCode).add(d);
-			} else{
-				ArrayList<_Doc> docs = new ArrayList<_Doc>();
-				docs.add(d);
-				m_buckets.put(hashCode, docs);
-			}
-		}
+
+		m_index = new LSHIndex(m_featureSize, m_tables, m_l, m_probes, m_maxCandidates);
+		m_index.build(trainSet);
 		return 0;
 	}
 
-	//Get the hashcode for every document.
-	public int getHashCode(_Doc d){
-		int[] hashArray = new int[m_l];
-		for(int i = 0; i < m_l; i++)
-			hashArray[i] = Utils.sgn(Utils.dotProduct(m_randomVcts[i], d.getSparse()));
-		return Utils.encode(hashArray);
-	}
-	
-	@Override
-	public int predict(_Doc doc) {
-		Collection<_Doc> docs;
-		if (m_l<=0) {//no random projection
-			docs = m_trainSet;
-		} else {
-			docs = m_buckets.get(getHashCode(doc));
-			if(docs.size() < m_k) {
-				System.err.println("L is set too large, tune the parameter.");
-				return -1;
-			} 
+	//k nearest neighbors by exact dot product among the candidates
+	protected MyPriorityQueue<_RankItem> getNeighbors(_Doc doc) {
+		if (m_index!=null) {
+			MyPriorityQueue<_RankItem> neighbors = m_index.search(doc, m_k);
+			if (neighbors.isEmpty())//no candidate in any probed bucket
+				neighbors = m_index.scan(doc, m_k);
+			return neighbors;
 		}
-		
+
+		//no random projection
 		MyPriorityQueue<_RankItem> neighbors = new MyPriorityQueue<_RankItem>(m_k);
-		for(_Doc d:docs)
-			neighbors.add(new _RankItem(d.getYLabel(), Utils.dotProduct(d, doc)));
-		
+		for(_Doc d:m_trainSet)
+			neighbors.add(new _RankItem(d.getYLabel(), Utils.dotProduct(d, doc), d.getYLabel()));
+		return neighbors;
+	}
+
+	//similarity weighted votes in m_cProbs, fall back to counts if all the similarities are zero
+	protected void vote(MyPriorityQueue<_RankItem> neighbors) {
 		Arrays.fill(m_cProbs, 0);
 		for(_RankItem rt:neighbors)
-			m_cProbs[rt.m_index] ++;//why don't we consider the similarity?
-		
-		return Utils.argmax(m_cProbs);
+			m_cProbs[rt.m_label] += Math.max(0, rt.m_value);
+
+		if (Utils.sumOfArray(m_cProbs)==0) {
+			for(_RankItem rt:neighbors)
+				m_cProbs[rt.m_label] ++;
+		}
 	}
-	
+
 	@Override
-	public double score(_Doc doc, int label) {
-		Collection<_Doc> docs;
-		if (m_l<=0) {//no random projection
-			docs = m_trainSet;
+	public int predict(_Doc doc) {
+		vote(getNeighbors(doc));
+		return Utils.argmax(m_cProbs);
+	}
+
+	//batch prediction, the queries share the index buffers
+	public int[] predict(Collection<_Doc> docs) {
+		int[] labels = new int[docs.size()];
+		int i = 0;
+		if (m_index!=null) {
+			Iterator<_Doc> it = docs.iterator();
+			for(MyPriorityQueue<_RankItem> neighbors:m_index.search(docs, m_k)) {
+				_Doc doc = it.next();
+				if (neighbors.isEmpty())//no candidate in any probed bucket
+					neighbors = m_index.scan(doc, m_k);
+				vote(neighbors);
+				labels[i++] = Utils.argmax(m_cProbs);
+			}
 		} else {
-			docs = m_buckets.get(getHashCode(doc));
-			if(docs.size() < m_k) {
-				System.err.println("L is set too large, tune the parameter.");
-				return -1;
-			} 
+			for(_Doc doc:docs)
+				labels[i++] = predict(doc);
 		}
-		
-		MyPriorityQueue<_RankItem> neighbors = new MyPriorityQueue<_RankItem>(m_k);
-		for(_Doc d:docs)
-			neighbors.add(new _RankItem(d.getYLabel(), Utils.dotProduct(d, doc)));
-		
-		Arrays.fill(m_cProbs, 0);
-		for(_RankItem rt:neighbors)
-			m_cProbs[rt.m_index] ++;
-		
-		return m_cProbs[label] - m_k;//to be consistent with the predict function
+		return labels;
+	}
+
+	@Override
+	public double score(_Doc doc, int label) {
+		vote(getNeighbors(doc));
+		return m_cProbs[label] - Utils.sumOfArray(m_cProbs);//to be consistent with the predict function
 	}
 
 	@Override
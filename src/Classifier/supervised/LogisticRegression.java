@@ -6,19 +6,23 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import Classifier.BaseClassifier;
+import Classifier.BatchScorer;
 import LBFGS.LBFGS;
 import LBFGS.LBFGS.ExceptionWithIflag;
 import structures._Corpus;
 import structures._Doc;
 import structures._SparseFeature;
 import utils.Utils;
+import utils.WorkerPool;
 
 public class LogisticRegression extends BaseClassifier {
 
 	double[] m_beta;
 	double[] m_g, m_diag;
+	LBFGS m_optimizer = new LBFGS();
 	double[] m_cache;
 	double m_lambda;
 	
@@ -68,7 +72,7 @@ public class LogisticRegression extends BaseClassifier {
 		try{
 			do {
 				fValue = calcFuncGradient(trainSet);
-				LBFGS.lbfgs(fSize, 6, m_beta, fValue, m_g, false, m_diag, iprint, 1e-4, 1e-20, iflag);
+				m_optimizer.lbfgs(fSize, 6, m_beta, fValue, m_g, false, m_diag, iprint, 1e-4, 1e-20, iflag);
 			} while (iflag[0] != 0);
 		} catch (ExceptionWithIflag e){
 			e.printStackTrace();
@@ -152,6 +156,35 @@ public class LogisticRegression extends BaseClassifier {
 		return m_cache[label] - Utils.logSum(m_cache);//in log space
 	}
 	
+	//all the class models are applied to a block of documents at once, and the documents are scored concurrently
+	@Override
+	public double[][] batchScore(List<_Doc> docs, WorkerPool pool) {
+		double[][] scores = new BatchScorer(m_beta, m_classNo, m_featureSize+1, m_featureSize).score(docs, pool);
+		for(double[] s:scores) {
+			double logSum = Utils.logSum(s);
+			for(int i=0; i<m_classNo; i++)
+				s[i] -= logSum;//in log space
+		}
+		return scores;
+	}
+	
+	@Override
+	public int[] batchPredict(List<_Doc> docs) {
+		WorkerPool pool = m_numberOfCores>1 ? new WorkerPool(m_numberOfCores) : null;
+		double[][] scores;
+		try {
+			scores = batchScore(docs, pool);
+		} finally {
+			if (pool!=null)
+				pool.shutdown();
+		}
+		
+		int[] labels = new int[docs.size()];
+		for(int d=0; d<docs.size(); d++)
+			labels[d] = Utils.argmax(scores[d]);
+		return labels;
+	}
+	
 	protected void debug(_Doc d) {
 		try {
 			_SparseFeature[] fv = d.getSparse();
@@ -74,7 +74,7 @@ public class PRLogisticRegression extends LogisticRegression {
 			try{			
 				do {
 					fValue = calcFuncGradient(trainSet);
-					LBFGS.lbfgs(fSize, 5, m_beta, fValue, m_g, false, m_diag, iprint, 1e-4, 1e-20, iflag);
+					m_optimizer.lbfgs(fSize, 5, m_beta, fValue, m_g, false, m_diag, iprint, 1e-4, 1e-20, iflag);
 				} while (iflag[0] != 0);
 			} catch (ExceptionWithIflag e){
 				e.printStackTrace();
@@ -0,0 +1,225 @@
+package Classifier.supervised.modelAdaptation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import utils.WorkerPool;
+
+/**
+ * Replays an online adaptation stream, i.e., a sequence of user indices, with several workers.
+ * Every user is owned by one worker, which applies the user's updates in the order of the stream without locking;
+ * the other workers only read the user's model through the snapshot published after each of its updates.
+ * A worker does not run more than m_maxDelay stream positions ahead of the slowest one.
+ * The staleness of a snapshot read is the number of the user's earlier stream positions not yet visible in it,
+ * which is always zero when the stream is replayed by a single worker.
+ */
+public class AsyncAdaptationEngine {
+
+	//applies the t-th position of the stream to its user
+	public interface OnlineWorker {
+		void update(int t, _AdaptStruct user);
+	}
+
+	public interface OnlineWorkerFactory {
+		OnlineWorker create();
+	}
+
+	//a published copy of a user's model and the number of the user's stream positions applied to it
+	static class Snapshot {
+		final double[] m_model;
+		final int m_version;
+
+		Snapshot(double[] model, int version) {
+			m_model = model;
+			m_version = version;
+		}
+	}
+
+	int m_workers;
+	int m_maxDelay = 1000; // stream positions a worker may run ahead of the slowest worker
+
+	int[] m_order; // users in the stream
+	int[][] m_positions; // ascending stream positions of each user
+	int[] m_owner; // worker of each user
+	int[] m_done; // stream positions applied to each user, only touched by its owner
+	int[] m_current; // stream position each user is being updated at, only touched by its owner
+
+	AtomicReferenceArray<Snapshot> m_snapshots;
+	AtomicIntegerArray m_progress; // next stream position of each worker
+
+	long[] m_updates, m_reads, m_staleness, m_maxStaleness; // statistics of each worker
+	double m_time; // seconds spent in run()
+
+	public AsyncAdaptationEngine(int[] order, int userSize, int workers) {
+		m_order = order;
+		m_workers = Math.max(1, workers);
+
+		//positions of each user in the stream
+		int[] counts = new int[userSize];
+		for(int i:order)
+			counts[i] ++;
+		m_positions = new int[userSize][];
+		for(int i=0; i<userSize; i++)
+			m_positions[i] = new int[counts[i]];
+		Arrays.fill(counts, 0);
+		for(int t=0; t<order.length; t++)
+			m_positions[order[t]][counts[order[t]]++] = t;
+
+		partition();
+
+		m_done = new int[userSize];
+		m_current = new int[userSize];
+		m_snapshots = new AtomicReferenceArray<Snapshot>(userSize);
+		m_progress = new AtomicIntegerArray(m_workers);
+
+		m_updates = new long[m_workers];
+		m_reads = new long[m_workers];
+		m_staleness = new long[m_workers];
+		m_maxStaleness = new long[m_workers];
+	}
+
+	//assign the users with most stream positions first to the least loaded worker
+	void partition() {
+		Integer[] users = new Integer[m_positions.length];
+		for(int i=0; i<users.length; i++)
+			users[i] = i;
+		Arrays.sort(users, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(m_positions[b].length, m_positions[a].length);
+			}
+		});
+
+		m_owner = new int[m_positions.length];
+		long[] load = new long[m_workers];
+		for(int i:users) {
+			int w = 0;
+			for(int v=1; v<m_workers; v++) {
+				if (load[v]<load[w])
+					w = v;
+			}
+			m_owner[i] = w;
+			load[w] += m_positions[i].length;
+		}
+	}
+
+	public void setMaxDelay(int maxDelay) {
+		m_maxDelay = Math.max(0, maxDelay);
+	}
+
+	//to be called before run() for every user, and by the owner after each update of the user
+	public void publish(int i, double[] model) {
+		m_snapshots.set(i, new Snapshot(model, m_done[i]));
+	}
+
+	//the latest published model of user j as seen by the owner of the user being updated, i.e., reader
+	public double[] getSnapshot(int reader, int j) {
+		Snapshot snapshot = m_snapshots.get(j);
+		int w = m_owner[reader], expected = Arrays.binarySearch(m_positions[j], m_current[reader]);
+		if (expected<0)
+			expected = -expected - 1; // j's positions before the reader's current position
+
+		long lag = Math.abs(expected - snapshot.m_version);
+		m_reads[w] ++;
+		m_staleness[w] += lag;
+		if (lag>m_maxStaleness[w])
+			m_maxStaleness[w] = lag;
+		return snapshot.m_model;
+	}
+
+	public void run(final List<_AdaptStruct> users, final OnlineWorkerFactory factory) {
+		long start = System.currentTimeMillis();
+		if (m_workers==1)
+			replay(0, users, factory.create());
+		else {
+			Runnable[] tasks = new Runnable[m_workers];
+			for(int w=0; w<m_workers; w++) {
+				final int worker = w;
+				tasks[w] = new Runnable() {
+					@Override
+					public void run() {
+						replay(worker, users, factory.create());
+					}
+				};
+			}
+
+			WorkerPool pool = new WorkerPool(m_workers);
+			try {
+				pool.execute(tasks);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		m_time = (System.currentTimeMillis() - start) / 1000.0;
+	}
+
+	//apply the stream positions owned by this worker in order
+	void replay(int w, List<_AdaptStruct> users, OnlineWorker worker) {
+		try {
+			for(int t=0; t<m_order.length; t++) {
+				int i = m_order[t];
+				if (m_owner[i] != w)
+					continue;
+
+				m_progress.set(w, t);
+				while(t - slowest() > m_maxDelay)
+					Thread.yield();
+
+				m_current[i] = t;
+				m_done[i] ++; // count this position in the snapshots published during the update
+				worker.update(t, users.get(i));
+				m_updates[w] ++;
+
+				Snapshot snapshot = m_snapshots.get(i);
+				if (snapshot.m_version < m_done[i]) // nothing published for this position
+					m_snapshots.set(i, new Snapshot(snapshot.m_model, m_done[i]));
+			}
+		} finally {
+			m_progress.set(w, m_order.length); // never hold back the others
+		}
+	}
+
+	int slowest() {
+		int min = m_progress.get(0);
+		for(int w=1; w<m_workers; w++)
+			min = Math.min(min, m_progress.get(w));
+		return min;
+	}
+
+	public long getUpdateCount() {
+		long sum = 0;
+		for(long u:m_updates)
+			sum += u;
+		return sum;
+	}
+
+	//updates per second of the last run
+	public double getThroughput() {
+		return m_time>0 ? getUpdateCount()/m_time : 0;
+	}
+
+	public double getAvgStaleness() {
+		long reads = 0, staleness = 0;
+		for(int w=0; w<m_workers; w++) {
+			reads += m_reads[w];
+			staleness += m_staleness[w];
+		}
+		return reads>0 ? (double)staleness/reads : 0;
+	}
+
+	public long getMaxStaleness() {
+		long max = 0;
+		for(long s:m_maxStaleness)
+			max = Math.max(max, s);
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AsyncAdaptationEngine[workers:%d,updates:%d,updates/sec:%.1f,staleness:%.3f(max %d)]",
+				m_workers, getUpdateCount(), getThroughput(), getAvgStaleness(), getMaxStaleness());
+	}
+}
@@ -23,7 +23,6 @@ public class CoLinAdapt extends LinAdapt {
 
 	double m_eta3; // weight for scaling in R2.
 	double m_eta4; // weight for shifting in R2.
-	int m_topK;
 	SimType m_sType = SimType.ST_BoW;// default neighborhood by BoW
 	
 	public CoLinAdapt(int classNo, int featureSize, HashMap<String, Integer> featureMap, int topK, String globalModel, String featureGroupMap) {
@@ -210,7 +209,7 @@ public class CoLinAdapt extends LinAdapt {
 				} 
 				oldFValue = fValue;
 				
-				LBFGS.lbfgs(m_g.length, 5, _CoLinAdaptStruct.getSharedA(), fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, A is updated.
+				m_optimizer.lbfgs(m_g.length, 5, _CoLinAdaptStruct.getSharedA(), fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, A is updated.
 			} while(iflag[0] != 0);
 			System.out.println();
 		} catch(ExceptionWithIflag e) {
@@ -315,7 +315,7 @@ public class CoLinAdaptWithDiffFeatureGroups extends CoLinAdapt{
 				} 
 				oldFValue = fValue;				
 				
-				LBFGS.lbfgs(vSize, 5, sharedAB, fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, A is updated.
+				m_optimizer.lbfgs(vSize, 5, sharedAB, fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, A is updated.
 				// We need to update the learned A and B.
 				System.arraycopy(sharedAB, 0, _CoLinAdaptDiffFvGroupsStruct.sharedA, 0, lengthA);
 				System.arraycopy(sharedAB, lengthA, _CoLinAdaptDiffFvGroupsStruct.sharedB, 0, lengthB);
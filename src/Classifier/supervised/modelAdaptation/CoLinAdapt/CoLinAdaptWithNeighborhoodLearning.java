@@ -161,7 +161,7 @@ public class CoLinAdaptWithNeighborhoodLearning extends CoLinAdapt {
 		try {
 			do {
 				fValue = calculateFValueGradients();
-				LBFGS.lbfgs(fSize, 6, m_w, fValue, m_gN, false, m_diagN, iprint, 1e-4, 1e-10, iflag);
+				m_optimizer.lbfgs(fSize, 6, m_w, fValue, m_gN, false, m_diagN, iprint, 1e-4, 1e-10, iflag);
 			} while (iflag[0] != 0);
 		} catch (ExceptionWithIflag e) {
 			e.printStackTrace();
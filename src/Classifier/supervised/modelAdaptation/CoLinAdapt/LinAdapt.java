@@ -156,7 +156,7 @@ public class LinAdapt extends RegLR {
 	
 	//shared gradient calculation by batch and online updating
 	@Override
-	protected void gradientByFunc(_AdaptStruct u, _Doc review, double weight) {
+	protected void gradientByFunc(_AdaptStruct u, _Doc review, double weight, double[] g) {
 		_LinAdaptStruct user = (_LinAdaptStruct)u;
 		
 		int n, k; // feature index and feature group index		
@@ -166,36 +166,36 @@ public class LinAdapt extends RegLR {
 			delta /= getAdaptationSize(user);
 
 		//Bias term.
-		m_g[offset] -= delta*m_gWeights[0]; //a[0] = w0*x0; x0=1
-		m_g[offset + m_dim] -= delta;//b[0]
+		g[offset] -= delta*m_gWeights[0]; //a[0] = w0*x0; x0=1
+		g[offset + m_dim] -= delta;//b[0]
 
 		//Traverse all the feature dimension to calculate the gradient.
 		for(_SparseFeature fv: review.getSparse()){
 			n = fv.getIndex() + 1;
 			k = m_featureGroupMap[n];
-			m_g[offset + k] -= delta * m_gWeights[n] * fv.getValue();
-			m_g[offset + m_dim + k] -= delta * fv.getValue();  
+			g[offset + k] -= delta * m_gWeights[n] * fv.getValue();
+			g[offset + m_dim + k] -= delta * fv.getValue();  
 		}
 	}
 	
 	//Calculate the gradients for the use in LBFGS.
 	@Override
-	protected void gradientByR1(_AdaptStruct u){
+	protected void gradientByR1(_AdaptStruct u, double[] g){
 		_LinAdaptStruct user = (_LinAdaptStruct)u;
 		int offset = 2*m_dim*user.getId();//general enough to accommodate both LinAdapt and CoLinAdapt
 		//R1 regularization part
 		for(int k=0; k<m_dim; k++){
-			m_g[offset + k] += 2 * m_eta1 * (user.getScaling(k)-1);// add 2*eta1*(a_k-1)
-			m_g[offset + k + m_dim] += 2 * m_eta2 * user.getShifting(k); // add 2*eta2*b_k
+			g[offset + k] += 2 * m_eta1 * (user.getScaling(k)-1);// add 2*eta1*(a_k-1)
+			g[offset + k + m_dim] += 2 * m_eta2 * user.getShifting(k); // add 2*eta2*b_k
 		}
 	}
 	
 	@Override
-	protected double gradientTest() {
+	protected double gradientTest(double[] g) {
 		double magA = 0, magB = 0 ;
 		for(int i=0; i<m_dim; i++){
-			magA += m_g[i]*m_g[i];
-			magB += m_g[i+m_dim]*m_g[i+m_dim];
+			magA += g[i]*g[i];
+			magB += g[i+m_dim]*g[i+m_dim];
 		}
 		
 		if (m_displayLv==2)
@@ -28,6 +28,24 @@ public class asyncCoLinAdaptFirstOrder extends asyncCoLinAdapt {
 		return String.format("asyncCoLinAdaptFirstOrder[dim:%d,eta1:%.3f,eta2:%.3f,eta3:%.3f,eta4:%.3f,k:%d,NB:%s]", m_dim, m_eta1, m_eta2, m_eta3, m_eta4, m_topK, m_sType);
 	}
 	
+	//the first order update writes into the neighbors' models, so the stream can only be replayed by one worker
+	@Override
+	protected int getNumberOfWorkers() {
+		return 1;
+	}
+	
+	@Override
+	protected void clearGradients(_AdaptStruct user) {
+		_CoLinAdaptStruct ui = (_CoLinAdaptStruct)user;
+		super.clearGradients(ui);
+		
+		for(_RankItem nit:ui.getNeighbors())
+			super.clearGradients(m_userList.get(nit.m_index));
+		
+		for(_RankItem nit:ui.getReverseNeighbors())
+			super.clearGradients(m_userList.get(nit.m_index));
+	}
+	
 	@Override
 	protected void calculateGradients(_AdaptStruct user){		
 		super.calculateGradients(user);
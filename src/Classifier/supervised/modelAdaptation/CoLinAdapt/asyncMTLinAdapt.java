@@ -22,6 +22,7 @@ public class asyncMTLinAdapt extends MTLinAdapt {
 	double m_initStepSize = 0.05;
 	boolean m_trainByUser = false; // by default we will perform online training by user; otherwise we will do it by review timestamp 
 	int m_rptTime = 3, m_count = 0; // How many times the reviews will be used to update gradients.
+	int m_prevOffset = -1; // the user part of m_g filled by the previous update
 	
 	public asyncMTLinAdapt(int classNo, int featureSize,
 			HashMap<String, Integer> featureMap, int topK, String globalModel,
@@ -67,6 +68,7 @@ public class asyncMTLinAdapt extends MTLinAdapt {
 	public double train(){
 		initLBFGS();
 		init();
+		m_prevOffset = -1;
 		
 		if (m_trainByUser)
 			trainByUser();
@@ -184,8 +186,11 @@ public class asyncMTLinAdapt extends MTLinAdapt {
 		double a, b, stepSize = asyncRegLR.getStepSize(initStepSize, user);
 		int offset = 2 * m_dim * user.getId(), supOffset = 2 * m_dim * m_userList.size();
 		
-		//get gradient
-		Arrays.fill(m_g, 0);
+		//get gradient: an update only touches the current user's and the super user's parts of m_g
+		if (m_prevOffset>=0)
+			Arrays.fill(m_g, m_prevOffset, m_prevOffset + 2*m_dim, 0);
+		Arrays.fill(m_g, supOffset, supOffset + 2*m_dimSup, 0);
+		m_prevOffset = offset;
 		calculateGradients(user);
 		
 		resetRPTTime();
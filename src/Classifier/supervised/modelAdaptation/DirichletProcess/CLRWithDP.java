@@ -6,7 +6,10 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import Classifier.BatchScorer;
 import Classifier.supervised.modelAdaptation._AdaptStruct;
 import Classifier.supervised.modelAdaptation.CoLinAdapt.LinAdapt;
 import LBFGS.LBFGS;
@@ -21,7 +24,9 @@ import structures._Doc.rType;
 import structures._SparseFeature;
 import structures._User;
 import structures._thetaStar;
+import utils.Numerics;
 import utils.Utils;
+import utils.WorkerPool;
 
 public class CLRWithDP extends LinAdapt {
 	protected int m_M = 6, m_kBar = 0; // The number of auxiliary components.
@@ -34,9 +39,11 @@ public class CLRWithDP extends LinAdapt {
 	protected boolean m_vctMean = true; // flag to determine whether we should use w_0 as prior for w_u
 	
 	//structure for multi-threading
-	protected boolean m_multiThread = true; // if we will use multi-threading in M-step
+	protected boolean m_multiThread = true; // if we will use multi-threading in E-step and M-step
 	protected double[] m_fValues;
 	protected double[][] m_gradients;
+	protected int m_sampleBlock = 512; // users scored against the same clusters before their assignments are sampled in E-step
+	protected WorkerPool m_pool; // threads of the multi-threaded E-step, kept for the whole training run
 
 	// Parameters of the prior for the intercept and coefficients.
 	protected double[] m_abNuA = new double[]{0, 1}; // N(0,1) for shifting in adaptation based models
@@ -45,7 +52,7 @@ public class CLRWithDP extends LinAdapt {
 	public static double m_q = .10;// the wc + m_q*wg;
 
 	protected double[] m_models; // model parameters for clusters to be used in l-bfgs optimization
-	public static _thetaStar[] m_thetaStars = new _thetaStar[1000];//to facilitate prediction in each user 
+	public static _thetaStar[] m_thetaStars = new _thetaStar[1000];//to facilitate prediction in each user, grows on demand
 
 	public CLRWithDP(int classNo, int featureSize, HashMap<String, Integer> featureMap, String globalModel){
 		super(classNo, featureSize, featureMap, globalModel, null);
@@ -168,15 +175,25 @@ public class CLRWithDP extends LinAdapt {
 		return -1;// impossible to hit here!
 	}
 	
+	protected _thetaStar createThetaStar() {
+		if (this instanceof CLinAdaptWithDP)// this should include all the inherited classes for adaptation based models
+			return new _thetaStar(2*m_dim);
+		else
+			return new _thetaStar(m_dim);
+	}
+	
+	// Make sure the cluster table can hold the given number of clusters.
+	protected void ensureThetaStarCapacity(int size) {
+		if (size > m_thetaStars.length)
+			m_thetaStars = Arrays.copyOf(m_thetaStars, Math.max(size, 2*m_thetaStars.length));
+	}
+	
 	// Sample thetaStars.
 	protected void sampleThetaStars(){
+		ensureThetaStarCapacity(m_kBar+m_M);
 		for(int m=m_kBar; m<m_kBar+m_M; m++){
-			if (m_thetaStars[m] == null) {
-				if (this instanceof CLinAdaptWithDP)// this should include all the inherited classes for adaptation based models
-					m_thetaStars[m] = new _thetaStar(2*m_dim);
-				else
-					m_thetaStars[m] = new _thetaStar(m_dim);
-			}
+			if (m_thetaStars[m] == null)
+				m_thetaStars[m] = createThetaStar();
 			m_G0.sampling(m_thetaStars[m].getModel());
 		}
 	}
@@ -205,7 +222,7 @@ public class CLRWithDP extends LinAdapt {
 			if (k==0)
 				logSum = likelihood;
 			else
-				logSum = Utils.logSum(logSum, likelihood);
+				logSum = Numerics.logSum(logSum, likelihood);
 //			System.out.print(String.format("%.4f\t%.4f\n",likelihood, logSum));
 
 		}
@@ -218,7 +235,7 @@ public class CLRWithDP extends LinAdapt {
 			if (newLogSum>=logSum)
 				break;
 			k++;
-			newLogSum = Utils.logSum(newLogSum, m_thetaStars[k].getProportion());
+			newLogSum = Numerics.logSum(newLogSum, m_thetaStars[k].getProportion());
 		} while (k<m_kBar+m_M);
 //		System.out.print(String.format("------kBar:%d, k:%d-----------", m_kBar, k));
 
@@ -243,6 +260,11 @@ public class CLRWithDP extends LinAdapt {
 	
 	// The main MCMC algorithm, assign each user to clusters.
 	protected void calculate_E_step(){
+		if (m_multiThread) {
+			calculate_E_step_MultiThread();
+			return;
+		}
+		
 		_thetaStar curThetaStar;
 		_DPAdaptStruct user;
 		
@@ -261,6 +283,161 @@ public class CLRWithDP extends LinAdapt {
 		}
 	}
 	
+	/**
+	 * The cluster models do not change in E-step, so the likelihood of a block of users under the current clusters is computed
+	 * concurrently; the auxiliary clusters of each user are also sampled and scored there, and only the one to be used if the user
+	 * starts a new cluster is kept (it is chosen proportional to its likelihood, independent of the cluster sizes).
+	 * Then the assignments are sampled one user after another with the up-to-date cluster sizes as in calculate_E_step(),
+	 * where only the clusters created within the block have to be scored on the fly.
+	 */
+	protected void calculate_E_step_MultiThread(){
+		int numberOfCores = m_numberOfCores;
+		final _DPAdaptStruct[] block = new _DPAdaptStruct[m_sampleBlock];
+		final double[][] likelihoods = new double[m_sampleBlock][]; // likelihood of the user under the snapshot clusters
+		final double[] newLikelihoods = new double[m_sampleBlock]; // log\sum_m exp(likelihood under auxiliary cluster m)
+		final _thetaStar[] newThetas = new _thetaStar[m_sampleBlock];
+		for(int b=0; b<m_sampleBlock; b++)
+			newThetas[b] = createThetaStar();
+		
+		final AtomicInteger next = new AtomicInteger(0);
+		final int[] blockSize = new int[1];
+		final int[] kSnapshot = new int[1];
+		Runnable[] tasks = new Runnable[numberOfCores];
+		for(int t=0; t<numberOfCores; t++) {
+			tasks[t] = new Runnable() {
+				_thetaStar[] m_auxThetas = new _thetaStar[m_M];
+				double[] m_auxLikelihoods = new double[m_M];
+				Random m_rand = new Random();
+				
+				@Override
+				public void run() {
+					int b, K = kSnapshot[0];
+					_DPAdaptStruct user;
+					_thetaStar curThetaStar;
+					while((b=next.getAndIncrement()) < blockSize[0]) {
+						user = block[b];
+						curThetaStar = user.getThetaStar();
+						if (likelihoods[b]==null || likelihoods[b].length<K)
+							likelihoods[b] = new double[Math.max(K, 16)];
+						
+						for(int k=0; k<K; k++) {
+							user.setThetaStar(m_thetaStars[k]);
+							likelihoods[b][k] = calcLogLikelihood(user);
+						}
+						
+						for(int m=0; m<m_M; m++) {
+							if (m_auxThetas[m]==null)
+								m_auxThetas[m] = createThetaStar();
+							synchronized(m_G0) {// the prior's random number generator is shared
+								m_G0.sampling(m_auxThetas[m].getModel());
+							}
+							user.setThetaStar(m_auxThetas[m]);
+							m_auxLikelihoods[m] = calcLogLikelihood(user);
+						}
+						user.setThetaStar(curThetaStar);
+						
+						newLikelihoods[b] = Numerics.softmax(m_auxLikelihoods, m_auxLikelihoods, m_M);
+						int m = sample(m_auxLikelihoods, m_M, m_rand.nextDouble());
+						_thetaStar theta = newThetas[b];
+						newThetas[b] = m_auxThetas[m];
+						m_auxThetas[m] = theta;
+					}
+				}
+			};
+		}
+		
+		if (m_pool==null || m_pool.size()!=numberOfCores) {
+			releasePool();
+			m_pool = new WorkerPool(numberOfCores);
+		}
+		HashMap<_thetaStar, Integer> snapshot = new HashMap<_thetaStar, Integer>();
+		double[] probs = new double[16];
+		_thetaStar[] candidates = new _thetaStar[16];
+		_thetaStar curThetaStar, theta;
+		_DPAdaptStruct user;
+		Integer s;
+		try {
+			for(int i=0; i<m_userList.size(); ) {
+				//Step 1: score the next block of users against the current clusters in parallel
+				blockSize[0] = 0;
+				while(i<m_userList.size() && blockSize[0]<m_sampleBlock) {
+					user = (_DPAdaptStruct) m_userList.get(i++);
+					if(user.getAdaptationSize() != 0) 
+						block[blockSize[0]++] = user;
+				}
+				
+				kSnapshot[0] = m_kBar;
+				snapshot.clear();
+				for(int k=0; k<m_kBar; k++)
+					snapshot.put(m_thetaStars[k], k);
+				next.set(0);
+				m_pool.execute(tasks);
+				
+				//Step 2: sample the assignments in order with the current cluster sizes
+				for(int b=0; b<blockSize[0]; b++) {
+					user = block[b];
+					curThetaStar = user.getThetaStar();
+					curThetaStar.updateMemCount(-1);
+					if(curThetaStar.getMemSize() == 0) {// No data associated with the cluster.
+						swapTheta(m_kBar-1, findThetaStar(curThetaStar));
+						m_kBar --;
+					}
+					
+					if (probs.length < m_kBar+1) {
+						probs = new double[2*(m_kBar+1)];
+						candidates = new _thetaStar[probs.length];
+					}
+					for(int k=0; k<m_kBar; k++) {
+						theta = m_thetaStars[k];
+						if ((s=snapshot.get(theta)) != null)
+							probs[k] = likelihoods[b][s];
+						else {// created within this block
+							user.setThetaStar(theta);
+							probs[k] = calcLogLikelihood(user);
+						}
+						probs[k] += Math.log(theta.getMemSize());
+						candidates[k] = theta;
+					}
+					probs[m_kBar] = m_pNewCluster + newLikelihoods[b];
+					
+					Numerics.softmax(probs, probs, m_kBar+1);
+					int k = sample(probs, m_kBar+1, FloatUniform.staticNextFloat());
+					if (k == m_kBar) {// start a new cluster with the chosen auxiliary one
+						theta = newThetas[b];
+						newThetas[b] = createThetaStar();
+						ensureThetaStarCapacity(m_kBar+m_M+1);
+						m_thetaStars[m_kBar++] = theta;
+					} else
+						theta = candidates[k];
+					
+					theta.updateMemCount(1);
+					user.setThetaStar(theta);
+				}
+			}
+		} catch(RuntimeException e) {
+			releasePool(); // a failed round leaves the pool broken
+			throw e;
+		}
+	}
+	
+	protected void releasePool() {
+		if (m_pool!=null) {
+			m_pool.shutdown();
+			m_pool = null;
+		}
+	}
+	
+	// Sample an index from the given probabilities in real space with a uniform random number r.
+	protected int sample(double[] probs, int size, double r) {
+		double sum = 0;
+		for(int k=0; k<size-1; k++) {
+			sum += probs[k];
+			if (r <= sum)
+				return k;
+		}
+		return size-1;
+	}
+	
 	protected double logLikelihood() {
 		_DPAdaptStruct user;
 		double fValue = 0;
@@ -276,7 +453,7 @@ public class CLRWithDP extends LinAdapt {
 	}
 	
 	protected double logLikelihood_MultiThread() {
-		int numberOfCores = Runtime.getRuntime().availableProcessors();
+		int numberOfCores = m_numberOfCores;
 		ArrayList<Thread> threads = new ArrayList<Thread>();		
 		
 		//init the shared structure		
@@ -367,7 +544,7 @@ public class CLRWithDP extends LinAdapt {
 						System.out.println();
 				} 
 				
-				LBFGS.lbfgs(m_g.length, 6, m_models, fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, A is updated.
+				m_optimizer.lbfgs(m_g.length, 6, m_models, fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, A is updated.
 				setThetaStars();
 				oldFValue = fValue;
 				
@@ -421,6 +598,7 @@ public class CLRWithDP extends LinAdapt {
 			lastLikelihood = curLikelihood;
 		}
 
+		releasePool();
 		evaluateModel(); // we do not want to miss the last sample?!
 //		setPersonalizedModel();
 		return curLikelihood;
@@ -471,6 +649,7 @@ public class CLRWithDP extends LinAdapt {
 		} catch(IOException e){
 			e.printStackTrace();
 		}
+		releasePool();
 		evaluateModel(); // we do not want to miss the last sample?!
 		setPersonalizedModel();
 		return curLikelihood;
@@ -549,7 +728,7 @@ public class CLRWithDP extends LinAdapt {
 		
 		//init the structures for multi-threading
 		if (m_multiThread) {
-			int numberOfCores = Runtime.getRuntime().availableProcessors();
+			int numberOfCores = m_numberOfCores;
 			m_fValues = new double[numberOfCores];
 			m_gradients = new double[numberOfCores][]; 
 		}
@@ -571,7 +750,7 @@ public class CLRWithDP extends LinAdapt {
 			m_diag = new double[getVSize()];
 			
 			if (m_multiThread) {
-				int numberOfCores = Runtime.getRuntime().availableProcessors();
+				int numberOfCores = m_numberOfCores;
 				for(int k=0; k<numberOfCores; k++)
 					m_gradients[k] = new double[getVSize()];
 			}
@@ -641,7 +820,10 @@ public class CLRWithDP extends LinAdapt {
 		//calculate cluster posterior p(c|u)
 		calculateClusterProbPerUser();
 		
-		int numberOfCores = Runtime.getRuntime().availableProcessors();
+		//the cluster models are transformed once and applied to all the testing reviews of a user at once
+		final BatchScorer scorer = createClusterScorer();
+		
+		int numberOfCores = m_numberOfCores;
 		ArrayList<Thread> threads = new ArrayList<Thread>();		
 		
 		for(int k=0; k<numberOfCores; ++k){
@@ -650,6 +832,7 @@ public class CLRWithDP extends LinAdapt {
 				@Override
 				public void run() {
 					_DPAdaptStruct user;
+					ArrayList<_Doc> testDocs = new ArrayList<_Doc>();
 					try {
 						for (int i = 0; i + core <m_userList.size(); i += numOfCores) {
 							user = (_DPAdaptStruct)m_userList.get(i+core);
@@ -660,10 +843,23 @@ public class CLRWithDP extends LinAdapt {
 								
 							if (m_testmode==TestMode.TM_batch || m_testmode==TestMode.TM_hybrid) {				
 								//record prediction results
-								for(_Review r:user.getReviews()) {
-									if (r.getType() != rType.TEST)
-										continue;
-									user.evaluate(r); // evoke user's own model
+								if (scorer==null) {
+									for(_Review r:user.getReviews()) {
+										if (r.getType() != rType.TEST)
+											continue;
+										user.evaluate(r); // evoke user's own model
+									}
+								} else {
+									testDocs.clear();
+									for(_Review r:user.getReviews()) {
+										if (r.getType() == rType.TEST)
+											testDocs.add(r);
+									}
+									
+									double[][] scores = new double[testDocs.size()][scorer.getModelSize()];
+									scorer.score(testDocs, 0, testDocs.size(), scores);
+									for(int d=0; d<testDocs.size(); d++)
+										user.evaluate(testDocs.get(d), scores[d]);
 								}
 							}							
 						}
@@ -691,6 +887,18 @@ public class CLRWithDP extends LinAdapt {
 		}
 	}
 	
+	//one linear model per cluster as applied by _DPAdaptStruct.evaluate(); null if the users evaluate the clusters differently
+	protected BatchScorer createClusterScorer() {
+		if (m_userList.isEmpty() || m_kBar==0)
+			return null;
+		
+		_DPAdaptStruct user = (_DPAdaptStruct)m_userList.get(0);
+		double[][] models = new double[m_kBar][];
+		for(int k=0; k<m_kBar; k++)
+			models[k] = user.getClusterModel(m_thetaStars[k], m_featureSize);
+		return new BatchScorer(models, m_featureSize);
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("CLRWithDP[dim:%d,M:%d,alpha:%.4f,nScale:%.3f,#Iter:%d,N(%.3f,%.3f)]", m_dim, m_M, m_alpha, m_eta1, m_numberOfIterations, m_abNuA[0], m_abNuA[1]);
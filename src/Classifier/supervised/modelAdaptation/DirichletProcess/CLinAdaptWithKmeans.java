@@ -230,7 +230,7 @@ public class CLinAdaptWithKmeans extends LinAdapt{
 					if (++displayCount%100==0)
 					System.out.println();
 				}
-				LBFGS.lbfgs(m_g.length, 6, _CLinAdaptStruct.sharedA, fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, A is updated.
+				m_optimizer.lbfgs(m_g.length, 6, _CLinAdaptStruct.sharedA, fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, A is updated.
 			} while(iflag[0] != 0);
 		} catch(ExceptionWithIflag e) {
 			System.out.println("LBFGS fails!!!!");
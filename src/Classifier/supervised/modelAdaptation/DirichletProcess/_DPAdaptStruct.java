@@ -82,6 +82,38 @@ public class _DPAdaptStruct extends _LinAdaptStruct {
 		doc.m_prob += prob; //>0.5?1:0;
 		return prob;
 	}
+	
+	//the same as evaluate(doc) with the document's linear scores under all the clusters precomputed, e.g., by a BatchScorer
+	public double evaluate(_Doc doc, double[] scores) {
+		double prob = 0;
+		for(int k=0; k<m_cluPosterior.length; k++)
+			prob += m_cluPosterior[k] * Utils.logistic(scores[k]);
+		
+		//accumulate the prediction results during sampling procedure
+		doc.m_pCount ++;
+		doc.m_prob += prob;
+		return prob;
+	}
+	
+	//the dense linear model evaluate(doc) applies for the given cluster, i.e., A_k*w_s+B_k for adaptation based models
+	public double[] getClusterModel(_thetaStar theta, int featureSize) {
+		double[] model = new double[featureSize+1], As = theta.getModel();
+		
+		if (m_dim==0) {//not adaptation based
+			System.arraycopy(As, 0, model, 0, model.length);
+			if(MTCLRWithDP.m_supWeights != null && MTCLRWithDP.m_q != 0) {
+				for(int n=0; n<model.length; n++)
+					model[n] += MTCLRWithDP.m_q*MTCLRWithDP.m_supWeights[n];
+			}
+		} else {
+			int m;
+			for(int n=0; n<model.length; n++) {
+				m = m_featureGroupMap[n];
+				model[n] = As[m]*CLinAdaptWithDP.m_supWeights[n] + As[m_dim+m];
+			}
+		}
+		return model;
+	}
 
 	@Override
 	public int predict(_Doc doc){
@@ -1,5 +1,6 @@
 package Classifier.supervised.modelAdaptation.HDP;
 
+import Classifier.BatchScorer;
 import Classifier.supervised.modelAdaptation.DirichletProcess.CLRWithDP;
 import Classifier.supervised.modelAdaptation._AdaptStruct;
 import cern.jet.random.tdouble.Beta;
@@ -7,6 +8,7 @@ import cern.jet.random.tdouble.Gamma;
 import cern.jet.random.tfloat.FloatUniform;
 import structures.*;
 import structures._Doc.rType;
+import utils.Numerics;
 import utils.Utils;
 
 import java.io.File;
@@ -24,7 +26,7 @@ public class CLRWithHDP extends CLRWithDP {
     protected double m_c = 1;//the constant in front of probabilities of language model.
 
     protected double[] m_betas;//concentration vector for the prior of psi.
-    public static _HDPThetaStar[] m_hdpThetaStars = new _HDPThetaStar[100];//phi+psi
+    public static _HDPThetaStar[] m_hdpThetaStars = new _HDPThetaStar[100];//phi+psi, grows on demand
     protected double[] m_cache = new double[10000]; // shared cache space to avoid repeatedly creating new space
     protected DirichletPrior m_D0; //generic Dirichlet prior.
     protected double m_gamma_e = 1.0;
@@ -157,10 +159,17 @@ public class CLRWithHDP extends CLRWithDP {
         }
     }
 
+    @Override
+    protected void ensureThetaStarCapacity(int size) {
+        if (size > m_hdpThetaStars.length)
+            m_hdpThetaStars = Arrays.copyOf(m_hdpThetaStars, Math.max(size, 2*m_hdpThetaStars.length));
+    }
+
     //Sample auxiliary \phis for further use, also sample one \psi in case we get the new cluster.
     @Override
     public void sampleThetaStars(){
         double gamma_e = m_gamma_e/m_M;
+        ensureThetaStarCapacity(m_kBar+m_M);
         for(int m=m_kBar; m<m_kBar+m_M; m++){
             if (m_hdpThetaStars[m] == null){
                 if (this instanceof CLinAdaptWithHDP)// this should include all the inherited classes for adaptation based models
@@ -210,7 +219,7 @@ public class CLRWithHDP extends CLRWithDP {
             if(k==0)
                 logSum = likelihood;
             else
-                logSum = Utils.logSum(logSum, likelihood);
+                logSum = Numerics.logSum(logSum, likelihood);
 
             if(Double.isInfinite(logSum))
                 System.out.println("Infinite!");
@@ -263,7 +272,7 @@ public class CLRWithHDP extends CLRWithDP {
             if (newLogSum>=logSum)
                 break;
             k++;
-            newLogSum = Utils.logSum(newLogSum, m_hdpThetaStars[k].getProportion());
+            newLogSum = Numerics.logSum(newLogSum, m_hdpThetaStars[k].getProportion());
         } while (k<m_kBar+m_M);
 
         if (k==m_kBar+m_M)
@@ -442,7 +451,7 @@ public class CLRWithHDP extends CLRWithDP {
         if(m_stirlings.containsKey(key))
             return m_stirlings.get(key);
         else {
-            double result = Utils.logSum(logStirling(n-1, h-1), Math.log(n-1) + logStirling(n-1, h));
+            double result = Numerics.logSum(logStirling(n-1, h-1), Math.log(n-1) + logStirling(n-1, h));
             m_stirlings.put(key, result);
             return result;
         }
@@ -505,7 +514,7 @@ public class CLRWithHDP extends CLRWithDP {
 
     @Override
     protected double logLikelihood_MultiThread() {
-        int numberOfCores = Runtime.getRuntime().availableProcessors();
+        int numberOfCores = m_numberOfCores;
         ArrayList<Thread> threads = new ArrayList<Thread>();
 
         //init the shared structure
@@ -677,6 +686,12 @@ public class CLRWithHDP extends CLRWithDP {
         return R1;
     }
 
+    @Override
+    // the users mix the hdp clusters per review in their own evaluate()
+    protected BatchScorer createClusterScorer() {
+        return null;
+    }
+
     @Override
     // After we finish estimating the clusters, we calculate the probability of each testing review belongs to each cluster.
     // Indeed, it is for per review, for inheritance we don't change the function name.
@@ -711,7 +726,7 @@ public class CLRWithHDP extends CLRWithDP {
                     probs[k] = prob;
                 }
 
-                logSum = Utils.logSumOfExponentials(probs);
+                logSum = Numerics.logSumExp(probs);
                 for(int k=0; k<probs.length; k++)
                     probs[k] -= logSum;
                 // posterior in log space
@@ -11,6 +11,7 @@ import structures._HDPThetaStar;
 import structures._Review;
 import structures._SparseFeature;
 import structures._User;
+import utils.Numerics;
 import utils.Utils;
 
 public class _HDPAdaptStruct extends _DPAdaptStruct {
@@ -115,7 +116,7 @@ public class _HDPAdaptStruct extends _DPAdaptStruct {
 				if (k==0)
 					prob = probs[k] + Math.log(Utils.logistic(sum));
 				else
-					prob = Utils.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
+					prob = Numerics.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
 			}
 		} else {
 			double As[];
@@ -132,7 +133,7 @@ public class _HDPAdaptStruct extends _DPAdaptStruct {
 				if (k==0)
 					prob = probs[k] + Math.log(Utils.logistic(sum));
 				else
-					prob = Utils.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
+					prob = Numerics.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
 			}
 		}
 		
@@ -161,7 +162,7 @@ public class _HDPAdaptStruct extends _DPAdaptStruct {
 			if (k==0)
 				prob = probs[k] + Math.log(Utils.logistic(sum));
 			else
-				prob = Utils.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
+				prob = Numerics.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
 		}
 		
 		//accumulate the prediction results during sampling procedure
@@ -17,18 +17,27 @@ import Classifier.supervised.modelAdaptation.HDP.CLRWithHDP;
 import Classifier.supervised.modelAdaptation.HDP._HDPAdaptStruct;
 import cern.jet.random.tdouble.Beta;
 import cern.jet.random.tfloat.FloatUniform;
+import structures.CSRGraph;
 import structures._HDPThetaStar;
 import structures._HDPThetaStar._Connection;
-import structures._MMBNeighbor;
 import structures._Review;
 import structures._Doc.rType;
 import structures._User;
+import utils.Numerics;
 import utils.Utils;
 public class CLRWithMMB extends CLRWithHDP {
 	// sparsity parameter
 	protected double m_rho = 0.001; 
-	// As we store all the indicators for all the edges(even edges from background model), we maintain a matrix for indexing.
-	protected _HDPThetaStar[][] m_indicator;
+	// friendship (e_ij=1) between user indices i<j, only the upper triangle is stored.
+	protected CSRGraph m_friendGraph;
+	// The pairs i<j assigned to mmb, indexed by s: the friend edges at their positions in m_friendGraph, followed by the zero edges.
+	// The pairs from the background model are only counted (m_MNL[2]).
+	protected int m_edgeSize;
+	protected int[] m_edgeUsers; // [2s]: i, [2s+1]: j
+	protected _HDPThetaStar[] m_edgeThetas; // [2s]: z_{i->j}, [2s+1]: z_{j->i}
+	// open addressing index of the zero edges in mmb, key i*N+j+1 (0 for an empty entry) -> s
+	protected long[] m_zeroKeys;
+	protected int[] m_zeroEdges;
 	
 	// prob for the new cluster in sampling mmb edges.
 	protected double[] m_pNew = new double[2]; 
@@ -60,11 +69,9 @@ public class CLRWithMMB extends CLRWithHDP {
 		initStat();
 	} 
 	
-	// add the edge assignment to corresponding cluster
-	public void addConnection(_MMBAdaptStruct ui, _MMBAdaptStruct uj, int e){
-		_HDPThetaStar theta_g, theta_h;
-		theta_g = ui.getOneNeighbor(uj).getHDPThetaStar();
-		theta_h = uj.getOneNeighbor(ui).getHDPThetaStar();
+	// add the edge assignment of pair s to corresponding cluster
+	public void addConnection(int s, int e){
+		_HDPThetaStar theta_g = m_edgeThetas[2*s], theta_h = m_edgeThetas[2*s+1];
 		theta_g.addConnection(theta_h, e);
 		theta_h.addConnection(theta_g, e);
 	}
@@ -266,7 +273,7 @@ public class CLRWithMMB extends CLRWithHDP {
 				probs[k] = prob;
 			}
 			// normalize the prob 
-			logSum = Utils.logSumOfExponentials(probs);
+			logSum = Numerics.logSumExp(probs);
 			for(int k=0; k<probs.length; k++)
 				probs[k] -= logSum;
 			
@@ -297,143 +304,246 @@ public class CLRWithMMB extends CLRWithHDP {
 	protected void calculate_E_step_Edge_joint_all(){
 //		calcProbNew();
 		// sample z_{i->j}
-		_MMBAdaptStruct ui, uj;
-		int sampleSize = 0, eij = 0;
+		int i, j, eij = 0;
 		Arrays.fill(m_time, 0);
 		
-		for(int i=0; i<m_userList.size(); i++){
-			ui = (_MMBAdaptStruct) m_userList.get(i);
-			for(int j=i+1; j<m_userList.size(); j++){
-				uj = (_MMBAdaptStruct) m_userList.get(j);
-				// print out the process of sampling edges
-				if (++sampleSize%100000==0) {
-					System.out.print('.');
-					if (sampleSize%50000000==0)
-						System.out.println();
-				}
-				// eij=1
-				if(ui.hasEdge(uj) && ui.getEdge(uj) == 1){
-					long start = System.currentTimeMillis();
-					eij = 1;
-					// remove the connection for B_gh, i->j \in g, j->i \in h.
-					rmConnection(ui, uj, eij);
-					// update membership from ui->uj, remove the edge
-					updateEdgeMembership(i, j, eij);	
-					// sample new cluster for the edge
-					sampleEdge(i, j, eij);
-					// update membership from uj->ui, remove the edge
-					updateEdgeMembership(j, i, eij);
-					// sample new clusters for the two edges
-					sampleEdge(j, i, eij);
-					// add the new connection for B_g'h', i->j \in g', j->i \in h'
-					addConnection(ui, uj, eij);
-					long end = System.currentTimeMillis();
-					m_time[1] += (end - start);
-				// eij = 0
-				}else if(ui.hasEdge(uj) && ui.getEdge(uj) == 0){
-					long start = System.currentTimeMillis();
-					eij = 0;
-					// remove the connection for B_gh, i->j \in g, j->i \in h.
-					rmConnection(ui, uj, eij);
-					// update membership from ui->uj, uj->ui
-					updateEdgeMembership(i, j, eij);
-					updateEdgeMembership(j, i, eij);
-					sampleZeroEdgeJoint(i, j);
-					long end = System.currentTimeMillis();
-					m_time[0] += (end - start);
-				} else{
-					// remove the two edges from background model
-					long start = System.currentTimeMillis();
-					updateSampleSize(2, -2);
-					sampleZeroEdgeJoint(i, j);
-					long end = System.currentTimeMillis();
-					m_time[2] += (end - start);
-					
-				}
-			}
+		// only the observed edges are visited: edges e_ij=1, zero edges in mmb, and then the background pairs in aggregate
+		long start = System.currentTimeMillis();
+		sampleFriendEdges();
+		m_time[1] += System.currentTimeMillis() - start;
+		
+		// the zero edges are visited backwards, so that the ones resampled into mmb (appended) or moved by removeZeroEdge() are not visited again
+		start = System.currentTimeMillis();
+		for(int s=m_edgeSize-1; s>=m_friendGraph.getNNZ(); s--){
+			i = m_edgeUsers[2*s];
+			j = m_edgeUsers[2*s+1];
+			// remove the connection for B_gh, i->j \in g, j->i \in h.
+			rmConnection(s, eij);
+			// update membership from ui->uj, uj->ui
+			updateEdgeMembership(s, 0, eij);
+			updateEdgeMembership(s, 1, eij);
+			removeZeroEdge(s);
+			sampleZeroEdgeJoint(i, j);
 		}
+		m_time[0] += System.currentTimeMillis() - start;
+		
+		start = System.currentTimeMillis();
+		sampleBackgroundEdges();
+		m_time[2] += System.currentTimeMillis() - start;
+		
 		mmb_0.add((int) m_MNL[0]); mmb_1.add((int) m_MNL[1]);bk_0.add((int) m_MNL[2]);
 		System.out.print(String.format("\n[Time]Sampling: mmb_0: %.3f secs, mmb_1: %.3f secs, bk_0: %.3f secs\n", (double)m_time[0]/1000, (double)m_time[1]/1000, (double)m_time[2]/1000));
 		System.out.print(String.format("[Info]kBar: %d, background prob: %.5f, eij=0(mmb): %.1f, eij=1:%.1f, eij=0(background):%.1f\n", m_kBar, 1-m_rho, m_MNL[0], m_MNL[1],m_MNL[2]));
 	}
+	
 	protected void calculate_E_step_Edge_joint_bk(){
 //		calcProbNew();
 		// sample z_{i->j}
-		_MMBAdaptStruct ui, uj;
-		int sampleSize = 0, eij = 0;
+		int eij = 0;
 		double p_mmb_0 = 0, p_bk = 1-m_rho;
 
 		Arrays.fill(m_time, 0);
-		for(int i=0; i<m_userList.size(); i++){
-			ui = (_MMBAdaptStruct) m_userList.get(i);
-			for(int j=i+1; j<m_userList.size(); j++){
-				uj = (_MMBAdaptStruct) m_userList.get(j);
-				// print out the process of sampling edges
-				if (++sampleSize%100000==0) {
-					System.out.print('.');
-					if (sampleSize%50000000==0)
-						System.out.println();
-				}
-				// eij=1
-				if(ui.hasEdge(uj) && ui.getEdge(uj) == 1){
-					long start = System.currentTimeMillis();
-					eij = 1;
-					// remove the connection for B_gh, i->j \in g, j->i \in h.
-					rmConnection(ui, uj, eij);
-					// update membership from ui->uj, remove the edge
-					updateEdgeMembership(i, j, eij);	
-					// sample new cluster for the edge
-					sampleEdge(i, j, eij);
-					// update membership from uj->ui, remove the edge
-					updateEdgeMembership(j, i, eij);
-					// sample new clusters for the two edges
-					sampleEdge(j, i, eij);
-					// add the new connection for B_g'h', i->j \in g', j->i \in h'
-					addConnection(ui, uj, eij);
-					long end = System.currentTimeMillis();
-					m_time[1] += (end - start);
-				// eij = 0
-				}else if(ui.hasEdge(uj) && ui.getEdge(uj) == 0){
-					long start = System.currentTimeMillis();
-					eij = 0;
-					// use bernoulli distribution to decide whether it is background or mmb
-					p_bk = 1-m_rho;
-					p_mmb_0 = Math.exp(calcLogLikelihoodE(m_indicator[i][j], m_indicator[j][i], 0));
-					m_bernoulli = new BinomialDistribution(1, p_mmb_0/(p_bk + p_mmb_0));
-					// the edge belongs to bk
-					if(m_bernoulli.sample() == 0){
-						// remove the connection for B_gh, i->j \in g, j->i \in h.
-						rmConnection(ui, uj, eij);
-						// update membership from ui->uj, uj->ui
-						updateEdgeMembership(i, j, eij);
-						updateEdgeMembership(j, i, eij);
-						updateSampleSize(2, 2);
-					} else{
-						rmConnection(ui, uj, eij);
-						updateEdgeMembership(i, j, eij);	
-						sampleEdge(i, j, eij);
-						// update membership from uj->ui, remove the edge
-						updateEdgeMembership(j, i, eij);
-						sampleEdge(j, i, eij);
-						addConnection(ui, uj, eij);
-					}
-					long end = System.currentTimeMillis();
-					m_time[0] += (end - start);
-				} else{
-					long start = System.currentTimeMillis();
-					// remove the two edges from background model
-					updateSampleSize(2, -2);
-					sampleZeroEdgeJoint(i, j);
-					long end = System.currentTimeMillis();
-					m_time[2] += (end - start);
-				}
+		
+		// only the observed edges are visited: edges e_ij=1, zero edges in mmb, and then the background pairs in aggregate
+		long start = System.currentTimeMillis();
+		sampleFriendEdges();
+		m_time[1] += System.currentTimeMillis() - start;
+		
+		// backwards, so that the edges moved by removeZeroEdge() are not visited again
+		start = System.currentTimeMillis();
+		for(int s=m_edgeSize-1; s>=m_friendGraph.getNNZ(); s--){
+			// use bernoulli distribution to decide whether it is background or mmb
+			p_bk = 1-m_rho;
+			p_mmb_0 = Math.exp(calcLogLikelihoodE(m_edgeThetas[2*s], m_edgeThetas[2*s+1], 0));
+			m_bernoulli = new BinomialDistribution(1, p_mmb_0/(p_bk + p_mmb_0));
+			// the edge belongs to bk
+			if(m_bernoulli.sample() == 0){
+				// remove the connection for B_gh, i->j \in g, j->i \in h.
+				rmConnection(s, eij);
+				// update membership from ui->uj, uj->ui
+				updateEdgeMembership(s, 0, eij);
+				updateEdgeMembership(s, 1, eij);
+				removeZeroEdge(s);
+				updateSampleSize(2, 2);
+			} else{
+				rmConnection(s, eij);
+				updateEdgeMembership(s, 0, eij);	
+				sampleEdge(s, 0, eij);
+				// update membership from uj->ui, remove the edge
+				updateEdgeMembership(s, 1, eij);
+				sampleEdge(s, 1, eij);
+				addConnection(s, eij);
 			}
 		}
+		m_time[0] += System.currentTimeMillis() - start;
+		
+		start = System.currentTimeMillis();
+		sampleBackgroundEdges();
+		m_time[2] += System.currentTimeMillis() - start;
+		
 		mmb_0.add((int) m_MNL[0]); mmb_1.add((int) m_MNL[1]);bk_0.add((int) m_MNL[2]);
 		System.out.print(String.format("\n[Time]Sampling: mmb_0: %.3f secs, mmb_1: %.3f secs, bk_0: %.3f secs\n", (double)m_time[0]/1000, (double)m_time[1]/1000, (double)m_time[2]/1000));
 		System.out.print(String.format("\n[Info]kBar: %d, background prob: %.5f, eij=0(mmb): %.1f, eij=1:%.1f, eij=0(background):%.1f\n", m_kBar, 1-m_rho, m_MNL[0], m_MNL[1],m_MNL[2]));
 	}
 	
+	// resample the memberships of all the edges e_ij=1, which always belong to mmb
+	protected void sampleFriendEdges(){
+		int eij = 1;
+		for(int s=0; s<m_friendGraph.getNNZ(); s++){
+			// remove the connection for B_gh, i->j \in g, j->i \in h.
+			rmConnection(s, eij);
+			// update membership from ui->uj, remove the edge
+			updateEdgeMembership(s, 0, eij);	
+			// sample new cluster for the edge
+			sampleEdge(s, 0, eij);
+			// update membership from uj->ui, remove the edge
+			updateEdgeMembership(s, 1, eij);
+			// sample new clusters for the two edges
+			sampleEdge(s, 1, eij);
+			// add the new connection for B_g'h', i->j \in g', j->i \in h'
+			addConnection(s, eij);
+		}
+	}
+	
+	// index the friend edges as the first pairs in mmb, the zero edges are added by sampleZeroEdgeJoint()
+	protected void initEdges(){
+		int nnz = m_friendGraph.getNNZ(), size = Math.max(16, 2*nnz);
+		m_edgeUsers = new int[2*size];
+		m_edgeThetas = new _HDPThetaStar[2*size];
+		for(int i=0; i<m_userList.size(); i++){
+			for(int s=m_friendGraph.getRowStart(i); s<m_friendGraph.getRowEnd(i); s++){
+				m_edgeUsers[2*s] = i;
+				m_edgeUsers[2*s+1] = m_friendGraph.getColumn(s);
+			}
+		}
+		m_edgeSize = nnz;
+		m_zeroKeys = new long[16];
+		m_zeroEdges = new int[16];
+	}
+	
+	// whether the pair (i, j) is currently assigned to mmb
+	protected boolean hasEdge(int i, int j){
+		if(i > j)
+			return hasEdge(j, i);
+		return m_friendGraph.findColumn(i, j) >= 0 || findZeroEdge(i, j) >= 0;
+	}
+	
+	protected long zeroEdgeKey(int i, int j){
+		return (long) i * m_userList.size() + j + 1;
+	}
+	
+	protected int zeroEdgeHash(long key){
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32)) & (m_zeroKeys.length - 1);
+	}
+	
+	// the index s of the zero edge (i<j) in mmb, -1 if it is not in mmb
+	protected int findZeroEdge(int i, int j){
+		long key = zeroEdgeKey(i, j);
+		for(int h=zeroEdgeHash(key); m_zeroKeys[h]!=0; h=(h+1)&(m_zeroKeys.length-1)){
+			if(m_zeroKeys[h] == key)
+				return m_zeroEdges[h];
+		}
+		return -1;
+	}
+	
+	// insert or update the index of a zero edge
+	protected void putZeroEdge(long key, int s){
+		int h = zeroEdgeHash(key);
+		while(m_zeroKeys[h] != 0 && m_zeroKeys[h] != key)
+			h = (h+1) & (m_zeroKeys.length-1);
+		m_zeroKeys[h] = key;
+		m_zeroEdges[h] = s;
+	}
+	
+	// append the zero edge (i<j) to mmb with its memberships to be set by the caller
+	protected int addZeroEdge(int i, int j){
+		if(2*(m_edgeSize+1) > m_edgeUsers.length){
+			m_edgeUsers = Arrays.copyOf(m_edgeUsers, 2*m_edgeUsers.length);
+			m_edgeThetas = Arrays.copyOf(m_edgeThetas, 2*m_edgeThetas.length);
+		}
+		// keep the index at most half full
+		if(2*(m_edgeSize-m_friendGraph.getNNZ()+1) > m_zeroKeys.length){
+			long[] keys = m_zeroKeys;
+			int[] edges = m_zeroEdges;
+			m_zeroKeys = new long[2*keys.length];
+			m_zeroEdges = new int[2*keys.length];
+			for(int h=0; h<keys.length; h++){
+				if(keys[h] != 0)
+					putZeroEdge(keys[h], edges[h]);
+			}
+		}
+		
+		int s = m_edgeSize++;
+		m_edgeUsers[2*s] = i;
+		m_edgeUsers[2*s+1] = j;
+		putZeroEdge(zeroEdgeKey(i, j), s);
+		return s;
+	}
+	
+	// remove the zero edge s from mmb after its memberships are removed, the last edge is moved to s
+	protected void removeZeroEdge(int s){
+		int mask = m_zeroKeys.length-1, h = zeroEdgeHash(zeroEdgeKey(m_edgeUsers[2*s], m_edgeUsers[2*s+1])), home;
+		long key = zeroEdgeKey(m_edgeUsers[2*s], m_edgeUsers[2*s+1]);
+		while(m_zeroKeys[h] != key)
+			h = (h+1) & mask;
+		// shift the following entries back into the hole unless they are already at their hash
+		for(int next=(h+1)&mask; m_zeroKeys[next]!=0; next=(next+1)&mask){
+			home = zeroEdgeHash(m_zeroKeys[next]);
+			if(((next-home)&mask) >= ((next-h)&mask)){
+				m_zeroKeys[h] = m_zeroKeys[next];
+				m_zeroEdges[h] = m_zeroEdges[next];
+				h = next;
+			}
+		}
+		m_zeroKeys[h] = 0;
+		
+		int last = --m_edgeSize;
+		if(s != last){
+			m_edgeUsers[2*s] = m_edgeUsers[2*last];
+			m_edgeUsers[2*s+1] = m_edgeUsers[2*last+1];
+			m_edgeThetas[2*s] = m_edgeThetas[2*last];
+			m_edgeThetas[2*s+1] = m_edgeThetas[2*last+1];
+			putZeroEdge(zeroEdgeKey(m_edgeUsers[2*s], m_edgeUsers[2*s+1]), s);
+		}
+		m_edgeThetas[2*last] = null;
+		m_edgeThetas[2*last+1] = null;
+	}
+	
+	/**Resample the pairs currently from the background model in aggregate.
+	 * The joint probabilities in sampleZeroEdgeJoint() do not depend on the users, so in a sequential scan
+	 * every background pair leaves the background with the same probability q=1-(1-\rho)/Z, until one of them does.
+	 * Instead of visiting all of them, we skip over the pairs staying in the background by a geometric draw,
+	 * pick the pair leaving it uniformly by rejection (most pairs are background pairs in a sparse network),
+	 * sample its memberships in mmb, and update q with the new edge counts.
+	 * The cost is proportional to the number of pairs moved into mmb rather than the number of user pairs.**/
+	protected void sampleBackgroundEdges(){
+		long remaining = (long) (m_MNL[2]/2);
+		double q, logBk = Math.log(1-m_rho);
+		int i, j, userSize = m_userList.size();
+		while(remaining > 0){
+			q = 1 - Math.exp(logBk - calcLogZeroEdgeJoint(null, true));
+			if(q <= 0)
+				break;
+			else if(q < 1){
+				// number of pairs staying in the background before the next one leaves
+				double skip = Math.floor(Math.log(1 - Math.random()) / Math.log1p(-q));
+				if(skip >= remaining)
+					break;
+				remaining -= (long) skip;
+			}
+			remaining --;
+			
+			do{
+				i = (int) (Math.random() * userSize);
+				j = (int) (Math.random() * userSize);
+			} while(i == j || hasEdge(i, j));
+			// remove the two edges from background model
+			updateSampleSize(2, -2);
+			sampleZeroEdgeJoint(Math.min(i, j), Math.max(i, j), false);
+		}
+	}
+	
 	// calculate the average friend number of training users, testing users.
 	// it only applies to the two set of training and testing users.
 	public void calculateFrdStat(){
@@ -530,35 +640,25 @@ public class CLRWithMMB extends CLRWithHDP {
 	
 	public void initThetaStars_Edges_Joint(){
 		calcProbNew();
-		_MMBAdaptStruct ui, uj;
-		int sampleSize = 0;
+		buildFriendGraph();
+		initEdges();
 		// add the friends one by one.
-		for(int i=0; i< m_userList.size(); i++){
-			ui = (_MMBAdaptStruct) m_userList.get(i);
-			for(int j=i+1; j<m_userList.size(); j++){
-				// print out the process of sampling edges
-				if (++sampleSize%100000==0) {
-					System.out.print('.');
-					if (sampleSize%50000000==0)
-						System.out.println();
-				}
-				uj = (_MMBAdaptStruct) m_userList.get(j);
-				// if ui and uj are friends, random sample clusters for the two connections
-				// e_ij = 1, z_{i->j}, e_ji = 1, z_{j -> i} = 1
-				if(ui.getUser().hasFriend(uj.getUserID())){
-					// sample two edges between i and j
-					randomSampleEdges(i, j, 1);
-					// add the edge assignment to corresponding cluster
-					// we have to add connections after we know the two edge assignment (the clusters for i->j and j->i)
-					addConnection(ui, uj, 1);
-					// update the sample size with the specified index and value
-					// index 0 : e_ij = 0 from mmb; index 1 : e_ij = 1 from mmb; index 2 : 0 from background model
-					updateSampleSize(1, 2);
-				} else{
-					sampleZeroEdgeJoint(i, j);
-				}
-			}
+		for(int s=0; s<m_friendGraph.getNNZ(); s++){
+			// if ui and uj are friends, random sample clusters for the two connections
+			// e_ij = 1, z_{i->j}, e_ji = 1, z_{j -> i} = 1
+			// sample two edges between i and j
+			randomSampleEdges(s, 1);
+			// add the edge assignment to corresponding cluster
+			// we have to add connections after we know the two edge assignment (the clusters for i->j and j->i)
+			addConnection(s, 1);
+			// update the sample size with the specified index and value
+			// index 0 : e_ij = 0 from mmb; index 1 : e_ij = 1 from mmb; index 2 : 0 from background model
+			updateSampleSize(1, 2);
 		}
+		// all the other pairs start from the background model, and then get sampled jointly in aggregate
+		long userSize = m_userList.size();
+		m_MNL[2] += 2.0 * (userSize*(userSize-1)/2 - m_friendGraph.getNNZ());
+		sampleBackgroundEdges();
 		mmb_0.add((int) m_MNL[0]); mmb_1.add((int) m_MNL[1]);bk_0.add((int) m_MNL[2]);
 		System.out.print(String.format("\n[Info]kBar: %d, background prob: %.5f, eij=0(mmb): %.1f, eij=1:%.1f, eij=0(background):%.1f\n", m_kBar, 1-m_rho, m_MNL[0], m_MNL[1],m_MNL[2]));
 	}
@@ -569,7 +669,46 @@ public class CLRWithMMB extends CLRWithHDP {
 		for(_User user:userList)
 			m_userList.add(new _MMBAdaptStruct(user));
 		m_pWeights = new double[m_gWeights.length];			
-		m_indicator = new _HDPThetaStar[m_userList.size()][m_userList.size()];
+	}
+	
+	// index the users by their positions and build the friendship graph between them, a pair i<j is connected if user i lists user j as a friend
+	protected void buildFriendGraph(){
+		HashMap<String, Integer> userIndex = new HashMap<String, Integer>();
+		for(int i=0; i<m_userList.size(); i++){
+			((_MMBAdaptStruct) m_userList.get(i)).setId(i);
+			userIndex.put(m_userList.get(i).getUserID(), i);
+		}
+		
+		int[][] friends = new int[m_userList.size()][];
+		int nnz = 0;
+		for(int i=0; i<m_userList.size(); i++){
+			String[] frds = m_userList.get(i).getUser().getFriends();
+			int size = 0;
+			friends[i] = new int[frds == null ? 0 : frds.length];
+			if(frds != null){
+				for(String f: frds){
+					Integer j = userIndex.get(f);
+					if(j != null && j > i)
+						friends[i][size++] = j;
+				}
+			}
+			// remove the duplicated friends
+			Arrays.sort(friends[i], 0, size);
+			int unique = 0;
+			for(int p=0; p<size; p++){
+				if(unique == 0 || friends[i][p] != friends[i][unique-1])
+					friends[i][unique++] = friends[i][p];
+			}
+			friends[i] = Arrays.copyOf(friends[i], unique);
+			nnz += unique;
+		}
+		
+		m_friendGraph = new CSRGraph(m_userList.size(), nnz);
+		for(int i=0; i<m_userList.size(); i++){
+			for(int j: friends[i])
+				m_friendGraph.addEdge(j, 1);
+			m_friendGraph.endRow();
+		}
 	}
 	
 	// MLE of B matrix
@@ -592,18 +731,18 @@ public class CLRWithMMB extends CLRWithHDP {
 		return B;
 	}
 
-	// if ui and uj are friends, random sample clusters for the two connections
+	// if ui and uj are friends, random sample clusters for the two connections of pair s
 	// e_ij = 1, z_{i->j}, e_ji = 1, z_{j -> i} = 1
-	protected void randomSampleEdges(int i, int j, int e){
-		randomSampleEdge(i, j, e);
-		randomSampleEdge(j, i, e);
+	protected void randomSampleEdges(int s, int e){
+		randomSampleEdge(s, 0, e);
+		randomSampleEdge(s, 1, e);
 	}
 	
 	/*** In order to avoid creating too many thetas, we randomly assign nodes to thetas at beginning.
-	 *   and this sampling function is only used for initial states.***/
-	private void randomSampleEdge(int i,int j, int e){
-		_MMBAdaptStruct ui = (_MMBAdaptStruct) m_userList.get(i);
-		_MMBAdaptStruct uj = (_MMBAdaptStruct) m_userList.get(j);
+	 *   and this sampling function is only used for initial states.
+	 *   d=0: z_{i->j}, d=1: z_{j->i} of pair s.***/
+	private void randomSampleEdge(int s, int d, int e){
+		_MMBAdaptStruct ui = (_MMBAdaptStruct) m_userList.get(m_edgeUsers[2*s+d]);
 		
 		// Random sample one cluster.
 		int k = (int) (Math.random() * m_kBar);
@@ -611,21 +750,15 @@ public class CLRWithMMB extends CLRWithHDP {
 		// Step 3: update the setting after sampling z_ij
 		// update the edge count for the cluster: first param means edge (0 or 1), the second one mean increase by 1.
 		m_hdpThetaStars[k].updateEdgeCount(e, 1);
-		// update the neighbor information to the neighbor hashmap 
-		ui.addNeighbor(uj, m_hdpThetaStars[k], e);
+		// update the membership of the edge
+		m_edgeThetas[2*s+d] = m_hdpThetaStars[k];
 		// update the user info with the newly sampled hdpThetaStar
 		ui.incHDPThetaStarEdgeSize(m_hdpThetaStars[k], 1);//-->3	
-			
-		// Step 5: Put the cluster info in the matrix for later use
-		// Since we have all the info, we don't need to put the theta info in the _MMBNeighbor structure.
-		m_indicator[i][j] = m_hdpThetaStars[k];
 	}
 
-	// remove the connection between ui and uj, where i->j \in g, j->i \in h.
-	public void rmConnection(_MMBAdaptStruct ui, _MMBAdaptStruct uj, int e){
-		_HDPThetaStar theta_g, theta_h;
-		theta_g = ui.getOneNeighbor(uj).getHDPThetaStar();
-		theta_h = uj.getOneNeighbor(ui).getHDPThetaStar();
+	// remove the connection of pair s, where i->j \in g, j->i \in h.
+	public void rmConnection(int s, int e){
+		_HDPThetaStar theta_g = m_edgeThetas[2*s], theta_h = m_edgeThetas[2*s+1];
 		theta_g.rmConnection(theta_h, e);
 		theta_h.rmConnection(theta_g, e);
 	}
@@ -633,38 +766,32 @@ public class CLRWithMMB extends CLRWithHDP {
 	// we assume all zero edges are from mmb first
 	// then utilize bernoulli to sample edges from background model
 	protected void sampleC(){
-		_MMBAdaptStruct ui, uj;
 		double p_mmb_0 = 0, p_bk = 1-m_rho;
-		for(int i=0; i<m_userList.size(); i++){
-			ui = (_MMBAdaptStruct) m_userList.get(i);
-			for(int j=i+1; j<m_userList.size(); j++){
-				uj = (_MMBAdaptStruct) m_userList.get(j);
-				// eij = 0 from mmb ( should be all zero edges)
-				if(ui.hasEdge(uj) && ui.getEdge(uj) == 0){
-					// bernoulli distribution to decide whether it is background or mmb
-					p_mmb_0 = Math.exp(calcLogLikelihoodE(m_indicator[i][j], m_indicator[j][i], 0));
-					m_bernoulli = new BinomialDistribution(1, p_mmb_0/(p_bk + p_mmb_0));
-					// the edge belongs to bk
-					if(m_bernoulli.sample() == 0){
-						rmConnection(ui, uj, 0);
-						updateEdgeMembership(i, j, 0);
-						updateEdgeMembership(j, i, 0);
-						updateSampleSize(2, 2);
-					}
-					// if the edge belongs to mmb, we just keep it
-				}
+		// eij = 0 from mmb ( should be all zero edges), backwards as removeZeroEdge() moves the last edge
+		for(int s=m_edgeSize-1; s>=m_friendGraph.getNNZ(); s--){
+			// bernoulli distribution to decide whether it is background or mmb
+			p_mmb_0 = Math.exp(calcLogLikelihoodE(m_edgeThetas[2*s], m_edgeThetas[2*s+1], 0));
+			m_bernoulli = new BinomialDistribution(1, p_mmb_0/(p_bk + p_mmb_0));
+			// the edge belongs to bk
+			if(m_bernoulli.sample() == 0){
+				rmConnection(s, 0);
+				updateEdgeMembership(s, 0, 0);
+				updateEdgeMembership(s, 1, 0);
+				removeZeroEdge(s);
+				updateSampleSize(2, 2);
 			}
+			// if the edge belongs to mmb, we just keep it
 		}
 		mmb_0.add((int) m_MNL[0]); mmb_1.add((int) m_MNL[1]);bk_0.add((int) m_MNL[2]);
 		System.out.print(String.format("\n[Info]kBar: %d, background prob: %.5f, eij=0(mmb): %.1f, eij=1:%.1f, eij=0(background):%.1f\n", m_kBar, 1-m_rho, m_MNL[0], m_MNL[1],m_MNL[2]));
 	}
 	
-	protected void sampleEdge(int i, int j, int e){
+	// sample z_{i->j} (d=0) or z_{j->i} (d=1) of pair s given the other one
+	protected void sampleEdge(int s, int d, int e){
 		int k = 0;
-		_HDPThetaStar theta_s, theta_h = m_indicator[j][i];
 		double likelihood, logNew, gamma_k, logSum = 0;
-		_MMBAdaptStruct ui = (_MMBAdaptStruct) m_userList.get(i);
-		_MMBAdaptStruct uj = (_MMBAdaptStruct) m_userList.get(j);
+		_MMBAdaptStruct ui = (_MMBAdaptStruct) m_userList.get(m_edgeUsers[2*s+d]);
+		_HDPThetaStar theta_s, theta_h = m_edgeThetas[2*s+1-d];
 
 		for(k=0; k<m_kBar; k++){			
 			//log likelihood of the edge p(e_{ij}, z, B)
@@ -688,11 +815,11 @@ public class CLRWithMMB extends CLRWithHDP {
 			if(k==0) 
 				logSum = likelihood;
 			else 
-				logSum = Utils.logSum(logSum, likelihood);
+				logSum = Numerics.logSum(logSum, likelihood);
 		}
 		// fix1: the probability for new cluster
 		logNew = Math.log(m_eta*m_gamma_e) + m_pNew[e];
-		logSum = Utils.logSum(logSum, logNew);
+		logSum = Numerics.logSum(logSum, logNew);
 	
 		//Sample group k with likelihood.
 		k = sampleEdgeInLogSpace(logSum, e);
@@ -706,13 +833,9 @@ public class CLRWithMMB extends CLRWithHDP {
 	
 		m_MNL[e]++;
 		// update the user info with the newly sampled hdpThetaStar.
-		ui.addNeighbor(uj, m_hdpThetaStars[k], e);
+		m_edgeThetas[2*s+d] = m_hdpThetaStars[k];
 	
 		ui.incHDPThetaStarEdgeSize(m_hdpThetaStars[k], 1);//-->3	
-	
-		// Put the reference to the matrix for later usage.
-		// Since we have all the info, we don't need to put the theta info in the _MMBNeighbor structure.
-		m_indicator[i][j] = m_hdpThetaStars[k];
 	}
 	
 	//Sample hdpThetaStar with likelihood.
@@ -726,7 +849,7 @@ public class CLRWithMMB extends CLRWithHDP {
 			if (newLogSum>=logSum)
 				break;
 			k++;
-			newLogSum = Utils.logSum(newLogSum, m_hdpThetaStars[k].getProportion());
+			newLogSum = Numerics.logSum(newLogSum, m_hdpThetaStars[k].getProportion());
 		} while (k<m_kBar);
 			
 		if (k==m_kBar)
@@ -752,104 +875,126 @@ public class CLRWithMMB extends CLRWithHDP {
 	 			k--; // we might hit the very last
 	 			return k;
 	 		}
-	 		newLogSum = Utils.logSum(newLogSum, cacheB[k/(m_kBar+1)][k%(m_kBar+1)]);
+	 		newLogSum = Numerics.logSum(newLogSum, cacheB[k/(m_kBar+1)][k%(m_kBar+1)]);
 	 			
 	 	} while (k<(m_kBar+1)*(m_kBar+1));
 	 	return k;
 	 }
 
 	// sample eij = 0 from the joint probabilities of cij, zij and zji.
- 	public void sampleZeroEdgeJoint(int i, int j){
- 		/**we will consider all possible combinations of different memberships.
- 		 * 1.cij=0, cji=0, prob: (1-\rho), 1 case
- 		 * 2.cij=1, cji=1, known (Bgh, Bhg), prob: \rho(1-Bgh), k(k+1)/2 possible cases
- 		 * posterior prob: \rho*(b+e_0)/(a+b+e_0+e_1)
- 		 * 3.cij=1, cji=1, unknows (Bgh, Bhg), prob: \rho*b/(a+b), k+1 possible cases 
- 		 * In total, we have (k+1)*(k+2)/2+1 possible cases. **/
- 		// Step 1: calc prob for different cases of cij, cji.
- 		// case 0: background model while the prob is not stored in the two-dim array.
- 		double logSum = Math.log(1-m_rho);
- 		/**We maintain a matrix for storing probability. As the matrix is 
- 		 * symmetric, we only calculate upper-triangle. **/
- 		double[][] cacheB = new double[m_kBar+1][m_kBar+1];
- 		for(double[] b: cacheB)
- 			Arrays.fill(b, Double.NEGATIVE_INFINITY);
- 		
- 		_MMBAdaptStruct ui = (_MMBAdaptStruct) m_userList.get(i);
- 		_MMBAdaptStruct uj = (_MMBAdaptStruct) m_userList.get(j);
- 
- 		_HDPThetaStar theta_g, theta_h;
- 		// case 1: existing thetas.
- 		for(int g=0; g<m_kBar; g++){
- 			theta_g = m_hdpThetaStars[g];
- 			for(int h=g; h<m_kBar; h++){
- 				theta_h = m_hdpThetaStars[h];
- 				cacheB[g][h] = calcLogLikelihoodE(theta_g, theta_h, 0);
- 				cacheB[g][h] += Math.log(theta_g.getGamma()) + Math.log(theta_h.getGamma());
- 				if(g == h){
- 					logSum = Utils.logSum(logSum, cacheB[g][h]);
- 				} else{
- 					cacheB[h][g] = cacheB[g][h];
- 					// we need to add twice of logp.
- 					logSum = Utils.logSum(logSum, cacheB[h][g]+m_log2);
- 				}
- 			}
- 		}
- 		// case 2: either one is from new cluster.
- 		// pre-calculate \rho*(b/(a+b))*\gamma_e
- 		double pNew = Math.log(m_rho) + Math.log(m_abcd[1]) - Math.log(m_abcd[0] + m_abcd[1]);
- 		double gamma_g = 0;
- 		for(int k=0; k<m_kBar; k++){
- 			gamma_g = m_hdpThetaStars[k].getGamma();
- 			// if either one is 0, then prob is 0 -> log prob = -Infinity
- 			if(m_gamma_e != 0 && gamma_g != 0){
- 	 			cacheB[k][m_kBar] = pNew + Math.log(m_gamma_e) + Math.log(gamma_g);
- 	 			cacheB[m_kBar][k] = cacheB[k][m_kBar];
- 	 			logSum = Utils.logSum(logSum, cacheB[k][m_kBar]+m_log2);
- 			}
-  		}
- 		// both are from new clusters.
- 		if(m_gamma_e != 0){
- 	 		cacheB[m_kBar][m_kBar] = pNew + Math.log(m_gamma_e) + m_log2;
- 	 		logSum = Utils.logSum(logSum, cacheB[m_kBar][m_kBar]);
- 		} 	
- 		
-  		// Step 2: sample one pair from the prob matrix.
- 		int k = sampleIn2DimArrayLogSpace(logSum, Math.log(1-m_rho), cacheB);
-  		
-  		// Step 3: Analyze the sampled cluster results.
-  		// case 1: k == -1, sample from the background model;
- 		// case 2: k!= 1, sample from mmb model.
- 		int g = 0, h = 0;
- 		if(k != -1){
- 			g = k / (m_kBar+1);
- 			h = k % (m_kBar+1);
- 			if(g == m_kBar || h == m_kBar){
- 				// we need to sample the new cluster
- 				sampleNewCluster4Edge();// shall we consider the current edge?? posterior sampling??
- 			}
- 			// Update the thetaStar and user info after getting z_ij.
- 			m_hdpThetaStars[g].updateEdgeCount(0, 1);//-->1
- 			ui.addNeighbor(uj, m_hdpThetaStars[g], 0);
- 			ui.incHDPThetaStarEdgeSize(m_hdpThetaStars[g], 1);	
- 			m_indicator[i][j] = m_hdpThetaStars[g];
- 			updateSampleSize(0, 1);
- 			
- 			// Update the thetaStar and user info after getting z_ji.
- 			m_hdpThetaStars[h].updateEdgeCount(0, 1);
- 			uj.addNeighbor(ui, m_hdpThetaStars[h], 0);
- 			uj.incHDPThetaStarEdgeSize(m_hdpThetaStars[h], 1);
-  			m_indicator[j][i] = m_hdpThetaStars[h];
-  			updateSampleSize(0, 1);
-  			addConnection(ui, uj, 0);
-  		} else{
-  			updateSampleSize(2, 2);
-  		}
-  	}
+	public void sampleZeroEdgeJoint(int i, int j){
+		sampleZeroEdgeJoint(i, j, true);
+	}
+	
+	// if background is false, the pair is known to be from mmb (see sampleBackgroundEdges()) and only the memberships are sampled
+	protected void sampleZeroEdgeJoint(int i, int j, boolean background){
+		// Step 1: calc prob for different cases of cij, cji.
+		double[][] cacheB = new double[m_kBar+1][m_kBar+1];
+		double logSum = calcLogZeroEdgeJoint(cacheB, background);
+		
+		_MMBAdaptStruct ui = (_MMBAdaptStruct) m_userList.get(i);
+		_MMBAdaptStruct uj = (_MMBAdaptStruct) m_userList.get(j);
+		
+		// Step 2: sample one pair from the prob matrix.
+		int k = sampleIn2DimArrayLogSpace(logSum, background ? Math.log(1-m_rho) : Double.NEGATIVE_INFINITY, cacheB);
+		
+		// Step 3: Analyze the sampled cluster results.
+		// case 1: k == -1, sample from the background model;
+		// case 2: k!= 1, sample from mmb model.
+		int g = 0, h = 0;
+		if(k != -1){
+			g = k / (m_kBar+1);
+			h = k % (m_kBar+1);
+			if(g == m_kBar || h == m_kBar){
+				// we need to sample the new cluster
+				sampleNewCluster4Edge();// shall we consider the current edge?? posterior sampling??
+			}
+			int s = addZeroEdge(i, j);
+			// Update the thetaStar and user info after getting z_ij.
+			m_hdpThetaStars[g].updateEdgeCount(0, 1);//-->1
+			m_edgeThetas[2*s] = m_hdpThetaStars[g];
+			ui.incHDPThetaStarEdgeSize(m_hdpThetaStars[g], 1);	
+			updateSampleSize(0, 1);
+			
+			// Update the thetaStar and user info after getting z_ji.
+			m_hdpThetaStars[h].updateEdgeCount(0, 1);
+			m_edgeThetas[2*s+1] = m_hdpThetaStars[h];
+			uj.incHDPThetaStarEdgeSize(m_hdpThetaStars[h], 1);
+			updateSampleSize(0, 1);
+			addConnection(s, 0);
+		} else{
+			updateSampleSize(2, 2);
+		}
+	}
+	
+	/**we will consider all possible combinations of different memberships.
+	 * 1.cij=0, cji=0, prob: (1-\rho), 1 case
+	 * 2.cij=1, cji=1, known (Bgh, Bhg), prob: \rho(1-Bgh), k(k+1)/2 possible cases
+	 * posterior prob: \rho*(b+e_0)/(a+b+e_0+e_1)
+	 * 3.cij=1, cji=1, unknows (Bgh, Bhg), prob: \rho*b/(a+b), k+1 possible cases 
+	 * In total, we have (k+1)*(k+2)/2+1 possible cases. 
+	 * None of them depends on the two users, the log probabilities of case 2 and 3 are stored in cacheB (if not null)
+	 * and the log normalizer (including case 1 if background is true) is returned.**/
+	protected double calcLogZeroEdgeJoint(double[][] cacheB, boolean background){
+		// case 0: background model while the prob is not stored in the two-dim array.
+		double logSum = background ? Math.log(1-m_rho) : Double.NEGATIVE_INFINITY, prob;
+		/**We maintain a matrix for storing probability. As the matrix is 
+		 * symmetric, we only calculate upper-triangle. **/
+		if(cacheB != null){
+			for(double[] b: cacheB)
+				Arrays.fill(b, Double.NEGATIVE_INFINITY);
+		}
+		
+		_HDPThetaStar theta_g, theta_h;
+		// case 1: existing thetas.
+		for(int g=0; g<m_kBar; g++){
+			theta_g = m_hdpThetaStars[g];
+			for(int h=g; h<m_kBar; h++){
+				theta_h = m_hdpThetaStars[h];
+				prob = calcLogLikelihoodE(theta_g, theta_h, 0);
+				prob += Math.log(theta_g.getGamma()) + Math.log(theta_h.getGamma());
+				if(cacheB != null){
+					cacheB[g][h] = prob;
+					cacheB[h][g] = prob;
+				}
+				if(g == h){
+					logSum = Numerics.logSum(logSum, prob);
+				} else{
+					// we need to add twice of logp.
+					logSum = Numerics.logSum(logSum, prob+m_log2);
+				}
+			}
+		}
+		// case 2: either one is from new cluster.
+		// pre-calculate \rho*(b/(a+b))*\gamma_e
+		double pNew = Math.log(m_rho) + Math.log(m_abcd[1]) - Math.log(m_abcd[0] + m_abcd[1]);
+		double gamma_g = 0;
+		for(int k=0; k<m_kBar; k++){
+			gamma_g = m_hdpThetaStars[k].getGamma();
+			// if either one is 0, then prob is 0 -> log prob = -Infinity
+			if(m_gamma_e != 0 && gamma_g != 0){
+				prob = pNew + Math.log(m_gamma_e) + Math.log(gamma_g);
+				if(cacheB != null){
+					cacheB[k][m_kBar] = prob;
+					cacheB[m_kBar][k] = prob;
+				}
+				logSum = Numerics.logSum(logSum, prob+m_log2);
+			}
+		}
+		// both are from new clusters.
+		if(m_gamma_e != 0){
+			prob = pNew + Math.log(m_gamma_e) + m_log2;
+			if(cacheB != null)
+				cacheB[m_kBar][m_kBar] = prob;
+			logSum = Numerics.logSum(logSum, prob);
+		}
+		return logSum;
+	}
 	
 	// Sample new cluster based on sampling of z_{i->j}, thus, the cluster will have edges info.
 	public void sampleNewCluster4Edge(){
 		// use the first available one as the new cluster.	
+		ensureThetaStarCapacity(m_kBar+1);
 		if (m_hdpThetaStars[m_kBar] == null){
 			if (this instanceof CLinAdaptWithMMB)// this should include all the inherited classes for adaptation based models
 				m_hdpThetaStars[m_kBar] = new _HDPThetaStar(2*m_dim);
@@ -870,6 +1015,7 @@ public class CLRWithMMB extends CLRWithHDP {
 	@Override
 	public void sampleThetaStars(){
 		double gamma_e = m_gamma_e/m_M;
+		ensureThetaStarCapacity(m_kBar+m_M);
 		for(int m=m_kBar; m<m_kBar+m_M; m++){
 			if (m_hdpThetaStars[m] == null){
 				if (this instanceof CLinAdaptWithMMB)// this should include all the inherited classes for adaptation based models
@@ -1161,15 +1307,15 @@ public class CLRWithMMB extends CLRWithHDP {
 		}
 	}
 	
-	public void updateEdgeMembership(int i, int j, int e){
-		_MMBAdaptStruct ui = (_MMBAdaptStruct) m_userList.get(i);
-		_MMBAdaptStruct uj = (_MMBAdaptStruct) m_userList.get(j);
+	// remove z_{i->j} (d=0) or z_{j->i} (d=1) of pair s
+	public void updateEdgeMembership(int s, int d, int e){
+		_MMBAdaptStruct ui = (_MMBAdaptStruct) m_userList.get(m_edgeUsers[2*s+d]);
 		
 		int index = -1;
-		_HDPThetaStar thetai = ui.getThetaStar(uj);
+		_HDPThetaStar thetai = m_edgeThetas[2*s+d];
 		
-		// remove the neighbor from user
-		ui.rmNeighbor(uj);
+		// remove the membership of the edge
+		m_edgeThetas[2*s+d] = null;
 		
 		// update the edge information inside the user
 		ui.incHDPThetaStarEdgeSize(thetai, -1);
@@ -1266,20 +1412,16 @@ public class CLRWithMMB extends CLRWithHDP {
 	public void printEdgeAssignment(String filename){
 		try{
 			PrintWriter writer = new PrintWriter(new File(filename));
-			_MMBAdaptStruct u1;
-			int eij = 0, index1 = 0, index2 = 0;
-			HashMap<_HDPAdaptStruct, _MMBNeighbor> neighbors;
-			for(int i=0; i<m_userList.size(); i++){
-				u1 = (_MMBAdaptStruct) m_userList.get(i);
-				neighbors = u1.getNeighbors();
-				for(_HDPAdaptStruct nei: neighbors.keySet()){
-					eij = u1.getNeighbors().get(nei).getEdge();
-					if(eij == 1){
-						index1 = neighbors.get(nei).getHDPThetaStarIndex();
-						index2 = ((_MMBAdaptStruct) nei).getNeighbors().get(u1).getHDPThetaStarIndex();
-						writer.write(String.format("%s,%s,%d,%d\n", u1.getUserID(), nei.getUserID(), index1, index2));
-					}
-				}
+			String u1, u2;
+			int index1 = 0, index2 = 0;
+			// the edges eij=1 in both directions
+			for(int s=0; s<m_friendGraph.getNNZ(); s++){
+				u1 = m_userList.get(m_edgeUsers[2*s]).getUserID();
+				u2 = m_userList.get(m_edgeUsers[2*s+1]).getUserID();
+				index1 = m_edgeThetas[2*s].getIndex();
+				index2 = m_edgeThetas[2*s+1].getIndex();
+				writer.write(String.format("%s,%s,%d,%d\n", u1, u2, index1, index2));
+				writer.write(String.format("%s,%s,%d,%d\n", u2, u1, index2, index1));
 			}
 			writer.close();
 		} catch(IOException e){
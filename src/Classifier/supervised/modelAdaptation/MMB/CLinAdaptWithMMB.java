@@ -6,7 +6,6 @@ import java.util.HashMap;
 import Classifier.supervised.modelAdaptation._AdaptStruct;
 import Classifier.supervised.modelAdaptation.DirichletProcess.DoubleNormalPrior;
 import structures._Doc;
-import structures._HDPThetaStar;
 import structures._Review;
 import structures._SparseFeature;
 import structures._User;
@@ -104,7 +103,6 @@ public class CLinAdaptWithMMB extends CLRWithMMB {
 			m_userList.add(new _MMBAdaptStruct(user, m_dim));
 		}
 		m_pWeights = new double[m_gWeights.length];	
-		m_indicator = new _HDPThetaStar[m_userList.size()][m_userList.size()];
 	}
 	
 	@Override
@@ -7,10 +7,10 @@ import Classifier.supervised.modelAdaptation.DirichletProcess.CLRWithDP;
 import Classifier.supervised.modelAdaptation.HDP._HDPAdaptStruct;
 import structures._Doc;
 import structures._HDPThetaStar;
-import structures._MMBNeighbor;
 import structures._Review;
 import structures._SparseFeature;
 import structures._User;
+import utils.Numerics;
 import utils.Utils;
 
 public class _MMBAdaptStruct extends _HDPAdaptStruct {
@@ -19,9 +19,6 @@ public class _MMBAdaptStruct extends _HDPAdaptStruct {
 	// key: global component parameter; val: edge size.
 	protected HashMap<_HDPThetaStar, Integer> m_hdpThetaEdgeSizeMap;
 	
-	// This is the uj and neighbor map.
-	// key: uj; val: group parameter-_HDPThetaStar.
-	protected HashMap<_HDPAdaptStruct, _MMBNeighbor> m_neighborMap;
 	// the mixture over global components
 	protected double[] m_mixture; 
 	
@@ -29,13 +26,11 @@ public class _MMBAdaptStruct extends _HDPAdaptStruct {
 	public _MMBAdaptStruct(_User user) {
 		super(user);
 		m_hdpThetaEdgeSizeMap = new HashMap<_HDPThetaStar, Integer>();
-		m_neighborMap = new HashMap<_HDPAdaptStruct, _MMBNeighbor>();
 	}
 
 	public _MMBAdaptStruct(_User user, int dim){
 		super(user, dim);
 		m_hdpThetaEdgeSizeMap = new HashMap<_HDPThetaStar, Integer>();
-		m_neighborMap = new HashMap<_HDPAdaptStruct, _MMBNeighbor>();
 	}
 	// used in link prediction
 	public _MMBAdaptStruct(_User user, double[] mix){
@@ -45,6 +40,11 @@ public class _MMBAdaptStruct extends _HDPAdaptStruct {
 	
 	
 	/********Functions used in MMB model.********/
+	// the index of the user in the model's user list
+	public void setId(int id){
+		m_id = id;
+	}
+	
 	public Collection<_HDPThetaStar> getHDPTheta4Edge(){
 		return m_hdpThetaEdgeSizeMap.keySet();
 	}
@@ -70,39 +70,6 @@ public class _MMBAdaptStruct extends _HDPAdaptStruct {
 			m_hdpThetaEdgeSizeMap.remove(s);
 	}
 	
-	// Check if the user has connection with another user, uj.
-	public boolean hasEdge(_HDPAdaptStruct uj){
-		if(m_neighborMap.containsKey(uj))
-			return true;
-		else
-			return false;
-	}
-	public int getEdge(_HDPAdaptStruct uj){
-		return m_neighborMap.get(uj).getEdge();
-	}
-	
-	// Add a neighbor, update the <Neighbor, ThetaStar> map and <Neighbor, edge_value> map.
-	public void addNeighbor(_HDPAdaptStruct uj, _HDPThetaStar theta, int e){
-		m_neighborMap.put(uj, new _MMBNeighbor(uj, theta, e));
-	}
-	
-	// Remove one neighbor, 
-	public void rmNeighbor(_HDPAdaptStruct uj){
-		m_neighborMap.remove(uj);
-	}
-	
-	// Get the group membership for the edge between i->j.
-	public _HDPThetaStar getThetaStar(_HDPAdaptStruct uj){
-		return m_neighborMap.get(uj).getHDPThetaStar();
-	}
-	
-	public _MMBNeighbor getOneNeighbor(_HDPAdaptStruct u){
-		return m_neighborMap.get(u);
-	}
-	public HashMap<_HDPAdaptStruct, _MMBNeighbor> getNeighbors(){
-		return m_neighborMap;
-	}
-	
 	@Override
 	public double evaluate(_Doc doc) {
 		_Review r = (_Review) doc;
@@ -121,7 +88,7 @@ public class _MMBAdaptStruct extends _HDPAdaptStruct {
 				if (k==0)
 					prob = probs[k] + Math.log(Utils.logistic(sum));
 				else
-					prob = Utils.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
+					prob = Numerics.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
 			}
 		} else {
 			double As[];
@@ -138,7 +105,7 @@ public class _MMBAdaptStruct extends _HDPAdaptStruct {
 				if (k==0)
 					prob = probs[k] + Math.log(Utils.logistic(sum));
 				else
-					prob = Utils.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
+					prob = Numerics.logSum(prob, probs[k] + Math.log(Utils.logistic(sum)));
 			}
 		}
 		
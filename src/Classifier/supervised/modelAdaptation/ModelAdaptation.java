@@ -51,6 +51,9 @@ public abstract class ModelAdaptation extends BaseClassifier {
 //	protected String m_dataset = "Amazon"; // Default dataset.
 	protected double[] m_perf = new double[2]; // added by Lin for retrieving performance after each test.
 	
+	protected int m_topK; // size of neighborhood in the collaborative models, fully connected when topK<0
+	protected String m_neighborhoodCache = null; // file to save/load the neighborhood graph
+	
 	// added by Lin.
 	public ModelAdaptation(int classNo, int featureSize) {
 		super(classNo, featureSize);
@@ -150,7 +153,30 @@ public abstract class ModelAdaptation extends BaseClassifier {
 	
 	abstract public void loadUsers(ArrayList<_User> userList);
 	
+	public void setNeighborhoodCache(String filename) {
+		m_neighborhoodCache = filename;
+	}
+	
 	protected void constructNeighborhood(final SimType sType) {
+		if (sType == SimType.ST_Rand || m_topK<=0 || m_topK>=m_userList.size()-1) {
+			constructFullNeighborhood(sType);
+			return;
+		}
+		
+		NeighborhoodBuilder builder = new NeighborhoodBuilder(m_userList, sType, m_topK);
+		builder.setNumberOfCores(m_numberOfCores);
+		if (m_neighborhoodCache==null || !builder.load(m_neighborhoodCache)) {
+			builder.build();
+			if (m_neighborhoodCache!=null)
+				builder.save(m_neighborhoodCache);
+		}
+		builder.apply();
+		
+		System.out.format("[Info]Neighborhood graph based on %s constructed for %d users...\n", sType, m_userList.size());
+	}
+	
+	//compare all the user pairs, only for random neighbors or a fully connected graph
+	protected void constructFullNeighborhood(final SimType sType) {
 		int numberOfCores = Runtime.getRuntime().availableProcessors();
 		ArrayList<Thread> threads = new ArrayList<Thread>();
 		
@@ -0,0 +1,394 @@
+package Classifier.supervised.modelAdaptation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import Classifier.supervised.modelAdaptation._AdaptStruct.SimType;
+import clustering.KMeansEngine;
+import structures.TopKHeap;
+import structures._SparseFeature;
+import structures._User;
+import utils.WorkerPool;
+
+/**
+ * Top-K neighborhood graph of the users without comparing all the user pairs.
+ * BoW profiles: the cosine similarities of a user are accumulated over the posting lists of its profile features,
+ * so only the users sharing a feature are scored and the result is exact.
+ * SVD profiles: the profiles are clustered by KMeansEngine and only the members of the m_probes closest clusters are compared,
+ * unless there are no more than m_exactSize users.
+ * The users are claimed in blocks by the threads of a WorkerPool, each with its own top-K heap;
+ * the graph can be saved to a binary cache file and loaded in later runs on the same users.
+ */
+public class NeighborhoodBuilder {
+	static final int CACHE_VERSION = 1;
+
+	ArrayList<_AdaptStruct> m_userList;
+	SimType m_sType;
+	int m_topK;
+
+	int[][] m_neighbors; // neighbors of each user, with the similarities in m_similarities
+	double[][] m_similarities;
+
+	int m_numberOfCores;
+	int m_blockSize = 64; // users claimed by a thread at a time
+	int m_exactSize = 10000;
+	int m_probes = 10; // number of closest clusters to search for SVD profiles
+
+	//unit length profiles: sparse for BoW, dense for SVD
+	int[][] m_indices;
+	double[][] m_values;
+
+	public NeighborhoodBuilder(ArrayList<_AdaptStruct> userList, SimType sType, int topK) {
+		m_userList = userList;
+		m_sType = sType;
+		m_topK = topK;
+		m_numberOfCores = Runtime.getRuntime().availableProcessors();
+	}
+
+	public void setNumberOfCores(int cores) {
+		m_numberOfCores = Math.max(1, cores);
+	}
+
+	public void setProbes(int probes, int exactSize) {
+		m_probes = probes;
+		m_exactSize = exactSize;
+	}
+
+	//the row i of the graph is computed by the given task with its own buffers
+	interface RowTask {
+		void run(int i);
+	}
+
+	interface RowTaskFactory {
+		RowTask create();
+	}
+
+	void parallelRows(final RowTaskFactory factory) {
+		final int N = m_userList.size();
+		final AtomicInteger nextBlock = new AtomicInteger(0);
+		Runnable[] tasks = new Runnable[m_numberOfCores];
+		for(int t=0; t<tasks.length; t++) {
+			tasks[t] = new Runnable() {
+				@Override
+				public void run() {
+					RowTask task = factory.create();
+					int start;
+					while((start=nextBlock.getAndIncrement()*m_blockSize)<N) {
+						for(int i=start; i<Math.min(N, start+m_blockSize); i++)
+							task.run(i);
+					}
+				}
+			};
+		}
+
+		if (tasks.length==1)
+			tasks[0].run();
+		else {
+			WorkerPool pool = new WorkerPool(tasks.length);
+			try {
+				pool.execute(tasks);
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	//keep the content of the heap as row i
+	void setRow(int i, TopKHeap heap) {
+		heap.sortDescending();
+		m_neighbors[i] = new int[heap.size()];
+		m_similarities[i] = new double[heap.size()];
+		for(int n=0; n<heap.size(); n++) {
+			m_neighbors[i][n] = heap.getId(n);
+			m_similarities[i][n] = heap.getValue(n);
+		}
+		heap.clear();
+	}
+
+	public void build() {
+		int N = m_userList.size();
+		m_neighbors = new int[N][];
+		m_similarities = new double[N][];
+
+		if (m_sType == SimType.ST_BoW)
+			buildBoW();
+		else if (m_sType == SimType.ST_SVD)
+			buildSVD();
+		else
+			throw new IllegalArgumentException("Unsupported similarity type for neighborhood construction: " + m_sType);
+
+		m_indices = null;
+		m_values = null;
+	}
+
+	void buildBoW() {
+		final int N = m_userList.size();
+		m_indices = new int[N][];
+		m_values = new double[N][];
+		int featureSize = 0;
+		for(int i=0; i<N; i++) {
+			_SparseFeature[] profile = m_userList.get(i).getUser().getBoWProfile();
+			int size = profile==null ? 0 : profile.length;
+			double norm = 0;
+			m_indices[i] = new int[size];
+			m_values[i] = new double[size];
+			for(int n=0; n<size; n++) {
+				m_indices[i][n] = profile[n].getIndex();
+				m_values[i][n] = profile[n].getValue();
+				norm += m_values[i][n] * m_values[i][n];
+				featureSize = Math.max(featureSize, m_indices[i][n]+1);
+			}
+			if (norm>0) {
+				norm = 1.0 / Math.sqrt(norm);
+				for(int n=0; n<size; n++)
+					m_values[i][n] *= norm;
+			}
+		}
+
+		//posting lists of the users with their normalized feature values
+		int[] df = new int[featureSize];
+		for(int[] idx:m_indices) {
+			for(int f:idx)
+				df[f] ++;
+		}
+		final int[][] postIds = new int[featureSize][];
+		final double[][] postValues = new double[featureSize][];
+		for(int f=0; f<featureSize; f++) {
+			postIds[f] = new int[df[f]];
+			postValues[f] = new double[df[f]];
+			df[f] = 0;
+		}
+		for(int i=0; i<N; i++) {
+			for(int n=0; n<m_indices[i].length; n++) {
+				int f = m_indices[i][n], pos = df[f]++;
+				postIds[f][pos] = i;
+				postValues[f][pos] = m_values[i][n];
+			}
+		}
+
+		parallelRows(new RowTaskFactory() {
+			@Override
+			public RowTask create() {
+				return new RowTask() {
+					double[] m_acc = new double[N];
+					int[] m_touched = new int[N], m_visited = new int[N];
+					TopKHeap m_heap = new TopKHeap(m_topK);
+
+					@Override
+					public void run(int i) {
+						int size = 0, mark = i + 1;
+						int[] idx = m_indices[i];
+						double[] val = m_values[i];
+						for(int n=0; n<idx.length; n++) {
+							int[] ids = postIds[idx[n]];
+							double[] values = postValues[idx[n]];
+							for(int p=0; p<ids.length; p++) {
+								int j = ids[p];
+								if (j==i)
+									continue;
+								if (m_visited[j]!=mark) {
+									m_visited[j] = mark;
+									m_touched[size++] = j;
+								}
+								m_acc[j] += val[n] * values[p];
+							}
+						}
+
+						for(int c=0; c<size; c++) {
+							int j = m_touched[c];
+							m_heap.add(j, m_acc[j]);
+							m_acc[j] = 0;
+						}
+
+						//users without any overlapping feature have zero similarity
+						for(int j=0; j<N && size<N-1 && (m_heap.size()<m_topK || m_heap.peekValue()<0); j++) {
+							if (j!=i && m_visited[j]!=mark)
+								m_heap.add(j, 0);
+						}
+						setRow(i, m_heap);
+					}
+				};
+			}
+		});
+	}
+
+	void buildSVD() {
+		final int N = m_userList.size();
+		m_values = new double[N][];
+		int dim = 0;
+		for(int i=0; i<N; i++) {
+			double[] profile = m_userList.get(i).getUser().getLowDimProfile();
+			if (profile!=null)
+				dim = Math.max(dim, profile.length);
+		}
+		for(int i=0; i<N; i++) {
+			double[] profile = m_userList.get(i).getUser().getLowDimProfile();
+			m_values[i] = new double[dim];
+			if (profile==null)
+				continue;
+
+			double norm = 0;
+			for(double v:profile)
+				norm += v * v;
+			if (norm>0) {
+				norm = 1.0 / Math.sqrt(norm);
+				for(int d=0; d<profile.length; d++)
+					m_values[i][d] = profile[d] * norm;
+			}
+		}
+
+		if (N<=m_exactSize) {
+			parallelRows(new RowTaskFactory() {
+				@Override
+				public RowTask create() {
+					return new RowTask() {
+						TopKHeap m_heap = new TopKHeap(m_topK);
+
+						@Override
+						public void run(int i) {
+							for(int j=0; j<N; j++) {
+								if (j!=i)
+									m_heap.add(j, dot(m_values[i], m_values[j]));
+							}
+							setRow(i, m_heap);
+						}
+					};
+				}
+			});
+			return;
+		}
+
+		//cluster pruning: about sqrt(N) clusters, each user only compared with the members of its closest clusters
+		KMeansEngine kmeans = new KMeansEngine(m_values);
+		kmeans.setNumberOfCores(m_numberOfCores);
+		kmeans.trainMiniBatch((int)Math.sqrt(N), 1000, 200);
+		final int K = kmeans.getClusterSize(), probes = Math.min(m_probes, K);
+		final double[][] centers = new double[K][];
+		final int[][] members = new int[K][];
+		int[] assignment = kmeans.getAssignment(), fill = new int[K];
+		for(int c=0; c<K; c++) {
+			centers[c] = kmeans.getCenter(c);
+			members[c] = new int[kmeans.getSize(c)];
+		}
+		for(int i=0; i<N; i++)
+			members[assignment[i]][fill[assignment[i]]++] = i;
+
+		parallelRows(new RowTaskFactory() {
+			@Override
+			public RowTask create() {
+				return new RowTask() {
+					TopKHeap m_heap = new TopKHeap(m_topK), m_clusters = new TopKHeap(probes);
+
+					@Override
+					public void run(int i) {
+						for(int c=0; c<K; c++)
+							m_clusters.add(c, dot(m_values[i], centers[c]));
+						for(int n=0; n<m_clusters.size(); n++) {
+							for(int j:members[m_clusters.getId(n)]) {
+								if (j!=i)
+									m_heap.add(j, dot(m_values[i], m_values[j]));
+							}
+						}
+						m_clusters.clear();
+						setRow(i, m_heap);
+					}
+				};
+			}
+		});
+	}
+
+	static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for(int d=0; d<a.length; d++)
+			sum += a[d] * b[d];
+		return sum;
+	}
+
+	//pass the graph to the users' neighborhood structures
+	public void apply() {
+		for(int i=0; i<m_neighbors.length; i++) {
+			CoAdaptStruct ui = (CoAdaptStruct)m_userList.get(i);
+			for(int n=0; n<m_neighbors[i].length; n++)
+				ui.addNeighbor(m_neighbors[i][n], m_similarities[i][n]);
+		}
+	}
+
+	//identify the list of users, so that a cache file is only used on the same users in the same order
+	long userSignature() {
+		long signature = m_userList.size();
+		for(_AdaptStruct user:m_userList) {
+			_User u = user.getUser();
+			signature = 31*signature + (u.getUserID()==null ? 0 : u.getUserID().hashCode());
+		}
+		return signature;
+	}
+
+	public void save(String filename) {
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+			out.writeInt(CACHE_VERSION);
+			out.writeInt(m_sType.ordinal());
+			out.writeInt(m_topK);
+			out.writeLong(userSignature());
+			out.writeInt(m_neighbors.length);
+			for(int i=0; i<m_neighbors.length; i++) {
+				out.writeInt(m_neighbors[i].length);
+				for(int n=0; n<m_neighbors[i].length; n++) {
+					out.writeInt(m_neighbors[i][n]);
+					out.writeDouble(m_similarities[i][n]);
+				}
+			}
+			out.close();
+			System.out.format("[Info]Neighborhood graph saved to %s...\n", filename);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	//return false if the file does not exist or it was built for a different setting
+	public boolean load(String filename) {
+		if (!new File(filename).exists())
+			return false;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+			try {
+				if (in.readInt()!=CACHE_VERSION || in.readInt()!=m_sType.ordinal() || in.readInt()!=m_topK
+					|| in.readLong()!=userSignature() || in.readInt()!=m_userList.size()) {
+					System.err.format("[Warning]Neighborhood cache %s does not match the current users or setting, rebuild it...\n", filename);
+					return false;
+				}
+
+				int N = m_userList.size();
+				m_neighbors = new int[N][];
+				m_similarities = new double[N][];
+				for(int i=0; i<N; i++) {
+					int size = in.readInt();
+					m_neighbors[i] = new int[size];
+					m_similarities[i] = new double[size];
+					for(int n=0; n<size; n++) {
+						m_neighbors[i][n] = in.readInt();
+						m_similarities[i][n] = in.readDouble();
+					}
+				}
+				System.out.format("[Info]Neighborhood graph loaded from %s...\n", filename);
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			m_neighbors = null;
+			m_similarities = null;
+			return false;
+		}
+	}
+}
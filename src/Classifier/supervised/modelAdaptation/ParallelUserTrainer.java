@@ -0,0 +1,68 @@
+package Classifier.supervised.modelAdaptation;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import utils.WorkerPool;
+
+/**
+ * Trains independent per-user models concurrently.
+ * The users are claimed one at a time by the threads of a WorkerPool; each thread owns a UserWorker
+ * created by the given factory, so that the optimization buffers are reused across the users of a thread
+ * and a worker only writes into the user it is currently training.
+ */
+public class ParallelUserTrainer {
+
+	//trains the i-th user with its private buffers and returns the final objective value
+	public interface UserWorker {
+		double train(int i, _AdaptStruct user);
+	}
+
+	public interface UserWorkerFactory {
+		UserWorker create();
+	}
+
+	int m_numberOfCores;
+
+	public ParallelUserTrainer(int cores) {
+		m_numberOfCores = Math.max(1, cores);
+	}
+
+	//return the sum of the objective values, accumulated in the order of the users
+	public double train(final List<_AdaptStruct> users, final UserWorkerFactory factory) {
+		final double[] fValues = new double[users.size()];
+		int threads = Math.min(m_numberOfCores, users.size());
+
+		if (threads<=1) {
+			UserWorker worker = factory.create();
+			for(int i=0; i<users.size(); i++)
+				fValues[i] = worker.train(i, users.get(i));
+		} else {
+			final AtomicInteger nextUser = new AtomicInteger(0);
+			Runnable[] tasks = new Runnable[threads];
+			for(int t=0; t<threads; t++) {
+				tasks[t] = new Runnable() {
+					@Override
+					public void run() {
+						UserWorker worker = factory.create();
+						int i;
+						while((i=nextUser.getAndIncrement())<users.size())
+							fValues[i] = worker.train(i, users.get(i));
+					}
+				};
+			}
+
+			WorkerPool pool = new WorkerPool(threads);
+			try {
+				pool.execute(tasks);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		double sum = 0;
+		for(double f:fValues)
+			sum += f;
+		return sum;
+	}
+}
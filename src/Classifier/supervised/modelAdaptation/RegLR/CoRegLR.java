@@ -22,7 +22,6 @@ import structures._User;
 public class CoRegLR extends RegLR {
 
 	double m_eta2; // weight for collaborative regularization
-	int m_topK;
 	SimType m_sType = SimType.ST_BoW;// default neighborhood by BoW
 	
 	public CoRegLR(int classNo, int featureSize, HashMap<String, Integer> featureMap, String globalModel, int topK) {
@@ -158,7 +157,7 @@ public class CoRegLR extends RegLR {
 				} 
 				oldFValue = fValue;
 				
-				LBFGS.lbfgs(vSize, 5, _CoRegLRAdaptStruct.getSharedW(), fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, sharedW is updated.
+				m_optimizer.lbfgs(vSize, 5, _CoRegLRAdaptStruct.getSharedW(), fValue, m_g, false, m_diag, iprint, 1e-3, 1e-16, iflag);//In the training process, sharedW is updated.
 			} while(iflag[0] != 0);
 			System.out.println();
 		} catch(ExceptionWithIflag e) {
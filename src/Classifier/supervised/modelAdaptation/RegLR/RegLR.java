@@ -9,6 +9,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 
 import Classifier.supervised.modelAdaptation.ModelAdaptation;
+import Classifier.supervised.modelAdaptation.ParallelUserTrainer;
 import Classifier.supervised.modelAdaptation._AdaptStruct;
 import LBFGS.LBFGS;
 import LBFGS.LBFGS.ExceptionWithIflag;
@@ -31,6 +32,7 @@ public class RegLR extends ModelAdaptation {
 	//shared space for LBFGS optimization
 	protected double[] m_diag; //parameter used in lbfgs.
 	protected double[] m_g;//optimized gradients. 
+	protected LBFGS m_optimizer = new LBFGS();//reused by the batch training, every solve restarts it with iflag=0
 		
 	protected PrintWriter m_writer;
 
@@ -139,6 +141,11 @@ public class RegLR extends ModelAdaptation {
 	}
 	
 	protected void gradientByFunc(_AdaptStruct user, _Doc review, double weight) {
+		gradientByFunc(user, review, weight, m_g);
+	}
+	
+	//accumulate the gradient into the given array, so that users can be trained concurrently with their own gradients
+	protected void gradientByFunc(_AdaptStruct user, _Doc review, double weight, double[] g) {
 		int n; // feature index
 		int offset = (m_featureSize+1)*user.getId();//general enough to accommodate both LinAdapt and CoLinAdapt
 		double delta = weight*(review.getYLabel() - logit(review.getSparse(), user));
@@ -146,21 +153,25 @@ public class RegLR extends ModelAdaptation {
 			delta /= getAdaptationSize(user);
 
 		//Bias term.
-		m_g[offset] -= delta; //a[0] = w0*x0; x0=1
+		g[offset] -= delta; //a[0] = w0*x0; x0=1
 
 		//Traverse all the feature dimension to calculate the gradient.
 		for(_SparseFeature fv: review.getSparse()){
 			n = fv.getIndex() + 1;
-			m_g[offset + n] -= delta * fv.getValue();
+			g[offset + n] -= delta * fv.getValue();
 		}
 	}
 	
 	//Calculate the gradients for the use in LBFGS.
 	protected void gradientByR1(_AdaptStruct user){
+		gradientByR1(user, m_g);
+	}
+	
+	protected void gradientByR1(_AdaptStruct user, double[] g){
 		int offset = (m_featureSize+1)*user.getId();//general enough to accommodate both LinAdapt and CoLinAdapt
 		//R1 regularization part
 		for(int k=0; k<m_featureSize+1; k++)
-			m_g[offset + k] += 2 * m_eta1 * (user.getPWeight(k) - m_gWeights[k]);// add 2*eta1*(w^u_k-w^g_k)
+			g[offset + k] += 2 * m_eta1 * (user.getPWeight(k) - m_gWeights[k]);// add 2*eta1*(w^u_k-w^g_k)
 	}
 	
 	//Calculate the gradients for the use in LBFGS.
@@ -169,35 +180,73 @@ public class RegLR extends ModelAdaptation {
 		gradientByR1(user);
 	}
 	
+	//gradients of a single user into the given array, used by the concurrent per-user training
+	protected void calculateGradients(_AdaptStruct user, double[] g){
+		for(_Review review:user.getReviews()){
+			if (review.getType() != rType.ADAPTATION)
+				continue;
+			
+			gradientByFunc(user, review, 1.0, g);
+		}
+		gradientByR1(user, g);
+	}
+	
 	protected double gradientTest() {
-		double magG = Utils.L2Norm(m_g);
+		return gradientTest(m_g);
+	}
+	
+	//the magnitude of the given gradient, e.g., the buffer of one worker
+	protected double gradientTest(double[] g) {
+		double magG = Utils.L2Norm(g);
 		
 		if (m_displayLv==2)
 			System.out.format("Gradient magnitude %.5f\n", magG);
 		return magG;
 	}
 	
-	//this is batch training in each individual user
+	//this is batch training in each individual user, the users are independent and trained concurrently
 	@Override
 	public double train(){
-		int[] iflag = {0}, iprint = {-1, 3};
-		double fValue = 0, w[], oldFValue = Double.MAX_VALUE, totalFvalue = 0;
-		
 		init();
-		for(_AdaptStruct user:m_userList) {			
-			initLBFGS();
-			iflag[0] = 0;
+		initLBFGS();
+		
+		double totalFvalue = new ParallelUserTrainer(m_numberOfCores).train(m_userList, new ParallelUserTrainer.UserWorkerFactory() {
+			@Override
+			public ParallelUserTrainer.UserWorker create() {
+				return new LBFGSWorker(new double[m_g.length], new double[m_diag.length]);
+			}
+		});
+		
+		setPersonalizedModel();
+		return totalFvalue;
+	}
+	
+	//optimizes one user at a time with its own optimizer and gradient buffers
+	protected class LBFGSWorker implements ParallelUserTrainer.UserWorker {
+		LBFGS m_optimizer = new LBFGS();
+		double[] m_gradient, m_diagonal;
+		
+		public LBFGSWorker(double[] g, double[] diag) {
+			m_gradient = g;
+			m_diagonal = diag;
+		}
+		
+		@Override
+		public double train(int i, _AdaptStruct user) {
+			int[] iflag = {0}, iprint = {-1, 3};
+			double fValue = 0, w[], oldFValue = Double.MAX_VALUE;
+			
+			Arrays.fill(m_diagonal, 0);
 			try{
 				w = user.getUserModel();
-				oldFValue = Double.MAX_VALUE; 
 				do{
-					Arrays.fill(m_g, 0); // initialize gradient					
+					Arrays.fill(m_gradient, 0); // initialize gradient					
 					fValue = calculateFuncValue(user);
-					calculateGradients(user);
+					calculateGradients(user, m_gradient);
 					
 					if (m_displayLv==2) {
 						System.out.println("Fvalue is " + fValue);
-						gradientTest();
+						gradientTest(m_gradient);
 					} else if (m_displayLv==1) {
 						if (fValue<oldFValue)
 							System.out.print("o");
@@ -206,7 +255,7 @@ public class RegLR extends ModelAdaptation {
 					} 
 					oldFValue = fValue;
 					
-					LBFGS.lbfgs(w.length, 6, w, fValue, m_g, false, m_diag, iprint, 1e-4, 1e-32, iflag);//In the training process, A is updated.
+					m_optimizer.lbfgs(w.length, 6, w, fValue, m_gradient, false, m_diagonal, iprint, 1e-4, 1e-32, iflag);//In the training process, A is updated.
 				} while(iflag[0] != 0);
 			} catch(ExceptionWithIflag e) {
 				if (m_displayLv>0)
@@ -216,13 +265,9 @@ public class RegLR extends ModelAdaptation {
 			}
 			
 			if (m_displayLv>0)
-				System.out.println();			
-			
-			totalFvalue += fValue;
+				System.out.println();
+			return fValue;
 		}
-		
-		setPersonalizedModel();
-		return totalFvalue;
 	}
 	
 	@Override
@@ -6,6 +6,7 @@ package Classifier.supervised.modelAdaptation.RegLR;
 import java.util.Arrays;
 import java.util.HashMap;
 
+import Classifier.supervised.modelAdaptation.AsyncAdaptationEngine;
 import Classifier.supervised.modelAdaptation._AdaptStruct;
 import Classifier.supervised.modelAdaptation._AdaptStruct.SimType;
 import structures._PerformanceStat;
@@ -20,6 +21,7 @@ import structures._Review;
 public class asyncCoRegLR extends CoRegLR {
 	double m_initStepSize = 1.50;
 	int[] m_userOrder; // visiting order of different users during online learning
+	AsyncAdaptationEngine m_engine; // replays m_userOrder with the users partitioned among the workers
 	
 	public asyncCoRegLR(int classNo, int featureSize, HashMap<String, Integer> featureMap, String globalModel,
 			int topK) {
@@ -60,13 +62,14 @@ public class asyncCoRegLR extends CoRegLR {
 		}
 	}
 	
-	//we will only update ui but keep uj as constant
+	//we will only update ui but keep uj as constant, and uj is read from its latest published snapshot
 	void gradientByR2(_AdaptStruct ui, _AdaptStruct uj, double sim) {
 		double coef = 2 * sim * m_eta2, diff;
 		int offset = (m_featureSize+1)*ui.getId();
+		double[] wj = m_engine.getSnapshot(ui.getId(), uj.getId());
 		
 		for(int k=0; k<m_featureSize+1; k++) {
-			diff = coef  * (ui.getPWeight(k) - uj.getPWeight(k));
+			diff = coef  * (ui.getPWeight(k) - wj[k]);
 			
 			// update ui's gradient only
 			m_g[offset + k] += diff;
@@ -92,58 +95,90 @@ public class asyncCoRegLR extends CoRegLR {
 		return user.getAdaptationCacheSize();
 	}
 	
-	//this is online training in each individual user
+	//the users' own updates are applied in the order of m_userOrder, and different users are updated concurrently
 	@Override
 	public double train() {
-		double gNorm, gNormOld = Double.MAX_VALUE;
-		int updateCount = 0;
-		int predL, trueL;
-		_Review doc;
-		_PerformanceStat perfStat;
-		_CoRegLRAdaptStruct user;
-		
 		initLBFGS();
 		init();
-		for(int t=0; t<m_userOrder.length; t++) {
-			user = (_CoRegLRAdaptStruct)m_userList.get(m_userOrder[t]);
-			
-			if(user.hasNextAdaptationIns()) {
-				// test the latest model
-				if (m_testmode!=TestMode.TM_batch && (doc = user.getLatestTestIns()) != null) {
-					perfStat = user.getPerfStat();
-					predL = predict(doc, user);
-					trueL = doc.getYLabel();
-					perfStat.addOnePredResult(predL, trueL);
-				} // in batch mode we will not accumulate the performance during adaptation			
-				
-				// prepare to adapt: initialize gradient	
-				Arrays.fill(m_g, 0); 
-				calculateGradients(user);
-				gNorm = gradientTest(user);
-				
-				if (m_displayLv==1) {
-					if (gNorm<gNormOld)
-						System.out.print("o");
-					else
-						System.out.print("x");
-				}
-				
-				//gradient descent
-				gradientDescent(user, m_initStepSize, 1.0);
-				gNormOld = gNorm;
-				
-				if (m_displayLv>0 && ++updateCount%100==0)
-					System.out.println();
-			}			
-		}
+		
+		m_engine = new AsyncAdaptationEngine(m_userOrder, m_userList.size(), getNumberOfWorkers());
+		for(int i=0; i<m_userList.size(); i++)
+			m_engine.publish(i, getModelSnapshot(m_userList.get(i)));
+		
+		m_engine.run(m_userList, new AsyncAdaptationEngine.OnlineWorkerFactory() {
+			@Override
+			public AsyncAdaptationEngine.OnlineWorker create() {
+				return new AsyncAdaptationEngine.OnlineWorker() {
+					double gNorm, gNormOld = Double.MAX_VALUE;
+					int updateCount = 0;
+					
+					@Override
+					public void update(int t, _AdaptStruct u) {
+						_CoRegLRAdaptStruct user = (_CoRegLRAdaptStruct)u;
+						int predL, trueL;
+						_Review doc;
+						_PerformanceStat perfStat;
+						
+						if(user.hasNextAdaptationIns()) {
+							// test the latest model
+							if (m_testmode!=TestMode.TM_batch && (doc = user.getLatestTestIns()) != null) {
+								perfStat = user.getPerfStat();
+								predL = predict(doc, user);
+								trueL = doc.getYLabel();
+								perfStat.addOnePredResult(predL, trueL);
+							} // in batch mode we will not accumulate the performance during adaptation			
+							
+							// prepare to adapt: initialize gradient	
+							clearGradients(user);
+							calculateGradients(user);
+							gNorm = gradientTest(user);
+							
+							if (m_displayLv==1) {
+								if (gNorm<gNormOld)
+									System.out.print("o");
+								else
+									System.out.print("x");
+							}
+							
+							//gradient descent
+							gradientDescent(user, m_initStepSize, 1.0);
+							m_engine.publish(user.getId(), getModelSnapshot(user));
+							gNormOld = gNorm;
+							
+							if (m_displayLv>0 && ++updateCount%100==0)
+								System.out.println();
+						}
+					}
+				};
+			}
+		});
 		
 		if (m_displayLv>0)
 			System.out.println();
+		System.out.println("[Info]" + m_engine);
 		
 		setPersonalizedModel();		
 		return 0; // we do not evaluate function value
 	}
 	
+	protected int getNumberOfWorkers() {
+		return m_numberOfCores;
+	}
+	
+	//only the current user's part of the gradient is touched by the zero order update
+	protected void clearGradients(_AdaptStruct user) {
+		int offset = (m_featureSize+1)*user.getId();
+		Arrays.fill(m_g, offset, offset + m_featureSize+1, 0);
+	}
+	
+	//a copy of the user's model for the other workers to read
+	double[] getModelSnapshot(_AdaptStruct user) {
+		double[] model = new double[m_featureSize+1];
+		for(int k=0; k<=m_featureSize; k++)
+			model[k] = user.getPWeight(k);
+		return model;
+	}
+	
 	// update this current user only
 	void gradientDescent(_CoRegLRAdaptStruct user, double initStepSize, double inc) {
 		double a, stepSize = asyncRegLR.getStepSize(initStepSize, user);
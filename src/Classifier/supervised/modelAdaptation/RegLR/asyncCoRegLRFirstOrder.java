@@ -22,6 +22,24 @@ public class asyncCoRegLRFirstOrder extends asyncCoRegLR {
 		m_neighborsHistoryWeight = neighborsHistoryWeight;
 	}
 
+	//the first order update writes into the neighbors' models, so the stream can only be replayed by one worker
+	@Override
+	protected int getNumberOfWorkers() {
+		return 1;
+	}
+	
+	@Override
+	protected void clearGradients(_AdaptStruct user) {
+		_CoRegLRAdaptStruct ui = (_CoRegLRAdaptStruct)user;
+		super.clearGradients(ui);
+		
+		for(_RankItem nit:ui.getNeighbors())
+			super.clearGradients(m_userList.get(nit.m_index));
+		
+		for(_RankItem nit:ui.getReverseNeighbors())
+			super.clearGradients(m_userList.get(nit.m_index));
+	}
+	
 	@Override
 	protected void calculateGradients(_AdaptStruct user){		
 		super.calculateGradients(user);
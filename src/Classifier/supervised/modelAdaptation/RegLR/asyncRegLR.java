@@ -6,6 +6,7 @@ package Classifier.supervised.modelAdaptation.RegLR;
 import java.util.Arrays;
 import java.util.HashMap;
 
+import Classifier.supervised.modelAdaptation.ParallelUserTrainer;
 import Classifier.supervised.modelAdaptation._AdaptStruct;
 import structures._PerformanceStat;
 import structures._PerformanceStat.TestMode;
@@ -34,17 +35,46 @@ public class asyncRegLR extends RegLR {
 		m_initStepSize = initStepSize;
 	}
 	
-	//this is online training in each individual user
+	//this is online training in each individual user, the users are independent and adapted concurrently
 	@Override
 	public double train(){
-		double gNorm, gNormOld = Double.MAX_VALUE;;
-		int predL, trueL;
-		_Review doc;
-		_PerformanceStat perfStat;
-		
 		initLBFGS();
 		init();
-		for(_AdaptStruct user:m_userList) {
+		
+		new ParallelUserTrainer(m_numberOfCores).train(m_userList, new ParallelUserTrainer.UserWorkerFactory() {
+			@Override
+			public ParallelUserTrainer.UserWorker create() {
+				return new OnlineWorker(new double[m_g.length]);
+			}
+		});
+		
+		setPersonalizedModel();
+		return 0;//we do not evaluate function value
+	}
+	
+	// update this current user only
+	public static void gradientDescent(_AdaptStruct user, double initStepSize, double[] g) {
+		double stepSize = asyncRegLR.getStepSize(initStepSize, user);
+		Utils.add2Array(user.getUserModel(), g, -stepSize);
+		user.incUpdatedCount(1.0);
+	}	
+	
+	//replays the adaptation stream of one user at a time with its own gradient buffer
+	protected class OnlineWorker implements ParallelUserTrainer.UserWorker {
+		double[] m_gradient;
+		
+		public OnlineWorker(double[] g) {
+			m_gradient = g;
+		}
+		
+		@Override
+		public double train(int i, _AdaptStruct user) {
+			double gNorm, gNormOld = Double.MAX_VALUE;
+			int predL, trueL;
+			_Review doc;
+			_PerformanceStat perfStat;
+			double[] g = m_gradient;
+			
 			while(user.hasNextAdaptationIns()) {
 				// test the latest model before model adaptation
 				if (m_testmode != TestMode.TM_batch &&(doc = user.getLatestTestIns()) != null) {
@@ -55,9 +85,9 @@ public class asyncRegLR extends RegLR {
 				} // in batch mode we will not accumulate the performance during adaptation				
 				
 				// prepare to adapt: initialize gradient	
-				Arrays.fill(m_g, 0);
-				calculateGradients(user);
-				gNorm = gradientTest();
+				Arrays.fill(g, 0);
+				calculateGradients(user, g);
+				gNorm = gradientTest(g);
 				
 				if (m_displayLv==1) {
 					if (gNorm<gNormOld)
@@ -67,24 +97,23 @@ public class asyncRegLR extends RegLR {
 				}
 				
 				//gradient descent
-				gradientDescent(user, m_initStepSize, m_g);
+				gradientDescent(user, m_initStepSize, g);
 				gNormOld = gNorm;
 			}
 			
 			if (m_displayLv>0)
 				System.out.println();
+			return 0;//we do not evaluate function value
 		}
-		
-		setPersonalizedModel();
-		return 0;//we do not evaluate function value
 	}
 	
-	// update this current user only
-	public static void gradientDescent(_AdaptStruct user, double initStepSize, double[] g) {
-		double stepSize = asyncRegLR.getStepSize(initStepSize, user);
-		Utils.add2Array(user.getUserModel(), g, -stepSize);
-		user.incUpdatedCount(1.0);
-	}	
+	//gradients of the user's latest adaptation cache
+	@Override
+	protected void calculateGradients(_AdaptStruct user, double[] g) {
+		for(_Review review:user.nextAdaptationIns())
+			gradientByFunc(user, review, 1.0, g);//equal weight for the user's own adaptation data
+		gradientByR1(user, g);
+	}
 	
 	@Override
 	protected int getAdaptationSize(_AdaptStruct user) {
@@ -1,5 +1,10 @@
 package LBFGS;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import utils.WorkerPool;
+
 public class LBFGS {
 
 
@@ -72,6 +77,11 @@ public class LBFGS {
   * 	,       to eecs.nwu.edu in the directory pub/lbfgs/lbfgs_um.)
   * </pre>
   *
+  * <p> All the state of an optimization is kept in the instance (including the workspace
+  * which is reused across calls), so that different instances can run concurrently.
+  * A call with <tt>iflag[0]=0</tt> restarts the optimization, so one instance serves consecutive solves.
+  * The line search settings <tt>gtol</tt>, <tt>stpmin</tt> and <tt>stpmax</tt> are still shared.</p>
+  *
   * @author Jorge Nocedal: original Fortran version, including comments
   * (July 1990). Robert Dodier: Java translation, August 1997.
   */
@@ -125,20 +135,26 @@ public class LBFGS {
 	  * of using <tt>x</tt>. When <tt>LBFGS.lbfgs</tt> automatically stops,
 	  * then <tt>x</tt> and <tt>solution_cache</tt> are the same.
 	  */
-	public static double[] solution_cache = null;
+	public double[] solution_cache = null;
+
+	private double gnorm = 0, stp1 = 0, ftol = 0, stp[] = new double[1], ys = 0, yy = 0, sq = 0, yr = 0, beta = 0, xnorm = 0;
+	private int iter = 0, nfun = 0, point = 0, ispt = 0, iypt = 0, maxfev = 0, info[] = new int[1], bound = 0, npt = 0, cp = 0, i = 0, nfev[] = new int[1], inmc = 0, iycn = 0, iscn = 0;
+	private boolean finish = false;
 
-	private static double gnorm = 0, stp1 = 0, ftol = 0, stp[] = new double[1], ys = 0, yy = 0, sq = 0, yr = 0, beta = 0, xnorm = 0;
-	private static int iter = 0, nfun = 0, point = 0, ispt = 0, iypt = 0, maxfev = 0, info[] = new int[1], bound = 0, npt = 0, cp = 0, i = 0, nfev[] = new int[1], inmc = 0, iycn = 0, iscn = 0;
-	private static boolean finish = false;
+	private double[] w = null;
 
-	private static double[] w = null;
+	private Mcsrch mcsrch = new Mcsrch();
+
+	//buffers for minimize(), reused across calls
+	private double[] m_g, m_diag;
+	private int[] m_iprint = { -1, 3 };
 
 	/** This method returns the total number of evaluations of the objective
 	  * function since the last time LBFGS was restarted. The total number of function
 	  * evaluations increases by the number of evaluations required for the
 	  * line search; the total is only increased after a successful line search.
 	  */
-	public static int nfevaluations() { return nfun; }
+	public int nfevaluations() { return nfun; }
 	
 	/** This subroutine solves the unconstrained minimization problem
 	  * <pre>
@@ -276,7 +292,7 @@ public class LBFGS {
 	  *	@throws LBFGS.ExceptionWithIflag 
 	  */
 
-	public static void lbfgs ( int n , int m , double[] x , double f , double[] g , boolean diagco , double[] diag , int[] iprint , double eps , double xtol , int[] iflag ) throws ExceptionWithIflag
+	public void lbfgs ( int n , int m , double[] x , double f , double[] g , boolean diagco , double[] diag , int[] iprint , double eps , double xtol , int[] iflag ) throws ExceptionWithIflag
 	{
 		boolean execute_entire_while_loop = false;
 
@@ -289,7 +305,8 @@ public class LBFGS {
 		{
 			// Initialize.
 
-			solution_cache = new double[n];
+			if ( solution_cache == null || solution_cache.length != n )
+				solution_cache = new double[n];
 			System.arraycopy( x, 0, solution_cache, 0, n );
 
 			iter = 0;
@@ -444,7 +461,7 @@ public class LBFGS {
 				}
 			}
 
-			Mcsrch.mcsrch ( n , x , f , g , w , ispt + point * n , stp , ftol , xtol , maxfev , info , nfev , diag );
+			mcsrch.mcsrch ( n , x , f , g , w , ispt + point * n , stp , ftol , xtol , maxfev , info , nfev , diag );
 	
 			if ( info[0] == - 1 )
 			{
@@ -498,6 +515,95 @@ public class LBFGS {
 		}
 	}
 
+	/** Minimize the function from its current parameters, by calling <code>lbfgs</code> until it converges
+	  * or <code>maxEval</code> function evaluations have been performed. The gradient and diagonal buffers are
+	  * reused across calls on the same instance. The final parameters are set back to the function; when
+	  * <code>maxEval</code> is reached before convergence, they are the best point found so far, i.e., <code>solution_cache</code>.
+	  * @return the function value at the final parameters
+	  */
+	public double minimize ( Optimizable func , int m , double eps , double xtol , int maxEval ) throws ExceptionWithIflag
+	{
+		int n = func.getNumParameters(), neval = 0;
+		int[] iflag = {0};
+		double[] x = func.getParameters();
+		double f;
+
+		if ( m_g == null || m_g.length != n )
+		{
+			m_g = new double[n];
+			m_diag = new double[n];
+		}
+
+		do {
+			func.setParameters(x);
+			f = func.calcFuncGradient(m_g);
+			lbfgs(n, m, x, f, m_g, false, m_diag, m_iprint, eps, xtol, iflag);
+		} while ( iflag[0] != 0 && ++neval < maxEval );
+
+		if ( iflag[0] != 0 )
+		{
+			// stopped in the middle of a line search, x is the last trial point
+			System.arraycopy( solution_cache, 0, x, 0, n );
+			func.setParameters(x);
+			return func.calcFuncGradient(m_g);
+		}
+
+		func.setParameters(x);
+		return f;
+	}
+
+	/** Minimize a batch of independent functions with the given number of threads, each of which
+	  * owns its own <code>LBFGS</code> instance. The functions must not share any state.
+	  * @return the final function values; NaN for the ones whose line search failed
+	  */
+	public static double[] minimize ( List<? extends Optimizable> funcs , int m , double eps , double xtol , int maxEval , int threads )
+	{
+		if ( threads<=1 || funcs.size()<=1 )
+			return minimize(funcs, m, eps, xtol, maxEval, null);
+
+		WorkerPool pool = new WorkerPool(Math.min(threads, funcs.size()));
+		try {
+			return minimize(funcs, m, eps, xtol, maxEval, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/** Minimize a batch of independent functions on a caller-owned pool (the calling thread if it is null),
+	  * each thread claiming the next unsolved function with its own <code>LBFGS</code> instance.
+	  * @return the final function values; NaN for the ones whose line search failed
+	  */
+	public static double[] minimize ( final List<? extends Optimizable> funcs , final int m , final double eps , final double xtol , final int maxEval , WorkerPool pool )
+	{
+		final double[] fValues = new double[funcs.size()];
+		final AtomicInteger next = new AtomicInteger(0);
+
+		Runnable[] tasks = new Runnable[pool==null ? 1 : pool.size()];
+		for(int t=0; t<tasks.length; t++) {
+			tasks[t] = new Runnable() {
+				@Override
+				public void run() {
+					LBFGS optimizer = new LBFGS();
+					int k;
+					while((k=next.getAndIncrement())<funcs.size()) {
+						try {
+							fValues[k] = optimizer.minimize(funcs.get(k), m, eps, xtol, maxEval);
+						} catch (ExceptionWithIflag e) {
+							System.err.format("[Warning]L-BFGS failed on problem %d: %s\n", k, e);
+							fValues[k] = Double.NaN;
+						}
+					}
+				}
+			};
+		}
+
+		if (pool==null)
+			tasks[0].run();
+		else
+			pool.execute(tasks);
+		return fValues;
+	}
+
 	/** Print debugging and status messages for <code>lbfgs</code>.
 	  * Depending on the parameter <code>iprint</code>, this can include 
 	  * number of function evaluations, current function value, etc.
@@ -23,12 +23,13 @@ package LBFGS;
   * This file is a translation of Fortran code written by Jorge Nocedal.
   * It is distributed as part of the RISO project. See comments in the file
   * <tt>LBFGS.java</tt> for more information.
+  * The state of the line search is kept in the instance, each <tt>LBFGS</tt> object owns one.
   */
 public class Mcsrch
 {
-	private static int infoc[] = new int[1], j = 0;
-	private static double dg = 0, dgm = 0, dginit = 0, dgtest = 0, dgx[] = new double[1], dgxm[] = new double[1], dgy[] = new double[1], dgym[] = new double[1], finit = 0, ftest1 = 0, fm = 0, fx[] = new double[1], fxm[] = new double[1], fy[] = new double[1], fym[] = new double[1], p5 = 0, p66 = 0, stx[] = new double[1], sty[] = new double[1], stmin = 0, stmax = 0, width = 0, width1 = 0, xtrapf = 0;
-	private static boolean brackt[] = new boolean[1], stage1 = false;
+	private int infoc[] = new int[1], j = 0;
+	private double dg = 0, dgm = 0, dginit = 0, dgtest = 0, dgx[] = new double[1], dgxm[] = new double[1], dgy[] = new double[1], dgym[] = new double[1], finit = 0, ftest1 = 0, fm = 0, fx[] = new double[1], fxm[] = new double[1], fy[] = new double[1], fym[] = new double[1], p5 = 0, p66 = 0, stx[] = new double[1], sty[] = new double[1], stmin = 0, stmax = 0, width = 0, width1 = 0, xtrapf = 0;
+	private boolean brackt[] = new boolean[1], stage1 = false;
 
 	static double sqr( double x ) { return x*x; }
 	static double max3( double x, double y, double z ) { return x < y ? ( y < z ? z : y ) : ( x < z ? z : x ); }
@@ -130,7 +131,7 @@ public class Mcsrch
 	  *	@param wa Temporary storage array, of length <code>n</code>.
 	  */
 
-	public static void mcsrch ( int n , double[] x , double f , double[] g , double[] s , int is0 , double[] stp , double ftol , double xtol , int maxfev , int[] info , int[] nfev , double[] wa )
+	public void mcsrch ( int n , double[] x , double f , double[] g , double[] s , int is0 , double[] stp , double ftol , double xtol , int maxfev , int[] info , int[] nfev , double[] wa )
 	{
 		p5 = 0.5;
 		p66 = 0.66;
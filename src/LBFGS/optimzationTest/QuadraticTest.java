@@ -58,6 +58,7 @@ public abstract class QuadraticTest implements Optimizable {
 
 	public double byLBFGS() {
 		int[] iflag = {0}, iprint = { -1, 3 };
+		LBFGS optimizer = new LBFGS();
 		double fValue = 0;
 		int fSize = m_x.length;
 		
@@ -66,7 +67,7 @@ public abstract class QuadraticTest implements Optimizable {
 		try{
 			do {
 				fValue = calcFuncGradient(m_g);
-				LBFGS.lbfgs(fSize, 6, m_x, fValue, m_g, false, m_diag, iprint, 1e-6, 1e-10, iflag);
+				optimizer.lbfgs(fSize, 6, m_x, fValue, m_g, false, m_diag, iprint, 1e-6, 1e-10, iflag);
 			} while (iflag[0] != 0);
 		} catch (ExceptionWithIflag e){
 			e.printStackTrace();
@@ -7,7 +7,6 @@ import Ranker.evaluator.Evaluator;
 import Ranker.evaluator.MAP_Evaluator;
 import Ranker.evaluator.NDCG_Evaluator;
 import cern.jet.random.tdouble.Normal;
-import structures._QUPair;
 import structures._Query;
 import utils.Utils;
 
@@ -33,6 +32,7 @@ public class LambdaRank {
 	int[] m_order;//randomly shuffle the order for stochastic gradient descent
 	double[] m_weight; // feature weight
 	double[] m_g;//gradient
+	double[] m_lambdas;//lambda of each document in the current query
 	
 	OptimizationType m_oType;
 	Evaluator m_eval;
@@ -84,41 +84,48 @@ public class LambdaRank {
 			m_order[i] = i;//shuffling the orders for SGD model training
 		
 		m_g = new double[m_weight.length];
+		m_lambdas = new double[0];
 		
 		initWeight(m_lambda);
 	}
 	
 	//for lambdaRank
 	protected int gradientUpdate(_Query query){
-		double diff;
-		int i, trainSize = 0;
+		if (m_lambdas.length<query.getDocSize())
+			m_lambdas = new double[query.getDocSize()];
+		return gradientUpdate(query, m_weight, m_eval, m_lambdas, m_g);
+	}
+	
+	//accumulate the lambdas of the documents over the pairs with different labels into g, return the pairs counted from both documents
+	static int gradientUpdate(_Query query, double[] weight, Evaluator eval, double[] lambdas, double[] g){
+		int size = query.getDocSize(), fSize = query.getFeatureSize(), trainSize = 0, a, b;
+		int[] order = query.getLabelOrder(), worseStart = query.getWorseStart();
+		double[] scores = query.getScores(), features = query.getFeatures();
+		double rho;
 		
 		//Step 1: calculate the ranking score
-		for(_QUPair pair : query.m_docList)
-			pair.score(m_weight);
-		m_eval.eval(query);
+		query.score(weight);
+		eval.eval(query);
 		
 		//Step 2: accumulate the lambdas for each URL
-		for(_QUPair pair : query.m_docList){			
-			diff = 0;
-			if (pair.m_worseURLs!=null){
-				for(_QUPair worseURL:pair.m_worseURLs){//force to moving up
-					diff += Utils.logistic(worseURL.m_score-pair.m_score) * m_eval.delta(pair, worseURL);
-					trainSize ++;
-				}
+		for(int p=0; p<size; p++)
+			lambdas[p] = 0;
+		for(int p=0; p<size; p++){
+			a = order[p];
+			for(int q=worseStart[p]; q<size; q++){
+				b = order[q];
+				rho = Utils.logistic(scores[b]-scores[a]) * eval.delta(a, b);
+				lambdas[a] += rho;//force to moving up
+				lambdas[b] -= rho;//force to moving down
 			}
-			
-			if (pair.m_betterURLs!=null){
-				for(_QUPair betterURL:pair.m_betterURLs){//force to moving down
-					diff -= Utils.logistic(pair.m_score-betterURL.m_score) * m_eval.delta(betterURL, pair);
-					trainSize ++;
-				}
-			}
-
-			//Step 3: update weight according to this URL
-			if (diff!=0){
-				for(i=0; i<pair.m_rankFv.length; i++)
-					m_g[i] -= diff * pair.m_rankFv[i];
+			trainSize += 2 * (size-worseStart[p]);
+		}
+		
+		//Step 3: update weight according to each URL
+		for(int d=0, offset=0; d<size; d++, offset+=fSize){
+			if (lambdas[d]!=0){
+				for(int i=0; i<fSize; i++)
+					g[i] -= lambdas[d] * features[offset+i];
 			}
 		}
 		
@@ -135,30 +142,13 @@ public class LambdaRank {
 				total ++;
 			}
 			
-			for(_QUPair pair : query.m_docList){
-				if (pair.m_worseURLs!=null){
-					for(_QUPair worseURL:pair.m_worseURLs){
-						if ((r=Utils.logistic(pair.m_score-worseURL.m_score))>0)
-							obj += Math.log(r);
-						if (pair.m_score<=worseURL.m_score)
-							misorder++;
-					}
-				}
-				
-				if (pair.m_betterURLs!=null){
-					for(_QUPair betterURL:pair.m_betterURLs){
-						if ((r=Utils.logistic(betterURL.m_score-pair.m_score))>0)
-							obj += Math.log(r);
-						if (pair.m_score>=betterURL.m_score)
-							misorder++;
-					}
-				}
-			}
+			obj += query.getPairLogLikelihood();
+			misorder += query.getMisorder();
 		}		
 		
 		perf /= total;
 		obj -= 0.5 * m_lambda * Utils.L2Norm(m_weight);//to be maximized
-		System.out.format("%d\t%.2f\t%.4f\n", misorder/2, obj, perf);
+		System.out.format("%d\t%.2f\t%.4f\n", misorder, obj, perf);
 		
 		return perf;
 	}
@@ -9,6 +9,7 @@ import java.util.Random;
 
 import structures._Query;
 import utils.Utils;
+import utils.WorkerPool;
 
 /**
  * @author wang296
@@ -25,13 +26,21 @@ public class LambdaRankParallel extends LambdaRank {
 	final int MAX_TRAIN_ITER = 20;
 	
 	LambdaRankWorker[] m_workers; // a list of threads for lambdarank model
-	Thread[] m_threadpool;
+	WorkerPool m_threadpool; // the threads are kept alive across iterations
+	
+	//Hogwild style training: all the workers update the shared m_weight without locking (Recht et al. NIPS 2011),
+	//queries are allocated only once and no averaging is needed after each iteration
+	boolean m_hogwild = false;
 	
 	public LambdaRankParallel(int featureSize, double lambda, ArrayList<_Query> queries, OptimizationType otype, int iteration) {
 		super(featureSize, lambda, queries, otype);
 		m_iteration = iteration;
 	}
 	
+	public void setHogwild(boolean hogwild) {
+		m_hogwild = hogwild;
+	}
+	
 	void allocateQueries() {
 		for(LambdaRankWorker worker:m_workers)
 			worker.clearQueries();
@@ -53,36 +62,32 @@ public class LambdaRankParallel extends LambdaRank {
 		int i;
 		m_workers = new LambdaRankWorker[workerSize];
 		for(i=0; i<workerSize; i++)
-			m_workers[i] = new LambdaRankWorker(maxIter, m_weight.length, windowSize, initStep, shrinkage, m_lambda/workerSize, m_oType);
-		m_threadpool = new Thread[workerSize];
+			m_workers[i] = new LambdaRankWorker(maxIter, m_weight.length, windowSize, initStep, shrinkage, m_hogwild?m_lambda:m_lambda/workerSize, m_oType);
+		m_threadpool = new WorkerPool(workerSize);
 		
 		// Step 2: initialize the global weights randomly
 		initWeight(m_lambda);		
 		
+		if (m_hogwild) {
+			for(LambdaRankWorker worker:m_workers)
+				worker.shareWeight(m_weight);
+			allocateQueries();
+		}
+		
 		return workerSize;
 	}
 	
 	protected void WaitTillFinish(OperationType opt){
-		if (opt == OperationType.OT_train)
+		if (opt == OperationType.OT_train && !m_hogwild)
 			allocateQueries();
 		
 		for(LambdaRankWorker worker:m_workers) {
-			worker.setWeight(m_weight);
+			if (!m_hogwild)
+				worker.setWeight(m_weight);
 			worker.setType(opt);//evaluation on training queries
 		}
 		
-		for(int i=0; i<m_threadpool.length; i++){
-			m_threadpool[i] = new Thread(m_workers[i]);//everytime, we have to recreate the thread
-			m_threadpool[i].start();
-		}
-		
-		for(int i=0; i<m_threadpool.length; i++){
-			try {
-				m_threadpool[i].join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
+		m_threadpool.execute(m_workers);
 	}
 	
 	public void train(int maxIter, int windowSize, double initStep, double shrinkage){
@@ -91,7 +96,7 @@ public class LambdaRankParallel extends LambdaRank {
 		// Step 0: output the settings
 		System.out.println("[Info]LambdaRank configuration:");
 		System.out.format("\tOptimization Type %s, Lambda %.3f, Shrinkage %.3f, WindowSize %d\n", m_oType, m_lambda, shrinkage, windowSize);
-		System.out.format("\tInitial step size %.1f, Steps %d, Iteration %d\n", initStep, maxIter, iteration);
+		System.out.format("\tInitial step size %.1f, Steps %d, Iteration %d, Hogwild %b\n", initStep, maxIter, iteration, m_hogwild);
 		System.out.println("Iter\tMisorder\tLogLilikelihood\tPerf");
 		
 		// Step 1: setup the workers
@@ -99,10 +104,9 @@ public class LambdaRankParallel extends LambdaRank {
 		
 		// Step 2: start multi-thread training
 		double weight = 1.0 / workerSize, performance = 0;
-		int querySize = m_queries.size();
 		long starttimer = System.currentTimeMillis();
 		double obj = 0, perf = 0;
-		int misorder = 0;	
+		int misorder = 0, evalSize;	
 		
 //		//evaluate initial performance
 //		WaitTillFinish(OperationType.OT_evaluate);
@@ -120,20 +124,23 @@ public class LambdaRankParallel extends LambdaRank {
 			WaitTillFinish(OperationType.OT_train);
 			
 			// aggregate the learned weights from workers
-			Arrays.fill(m_weight, 0);
-			for(LambdaRankWorker worker:m_workers)
-				Utils.add2Array(m_weight, worker.getWeight(), weight);
+			if (!m_hogwild) {
+				Arrays.fill(m_weight, 0);
+				for(LambdaRankWorker worker:m_workers)
+					Utils.add2Array(m_weight, worker.getWeight(), weight);
+			}
 			
 			//evaluate training performance
 			WaitTillFinish(OperationType.OT_evaluate);
 			
-			obj = 0; perf = 0; misorder = 0;
+			obj = 0; perf = 0; misorder = 0; evalSize = 0;
 			for(LambdaRankWorker worker:m_workers){
 				obj += worker.m_obj;
 				perf += worker.m_perf;
 				misorder += worker.m_misorder;
+				evalSize += worker.m_evalSize;
 			}
-			perf /= querySize;
+			perf = evalSize>0 ? perf/evalSize : -1;//no query with relevant documents to evaluate, as in MAP_Evaluator.eval()
 			obj -= 0.5 * m_lambda * Utils.L2Norm(m_weight);//to be maximized
 			
 			if (performance>0){
@@ -147,6 +154,7 @@ public class LambdaRankParallel extends LambdaRank {
 			System.out.format("%d\t%d\t%.2f\t%.4f\n", 1+i, misorder, obj, perf);
 		}
 
+		m_threadpool.shutdown();
 		System.out.format("[Info]Training procedure takes %.2f seconds to finish...\n", (System.currentTimeMillis()-starttimer)/1000.0);
 	}
 }
@@ -5,15 +5,14 @@ package Ranker;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
 
 import Ranker.LambdaRank.OptimizationType;
 import Ranker.LambdaRankParallel.OperationType;
 import Ranker.evaluator.Evaluator;
 import Ranker.evaluator.MAP_Evaluator;
 import Ranker.evaluator.NDCG_Evaluator;
-import structures._QUPair;
 import structures._Query;
-import utils.Utils;
 
 /**
  * @author hongning
@@ -23,7 +22,9 @@ class LambdaRankWorker implements Runnable {
 	ArrayList<_Query> m_queries;//list of pointers to queries
 	double[] m_weight; // feature weight
 	double[] m_g;//gradient		
+	double[] m_lambdas;//lambda of each document in the current query
 	int[] m_order;
+	Random m_rand; // private random generator, Math.random() would be contended by all the workers
 	
 	Evaluator m_eval;
 	OperationType m_type;
@@ -31,18 +32,20 @@ class LambdaRankWorker implements Runnable {
 	int m_maxIter, m_windowSize;
 	
 	double m_obj, m_perf;
-	int m_misorder, m_trainingSize;
+	int m_misorder, m_trainingSize, m_evalSize;
 	
 	public LambdaRankWorker(int maxIter, int featureSize, int windowSize, double initStep, double shrinkage,
 			double lambda, OptimizationType otype) {
 		m_weight = new double[featureSize];
 		m_g = new double[featureSize];
+		m_lambdas = new double[0];
 		m_queries = new ArrayList<_Query>();
 		m_step = initStep;
 		m_maxIter = maxIter;
 		m_windowSize = windowSize;
 		m_shrinkage = shrinkage;
 		m_lambda = lambda;
+		m_rand = new Random();
 		
 		if (otype.equals(OptimizationType.OT_MAP))
 			m_eval = new MAP_Evaluator();
@@ -69,6 +72,11 @@ class LambdaRankWorker implements Runnable {
 		System.arraycopy(weight, 0, m_weight, 0, m_weight.length);
 	}
 	
+	//work on the given weight vector directly instead of a private copy (lock-free updates shared with other workers)
+	public void shareWeight(double[] weight) {
+		m_weight = weight;
+	}
+	
 	public double[] getWeight() {
 		return m_weight;
 	}
@@ -93,46 +101,26 @@ class LambdaRankWorker implements Runnable {
 	}
 	
 	protected int gradientUpdate(_Query query){
-		double diff;
-		int i, trainSize = 0;
-		
-		//Step 1: calculate the ranking score
-		for(_QUPair pair : query.m_docList)
-			pair.score(m_weight);
-		m_eval.eval(query);
-		
-		//Step 2: accumulate the lambdas for each URL
-		for(_QUPair pair : query.m_docList){			
-			diff = 0;
-			if (pair.m_worseURLs!=null){
-				for(_QUPair worseURL:pair.m_worseURLs){//force to moving up
-					diff += Utils.logistic(worseURL.m_score-pair.m_score) * m_eval.delta(pair, worseURL);
-					trainSize ++;
-				}
-			}
-			
-			if (pair.m_betterURLs!=null){
-				for(_QUPair betterURL:pair.m_betterURLs){//force to moving down
-					diff -= Utils.logistic(pair.m_score-betterURL.m_score) * m_eval.delta(betterURL, pair);
-					trainSize ++;
-				}
-			}
-
-			//Step 3: update weight according to this URL
-			if (diff!=0){
-				for(i=0; i<pair.m_rankFv.length; i++)
-					m_g[i] -= diff * pair.m_rankFv[i];
-			}
+		if (m_lambdas.length<query.getDocSize())
+			m_lambdas = new double[query.getDocSize()];
+		return LambdaRank.gradientUpdate(query, m_weight, m_eval, m_lambdas, m_g);
+	}
+	
+	void shuffle() {
+		int t, j;
+		for(int i=m_trainingSize-1; i>0; i--){
+			j = m_rand.nextInt(i+1);
+			t = m_order[i];
+			m_order[i] = m_order[j];
+			m_order[j] = t;
 		}
-		
-		return trainSize;
 	}
 	
 	public void train(){
 		double mu;		
 		int qid, i, j, pSize;
 		for(int n=0; n<m_maxIter; n++){
-			Utils.shuffle(m_order, m_trainingSize);
+			shuffle();
 			qid = 0;
 			while(qid<m_trainingSize){
 				pSize = 0;
@@ -147,7 +135,7 @@ class LambdaRankWorker implements Runnable {
 				for(i=0; i<m_weight.length; i++)
 					m_g[i] = m_g[i]/pSize + m_lambda * m_weight[i];
 				
-				mu = Math.random()*m_step;
+				mu = m_rand.nextDouble()*m_step;
 				for(i=0; i<m_weight.length; i++)
 					m_weight[i] -= mu * m_g[i];
 			}			
@@ -162,36 +150,20 @@ class LambdaRankWorker implements Runnable {
 		m_obj = 0;
 		m_perf = 0;
 		m_misorder = 0;
+		m_evalSize = 0;
 		
 		for(_Query query:m_queries){
 			//calculate ranking score with latest weight
-			for(_QUPair pair : query.m_docList)
-				pair.score(m_weight);
+			query.score(m_weight);
 			
-			if ((r=m_eval.eval(query))>=0)//ranking score should already be calculated
+			if ((r=m_eval.eval(query))>=0) {//ranking score should already be calculated
 				m_perf += r;
-			
-			for(_QUPair pair : query.m_docList){
-				if (pair.m_worseURLs!=null){
-					for(_QUPair worseURL:pair.m_worseURLs){
-						if ((r=Utils.logistic(pair.m_score-worseURL.m_score))>0)
-							m_obj += Math.log(r);
-						if (pair.m_score<=worseURL.m_score)
-							m_misorder++;
-					}
-				}
-				
-				if (pair.m_betterURLs!=null){
-					for(_QUPair betterURL:pair.m_betterURLs){
-						if ((r=Utils.logistic(betterURL.m_score-pair.m_score))>0)
-							m_obj += Math.log(r);
-						if (pair.m_score>=betterURL.m_score)
-							m_misorder++;
-					}
-				}
+				m_evalSize ++;
 			}
+			
+			m_obj += query.getPairLogLikelihood();
+			m_misorder += query.getMisorder();
 		}		
-		m_misorder /= 2;
 	}
 }
 
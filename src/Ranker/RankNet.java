@@ -3,12 +3,14 @@
  */
 package Ranker;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 
 import LBFGS.LBFGS;
 import LBFGS.LBFGS.ExceptionWithIflag;
 import cern.jet.random.tdouble.Normal;
+import structures._Query;
 import utils.Utils;
 
 /**
@@ -19,9 +21,11 @@ public class RankNet {
 
 	double[] m_beta;
 	double[] m_g, m_diag;
+	LBFGS m_optimizer = new LBFGS();
 	double m_lambda;
 	
 	int[] m_signs; // sign of feature weights during random initialization
+	double[] m_coef; // gradient coefficient of each document in a query
 	
 	public RankNet(int fSize, double lambda) {
 		m_beta = new double[fSize]; //Initialization, no bias term
@@ -55,6 +59,42 @@ public class RankNet {
 	}
 	
 	public double train(Collection<double[]> trainSet) {
+		return train(trainSet, null, null);
+	}
+	
+	//train on the pairs of the queries directly, without materializing the difference vector of each pair
+	public double train(ArrayList<_Query> queries) {
+		//pairs (better, worse) of each query, skipping the ones with the same features as Utils.diff() does
+		int[][] pairs = new int[queries.size()][];
+		int fSize = m_beta.length, maxSize = 0;
+		for(int n=0; n<queries.size(); n++) {
+			_Query q = queries.get(n);
+			int size = q.getDocSize(), a, b, k = 0;
+			int[] order = q.getLabelOrder(), worseStart = q.getWorseStart();
+			double[] x = q.getFeatures();
+			
+			pairs[n] = new int[2*q.getPairSize()];
+			for(int p=0; p<size; p++) {
+				a = order[p];
+				for(int r=worseStart[p]; r<size; r++) {
+					b = order[r];
+					for(int i=0; i<fSize; i++) {
+						if (Math.abs(x[a*fSize+i]-x[b*fSize+i])>1e-10) {
+							pairs[n][k++] = a;
+							pairs[n][k++] = b;
+							break;
+						}
+					}
+				}
+			}
+			pairs[n] = Arrays.copyOf(pairs[n], k);
+			maxSize = Math.max(maxSize, size);
+		}
+		m_coef = new double[maxSize];
+		return train(null, queries, pairs);
+	}
+	
+	double train(Collection<double[]> trainSet, ArrayList<_Query> queries, int[][] pairs) {
 		int[] iflag = {0}, iprint = { -1, 3 };
 		double fValue = 0;
 		int fSize = m_beta.length;
@@ -62,8 +102,8 @@ public class RankNet {
 		init();
 		try{
 			do {
-				fValue = calcFuncGradient(trainSet);
-				LBFGS.lbfgs(fSize, 5, m_beta, fValue, m_g, false, m_diag, iprint, 8e-2, 1e-32, iflag);
+				fValue = queries==null ? calcFuncGradient(trainSet) : calcFuncGradient(queries, pairs);
+				m_optimizer.lbfgs(fSize, 5, m_beta, fValue, m_g, false, m_diag, iprint, 8e-2, 1e-32, iflag);
 			} while (iflag[0] != 0);
 		} catch (ExceptionWithIflag e){
 			e.printStackTrace();
@@ -97,6 +137,48 @@ public class RankNet {
 		return m_lambda*L2 - likelihood;
 	}
 	
+	//the same objective over the pairs of the queries: the gradient of a pair is (P-1)(x_a-x_b), so it is collected per document first
+	protected double calcFuncGradient(ArrayList<_Query> queries, int[][] pairs) {
+		double likelihood = 0;
+		
+		// Add the L2 regularization.
+		double L2 = 0, b;
+		for(int i = 0; i < m_beta.length; i++) {
+			b = m_beta[i];
+			m_g[i] = 2 * m_lambda * b;
+			L2 += b * b;
+		}
+		
+		double fValue, gValue;
+		for(int n=0; n<queries.size(); n++) {
+			_Query q = queries.get(n);
+			int fSize = q.getFeatureSize();
+			double[] x = q.getFeatures(), s = q.getScores(), coef = m_coef;
+			q.score(m_beta);
+			
+			for(int d=0; d<q.getDocSize(); d++)
+				coef[d] = 0;
+			for(int k=0; k<pairs[n].length; k+=2) {
+				//compute P(Y=1|X=x_a-x_b)
+				fValue = Utils.logistic(s[pairs[n][k]] - s[pairs[n][k+1]]);
+				gValue = fValue - 1.0;
+				likelihood += Math.log(fValue);
+				coef[pairs[n][k]] += gValue;
+				coef[pairs[n][k+1]] -= gValue;
+			}
+			
+			for(int d=0, offset=0; d<q.getDocSize(); d++, offset+=fSize) {
+				if (coef[d]!=0) {
+					for(int i=0; i<fSize; i++)
+						m_g[i] += coef[d] * x[offset+i];
+				}
+			}
+		}
+		
+		// LBFGS is used to calculate the minimum value while we are trying to calculate the maximum likelihood.
+		return m_lambda*L2 - likelihood;
+	}
+	
 	public double score(double[] x) {
 		return Utils.logistic(Utils.dotProduct(x, m_beta));
 	}
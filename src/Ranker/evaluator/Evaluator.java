@@ -1,38 +1,50 @@
 package Ranker.evaluator;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
-import structures._QUPair;
 import structures._Query;
 
+/**
+ * The change of a metric when swapping two documents is |gain_i - gain_j| times a weight that only depends on their rank positions.
+ * The weights are cached once for all the queries in a flat triangular buffer, extended to the largest query seen so far,
+ * so that the delta of any pair is computed on the fly from the current ranking of the query.
+ */
 public class Evaluator implements Evaluation {
 	_Query m_query;
-	int m_size, m_i, m_j;
-	HashMap<_QUPair,HashMap<_QUPair, Double>> m_deltas;
+	int m_size;
+	int[] m_position; // rank position of each document in the query
+	double[] m_posDeltas; // m_posDeltas[j*(j-1)/2+i]: weight of swapping rank positions i<j
+	int m_posSize; // rank positions covered by m_posDeltas
 	double m_rate;
-	
+
 	public Evaluator(){
 		m_query = null;
 		m_size = -1;
-		m_i = 0;
-		m_j = 0;
-		m_deltas = null;
+		m_position = new int[0];
+		m_posDeltas = new double[0];
+		m_posSize = 0;
 		m_rate = 0;
 	}
-	
+
 	public void setRate(double rate){
 		m_rate = rate;
 	}
-	
+
 	protected void sort(){
-		m_query.sortDocs();
-	}	
-	
+		m_query.sortByScore();
+
+		int[] rank = m_query.getRank();
+		for(int r=0; r<m_size; r++)
+			m_position[rank[r]] = r;
+	}
+
 	@Override
 	public void setQuery(_Query query) {
 		m_query = query;
 		m_size = query.getDocSize();
-		sort();		
+		if (m_position.length<m_size)
+			m_position = new int[m_size];
+		sort();
 	}
 
 	@Override
@@ -41,34 +53,32 @@ public class Evaluator implements Evaluation {
 	}
 
 	@Override
-	public double delta(_QUPair qu1, _QUPair qu2) {	
-		if (m_deltas==null)
-			return 1.0;
-		else if (m_deltas.isEmpty())//empty might not be a problem (no pair swapping would affect the ranking)
-			return m_rate;
-		
-		HashMap<_QUPair, Double> delta;
-		if (m_deltas.containsKey(qu1)){
-			delta = m_deltas.get(qu1);
-			if (delta.containsKey(qu2))
-				return m_rate+delta.get(qu2);
-			else
-				return m_rate;
-		} else if (m_deltas.containsKey(qu2)){
-			delta = m_deltas.get(qu2);
-			if (delta.containsKey(qu1))
-				return m_rate+delta.get(qu1);
-			else
-				return m_rate;
-		} else
-			return m_rate;		
+	public double delta(int i, int j) {
+		return 1.0;
 	}
 
-	@Override
-	public void updateDeltas() {
-		if (m_deltas==null)
-			m_deltas = new HashMap<_QUPair,HashMap<_QUPair, Double>>();
-		else
-			m_deltas.clear();
+	//weight of swapping the documents at rank positions i<j
+	protected double positionWeight(int i, int j) {
+		return 0;
+	}
+
+	//the cached weight of swapping the documents i and j of the current query
+	protected double positionDelta(int i, int j) {
+		int pi = m_position[i], pj = m_position[j];
+		return pi<pj ? m_posDeltas[pj*(pj-1)/2+pi] : m_posDeltas[pi*(pi-1)/2+pj];
+	}
+
+	//extend the cached weights to the rank positions of the current query
+	protected void updateDeltas(){
+		if (m_size<=m_posSize)
+			return;
+
+		int offset = m_posSize*(m_posSize-1)/2;
+		m_posDeltas = Arrays.copyOf(m_posDeltas, m_size*(m_size-1)/2);
+		for(int j=m_posSize; j<m_size; j++) {
+			for(int i=0; i<j; i++)
+				m_posDeltas[offset++] = positionWeight(i, j);
+		}
+		m_posSize = m_size;
 	}
 }
\ No newline at end of file
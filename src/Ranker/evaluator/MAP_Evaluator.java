@@ -3,9 +3,8 @@
  */
 package Ranker.evaluator;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
-import structures._QUPair;
 import structures._Query;
 
 /**
@@ -14,10 +13,12 @@ import structures._Query;
  */
 public class MAP_Evaluator extends Evaluator implements Evaluation {	
 	double m_P;//number of relevant documents
+	double[] m_harmonic;//m_harmonic[n] = \sum_{r=1}^{n} 1/r
 	
 	public MAP_Evaluator(){
 		super();	
 		m_P = 0;
+		m_harmonic = new double[1];
 	}
 	
 	@Override
@@ -25,48 +26,49 @@ public class MAP_Evaluator extends Evaluator implements Evaluation {
 		super.setQuery(query);	
 		
 		m_P = 0;		
-		for(_QUPair d:m_query.m_docList)
-			if (d.m_y>0)
+		for(int y:m_query.getLabels())
+			if (y>0)
 				m_P++;
 		
 		if (m_P>0)
 			updateDeltas();
 	}
 	
+	//extend the harmonic numbers to the rank positions of the current query
 	@Override
-	public void updateDeltas(){
-		super.updateDeltas();
-		
-		//create cache for delta
-		HashMap<_QUPair, Double> change = null;
-		_QUPair qu1, qu2;
-		double delta;
-		for(int i=0; i<m_size; i++){
-			qu1 = m_query.m_docList.get(i);
-			if (change == null)
-				change = new HashMap<_QUPair, Double>();		
-			delta = 1.0/(i+1.0);
-			for(int j=i+1; j<m_size; j++){				
-				qu2 = m_query.m_docList.get(j);
-				if (qu1.m_y != qu2.m_y) //make a difference
-					change.put(qu2, delta/m_P);//absolute diff
-				delta += 1.0/(j+1.0);
-			}
-			if (change.size()>0){
-				m_deltas.put(qu1, change);
-				change = null;
-			}
+	protected void updateDeltas(){
+		if (m_harmonic.length<m_size) {
+			int n = m_harmonic.length;
+			m_harmonic = Arrays.copyOf(m_harmonic, m_size);
+			for(; n<m_size; n++)
+				m_harmonic[n] = m_harmonic[n-1] + 1.0/n;
 		}
+		super.updateDeltas();
+	}
+	
+	//\sum_{r=i+1}^{j} 1/r
+	@Override
+	protected double positionWeight(int i, int j) {
+		return m_harmonic[j] - m_harmonic[i];
+	}
+	
+	@Override
+	public double delta(int i, int j) {
+		int[] labels = m_query.getLabels();
+		if (m_P==0 || labels[i]==labels[j])//no difference
+			return m_rate;
+		return m_rate + positionDelta(i, j)/m_P;//absolute diff
 	}
 	
 	@Override
 	public double eval(_Query query) {
 		setQuery(query);//including sort by ranking score		
 		
+		int[] rank = m_query.getRank(), labels = m_query.getLabels();
 		double ap = 0;
 		m_P = 0;
 		for(int i=0; i<m_size; i++){
-			if (m_query.m_docList.get(i).m_y>0){
+			if (labels[rank[i]]>0){
 				m_P++;
 				ap += m_P/(i+1);
 			}
@@ -3,11 +3,6 @@
  */
 package Ranker.evaluator;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-
-import structures._QUPair;
 import structures._Query;
 
 /**
@@ -36,50 +31,39 @@ public class NDCG_Evaluator extends Evaluator {
 	public void setQuery(_Query query) {//every time we want to evaluate new queries
 		super.setQuery(query);
 		
-		ArrayList<Integer> labels = new ArrayList<Integer>(m_size);
-		for(_QUPair qu:m_query.m_docList)
-			labels.add(qu.m_y);
-		Collections.sort(labels, Collections.reverseOrder());
-		
-		//calculate iDCG
+		//calculate iDCG by the documents in descending order of labels
+		int[] order = m_query.getLabelOrder(), labels = m_query.getLabels();
 		m_iDCG = 0;		
-		for(int i=0; i<Math.min(labels.size(),m_k); i++)
-			m_iDCG += m_gain[labels.get(i)] * m_discount[i];
+		for(int i=0; i<Math.min(m_size,m_k); i++)
+			m_iDCG += m_gain[labels[order[i]]] * m_discount[i];
 		
 		updateDeltas();
 	}
 	
 	@Override
-	public void updateDeltas(){
-		super.updateDeltas();
-		
-		//create cache for delta
-		HashMap<_QUPair, Double> change;
-		_QUPair qu1, qu2;
-		double delta;
-		for(int i=0; i<Math.min(m_size, m_k); i++){
-			qu1 = m_query.m_docList.get(i);
-			change = new HashMap<_QUPair, Double>();			
-			for(int j=i+1; j<m_size; j++){
-				qu2 = m_query.m_docList.get(j);
-				if (j>=m_k){
-					delta = (m_gain[qu1.m_y]-m_gain[qu2.m_y]) * m_discount[i];
-				} else {
-					delta = (m_gain[qu1.m_y]-m_gain[qu2.m_y]) * (m_discount[i]-m_discount[j]);
-				}
-				change.put(qu2, Math.abs(delta)/m_iDCG);
-			}
-			m_deltas.put(qu1, change);
-		}
+	protected double positionWeight(int i, int j) {
+		if (i>=m_k)
+			return 0;
+		else if (j>=m_k)
+			return m_discount[i];
+		else
+			return m_discount[i]-m_discount[j];
+	}
+	
+	@Override
+	public double delta(int i, int j) {
+		int[] labels = m_query.getLabels();
+		return m_rate + Math.abs((m_gain[labels[i]]-m_gain[labels[j]]) * positionDelta(i, j))/m_iDCG;
 	}
 	
 	@Override
 	public double eval(_Query query) {
 		setQuery(query);
 		
+		int[] rank = m_query.getRank(), labels = m_query.getLabels();
 		double DCG = 0;
-		for(int i=0; i<Math.min(m_query.m_docList.size(),m_k); i++)
-			DCG += m_gain[m_query.m_docList.get(i).m_y] * m_discount[i]; 
+		for(int i=0; i<Math.min(m_size,m_k); i++)
+			DCG += m_gain[labels[rank[i]]] * m_discount[i]; 
 		return DCG/m_iDCG;
 	}
 }
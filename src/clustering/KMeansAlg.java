@@ -7,33 +7,23 @@ import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.util.ArrayList;
 import java.util.Collection;
 
 import Classifier.BaseClassifier;
-import cc.mallet.cluster.Clustering;
-import cc.mallet.cluster.KMeans;
-import cc.mallet.types.Alphabet;
-import cc.mallet.types.FeatureVector;
-import cc.mallet.types.Instance;
-import cc.mallet.types.InstanceList;
-import cc.mallet.types.Metric;
-import cc.mallet.types.SparseVector;
 import structures._Corpus;
 import structures._Doc;
 
 /**
  * @author hongning
- *
+ * k-means over documents under cosine distance, see KMeansEngine.
  */
 public class KMeansAlg extends BaseClassifier {
 
-	Alphabet m_dict;
-	InstanceList m_instances;
-	InstanceList[] m_clusters;
-	ArrayList<SparseVector> m_centroids;
+	KMeansEngine m_engine;
+	int[] m_clusters; // cluster of each training document
 	int m_k;
-	Metric m_distance = new CosineDistance();
+	int m_batchSize = 0; // mini-batch size, 0 for full batch training
+	int m_batchIter;
 	
 	public KMeansAlg(_Corpus c, int k) {
 		super(c);
@@ -45,57 +35,57 @@ public class KMeansAlg extends BaseClassifier {
 		m_k = k;
 	}
 	
-	FeatureVector createInstance(_Doc d) {
-		int[] indices = d.getIndices();
-		for(int i:indices) {
-			m_dict.lookupIndex(i, true);
-		}
-		return new FeatureVector(m_dict, indices, d.getValues());
+	//streaming mode for large collections: each iteration only visits batchSize sampled documents
+	public void setMiniBatch(int batchSize, int iterations) {
+		m_batchSize = batchSize;
+		m_batchIter = iterations;
 	}
 
 	@Override
 	public double train(Collection<_Doc> trainSet) {
 		init();
 		
-		for(_Doc d:trainSet)			
-			m_instances.add(new Instance(createInstance(d), null, null, d));
+		int[][] indices = new int[trainSet.size()][];
+		double[][] values = new double[trainSet.size()][];
+		int i = 0;
+		for(_Doc d:trainSet) {
+			indices[i] = d.getPackedIndices();
+			values[i++] = d.getPackedValues();
+		}
 		
-		KMeans alg = new KMeans(m_instances.getPipe(), m_k, m_distance);
-		Clustering result = alg.cluster(m_instances);	
-		m_centroids = alg.getClusterMeans();
-		m_clusters = result.getClusters();
+		m_engine = new KMeansEngine(indices, values, m_featureSize);
+		m_engine.setNumberOfCores(m_numberOfCores);
+		if (m_batchSize>0)
+			m_engine.trainMiniBatch(m_k, m_batchSize, m_batchIter);
+		else
+			m_engine.train(m_k);
+		m_clusters = m_engine.getAssignment();
 		return 0; // we can compute the corresponding loss function
 	}
 
+	public int[] getClusters() {
+		return m_clusters;
+	}
+
 	//assign to the closest cluster 
 	@Override
 	public int predict(_Doc doc) {
-		int cid = 0;
-		SparseVector spVct = createInstance(doc);
-		double minDistance = m_distance.distance(m_centroids.get(0), spVct), dist;
-		for(int i=1; i<m_centroids.size(); i++) {
-			dist = m_distance.distance(m_centroids.get(i), spVct);
-			if (dist<minDistance) {
-				minDistance = dist;
-				cid = i;
-			}
-		}
-		return cid;
+		return m_engine.predict(doc.getPackedIndices(), doc.getPackedValues());
 	}
 
 	//distance to the corresponding cluster
 	@Override
 	public double score(_Doc d, int label) {
-		if (label>=m_centroids.size())
+		if (label>=m_engine.getClusterSize())
 			return -1;
 		
-		return m_distance.distance(m_centroids.get(label), createInstance(d));
+		return m_engine.distance(d.getPackedIndices(), d.getPackedValues(), label);
 	}
 
 	@Override
 	protected void init() {
-		m_dict = new Alphabet();
-		m_instances = new InstanceList(m_dict, null);
+		m_engine = null;
+		m_clusters = null;
 	}
 
 	@Override
@@ -108,11 +98,11 @@ public class KMeansAlg extends BaseClassifier {
 	public void saveModel(String modelLocation) {
 		try {
 			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(modelLocation), "UTF-8"));
-			for(SparseVector spVct:m_centroids) {
-				int[] indices = spVct.getIndices();
-				double[] values = spVct.getValues();
-				for(int i=0; i<indices.length; i++) {
-					writer.write(String.format("%d:%.5f ", indices[i], values[i]));
+			for(int c=0; c<m_engine.getClusterSize(); c++) {
+				double[] mean = m_engine.getMean(c);
+				for(int i=0; i<mean.length; i++) {
+					if (mean[i]!=0)
+						writer.write(String.format("%d:%.5f ", i, mean[i]));
 				}
 				writer.write("\n");
 			}
@@ -2,36 +2,19 @@ package clustering;
 
 import java.util.ArrayList;
 
-import cc.mallet.cluster.Clustering;
-import cc.mallet.cluster.KMeans;
-import cc.mallet.types.Alphabet;
-import cc.mallet.types.FeatureVector;
-import cc.mallet.types.Instance;
-import cc.mallet.types.InstanceList;
-import cc.mallet.types.Metric;
-import cc.mallet.types.SparseVector;
 import structures._User;
 
 public class KMeansAlg4Vct {
-	Alphabet m_dict;
-	InstanceList m_instances;
-	InstanceList[] m_clusters;
-	ArrayList<SparseVector> m_centroids;
+	KMeansEngine m_engine;
+	int[] m_clusters;
 	
 	int m_k, m_featureSize;
-	int[] m_indices; 
-	Metric m_distance = new CosineDistance();
 	double[][] m_weights;
-	fvInstance[] m_fvInstances;
+	double[][] m_points; // one row per instance, i.e., the columns of m_weights
 	
-	class fvInstance{
-		int m_index;
-		double[] m_x;
-		public fvInstance(int in, double[] x){
-			m_index = in;
-			m_x = x;
-		}
-	}
+	int m_batchSize = 0; // mini-batch size, 0 for full batch training
+	int m_batchIter;
+	int m_numberOfCores = Runtime.getRuntime().availableProcessors();
 	
 	// Constructor for given weights vectors.
 	public KMeansAlg4Vct(double[][] weights, int k){
@@ -69,24 +52,25 @@ public class KMeansAlg4Vct {
 	}
 	
 	public void init() {
-		m_dict = new Alphabet();
-		m_instances = new InstanceList(m_dict, null);
-		m_indices = new int[m_featureSize];
-		for(int i=0; i<m_featureSize; i++)
-			m_indices[i] = i;
+		m_engine = null;
+		m_clusters = null;
 	}
 	
 	public void initInstances(){
-		m_fvInstances = new fvInstance[m_weights[0].length];
+		m_points = new double[m_weights[0].length][];
 		for(int i=0; i<m_weights[0].length; i++){
-			m_fvInstances[i] = new fvInstance(i, getOneColumn(i));
+			m_points[i] = getOneColumn(i);
 		}
 	}
 	
-	FeatureVector createInstance(fvInstance ins) {
-		for(int i: m_indices)
-			m_dict.lookupIndex(i, true);
-		return new FeatureVector(m_dict, m_indices, ins.m_x);
+	//streaming mode for a large number of instances: each iteration only visits batchSize sampled instances
+	public void setMiniBatch(int batchSize, int iterations) {
+		m_batchSize = batchSize;
+		m_batchIter = iterations;
+	}
+	
+	public void setNumberOfCores(int cores) {
+		m_numberOfCores = Math.max(1, cores);
 	}
 	
 	public void setWeights(double[][] ws){
@@ -98,13 +82,14 @@ public class KMeansAlg4Vct {
 	public double train() {
 		init();
 		initInstances();
-		for(int i=0; i<m_weights[0].length; i++)
-			m_instances.add(new Instance(createInstance(m_fvInstances[i]), null, null, m_fvInstances[i]));
 		
-		KMeans alg = new KMeans(m_instances.getPipe(), m_k, m_distance, KMeans.EMPTY_DROP);
-		Clustering result = alg.cluster(m_instances);	
-		m_centroids = alg.getClusterMeans();
-		m_clusters = result.getClusters();
+		m_engine = new KMeansEngine(m_points);
+		m_engine.setNumberOfCores(m_numberOfCores);
+		if (m_batchSize>0)
+			m_engine.trainMiniBatch(m_k, m_batchSize, m_batchIter);
+		else
+			m_engine.train(m_k); // empty clusters are dropped
+		m_clusters = m_engine.getAssignment();
 		return 0; // we can compute the corresponding loss function
 	}
 	
@@ -118,18 +103,10 @@ public class KMeansAlg4Vct {
 	
 	// Return the corresponding cluster numbers.
 	public int[] getClusters(){
-		int[] clusterNos = new int[m_instances.size()];
-		fvInstance tmp;
-		for(int i=0; i<m_clusters.length; i++){
-			for(Instance ins: m_clusters[i]){
-				tmp = (fvInstance)ins.getSource();
-				clusterNos[tmp.m_index] = i;
-			}
-		}
-		return clusterNos;
+		return m_clusters;
 	}
 	
 	public int getClusterSize(){
-		return m_clusters.length;
+		return m_engine.getClusterSize();
 	}
 }
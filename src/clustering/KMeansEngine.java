@@ -0,0 +1,510 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import utils.WorkerPool;
+
+/**
+ * Native k-means under cosine distance for sparse documents or dense vectors: a point and a cluster mean are compared
+ * by the Euclidean distance of their unit directions, sqrt(2-2cos), which is a metric and monotone in the cosine distance.
+ * Full batch training is Lloyd's iteration with Hamerly's bounds to skip the points whose assignment cannot change,
+ * and mini-batch training follows Sculley (2010) with per-center learning rates; both are seeded by k-means++.
+ * The assignment steps are split among the threads of a WorkerPool, each thread claiming blocks of points.
+ */
+public class KMeansEngine {
+
+	int m_N, m_dim, m_k;
+	int[][] m_indices; // null for dense points
+	double[][] m_values;
+	double[] m_invNorms;
+
+	double[][] m_centers; // unit directions of the cluster means
+	double[][] m_means; // sum of the points in each cluster during full batch training, the mean afterwards
+	int[] m_sizes;
+	int[] m_assignment;
+	double[] m_upper, m_lower; // distance to the assigned center and lower bound of the distance to all the others
+
+	int m_maxIter = 100;
+	int m_numberOfCores;
+	int m_blockSize = 256; // points claimed by a thread at a time
+	Random m_rand;
+	WorkerPool m_pool;
+
+	//the sparse points are shared with the caller, not copied
+	public KMeansEngine(int[][] indices, double[][] values, int dim) {
+		m_indices = indices;
+		m_values = values;
+		m_dim = dim;
+		init();
+	}
+
+	public KMeansEngine(double[][] points) {
+		m_indices = null;
+		m_values = points;
+		m_dim = points.length>0 ? points[0].length : 0;
+		init();
+	}
+
+	void init() {
+		m_N = m_values.length;
+		m_invNorms = new double[m_N];
+		for(int i=0; i<m_N; i++) {
+			double norm = 0;
+			for(double v:m_values[i])
+				norm += v*v;
+			m_invNorms[i] = norm>0 ? 1.0/Math.sqrt(norm) : 0; // zero vectors are equally far from all the centers
+		}
+		m_numberOfCores = Runtime.getRuntime().availableProcessors();
+		m_rand = new Random();
+	}
+
+	public void setNumberOfCores(int cores) {
+		m_numberOfCores = Math.max(1, cores);
+	}
+
+	public void setMaxIter(int maxIter) {
+		m_maxIter = maxIter;
+	}
+
+	public void setSeed(long seed) {
+		m_rand = new Random(seed);
+	}
+
+	double dot(int i, double[] center) {
+		double[] val = m_values[i];
+		double sum = 0;
+		if (m_indices==null) {
+			for(int d=0; d<val.length; d++)
+				sum += val[d] * center[d];
+		} else {
+			int[] idx = m_indices[i];
+			for(int n=0; n<idx.length; n++)
+				sum += val[n] * center[idx[n]];
+		}
+		return sum;
+	}
+
+	double distance(int i, double[] center) {
+		return Math.sqrt(Math.max(0, 2 - 2*m_invNorms[i]*dot(i, center)));
+	}
+
+	//v += scale * x_i
+	void addTo(int i, double[] v, double scale) {
+		double[] val = m_values[i];
+		if (m_indices==null) {
+			for(int d=0; d<val.length; d++)
+				v[d] += scale * val[d];
+		} else {
+			int[] idx = m_indices[i];
+			for(int n=0; n<idx.length; n++)
+				v[idx[n]] += scale * val[n];
+		}
+	}
+
+	//the work on [start, end) returns a partial statistic, which is summed over all the blocks
+	interface BlockTask {
+		double run(int start, int end);
+	}
+
+	double parallelFor(final int size, final BlockTask task) {
+		if (m_pool==null)
+			return task.run(0, size);
+
+		final AtomicInteger nextBlock = new AtomicInteger(0);
+		final double[] partial = new double[m_pool.size()];
+		Runnable[] tasks = new Runnable[m_pool.size()];
+		for(int t=0; t<tasks.length; t++) {
+			final int tid = t;
+			tasks[t] = new Runnable() {
+				@Override
+				public void run() {
+					int start;
+					double stat = 0;
+					while((start=nextBlock.getAndIncrement()*m_blockSize)<size)
+						stat += task.run(start, Math.min(size, start+m_blockSize));
+					partial[tid] = stat;
+				}
+			};
+		}
+		m_pool.execute(tasks);
+
+		double stat = 0;
+		for(double s:partial)
+			stat += s;
+		return stat;
+	}
+
+	void allocate(int k) {
+		m_k = Math.min(k, m_N);
+		m_centers = new double[m_k][m_dim];
+		m_means = new double[m_k][m_dim];
+		m_sizes = new int[m_k];
+		m_assignment = new int[m_N];
+
+		if (m_numberOfCores>1 && m_N>m_blockSize)
+			m_pool = new WorkerPool(m_numberOfCores);
+	}
+
+	void release() {
+		if (m_pool!=null) {
+			m_pool.shutdown();
+			m_pool = null;
+		}
+		m_upper = null;
+		m_lower = null;
+	}
+
+	//the raw point as the initial mean and its direction as the center
+	void setCenter(int c, int i) {
+		Arrays.fill(m_means[c], 0);
+		addTo(i, m_means[c], 1.0);
+		Arrays.fill(m_centers[c], 0);
+		addTo(i, m_centers[c], m_invNorms[i]);
+	}
+
+	//k-means++ seeding among the sampled points: the next center is drawn proportional to the squared distance to the closest chosen center
+	void seed(final int[] sample) {
+		final int S = sample.length;
+		final double[] minDist = new double[S];
+		Arrays.fill(minDist, Double.MAX_VALUE);
+
+		int c = 0, next = sample[m_rand.nextInt(S)];
+		while(true) {
+			setCenter(c, next);
+			if (++c==m_k)
+				break;
+
+			final double[] center = m_centers[c-1];
+			double total = parallelFor(S, new BlockTask() {
+				@Override
+				public double run(int start, int end) {
+					double sum = 0, d;
+					for(int p=start; p<end; p++) {
+						d = distance(sample[p], center);
+						if (d*d<minDist[p])
+							minDist[p] = d*d;
+						sum += minDist[p];
+					}
+					return sum;
+				}
+			});
+
+			if (total<=0) //all the points coincide with the chosen centers
+				next = sample[m_rand.nextInt(S)];
+			else {
+				double r = m_rand.nextDouble() * total;
+				int p = 0;
+				while(p<S-1 && (r-=minDist[p])>0)
+					p ++;
+				next = sample[p];
+			}
+		}
+	}
+
+	//scan all the centers for point i, return the closest one and set the bounds if they are maintained
+	int assignNearest(int i) {
+		double best = Double.MAX_VALUE, second = Double.MAX_VALUE, d;
+		int a = 0;
+		for(int c=0; c<m_k; c++) {
+			d = distance(i, m_centers[c]);
+			if (d<best) {
+				second = best;
+				best = d;
+				a = c;
+			} else if (d<second)
+				second = d;
+		}
+
+		if (m_upper!=null) {
+			m_upper[i] = best;
+			m_lower[i] = second;
+		}
+		return a;
+	}
+
+	//move the centers to the directions of the current sums and record how far each of them moved
+	void updateCenters(double[] moves) {
+		for(int c=0; c<m_k; c++) {
+			double norm = 0, move = 0, v;
+			for(double s:m_means[c])
+				norm += s*s;
+			if (m_sizes[c]==0 || norm==0) {//empty cluster keeps its last center
+				moves[c] = 0;
+				continue;
+			}
+
+			norm = 1.0/Math.sqrt(norm);
+			double[] center = m_centers[c];
+			for(int d=0; d<m_dim; d++) {
+				v = m_means[c][d] * norm;
+				move += (v-center[d]) * (v-center[d]);
+				center[d] = v;
+			}
+			moves[c] = Math.sqrt(move);
+		}
+	}
+
+	//half of the distance from each center to its closest other center
+	void centerSeparation(final double[] half) {
+		parallelFor(m_k, new BlockTask() {
+			@Override
+			public double run(int start, int end) {
+				for(int c=start; c<end; c++) {
+					double min = Double.MAX_VALUE, dot;
+					for(int c2=0; c2<m_k; c2++) {
+						if (c2==c)
+							continue;
+						dot = 0;
+						for(int d=0; d<m_dim; d++)
+							dot += m_centers[c][d] * m_centers[c2][d];
+						min = Math.min(min, Math.sqrt(Math.max(0, 2-2*dot)));
+					}
+					half[c] = min/2;
+				}
+				return 0;
+			}
+		});
+	}
+
+	//full batch k-means, return the number of iterations
+	public int train(int k) {
+		allocate(k);
+		try {
+			int[] all = new int[m_N];
+			for(int i=0; i<m_N; i++)
+				all[i] = i;
+			seed(all);
+
+			m_upper = new double[m_N];
+			m_lower = new double[m_N];
+			parallelFor(m_N, new BlockTask() {
+				@Override
+				public double run(int start, int end) {
+					for(int i=start; i<end; i++)
+						m_assignment[i] = assignNearest(i);
+					return 0;
+				}
+			});
+
+			//m_means keeps the sums of the clusters during the iterations
+			for(int c=0; c<m_k; c++)
+				Arrays.fill(m_means[c], 0);
+			for(int i=0; i<m_N; i++) {
+				m_sizes[m_assignment[i]] ++;
+				addTo(i, m_means[m_assignment[i]], 1.0);
+			}
+
+			final double[] moves = new double[m_k], half = new double[m_k];
+			int[] previous = new int[m_N];
+			int iter = 0;
+			while(iter++<m_maxIter) {
+				updateCenters(moves);
+				centerSeparation(half);
+
+				int maxC = 0;
+				for(int c=1; c<m_k; c++) {
+					if (moves[c]>moves[maxC])
+						maxC = c;
+				}
+				double secondMove = 0;
+				for(int c=0; c<m_k; c++) {
+					if (c!=maxC)
+						secondMove = Math.max(secondMove, moves[c]);
+				}
+				final int cMax = maxC;
+				final double maxMove = moves[maxC], nextMove = secondMove;
+
+				System.arraycopy(m_assignment, 0, previous, 0, m_N);
+				double changed = parallelFor(m_N, new BlockTask() {
+					@Override
+					public double run(int start, int end) {
+						int count = 0, a;
+						double bound;
+						for(int i=start; i<end; i++) {
+							a = m_assignment[i];
+							m_upper[i] += moves[a];
+							m_lower[i] -= a==cMax ? nextMove : maxMove;
+
+							bound = Math.max(half[a], m_lower[i]);
+							if (m_upper[i]<=bound)
+								continue;
+							m_upper[i] = distance(i, m_centers[a]); // tighten the upper bound first
+							if (m_upper[i]<=bound)
+								continue;
+
+							m_assignment[i] = assignNearest(i);
+							if (m_assignment[i]!=a)
+								count ++;
+						}
+						return count;
+					}
+				});
+
+				if (changed==0)
+					break;
+
+				for(int i=0; i<m_N; i++) {
+					if (previous[i]!=m_assignment[i]) {
+						m_sizes[previous[i]] --;
+						addTo(i, m_means[previous[i]], -1.0);
+						m_sizes[m_assignment[i]] ++;
+						addTo(i, m_means[m_assignment[i]], 1.0);
+					}
+				}
+			}
+			updateCenters(moves);
+
+			for(int c=0; c<m_k; c++) {
+				if (m_sizes[c]>0) {
+					for(int d=0; d<m_dim; d++)
+						m_means[c][d] /= m_sizes[c];
+				}
+			}
+			dropEmptyClusters();
+			return iter;
+		} finally {
+			release();
+		}
+	}
+
+	//mini-batch k-means with batchSize points sampled in each of the given number of iterations
+	public void trainMiniBatch(int k, int batchSize, int iterations) {
+		allocate(k);
+		try {
+			//seed among a random subset of the points
+			int[] perm = new int[m_N];
+			for(int i=0; i<m_N; i++)
+				perm[i] = i;
+			int S = Math.min(m_N, Math.max(batchSize, 10*m_k));
+			for(int s=0; s<S; s++) {
+				int j = s + m_rand.nextInt(m_N-s), t = perm[s];
+				perm[s] = perm[j];
+				perm[j] = t;
+			}
+			seed(Arrays.copyOf(perm, S));
+			perm = null;
+
+			final int[] batch = new int[batchSize], batchAssignment = new int[batchSize];
+			long[] counts = new long[m_k];
+			int[] batchCounts = new int[m_k];
+			double[] moves = new double[m_k];
+			for(int iter=0; iter<iterations; iter++) {
+				for(int p=0; p<batchSize; p++)
+					batch[p] = m_rand.nextInt(m_N);
+
+				parallelFor(batchSize, new BlockTask() {
+					@Override
+					public double run(int start, int end) {
+						for(int p=start; p<end; p++)
+							batchAssignment[p] = assignNearest(batch[p]);
+						return 0;
+					}
+				});
+
+				//per-center learning rate 1/count, i.e., each mean is the running average of all the points it received
+				Arrays.fill(batchCounts, 0);
+				for(int p=0; p<batchSize; p++)
+					batchCounts[batchAssignment[p]] ++;
+				for(int c=0; c<m_k; c++) {
+					if (batchCounts[c]>0) {
+						double scale = (double)counts[c] / (counts[c]+batchCounts[c]);
+						for(int d=0; d<m_dim; d++)
+							m_means[c][d] *= scale;
+						counts[c] += batchCounts[c];
+						m_sizes[c] = 1; // to be updated in updateCenters()
+					}
+				}
+				for(int p=0; p<batchSize; p++) {
+					int c = batchAssignment[p];
+					addTo(batch[p], m_means[c], 1.0/counts[c]);
+				}
+				updateCenters(moves);
+				Arrays.fill(m_sizes, 0);
+			}
+
+			//final assignment of all the points
+			parallelFor(m_N, new BlockTask() {
+				@Override
+				public double run(int start, int end) {
+					for(int i=start; i<end; i++)
+						m_assignment[i] = assignNearest(i);
+					return 0;
+				}
+			});
+			for(int i=0; i<m_N; i++)
+				m_sizes[m_assignment[i]] ++;
+			dropEmptyClusters();
+		} finally {
+			release();
+		}
+	}
+
+	void dropEmptyClusters() {
+		int[] map = new int[m_k];
+		int size = 0;
+		for(int c=0; c<m_k; c++) {
+			if (m_sizes[c]>0) {
+				map[c] = size;
+				m_centers[size] = m_centers[c];
+				m_means[size] = m_means[c];
+				m_sizes[size] = m_sizes[c];
+				size ++;
+			}
+		}
+
+		if (size<m_k) {
+			for(int i=0; i<m_N; i++)
+				m_assignment[i] = map[m_assignment[i]];
+			m_centers = Arrays.copyOf(m_centers, size);
+			m_means = Arrays.copyOf(m_means, size);
+			m_sizes = Arrays.copyOf(m_sizes, size);
+			m_k = size;
+		}
+	}
+
+	public int getClusterSize() {
+		return m_k;
+	}
+
+	public int[] getAssignment() {
+		return m_assignment;
+	}
+
+	public int getSize(int c) {
+		return m_sizes[c];
+	}
+
+	public double[] getMean(int c) {
+		return m_means[c];
+	}
+
+	//unit direction of the mean of cluster c
+	public double[] getCenter(int c) {
+		return m_centers[c];
+	}
+
+	//cosine distance between a sparse query and the mean of cluster c
+	public double distance(int[] indices, double[] values, int c) {
+		double norm = 0, dot = 0;
+		for(int n=0; n<indices.length; n++) {
+			norm += values[n] * values[n];
+			dot += values[n] * m_centers[c][indices[n]];
+		}
+		return norm>0 ? 1 - dot/Math.sqrt(norm) : 1;
+	}
+
+	public int predict(int[] indices, double[] values) {
+		int cid = 0;
+		double minDistance = Double.MAX_VALUE, dist;
+		for(int c=0; c<m_k; c++) {
+			dist = distance(indices, values, c);
+			if (dist<minDistance) {
+				minDistance = dist;
+				cid = c;
+			}
+		}
+		return cid;
+	}
+}
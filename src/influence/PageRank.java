@@ -6,34 +6,34 @@ package influence;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import Classifier.BaseClassifier;
-import cern.colt.matrix.tdouble.DoubleMatrix2D;
-import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
-import cern.colt.matrix.tdouble.impl.SparseDoubleMatrix2D;
-import structures.MyPriorityQueue;
+import structures.CSRGraph;
+import structures.TopKHeap;
 import structures._Corpus;
 import structures._Doc;
-import structures._RankItem;
-import utils.Utils;
+import utils.WorkerPool;
 
 /**
  * @author hongning
  * Class for social influence analysis
  * Base class: PageRank based, transition probability estimated via similarities.
+ * The k-nearest neighbor graph of each product is kept in CSR format; large products are ranked
+ * with all the threads splitting the rows, while the small ones are ranked concurrently, one product per thread.
  */
 public class PageRank extends BaseClassifier {
 	
-	DoubleMatrix2D m_transition;
 	int m_topK; // k nearest neighbors
 	
-	double[] m_cache; // to store the pre-compute similarities
-	int m_N;
-	
 	int m_maxIter;
-	double m_converge;
+	double m_converge; // L1 difference between two iterations
 	double m_alpha; // dumping factor
 	
+	int m_parallelSize = 2000; // products with more reviews than this are ranked by all the threads together
+	int m_blockSize = 64; // rows claimed by a thread at a time
+	WorkerPool m_pool;
+	
 	public PageRank(_Corpus c, double alpha, int topK, int maxIter, double converge) {
 		super(c);
 		m_alpha = alpha;
@@ -42,18 +42,23 @@ public class PageRank extends BaseClassifier {
 		m_converge = converge;
 	}
 
+	public void setParallelSize(int size) {
+		m_parallelSize = size;
+	}
+
 	@Override
 	public double train(Collection<_Doc> trainSet) {
+		ArrayList<ArrayList<_Doc>> graphs = new ArrayList<ArrayList<_Doc>>();
 		ArrayList<_Doc> graph = new ArrayList<_Doc>();
 		
 		String lastItemID = null;
 		for(_Doc d:trainSet) {
 			if (lastItemID == null)
 				lastItemID = d.getItemID();
-			else if (lastItemID != d.getItemID()) {
+			else if (!lastItemID.equals(d.getItemID())) {
 				if (graph.size()>10)//otherwise the graph is too small
-					calcPageRank(graph);
-				graph.clear();
+					graphs.add(graph);
+				graph = new ArrayList<_Doc>();
 				lastItemID = d.getItemID();
 			}
 			
@@ -62,118 +67,262 @@ public class PageRank extends BaseClassifier {
 		
 		//for the last product
 		if (graph.size()>5)//otherwise the graph is too small
-			calcPageRank(graph);
+			graphs.add(graph);
+
+		if (m_numberOfCores==1) {
+			for(ArrayList<_Doc> g:graphs)
+				calcPageRank(g, 1);
+			return 0;
+		}
+
+		final ArrayList<ArrayList<_Doc>> smallGraphs = new ArrayList<ArrayList<_Doc>>();
+		m_pool = new WorkerPool(m_numberOfCores);
+		try {
+			for(ArrayList<_Doc> g:graphs) {
+				if (g.size()>m_parallelSize)
+					calcPageRank(g, m_numberOfCores);
+				else
+					smallGraphs.add(g);
+			}
+
+			//the small products are independent, each thread claims the next unranked one
+			if (!smallGraphs.isEmpty()) {
+				final AtomicInteger nextGraph = new AtomicInteger(0);
+				Runnable[] tasks = new Runnable[m_numberOfCores];
+				for(int t=0; t<tasks.length; t++) {
+					tasks[t] = new Runnable() {
+						@Override
+						public void run() {
+							int g;
+							while((g=nextGraph.getAndIncrement())<smallGraphs.size())
+								calcPageRank(smallGraphs.get(g), 1);
+						}
+					};
+				}
+				m_pool.execute(tasks);
+			}
+		} finally {
+			m_pool.shutdown();
+			m_pool = null;
+		}
 		return 0;
 	}
 	
-	private void constructSparseGraph(ArrayList<_Doc> collection) {
-		m_N = collection.size();
+	//inverted index of the product's reviews: posting ids and the corresponding feature values
+	static class InvertedIndex {
+		int[][] m_ids;
+		double[][] m_values;
 		
-		//we need to make this very sparse!
-		m_transition = new SparseDoubleMatrix2D(m_N, m_N);
-		
-		//construct the connection
-		MyPriorityQueue<_RankItem> queue = new MyPriorityQueue<_RankItem>(m_topK);
-		for(int i=0; i<collection.size(); i++) {
-			_Doc di = collection.get(i);
-			//find k-nearest neighbor
-			for(int j=0; j<collection.size(); j++) {
-				if (i!=j)
-					queue.add(new _RankItem(j, Utils.dotProduct(di, collection.get(j))));
+		InvertedIndex(ArrayList<_Doc> collection, int featureSize) {
+			int[] df = new int[featureSize];
+			for(_Doc d:collection) {
+				for(int f:d.getPackedIndices())
+					df[f] ++;
 			}
 			
-			// transition probability is proportion to similarity
-			double sum = 0;
-			for(_RankItem item:queue) {
-				item.m_value = Math.exp(item.m_value);
-				sum += item.m_value;
+			m_ids = new int[featureSize][];
+			m_values = new double[featureSize][];
+			for(int f=0; f<featureSize; f++) {
+				if (df[f]>0) {
+					m_ids[f] = new int[df[f]];
+					m_values[f] = new double[df[f]];
+				}
 			}
 			
-			// set up the transition
-			for(_RankItem item:queue)
-				m_transition.setQuick(i, item.m_index, item.m_value/sum); // i -> j
-			queue.clear();
+			Arrays.fill(df, 0);
+			for(int i=0; i<collection.size(); i++) {
+				_Doc d = collection.get(i);
+				int[] idx = d.getPackedIndices();
+				double[] val = d.getPackedValues();
+				for(int n=0; n<idx.length; n++) {
+					int f = idx[n], pos = df[f]++;
+					m_ids[f][pos] = i;
+					m_values[f][pos] = val[n];
+				}
+			}
 		}
 	}
 	
-	private void constructDenseGraph(ArrayList<_Doc> collection) {
-		m_N = collection.size();
-		
-		//we need to make this very sparse!
-		m_transition = new DenseDoubleMatrix2D(m_N, m_N);
-		
-		double sim;
-		
-		//construct the connection
-		for(int i=0; i<collection.size(); i++) {
+	/**
+	 * k-nearest neighbors of the rows in [start, end) by dot product, accumulated over the posting lists of each row's features;
+	 * visited[j] records the last row that reached review j.
+	 * Reviews sharing no feature with the row have zero similarity and only fill up the rest of the k slots.
+	 * The transition probability of i -> j is proportional to exp(sim), stored in neighbors/probs[i*k, (i+1)*k).
+	 */
+	void constructSparseGraph(ArrayList<_Doc> collection, InvertedIndex index, int k, int start, int end,
+			double[] acc, int[] touched, int[] visited, TopKHeap heap, int[] neighbors, double[] probs) {
+		int N = collection.size();
+		for(int i=start; i<end; i++) {
 			_Doc di = collection.get(i);
-			// transition probability is proportion to similarity
-			double sum = 0;
-			for(int j=0; j<collection.size(); j++) {
-				if (i!=j) {
-					sim = Math.exp(Utils.dotProduct(di, collection.get(j)));
-					m_transition.setQuick(i, j, sim);
-					sum += sim;
+			int[] idx = di.getPackedIndices();
+			double[] val = di.getPackedValues();
+		
+			int size = 0, mark = i + 1;
+			for(int n=0; n<idx.length; n++) {
+				int[] ids = index.m_ids[idx[n]];
+				double[] values = index.m_values[idx[n]];
+				for(int p=0; p<ids.length; p++) {
+					int j = ids[p];
+					if (j==i)
+						continue;
+					if (visited[j]!=mark) {
+						visited[j] = mark;
+						touched[size++] = j;
+					}
+					acc[j] += val[n] * values[p];
 				}
 			}
-			
-			for(int j=0; j<collection.size(); j++) {
-				if (i!=j) {
-					sim = m_transition.getQuick(i, j) / sum;
-					m_transition.setQuick(i, j, sim);
+
+			for(int c=0; c<size; c++) {
+				int j = touched[c];
+				heap.add(j, acc[j]);
+			}
+
+			//reviews without overlapping features
+			if (size<N-1) {
+				for(int j=0; j<N && (heap.size()<k || heap.peekValue()<0); j++) {
+					if (j!=i && visited[j]!=mark)
+						heap.add(j, 0);
 				}
 			}
+
+			for(int c=0; c<size; c++)
+				acc[touched[c]] = 0;
+
+			// transition probability is proportion to exp(similarity)
+			double max = Double.NEGATIVE_INFINITY, sum = 0;
+			for(int n=0; n<heap.size(); n++)
+				max = Math.max(max, heap.getValue(n));
+			for(int n=0; n<heap.size(); n++) {
+				neighbors[i*k+n] = heap.getId(n);
+				probs[i*k+n] = Math.exp(heap.getValue(n) - max);
+				sum += probs[i*k+n];
+			}
+			for(int n=0; n<heap.size(); n++)
+				probs[i*k+n] /= sum;
+			heap.clear();
 		}
 	}
-	
-	void calcPageRank(ArrayList<_Doc> collection) {
-		if (collection.size()<=m_topK)
-			constructDenseGraph(collection);
-		else
-			constructSparseGraph(collection);
+
+	//incoming edges j -> i of each review, so that the power iteration is a row-wise product
+	CSRGraph transpose(int N, int k, int[] neighbors, double[] probs) {
+		int[] inDegree = new int[N+1];
+		for(int p=0; p<N*k; p++)
+			inDegree[neighbors[p]+1] ++;
+		for(int i=0; i<N; i++)
+			inDegree[i+1] += inDegree[i];
+
+		int[] sources = new int[N*k];
+		double[] weights = new double[N*k];
+		int[] pos = Arrays.copyOf(inDegree, N);
+		for(int j=0; j<N; j++) {
+			for(int n=0; n<k; n++) {
+				int i = neighbors[j*k+n], p = pos[i]++;
+				sources[p] = j;
+				weights[p] = probs[j*k+n];
+			}
+		}
+
+		CSRGraph graph = new CSRGraph(N, N*k);
+		for(int i=0; i<N; i++) {
+			for(int p=inDegree[i]; p<inDegree[i+1]; p++)
+				graph.addEdge(sources[p], weights[p]);
+			graph.endRow();
+		}
+		return graph;
+	}
+
+	//x'_i = alpha/N + (1-alpha) * (\sum_j P_ji x_j + dangling/N) over the rows in [start, end), return the L1 difference
+	double updateRank(CSRGraph inGraph, double[] x, double[] xNew, double dangling, int start, int end) {
+		int N = x.length;
+		double base = m_alpha/N + (1-m_alpha) * dangling/N, delta = 0;
+		for(int i=start; i<end; i++) {
+			xNew[i] = base + (1-m_alpha) * inGraph.multiplyRow(i, x);
+			delta += Math.abs(xNew[i] - x[i]);
+		}
+		return delta;
+	}
+
+	//the rows are split among the given number of threads in m_pool
+	void calcPageRank(final ArrayList<_Doc> collection, int threads) {
+		final int N = collection.size(), k = Math.min(m_topK, N-1);
+		final int[] neighbors = new int[N*k];
+		final double[] probs = new double[N*k];
+		final InvertedIndex index = new InvertedIndex(collection, m_featureSize);
+
+		Runnable[] tasks = new Runnable[threads];
+		if (threads==1)
+			constructSparseGraph(collection, index, k, 0, N, new double[N], new int[N], new int[N], new TopKHeap(Math.max(1, k)), neighbors, probs);
+		else {
+			final AtomicInteger nextBlock = new AtomicInteger(0);
+			for(int t=0; t<threads; t++) {
+				tasks[t] = new Runnable() {
+					@Override
+					public void run() {
+						double[] acc = new double[N];
+						int[] touched = new int[N], visited = new int[N];
+						TopKHeap heap = new TopKHeap(Math.max(1, k));
+						int start;
+						while((start=nextBlock.getAndIncrement()*m_blockSize)<N)
+							constructSparseGraph(collection, index, k, start, Math.min(N, start+m_blockSize), acc, touched, visited, heap, neighbors, probs);
+					}
+				};
+			}
+			m_pool.execute(tasks);
+		}
 		
-		//to save space, we can reuse m_cache
-		if (m_cache==null || m_cache.length < 2*m_N)
-			m_cache = new double[2*m_N];
-		Arrays.fill(m_cache, 1.0/Math.sqrt(m_N));//start from uniform	
+		//the packed vectors are only needed for the similarity graph
+		for(_Doc d:collection)
+			d.resetPackedSpVct();
+
+		final CSRGraph inGraph = transpose(N, k, neighbors, probs);
+		final double[] partial = new double[threads];
+		double[] x = new double[N], xNew = new double[N], t;
+		Arrays.fill(x, 1.0/N);//start from uniform
 		
 		int iter = 0;
-		double delta = 1.0, influence, prob, norm;
+		double delta, dangling = k>0 ? 0 : 1; // only a single review has no out-going edge
 		do {
-			norm = 0;
-			for(int i=0; i<m_N; i++) {
-				influence = 0;
-				for(int j=0; j<m_N; j++) {
-					if (i!=j && (prob=m_transition.getQuick(j, i))>0) {
-						influence += prob * m_cache[j];
-					}
+			if (threads==1)
+				delta = updateRank(inGraph, x, xNew, dangling, 0, N);
+			else {
+				final double[] cx = x, cxNew = xNew;
+				final double cDangling = dangling;
+				for(int r=0; r<threads; r++) {
+					final int tid = r, start = N*r/threads, end = N*(r+1)/threads;
+					tasks[r] = new Runnable() {
+						@Override
+						public void run() {
+							partial[tid] = updateRank(inGraph, cx, cxNew, cDangling, start, end);
+						}
+					};
 				}
+				m_pool.execute(tasks);
 				
-				m_cache[i+m_N] = m_alpha/m_N + (1-m_alpha) * influence; // influence update
-				norm += m_cache[i+m_N] * m_cache[i+m_N];
-			}
-			
-			delta = 0;
-			norm = Math.sqrt(norm);
-			for(int i=0; i<m_N; i++) {
-				m_cache[i+m_N] /= norm; // normalize
-				delta += (m_cache[i] - m_cache[i+m_N]) * (m_cache[i] - m_cache[i+m_N]); // difference
-				m_cache[i] = m_cache[i+m_N];
+				delta = 0;
+				for(double d:partial)
+					delta += d;
 			}
 			
-			delta = Math.sqrt(delta/m_N);			
+			t = x; x = xNew; xNew = t;
 		} while (++iter<m_maxIter && delta>m_converge);
 		
-		for(int i=0; i<m_N; i++) {
-			collection.get(i).setWeight(1.0 + 10*m_cache[i]);//what would be a reasonable weight setting?
+		//the weights are on the scale of a unit L2 norm ranking vector
+		double norm = 0;
+		for(int i=0; i<N; i++)
+			norm += x[i] * x[i];
+		norm = Math.sqrt(norm);
+
+		for(int i=0; i<N; i++) {
+			collection.get(i).setWeight(1.0 + 10*x[i]/norm);//what would be a reasonable weight setting?
 		}
 		
 //		try {
 //			PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter("pagerank_results.txt", true)));
-//			writer.format("PageRank in %d*%d graph converge to %.7f after %d steps...\n", m_N, m_N, delta, iter);	
-//			int idMax = Utils.maxOfArrayIndex(m_cache,m_N), idMin = Utils.minOfArrayIndex(m_cache,m_N);
-//			writer.println(m_cache[idMax]+ "\t" + collection.get(idMax));//print the most typical review
-//			writer.println(m_cache[idMin]+ "\t" + collection.get(idMin) + "\n\n");//print the most typical review
+//			writer.format("PageRank in %d*%d graph converge to %.7f after %d steps...\n", N, N, delta, iter);
+//			int idMax = Utils.maxOfArrayIndex(x,N), idMin = Utils.minOfArrayIndex(x,N);
+//			writer.println(x[idMax]+ "\t" + collection.get(idMax));//print the most typical review
+//			writer.println(x[idMin]+ "\t" + collection.get(idMin) + "\n\n");//print the most typical review
 //			writer.close();
 //			
 //		} catch (IOException e) {
@@ -181,65 +330,6 @@ public class PageRank extends BaseClassifier {
 //		}
 		
 	}
-	
-//	//time efficient implementation
-//	private void constructGraph(ArrayList<_Doc> collection) {
-//		m_N = collection.size();
-//		
-//		//pre-compute the similarities
-//		initCache();
-//		for(int i=0; i<collection.size(); i++) {
-//			_Doc di = collection.get(i);
-//			for(int j=i+1; j<collection.size(); j++)
-//				setCache(i, j, Utils.calculateSimilarity(di, collection.get(j)));
-//		}
-//		
-//		//we need to make this very sparse!
-//		m_transition = new SparseDoubleMatrix2D(m_N, m_N);
-//		
-//		//construct the connection
-//		MyPriorityQueue<_RankItem> queue = new MyPriorityQueue<_RankItem>(m_topK);
-//		for(int i=0; i<collection.size(); i++) {
-//			//find k-nearest neighbor
-//			for(int j=0; j<collection.size(); j++) {
-//				if (i!=j)
-//					queue.add(new _RankItem(j, getCache(i, j)));
-//			}
-//			
-//			// transition probability is proportion to similarity
-//			double sum = 0;
-//			for(_RankItem item:queue) {
-//				item.m_value = Math.exp(item.m_value);
-//				sum += item.m_value;
-//			}
-//			
-//			// set up the transition
-//			for(_RankItem item:queue)
-//				m_transition.setQuick(i, item.m_index, item.m_value/sum); // i -> j
-//			queue.clear();
-//		}
-//	}
-	
-	private void initCache() {
-		m_cache = new double[m_N*(m_N-1)/2];
-	}
-	
-	private int getPos(int i, int j) {
-		return i*(2*m_N-i-1)/2 + j-i-1;
-	}
-	
-	private double getCache(int i, int j) {
-		if (i>j) {
-			int t = i;
-			i = j;
-			j = t;
-		}
-		return m_cache[getPos(i,j)];
-	}
-	
-	private void setCache(int i, int j, double v) {
-		m_cache[getPos(i,j)] = v;
-	}
 
 	@Override
 	public int predict(_Doc doc) {
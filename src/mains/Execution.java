@@ -86,31 +86,33 @@ public class Execution  {
 		/********Choose different classification methods.*********/
 		//Execute different classifiers.
 		if (param.m_style.equals("SUP")) {
-			BaseClassifier model = null;
-			
-			if(param.m_model.equals("NB")){
-				//Define a new naive bayes with the parameters.
-				System.out.println("Start naive bayes, wait...");
-				model = new NaiveBayes(corpus);
-			} else if(param.m_model.equals("LR")){
-				//Define a new logistics regression with the parameters.
-				System.out.println("Start logistic regression, wait...");
-				model = new LogisticRegression(corpus, param.m_C);
-			} else if(param.m_model.equals("PR-LR")){
-				//Define a new logistics regression with the parameters.
-				System.out.println("Start posterior regularized logistic regression, wait...");
-				model = new PRLogisticRegression(corpus, param.m_C);
-			} else if(param.m_model.equals("SVM")){
-				//corpus.save2File("data/FVs/fvector.dat");
-				System.out.println("Start SVM, wait...");
-				model = new SVM(corpus, param.m_C);
-			} else {
+			String name = classifierName(param.m_model);
+			if (name==null) {
 				System.out.println("Classifier has not been developed yet!");
 				System.exit(-1);
 			}
+			System.out.format("Start %s, wait...\n", name);
 			
-			model.setDebugOutput(param.m_debugOutput);
-			model.crossValidation(param.m_CVFold, corpus);
+			if (param.m_CVThreads>1 || param.m_Cs!=null) {
+				//every fold of every trade-off parameter is trained on its own classifier
+				final String modelName = param.m_model, debugOutput = param.m_debugOutput;
+				final _Corpus c = corpus;
+				final double[] Cs = param.m_Cs!=null ? param.m_Cs : new double[]{param.m_C};
+				final int cores = Math.max(1, Runtime.getRuntime().availableProcessors()/param.m_CVThreads);
+				BaseClassifier.crossValidation(param.m_CVFold, corpus, new BaseClassifier.Factory() {
+					@Override
+					public BaseClassifier create(int setting) {
+						BaseClassifier model = createClassifier(modelName, c, Cs[setting]);
+						model.setNumberOfCores(cores); // the folds trained at the same time share the cores
+						model.setDebugOutput(debugOutput);
+						return model;
+					}
+				}, Cs.length, param.m_CVThreads);
+			} else {
+				BaseClassifier model = createClassifier(param.m_model, corpus, param.m_C);
+				model.setDebugOutput(param.m_debugOutput);
+				model.crossValidation(param.m_CVFold, corpus);
+			}
 		} else if (param.m_style.equals("SEMI")) {
 			BaseClassifier model = null;
 			
@@ -137,54 +139,100 @@ public class Execution  {
 			model.setDebugOutput(param.m_debugOutput);
 			model.crossValidation(param.m_CVFold, corpus);
 		} else if (param.m_style.equals("TM")) {
-			TopicModel model = null;
-			if (param.m_model.equals("2topic")) {
-				model = new twoTopic(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, param.m_lambda);
-			} else if (param.m_model.equals("pLSA")) {
-				if (param.m_multithread == false) {
-					model = new pLSA(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
-							param.m_lambda, param.m_numTopics, param.m_alpha);
-				} else {
-					model = new pLSA_multithread(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
-							param.m_lambda, param.m_numTopics, param.m_alpha);
-				}
-				((pLSA)model).LoadPrior(param.m_priorFile, param.m_gamma);
-			} else if (param.m_model.equals("vLDA")) {
-				if (param.m_multithread == false) {
-					model = new LDA_Variational(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
-							param.m_lambda, param.m_numTopics, param.m_alpha, param.m_maxVarIterations, param.m_varConverge);
-				} else {
-					model = new LDA_Variational_multithread(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
-							param.m_lambda, param.m_numTopics, param.m_alpha, param.m_maxVarIterations, param.m_varConverge);
-				}
-				
-				((LDA_Variational)model).LoadPrior(param.m_priorFile, param.m_gamma);
-			} else if (param.m_model.equals("gLDA")) {
-					model = new LDA_Gibbs(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
-							param.m_lambda, param.m_numTopics, param.m_alpha, param.m_burnIn, param.m_lag);
-				
-				((LDA_Gibbs)model).LoadPrior(param.m_priorFile, param.m_gamma);
-			} else if (param.m_model.equals("HTMM")) {
-				model = new HTMM(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
-						param.m_numTopics, param.m_alpha);
-			} else if (param.m_model.equals("LRHTMM")) {				
-				model = new LRHTMM(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
-						param.m_numTopics, param.m_alpha,
-						param.m_C);
+			if (param.m_CVFold>1 && param.m_CVThreads>1) {
+				//every fold is trained by its own model over its own copy of the documents' topic state
+				final Parameter p = param;
+				TopicModel.crossValidation(param.m_CVFold, corpus, new TopicModel.Factory() {
+					@Override
+					public TopicModel create(int setting, _Corpus c) {
+						return createTopicModel(p, c);
+					}
+				}, 1, param.m_CVThreads);
 			} else {
-				System.out.println("The specified topic model has not been developed yet!");
-				System.exit(-1);
+				TopicModel model = createTopicModel(param, corpus);
+				if (param.m_CVFold<=1) {
+					model.EMonCorpus();
+					model.printTopWords(10); // fixed: print top 10 words
+				} else 
+					model.crossValidation(param.m_CVFold);
 			}
-			
-			if (param.m_CVFold<=1) {
-				model.EMonCorpus();
-				model.printTopWords(10); // fixed: print top 10 words
-			} else 
-				model.crossValidation(param.m_CVFold);
 		} else if (param.m_style.equals("FV")) {
 			corpus.save2File(param.m_fvFile);
 			System.out.format("Vectors saved to %s...\n", param.m_fvFile);
 		} else 
 			System.out.println("Learning paradigm has not developed yet!");
 	}
+	
+	static TopicModel createTopicModel(Parameter param, _Corpus corpus) {
+		TopicModel model = null;
+		if (param.m_model.equals("2topic")) {
+			model = new twoTopic(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, param.m_lambda);
+		} else if (param.m_model.equals("pLSA")) {
+			if (param.m_multithread == false) {
+				model = new pLSA(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
+						param.m_lambda, param.m_numTopics, param.m_alpha);
+			} else {
+				model = new pLSA_multithread(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
+						param.m_lambda, param.m_numTopics, param.m_alpha);
+			}
+			((pLSA)model).LoadPrior(param.m_priorFile, param.m_gamma);
+		} else if (param.m_model.equals("vLDA")) {
+			if (param.m_multithread == false) {
+				model = new LDA_Variational(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
+						param.m_lambda, param.m_numTopics, param.m_alpha, param.m_maxVarIterations, param.m_varConverge);
+			} else {
+				model = new LDA_Variational_multithread(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
+						param.m_lambda, param.m_numTopics, param.m_alpha, param.m_maxVarIterations, param.m_varConverge);
+			}
+			
+			((LDA_Variational)model).LoadPrior(param.m_priorFile, param.m_gamma);
+		} else if (param.m_model.equals("gLDA")) {
+				model = new LDA_Gibbs(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
+						param.m_lambda, param.m_numTopics, param.m_alpha, param.m_burnIn, param.m_lag);
+			
+			((LDA_Gibbs)model).LoadPrior(param.m_priorFile, param.m_gamma);
+		} else if (param.m_model.equals("HTMM")) {
+			model = new HTMM(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
+					param.m_numTopics, param.m_alpha);
+		} else if (param.m_model.equals("LRHTMM")) {				
+			model = new LRHTMM(param.m_maxmIterations, param.m_converge, param.m_beta, corpus, 
+					param.m_numTopics, param.m_alpha,
+					param.m_C);
+		} else {
+			System.out.println("The specified topic model has not been developed yet!");
+			System.exit(-1);
+		}
+		return model;
+	}
+	
+	//name of the supervised classifier, null if it has not been developed
+	static String classifierName(String model) {
+		if(model.equals("NB"))
+			return "naive bayes";
+		else if(model.equals("LR"))
+			return "logistic regression";
+		else if(model.equals("PR-LR"))
+			return "posterior regularized logistic regression";
+		else if(model.equals("SVM"))
+			return "SVM";
+		else
+			return null;
+	}
+	
+	//the model should have been checked by classifierName()
+	static BaseClassifier createClassifier(String model, _Corpus corpus, double C) {
+		if(model.equals("NB")){
+			//Define a new naive bayes with the parameters.
+			return new NaiveBayes(corpus);
+		} else if(model.equals("LR")){
+			//Define a new logistics regression with the parameters.
+			return new LogisticRegression(corpus, C);
+		} else if(model.equals("PR-LR")){
+			//Define a new logistics regression with the parameters.
+			return new PRLogisticRegression(corpus, C);
+		} else {
+			//corpus.save2File("data/FVs/fvector.dat");
+			return new SVM(corpus, C);
+		}
+	}
 }
@@ -15,6 +15,7 @@ import topicmodels.twoTopic;
 import topicmodels.DCM.DCMLDA_test;
 import topicmodels.DCM.sparseClusterDCMLDA_test;
 import topicmodels.DCM.sparseDCMLDA_test;
+import topicmodels.LDA.AliasLDA;
 import topicmodels.LDA.LDA_Gibbs;
 import topicmodels.LDA.LDA_Gibbs_test;
 import topicmodels.LDA.sparseLDA_test;
@@ -56,7 +57,7 @@ public class TopicModelMain {
 		/*****parameters for the two-topic topic model*****/
 		//ACCTM, ACCTM_TwoTheta, ACCTM_C, ACCTM_CZ, ACCTM_CZLR, LDAonArticles, ACCTM_C, 
 		// correspondence_LDA_Gibbs, LDA_Gibbs_Debug, LDA_Variational_multithread
-		// 2topic, pLSA, HTMM, LRHTMM, Tensor, LDA_Gibbs, LDA_Variational, HTSM, LRHTSM,
+		// 2topic, pLSA, HTMM, LRHTMM, Tensor, LDA_Gibbs, LDA_Alias, LDA_Variational, HTSM, LRHTSM,
 
 		// LDAGibbs4AC_test, DCMCorrLDA_multi_E_test,DCMLDA4AC_test, DCMDMCorrLDA_multi_E_test
 		// DCMDMCorrLDA_test, DCMDMMCorrLDA_test, corrLDA_Gibbs_test,
@@ -86,6 +87,7 @@ public class TopicModelMain {
 		double burnIn = 0.4;
 
 		boolean sentence = false;
+		boolean scaledHMM = true; // forward-backward of HTMM, HTSM and their LR variants in scaled real space instead of log space
 		
 		// most popular items under each category from Amazon
 		// needed for docSummary
@@ -229,6 +231,9 @@ public class TopicModelMain {
 //				number_of_topics = 15;
 				model = new LDA_Gibbs(gibbs_iteration, 0, beta, c, //in gibbs sampling, no need to compute log-likelihood during sampling
 					lambda, number_of_topics, alpha, burnIn, gibbs_lag);
+			} else if (topicmodel.equals("LDA_Alias")) {
+				model = new AliasLDA(gibbs_iteration, 0, beta, c, //alias table + MH sampler, drop-in replacement of LDA_Gibbs
+					lambda, number_of_topics, alpha, burnIn, gibbs_lag);
 			} else if (topicmodel.equals("LDA_Variational_multithread")) {		
 				model = new LDA_Variational_multithread(number_of_iteration, converge, beta, c, 
 						lambda, number_of_topics, alpha, varIter, varConverge);
@@ -425,6 +430,8 @@ public class TopicModelMain {
 			
 			model.setDisplayLap(displayLap);
 			model.setInforWriter(infoFilePath);
+			if (model instanceof HTMM)
+				((HTMM)model).setScaledHMM(scaledHMM);
 //			model.setNewEggLoadInTrain(loadNewEggInTrain);
 
 			if(loadAspectSentiPrior==1){
@@ -0,0 +1,79 @@
+package structures;
+
+import java.util.Arrays;
+
+/**
+ * Immutable weighted graph in compressed sparse row format: the neighbors of row i are
+ * m_colIdx[m_rowPtr[i]..m_rowPtr[i+1]) with weights in m_weights at the same positions.
+ * Rows are filled in order by addEdge()/endRow() before the graph is used.
+ */
+public class CSRGraph {
+	int m_rows;
+	int[] m_rowPtr;
+	int[] m_colIdx;
+	double[] m_weights;
+
+	int m_currentRow; // row being filled
+	int m_nnz;
+
+	public CSRGraph(int rows, int nnz) {
+		m_rows = rows;
+		m_rowPtr = new int[rows+1];
+		m_colIdx = new int[nnz];
+		m_weights = new double[nnz];
+		m_currentRow = 0;
+		m_nnz = 0;
+	}
+
+	public void addEdge(int col, double weight) {
+		m_colIdx[m_nnz] = col;
+		m_weights[m_nnz++] = weight;
+	}
+
+	//close the current row and move to the next
+	public void endRow() {
+		m_rowPtr[++m_currentRow] = m_nnz;
+	}
+
+	public int getRowSize() {
+		return m_rows;
+	}
+
+	public int getNNZ() {
+		return m_nnz;
+	}
+
+	//the neighbors of row i are getColumn(p) for p in [getRowStart(i), getRowEnd(i))
+	public int getRowStart(int i) {
+		return m_rowPtr[i];
+	}
+
+	public int getRowEnd(int i) {
+		return m_rowPtr[i+1];
+	}
+
+	public int getColumn(int p) {
+		return m_colIdx[p];
+	}
+
+	//the position of column j in row i, -1 if absent; the columns of a row must be in ascending order
+	public int findColumn(int i, int j) {
+		int p = Arrays.binarySearch(m_colIdx, m_rowPtr[i], m_rowPtr[i+1], j);
+		return p>=0 ? p : -1;
+	}
+
+	public double rowSum(int i) {
+		double sum = 0;
+		for(int p=m_rowPtr[i]; p<m_rowPtr[i+1]; p++)
+			sum += m_weights[p];
+		return sum;
+	}
+
+	//\sum_j w_ij x_j
+	public double multiplyRow(int i, double[] x) {
+		double sum = 0;
+		for(int p=m_rowPtr[i]; p<m_rowPtr[i+1]; p++)
+			sum += m_weights[p] * x[m_colIdx[p]];
+		return sum;
+	}
+}
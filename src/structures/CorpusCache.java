@@ -0,0 +1,449 @@
+package structures;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import structures._Doc.rType;
+
+/**
+ * Versioned binary cache of an analyzed corpus, so that tokenization, stemming and POS tagging only need to be done once.
+ * Layout (all numbers are big-endian):
+ * 	header:	MAGIC, VERSION, classNo, vocabulary size, document size, user size, positions of the vocabulary, document table and user sections
+ * 	documents: one record per document (_Doc or _Review), with sparse vector, sentences and word sequence
+ * 	vocabulary: feature names with their DF/TTF, followed by the class member numbers
+ * 	document table: start position of each document record (plus the end of the last one)
+ * 	users: user ID and the ordinals of the user's reviews in the document section
+ * The file is read through MappedByteBuffer and documents are only materialized when they are accessed.
+ */
+public class CorpusCache {
+	static final int MAGIC = 0x49524243; // "IRBC"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 6*4 + 3*8;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final byte DOC = 0;
+	static final byte REVIEW = 1;
+
+	int m_classNo;
+	int m_vocabSize;
+	int m_docSize;
+	int m_userSize;
+
+	FileChannel m_channel;
+	LongBuffer m_docTable;
+	MappedByteBuffer[] m_chunks; // document section split into chunks of whole records, each chunk is smaller than 2GB
+	long[] m_chunkStart; // file position where each chunk starts
+	int[] m_chunkFirstDoc; // the first document in each chunk
+	_Doc[] m_docs; // materialized documents
+
+	//Open an existing cache file, only the header and the document table are read here.
+	public CorpusCache(String filename) throws IOException {
+		m_channel = new FileInputStream(filename).getChannel();
+
+		ByteBuffer header = m_channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		if (header.getInt()!=MAGIC)
+			throw new IOException(String.format("%s is not a corpus cache file!", filename));
+		int version = header.getInt();
+		if (version!=VERSION)
+			throw new IOException(String.format("Unsupported corpus cache version %d in %s!", version, filename));
+
+		m_classNo = header.getInt();
+		m_vocabSize = header.getInt();
+		m_docSize = header.getInt();
+		m_userSize = header.getInt();
+		header.getLong(); // vocabulary section is only read in loadVocabulary()
+		long tablePos = header.getLong();
+		m_docTable = m_channel.map(FileChannel.MapMode.READ_ONLY, tablePos, 8L*(m_docSize+1)).asLongBuffer();
+		m_docs = new _Doc[m_docSize];
+
+		mapChunks();
+	}
+
+	void mapChunks() throws IOException {
+		ArrayList<Integer> firstDocs = new ArrayList<Integer>();
+		int first = 0;
+		while(first<m_docSize) {
+			firstDocs.add(first);
+			int last = first + 1;
+			while(last<m_docSize && m_docTable.get(last+1)-m_docTable.get(first)<Integer.MAX_VALUE)
+				last ++;
+			first = last;
+		}
+
+		m_chunks = new MappedByteBuffer[firstDocs.size()];
+		m_chunkStart = new long[firstDocs.size()];
+		m_chunkFirstDoc = new int[firstDocs.size()];
+		for(int c=0; c<firstDocs.size(); c++) {
+			int start = firstDocs.get(c), end = c+1<firstDocs.size() ? firstDocs.get(c+1) : m_docSize;
+			m_chunkFirstDoc[c] = start;
+			m_chunkStart[c] = m_docTable.get(start);
+			m_chunks[c] = m_channel.map(FileChannel.MapMode.READ_ONLY, m_chunkStart[c], m_docTable.get(end)-m_chunkStart[c]);
+		}
+	}
+
+	public int getClassNo() {
+		return m_classNo;
+	}
+
+	public int getSize() {
+		return m_docSize;
+	}
+
+	public int getUserSize() {
+		return m_userSize;
+	}
+
+	//Materialize the i-th document on demand, the same object is returned afterwards.
+	public synchronized _Doc getDoc(int i) {
+		if (m_docs[i]==null)
+			m_docs[i] = decodeDoc(i);
+		return m_docs[i];
+	}
+	
+	//The i-th document for read-only use, decoded without being kept if it has not been materialized.
+	public _Doc readDoc(int i) {
+		return m_docs[i]!=null ? m_docs[i] : decodeDoc(i);
+	}
+	
+	_Doc decodeDoc(int i) {
+		int c = chunkOf(i);
+		ByteBuffer buffer = m_chunks[c].duplicate();
+		buffer.position((int)(m_docTable.get(i) - m_chunkStart[c]));
+		return readDoc(buffer);
+	}
+
+	int chunkOf(int i) {
+		int c = 0;
+		while(c+1<m_chunkFirstDoc.length && m_chunkFirstDoc[c+1]<=i)
+			c ++;
+		return c;
+	}
+
+	//Materialize all the documents.
+	public ArrayList<_Doc> getDocs() {
+		ArrayList<_Doc> docs = new ArrayList<_Doc>(m_docSize);
+		for(int i=0; i<m_docSize; i++)
+			docs.add(getDoc(i));
+		return docs;
+	}
+
+	//Load the vocabulary and feature statistics, return the class member numbers.
+	public int[] loadVocabulary(ArrayList<String> features, HashMap<String, _stat> featureStat) throws IOException {
+		ByteBuffer header = m_channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		header.position(6*4);
+		long vocabPos = header.getLong(), tablePos = header.getLong();
+		ByteBuffer buffer = m_channel.map(FileChannel.MapMode.READ_ONLY, vocabPos, tablePos-vocabPos);
+
+		int[] DFs = new int[m_classNo], TTFs = new int[m_classNo];
+		for(int i=0; i<m_vocabSize; i++) {
+			String feature = readString(buffer);
+			_stat stat = new _stat(m_classNo);
+			readInts(buffer, DFs);
+			readInts(buffer, TTFs);
+			for(int c=0; c<m_classNo; c++) {
+				stat.m_DF[c] = DFs[c];
+				stat.m_TTF[c] = TTFs[c];
+			}
+			features.add(feature);
+			featureStat.put(feature, stat);
+		}
+
+		int[] classMemberNo = new int[m_classNo];
+		readInts(buffer, classMemberNo);
+		return classMemberNo;
+	}
+
+	//Load the users, whose reviews are materialized from the document section.
+	public ArrayList<_User> loadUsers() throws IOException {
+		ArrayList<_User> users = new ArrayList<_User>(m_userSize);
+		if (m_userSize==0)
+			return users;
+
+		ByteBuffer header = m_channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		header.position(6*4 + 2*8);
+		long userPos = header.getLong();
+		ByteBuffer buffer = m_channel.map(FileChannel.MapMode.READ_ONLY, userPos, m_channel.size()-userPos);
+
+		for(int u=0; u<m_userSize; u++) {
+			String userID = readString(buffer);
+			int size = buffer.getInt();
+			ArrayList<_Review> reviews = new ArrayList<_Review>(size);
+			for(int r=0; r<size; r++)
+				reviews.add((_Review)getDoc(buffer.getInt()));
+			users.add(new _User(userID, m_classNo, reviews));
+		}
+		return users;
+	}
+
+	public void close() throws IOException {
+		m_channel.close();
+	}
+
+	_Doc readDoc(ByteBuffer buffer) {
+		byte kind = buffer.get();
+		int ID = buffer.getInt(), ylabel = buffer.getInt();
+		long timeStamp = buffer.getLong();
+		String name = readString(buffer), itemID = readString(buffer), title = readString(buffer);
+
+		_Doc doc;
+		if (kind==REVIEW) {
+			String userID = readString(buffer), category = readString(buffer);
+			doc = new _Review(ID, null, ylabel, userID, itemID, category, timeStamp);
+			doc.setName(name);
+			doc.setTitle(title);
+		} else
+			doc = new _Doc(ID, name, itemID, title, null, ylabel, timeStamp);
+
+		doc.setType(rType.values()[buffer.get()]);
+		doc.setSourceType(buffer.getInt());
+		doc.setWeight(buffer.getDouble());
+		doc.setStopwordProportion(buffer.getDouble());
+		doc.setAvgIDF(buffer.getDouble());
+		_SparseFeature[] spVct = readSpVct(buffer);
+		if (spVct!=null)
+			doc.setSpVct(spVct);
+
+		int stnSize = buffer.getInt();
+		if (stnSize>=0) {
+			ArrayList<_Stn> stnList = new ArrayList<_Stn>(stnSize);
+			for(int s=0; s<stnSize; s++) {
+				int index = buffer.getInt(), label = buffer.getInt();
+				_Stn stn = new _Stn(index, readSpVct(buffer), readStrings(buffer), readStrings(buffer), readString(buffer));
+				stn.setStnSentiLabel(label);
+				stnList.add(stn);
+			}
+			doc.setSentences(stnList);
+		}
+
+		int wordSize = buffer.getInt();
+		if (wordSize>=0) {
+			doc.m_words = new _Word[wordSize];
+			for(int w=0; w<wordSize; w++)
+				doc.m_words[w] = new _Word(buffer.getInt());
+		}
+		return doc;
+	}
+
+	_SparseFeature[] readSpVct(ByteBuffer buffer) {
+		int size = buffer.getInt();
+		if (size<0)
+			return null;
+
+		int dim = buffer.getInt();
+		_SparseFeature[] spVct = new _SparseFeature[size];
+		for(int i=0; i<size; i++) {
+			int index = buffer.getInt();
+			double value = buffer.getDouble(), TF = buffer.getDouble();
+			if (dim>0) {
+				spVct[i] = new _SparseFeature(index, value, dim);
+				for(int d=0; d<dim; d++)
+					spVct[i].setValue4Dim(buffer.getDouble(), d);
+			} else
+				spVct[i] = new _SparseFeature(index, value);
+			spVct[i].setTF(TF);
+		}
+		return spVct;
+	}
+
+	static void readInts(ByteBuffer buffer, int[] values) {
+		for(int i=0; i<values.length; i++)
+			values[i] = buffer.getInt();
+	}
+
+	static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length<0)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	static String[] readStrings(ByteBuffer buffer) {
+		int size = buffer.getInt();
+		if (size<0)
+			return null;
+		String[] strs = new String[size];
+		for(int i=0; i<size; i++)
+			strs[i] = readString(buffer);
+		return strs;
+	}
+
+	//Write the analyzed corpus into a cache file, users can be null. Only _Doc and _Review are supported.
+	static public void write(String filename, ArrayList<String> features, HashMap<String, _stat> featureStat, int[] classMemberNo,
+			ArrayList<_Doc> docs, ArrayList<_User> users) throws IOException {
+		for(_Doc d:docs) {
+			if (d.getClass()!=_Doc.class && d.getClass()!=_Review.class)
+				throw new IllegalArgumentException(String.format("%s cannot be stored in corpus cache!", d.getClass().getSimpleName()));
+		}
+
+		long[] docTable = new long[docs.size()+1];
+		long pos = HEADER_SIZE, vocabPos, tablePos, userPos;
+		DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1<<20));
+		writer.write(new byte[HEADER_SIZE]); // to be filled at last
+
+		ByteArrayOutputStream record = new ByteArrayOutputStream(1<<16);
+		DataOutputStream recordWriter = new DataOutputStream(record);
+		for(int i=0; i<docs.size(); i++) {
+			docTable[i] = pos;
+			record.reset();
+			writeDoc(recordWriter, docs.get(i));
+			recordWriter.flush();
+			record.writeTo(writer);
+			pos += record.size();
+		}
+		docTable[docs.size()] = pos;
+
+		vocabPos = pos;
+		record.reset();
+		for(String feature:features) {
+			_stat stat = featureStat.get(feature);
+			writeString(recordWriter, feature);
+			for(int c=0; c<classMemberNo.length; c++)
+				recordWriter.writeInt(stat==null ? 0 : stat.m_DF[c]);
+			for(int c=0; c<classMemberNo.length; c++)
+				recordWriter.writeInt(stat==null ? 0 : stat.m_TTF[c]);
+		}
+		for(int c:classMemberNo)
+			recordWriter.writeInt(c);
+		recordWriter.flush();
+		record.writeTo(writer);
+		pos += record.size();
+
+		tablePos = pos;
+		for(long p:docTable)
+			writer.writeLong(p);
+		pos += 8L*docTable.length;
+
+		userPos = pos;
+		if (users!=null) {
+			IdentityHashMap<_Doc, Integer> ordinals = new IdentityHashMap<_Doc, Integer>();
+			for(int i=0; i<docs.size(); i++)
+				ordinals.put(docs.get(i), i);
+
+			for(_User u:users) {
+				for(_Review r:u.getReviews()) {
+					if (!ordinals.containsKey(r))
+						throw new IllegalArgumentException(String.format("Review of user %s is not in the corpus!", u.getUserID()));
+				}
+
+				writeString(writer, u.getUserID());
+				writer.writeInt(u.getReviews().size());
+				for(_Review r:u.getReviews())
+					writer.writeInt(ordinals.get(r));
+			}
+		}
+		writer.close();
+
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		file.writeInt(MAGIC);
+		file.writeInt(VERSION);
+		file.writeInt(classMemberNo.length);
+		file.writeInt(features.size());
+		file.writeInt(docs.size());
+		file.writeInt(users==null ? 0 : users.size());
+		file.writeLong(vocabPos);
+		file.writeLong(tablePos);
+		file.writeLong(userPos);
+		file.close();
+
+		System.out.format("%d documents with %d features are cached in %s...\n", docs.size(), features.size(), filename);
+	}
+
+	static void writeDoc(DataOutputStream writer, _Doc doc) throws IOException {
+		boolean isReview = doc instanceof _Review;
+		writer.writeByte(isReview ? REVIEW : DOC);
+		writer.writeInt(doc.getID());
+		writer.writeInt(doc.getYLabel());
+		writer.writeLong(doc.getTimeStamp());
+		writeString(writer, doc.getName());
+		writeString(writer, doc.getItemID());
+		writeString(writer, doc.getTitle());
+		if (isReview) {
+			writeString(writer, ((_Review)doc).getUserID());
+			writeString(writer, ((_Review)doc).getCategory());
+		}
+
+		writer.writeByte(doc.getType().ordinal());
+		writer.writeInt(doc.getSourceType());
+		writer.writeDouble(doc.getWeight());
+		writer.writeDouble(doc.getStopwordProportion());
+		writer.writeDouble(doc.getAvgIDF());
+		writeSpVct(writer, doc.getSparse());
+
+		_Stn[] sentences = doc.getSentences();
+		if (sentences==null)
+			writer.writeInt(-1);
+		else {
+			writer.writeInt(sentences.length);
+			for(_Stn stn:sentences) {
+				writer.writeInt(stn.m_index);
+				writer.writeInt(stn.m_sentimentLabel);
+				writeSpVct(writer, stn.m_x_sparse);
+				writeStrings(writer, stn.m_rawTokens);
+				writeStrings(writer, stn.m_sentencePOSTag);
+				writeString(writer, stn.m_rawSource);
+			}
+		}
+
+		_Word[] words = doc.getWords();
+		if (words==null)
+			writer.writeInt(-1);
+		else {
+			writer.writeInt(words.length);
+			for(_Word w:words)
+				writer.writeInt(w.getIndex());
+		}
+	}
+
+	static void writeSpVct(DataOutputStream writer, _SparseFeature[] spVct) throws IOException {
+		if (spVct==null) {
+			writer.writeInt(-1);
+			return;
+		}
+
+		int dim = spVct.length>0 && spVct[0].m_values!=null ? spVct[0].m_values.length : 0;
+		writer.writeInt(spVct.length);
+		writer.writeInt(dim);
+		for(_SparseFeature fv:spVct) {
+			writer.writeInt(fv.m_index);
+			writer.writeDouble(fv.m_value);
+			writer.writeDouble(fv.m_TF);
+			for(int d=0; d<dim; d++)
+				writer.writeDouble(fv.m_values[d]);
+		}
+	}
+
+	static void writeString(DataOutputStream writer, String str) throws IOException {
+		if (str==null)
+			writer.writeInt(-1);
+		else {
+			byte[] bytes = str.getBytes(UTF8);
+			writer.writeInt(bytes.length);
+			writer.write(bytes);
+		}
+	}
+
+	static void writeStrings(DataOutputStream writer, String[] strs) throws IOException {
+		if (strs==null)
+			writer.writeInt(-1);
+		else {
+			writer.writeInt(strs.length);
+			for(String str:strs)
+				writeString(writer, str);
+		}
+	}
+}
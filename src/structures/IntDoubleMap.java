@@ -0,0 +1,162 @@
+package structures;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Open-addressing hash map from non-negative int keys (e.g., feature indices) to double values.
+ * It is designed to be reused across documents when constructing sparse vectors:
+ * no boxing, and clear() only touches the occupied slots.
+ */
+public class IntDoubleMap {
+	static final int EMPTY = -1; // keys have to be non-negative
+
+	int[] m_keys; // hash table of keys
+	double[] m_values; // hash table of values
+	int[] m_slots; // occupied slots in insertion order, for fast iteration and clearing
+	int m_size;
+	int m_mask; // capacity - 1, capacity is always power of 2
+
+	public IntDoubleMap() {
+		this(64);
+	}
+
+	public IntDoubleMap(int capacity) {
+		int size = 16;
+		while(size < 2*capacity)
+			size <<= 1;
+		allocate(size);
+	}
+
+	void allocate(int size) {
+		m_keys = new int[size];
+		Arrays.fill(m_keys, EMPTY);
+		m_values = new double[size];
+		m_slots = new int[size/2];
+		m_mask = size - 1;
+		m_size = 0;
+	}
+
+	int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h>>>16)) & m_mask;
+	}
+
+	// return the slot of the key, or the empty slot where it should be inserted
+	int slotOf(int key) {
+		int pos = hash(key);
+		while(m_keys[pos]!=EMPTY && m_keys[pos]!=key)
+			pos = (pos+1) & m_mask;
+		return pos;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size==0;
+	}
+
+	public void clear() {
+		for(int i=0; i<m_size; i++)
+			m_keys[m_slots[i]] = EMPTY;
+		m_size = 0;
+	}
+
+	public boolean containsKey(int key) {
+		return m_keys[slotOf(key)] == key;
+	}
+
+	//return 0 if the key does not exist
+	public double get(int key) {
+		int pos = slotOf(key);
+		return m_keys[pos]==key ? m_values[pos] : 0;
+	}
+
+	public void put(int key, double value) {
+		int pos = slotOf(key);
+		if (m_keys[pos]==key)
+			m_values[pos] = value;
+		else
+			insert(pos, key, value);
+	}
+
+	//increase the value of the key by value, return the updated value
+	public double add(int key, double value) {
+		int pos = slotOf(key);
+		if (m_keys[pos]==key)
+			return m_values[pos] += value;
+
+		insert(pos, key, value);
+		return value;
+	}
+
+	public void addAll(IntDoubleMap map) {
+		for(int i=0; i<map.m_size; i++) {
+			int pos = map.m_slots[i];
+			add(map.m_keys[pos], map.m_values[pos]);
+		}
+	}
+
+	void insert(int pos, int key, double value) {
+		if (m_size == m_slots.length) {//keep load factor at most 0.5
+			rehash();
+			pos = slotOf(key);
+		}
+
+		m_keys[pos] = key;
+		m_values[pos] = value;
+		m_slots[m_size++] = pos;
+	}
+
+	void rehash() {
+		int[] keys = m_keys, slots = m_slots;
+		double[] values = m_values;
+		int size = m_size;
+
+		allocate(2*keys.length);
+		for(int i=0; i<size; i++) {
+			int pos = slots[i], newPos = slotOf(keys[pos]);
+			m_keys[newPos] = keys[pos];
+			m_values[newPos] = values[pos];
+			m_slots[m_size++] = newPos;
+		}
+	}
+
+	//the i-th key in insertion order
+	public int getKey(int i) {
+		return m_keys[m_slots[i]];
+	}
+
+	//the i-th value in insertion order
+	public double getValue(int i) {
+		return m_values[m_slots[i]];
+	}
+
+	//keys sorted in ascending order
+	public int[] sortedKeys() {
+		int[] keys = new int[m_size];
+		for(int i=0; i<m_size; i++)
+			keys[i] = m_keys[m_slots[i]];
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	//sparse vector sorted by feature index, consistent with Utils.createSpVct(HashMap)
+	public _SparseFeature[] toSpVct() {
+		int[] keys = sortedKeys();
+		_SparseFeature[] spVct = new _SparseFeature[keys.length];
+		for(int i=0; i<keys.length; i++)
+			spVct[i] = new _SparseFeature(keys[i], get(keys[i]));
+		return spVct;
+	}
+
+	//for the code paths that still work with boxed maps
+	public HashMap<Integer, Double> toHashMap() {
+		HashMap<Integer, Double> vct = new HashMap<Integer, Double>();
+		for(int i=0; i<m_size; i++)
+			vct.put(getKey(i), getValue(i));
+		return vct;
+	}
+}
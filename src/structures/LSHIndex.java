@@ -0,0 +1,272 @@
+package structures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import utils.Utils;
+
+/**
+ * Approximate nearest neighbor index over sparse documents with sign random projections.
+ * There are multiple hash tables, each hashing the documents with its own set of hyperplanes; at query time
+ * nearby buckets are also probed by flipping the bits with the smallest projection margins
+ * (Lv, Qin, et al. "Multi-probe LSH: efficient indexing for high-dimensional similarity search." VLDB 2007),
+ * until the candidate budget is used up. The candidates are then re-ranked by the exact dot product.
+ * The hyperplanes are sparse ({-1, 0, +1} with density 1/sqrt(featureSize)), stored by feature for fast hashing.
+ * Queries share internal buffers, so an index instance should not be queried concurrently.
+ */
+public class LSHIndex {
+	int m_tables; // number of hash tables
+	int m_bits; // number of hyperplanes in each table
+	int m_probes; // maximum number of buckets to visit in each table
+	int m_maxCandidates; // maximum number of candidates for exact re-ranking
+
+	//hyperplanes organized by feature: entries of feature j are in [m_featureStart[j], m_featureStart[j+1])
+	int[] m_featureStart;
+	int[] m_planeIndex; // index of the hyperplane (table*m_bits+bit)
+	boolean[] m_planeSign; // true for +1, false for -1
+
+	//each table is a list of documents sorted by their hash codes
+	int[][] m_codes;
+	int[][] m_docIndex;
+	ArrayList<_Doc> m_docs;
+
+	//buffers for queries
+	double[] m_projection;
+	int[] m_visited; // the last query that visited the document
+	int m_queryStamp;
+	int[] m_order; // bits sorted by margin
+	int[] m_probeCodes;
+	double[] m_probeScores;
+
+	public LSHIndex(int featureSize, int tables, int bits, int probes, int maxCandidates) {
+		if (bits<1 || bits>30)
+			throw new IllegalArgumentException(String.format("The number of bits (%d) in each hash table should be in [1, 30]!", bits));
+
+		m_tables = tables;
+		m_bits = bits;
+		m_probes = Math.max(1, probes);
+		m_maxCandidates = maxCandidates;
+
+		m_projection = new double[tables*bits];
+		m_order = new int[bits];
+		m_probeCodes = new int[1 + bits + bits*(bits-1)/2];
+		m_probeScores = new double[m_probeCodes.length];
+		initHyperplanes(featureSize, new Random());
+	}
+
+	void initHyperplanes(int featureSize, Random rand) {
+		double density = Math.min(1.0/3, 1.0/Math.sqrt(featureSize));
+		ArrayList<Integer> planes = new ArrayList<Integer>();
+		m_featureStart = new int[featureSize+1];
+		for(int j=0; j<featureSize; j++) {
+			m_featureStart[j] = planes.size();
+			for(int p=0; p<m_projection.length; p++) {
+				if (rand.nextDouble()<density)
+					planes.add(rand.nextBoolean() ? p+1 : -p-1);
+			}
+		}
+		m_featureStart[featureSize] = planes.size();
+
+		m_planeIndex = new int[planes.size()];
+		m_planeSign = new boolean[planes.size()];
+		for(int i=0; i<planes.size(); i++) {
+			int p = planes.get(i);
+			m_planeIndex[i] = Math.abs(p) - 1;
+			m_planeSign[i] = p>0;
+		}
+	}
+
+	//project the document onto all the hyperplanes
+	void project(_Doc d) {
+		Arrays.fill(m_projection, 0);
+		int[] idx = d.getPackedIndices();
+		double[] val = d.getPackedValues();
+		for(int i=0; i<idx.length; i++) {
+			if (idx[i]>=m_featureStart.length-1)
+				continue;
+			for(int e=m_featureStart[idx[i]]; e<m_featureStart[idx[i]+1]; e++) {
+				if (m_planeSign[e])
+					m_projection[m_planeIndex[e]] += val[i];
+				else
+					m_projection[m_planeIndex[e]] -= val[i];
+			}
+		}
+	}
+
+	int hashCode(int table) {
+		int code = 0, offset = table*m_bits;
+		for(int b=0; b<m_bits; b++) {
+			if (m_projection[offset+b]>0)
+				code |= 1<<b;
+		}
+		return code;
+	}
+
+	public void build(Collection<_Doc> docs) {
+		m_docs = new ArrayList<_Doc>(docs);
+		int size = m_docs.size();
+		m_codes = new int[m_tables][size];
+		m_docIndex = new int[m_tables][size];
+		m_visited = new int[size];
+		m_queryStamp = 0;
+
+		long[] pairs = new long[size];
+		int[][] codes = new int[m_tables][size];
+		for(int i=0; i<size; i++) {
+			project(m_docs.get(i));
+			for(int t=0; t<m_tables; t++)
+				codes[t][i] = hashCode(t);
+		}
+
+		//sort the documents by their codes in each table, code in the higher bits and document index in the lower bits
+		for(int t=0; t<m_tables; t++) {
+			for(int i=0; i<size; i++)
+				pairs[i] = ((long)codes[t][i]<<32) | i;
+			Arrays.sort(pairs);
+			for(int i=0; i<size; i++) {
+				m_codes[t][i] = (int)(pairs[i]>>>32);
+				m_docIndex[t][i] = (int)pairs[i];
+			}
+		}
+	}
+
+	public int size() {
+		return m_docs==null ? 0 : m_docs.size();
+	}
+
+	public _Doc getDoc(int i) {
+		return m_docs.get(i);
+	}
+
+	//probing sequence of the table: the bucket itself, then flipping one or two bits, ordered by the sum of squared margins
+	int probeSequence(int table) {
+		int code = hashCode(table), offset = table*m_bits, size = 0;
+		for(int b=0; b<m_bits; b++)
+			m_order[b] = b;
+
+		//only the bits with smallest margins are worth probing
+		int candidates = Math.min(m_bits, m_probes);
+		for(int i=0; i<candidates; i++) {
+			int min = i;
+			for(int j=i+1; j<m_bits; j++) {
+				if (Math.abs(m_projection[offset+m_order[j]]) < Math.abs(m_projection[offset+m_order[min]]))
+					min = j;
+			}
+			int tmp = m_order[i]; m_order[i] = m_order[min]; m_order[min] = tmp;
+		}
+
+		m_probeCodes[size] = code;
+		m_probeScores[size++] = 0;
+		for(int i=0; i<candidates; i++) {
+			double mi = m_projection[offset+m_order[i]];
+			m_probeCodes[size] = code ^ (1<<m_order[i]);
+			m_probeScores[size++] = mi * mi;
+			for(int j=i+1; j<candidates; j++) {
+				double mj = m_projection[offset+m_order[j]];
+				m_probeCodes[size] = code ^ (1<<m_order[i]) ^ (1<<m_order[j]);
+				m_probeScores[size++] = mi * mi + mj * mj;
+			}
+		}
+
+		//insertion sort by score, the sequence is short
+		for(int i=1; i<size; i++) {
+			int c = m_probeCodes[i];
+			double s = m_probeScores[i];
+			int j = i - 1;
+			while(j>=0 && m_probeScores[j]>s) {
+				m_probeCodes[j+1] = m_probeCodes[j];
+				m_probeScores[j+1] = m_probeScores[j];
+				j--;
+			}
+			m_probeCodes[j+1] = c;
+			m_probeScores[j+1] = s;
+		}
+		return Math.min(size, m_probes);
+	}
+
+	//the first position of the code in the table, or -1 if the bucket is empty
+	int findBucket(int table, int code) {
+		int[] codes = m_codes[table];
+		int lo = 0, hi = codes.length;
+		while(lo<hi) {
+			int mid = (lo+hi)>>>1;
+			if (codes[mid]<code)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo<codes.length && codes[lo]==code ? lo : -1;
+	}
+
+	//collect candidates from all the tables (probe by probe), return the number of candidates scored
+	int collect(_Doc query, MyPriorityQueue<_RankItem> neighbors) {
+		if (++m_queryStamp==Integer.MAX_VALUE) {
+			Arrays.fill(m_visited, 0);
+			m_queryStamp = 1;
+		}
+
+		int[] qIdx = query.getPackedIndices();
+		double[] qVal = query.getPackedValues();
+
+		int[][] sequences = new int[m_tables][];
+		for(int t=0; t<m_tables; t++) {
+			int probes = probeSequence(t);
+			sequences[t] = Arrays.copyOf(m_probeCodes, probes);
+		}
+
+		int count = 0;
+		for(int p=0; p<m_probes; p++) {
+			for(int t=0; t<m_tables; t++) {
+				if (p>=sequences[t].length)
+					continue;
+
+				int[] codes = m_codes[t], docIndex = m_docIndex[t];
+				int code = sequences[t][p];
+				for(int pos=findBucket(t, code); pos>=0 && pos<codes.length && codes[pos]==code; pos++) {
+					int i = docIndex[pos];
+					if (m_visited[i]==m_queryStamp)
+						continue;
+					m_visited[i] = m_queryStamp;
+
+					_Doc d = m_docs.get(i);
+					neighbors.add(new _RankItem(i, Utils.dotProduct(d.getPackedIndices(), d.getPackedValues(), qIdx, qVal), d.getYLabel()));
+					if (++count>=m_maxCandidates)
+						return count;
+				}
+			}
+		}
+		return count;
+	}
+
+	//top k documents by the dot product (m_index is the position in the index, m_label the document's label)
+	public MyPriorityQueue<_RankItem> search(_Doc query, int k) {
+		MyPriorityQueue<_RankItem> neighbors = new MyPriorityQueue<_RankItem>(k);
+		if (size()==0)
+			return neighbors;
+
+		project(query);
+		collect(query, neighbors);
+		return neighbors;
+	}
+
+	//exact top k documents by linear scan
+	public MyPriorityQueue<_RankItem> scan(_Doc query, int k) {
+		MyPriorityQueue<_RankItem> neighbors = new MyPriorityQueue<_RankItem>(k);
+		int[] qIdx = query.getPackedIndices();
+		double[] qVal = query.getPackedValues();
+		for(int i=0; i<size(); i++) {
+			_Doc d = m_docs.get(i);
+			neighbors.add(new _RankItem(i, Utils.dotProduct(d.getPackedIndices(), d.getPackedValues(), qIdx, qVal), d.getYLabel()));
+		}
+		return neighbors;
+	}
+
+	public ArrayList<MyPriorityQueue<_RankItem>> search(Collection<_Doc> queries, int k) {
+		ArrayList<MyPriorityQueue<_RankItem>> results = new ArrayList<MyPriorityQueue<_RankItem>>(queries.size());
+		for(_Doc q:queries)
+			results.add(search(q, k));
+		return results;
+	}
+}
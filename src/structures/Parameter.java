@@ -17,6 +17,7 @@ public class Parameter {
 	public String m_featureValue = "TF"; //The way of calculating the feature value, which can also be "TFIDF", "BM25"
 	public int m_norm = 2;//The way of normalization.(only 1 and 2)
 	public int m_CVFold = 10; //k fold-cross validation
+	public int m_CVThreads = 1; // folds trained at the same time in cross validation of supervised classifiers and topic models
 	
 	//Supervised classification models: "NB", "LR", "PR-LR", "SVM"
 	//Semi-supervised classification models: "GF", "GF-RW", "GF-RW-ML"
@@ -59,6 +60,7 @@ public class Parameter {
 	
 	/*****Parameters specified for classifiers.*****/
 	public double m_C = 1.0; // trade-off parameter in LR and SVM
+	public double[] m_Cs = null; // grid of trade-off parameters to be cross validated, only m_C if null
 	
 	/*****Parameters specified for classifiers.*****/
 	public int m_numTopics = 50; // number of topics
@@ -123,6 +125,13 @@ public class Parameter {
 				m_model = argv[i];
 			else if (argv[i-1].equals("-C"))
 				m_C = Double.valueOf(argv[i]);
+			else if (argv[i-1].equals("-Cgrid")) {
+				String[] values = argv[i].split(",");
+				m_Cs = new double[values.length];
+				for(int c=0; c<values.length; c++)
+					m_Cs[c] = Double.valueOf(values[c]);
+			} else if (argv[i-1].equals("-cvt"))
+				m_CVThreads = Integer.valueOf(argv[i]);
 			else if (argv[i-1].equals("-w"))
 				m_weightScheme = argv[i];
 			else if (argv[i-1].equals("-s"))
@@ -208,6 +217,7 @@ public class Parameter {
 		+"-lcut int : ignore the documents with length less than c (default 5)\n"
 		+"-window int : window size in time series based sentiment analysis (default 0)\n"
 		+"-cv int : cross validation fold (default 10)\n"
+		+"-cvt int : number of folds trained in parallel for supervised classifiers and topic models (default 1)\n"
 		+"-fv type : feature value generation method (default TFIDF)\n"
 		+"	TF -- Term frequency\n"
 		+"	TFIDF -- Term frequency times inverse document frequence\n"
@@ -243,6 +253,7 @@ public class Parameter {
 		+"	SEMI -- Semi-supervised learning\n"
 		+"	TM -- Topic Models\n"
 		+"-C float -- trade-off parameter in LR and SVM (default 0.1)\n"
+		+"-Cgrid float,float,... -- trade-off parameters to be cross validated by supervised classifiers (default C)\n"
 		+"-sr float : Sample rate for transductive learning (default 0.25)\n"
 		+"-kUL int : k nearest labeled neighbors (default 100)\n"
 		+"-kUU int : kP nearest unlabeled neighbors (default 50)\n"
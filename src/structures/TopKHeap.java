@@ -0,0 +1,89 @@
+package structures;
+
+/**
+ * Bounded min-heap over (int id, double value) pairs, keeping the k largest values without boxing.
+ * It is meant to be reused: add() all the candidates, sortDescending(), read by getId()/getValue(), then clear().
+ */
+public class TopKHeap {
+	int[] m_ids;
+	double[] m_values;
+	int m_size;
+
+	public TopKHeap(int k) {
+		m_ids = new int[k];
+		m_values = new double[k];
+		m_size = 0;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public int capacity() {
+		return m_ids.length;
+	}
+
+	public void clear() {
+		m_size = 0;
+	}
+
+	//the smallest value in the heap, i.e., the threshold to enter the heap when it is full
+	public double peekValue() {
+		return m_values[0];
+	}
+
+	public boolean add(int id, double value) {
+		if (m_size<m_ids.length) {
+			int pos = m_size++;
+			while(pos>0) {//sift up
+				int parent = (pos-1)>>1;
+				if (m_values[parent]<=value)
+					break;
+				m_ids[pos] = m_ids[parent];
+				m_values[pos] = m_values[parent];
+				pos = parent;
+			}
+			m_ids[pos] = id;
+			m_values[pos] = value;
+			return true;
+		} else if (m_size>0 && value>m_values[0]) {
+			siftDown(0, id, value, m_size);
+			return true;
+		}
+		return false;
+	}
+
+	void siftDown(int pos, int id, double value, int size) {
+		int child;
+		while((child=2*pos+1)<size) {
+			if (child+1<size && m_values[child+1]<m_values[child])
+				child ++;
+			if (m_values[child]>=value)
+				break;
+			m_ids[pos] = m_ids[child];
+			m_values[pos] = m_values[child];
+			pos = child;
+		}
+		m_ids[pos] = id;
+		m_values[pos] = value;
+	}
+
+	//heap sort in place, so that getValue(0) is the largest; the heap has to be cleared before adding again
+	public void sortDescending() {
+		for(int last=m_size-1; last>0; last--) {
+			int id = m_ids[last];
+			double value = m_values[last];
+			m_ids[last] = m_ids[0];
+			m_values[last] = m_values[0];
+			siftDown(0, id, value, last);
+		}
+	}
+
+	public int getId(int i) {
+		return m_ids[i];
+	}
+
+	public double getValue(int i) {
+		return m_values[i];
+	}
+}
@@ -0,0 +1,32 @@
+package structures;
+
+import java.util.Arrays;
+
+/**
+ * Word-topic tables kept over the words of a document only, as in _Doc4DCMLDA and _ParentDoc4DCM:
+ * column n of the k-by-|index| tables is for the word index[n], with the vocabulary indices in ascending order.
+ */
+public class WordTopicTable {
+
+	//column of word wid, negative if the word is not in the index
+	public static int column(int[] index, int wid) {
+		return Arrays.binarySearch(index, wid);
+	}
+
+	//p(w|z) in the table, zero for the words not in the index
+	public static double prob(double[][] prob, int[] index, int k, int wid) {
+		int n = column(index, wid);
+		return n<0 ? 0 : prob[k][n];
+	}
+
+	//normalize prob[k] by the mass accumulated over the whole vocabulary
+	public static void normalize(double[][] prob, double[] mass) {
+		for(int i=0; i<prob.length; i++) {
+			if (mass[i]<=0)
+				continue;
+			for(int n=0; n<prob[i].length; n++)
+				prob[i][n] /= mass[i];
+			mass[i] = 1;
+		}
+	}
+}
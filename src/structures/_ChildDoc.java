@@ -30,6 +30,12 @@ public class _ChildDoc extends _Doc {
 		
 	}
 
+	//the copies would still point to the original parent document
+	@Override
+	public _Doc forkTopicState() {
+		throw new UnsupportedOperationException("The topic state of child documents cannot be forked!");
+	}
+
 	public void setParentDoc(_ParentDoc pDoc){
 		m_parentDoc = pDoc;
 	}
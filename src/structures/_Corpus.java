@@ -22,6 +22,7 @@ public class _Corpus {
 	static final int ReviewSizeCut = 3;
 	
 	ArrayList<_Doc> m_collection; //All the documents in the corpus.
+	CorpusCache m_cache; // documents restored from a corpus cache, decoded when they are accessed
 	ArrayList<String> m_features; //ArrayList for feature names
 	public HashMap<String, _stat> m_featureStat; //statistics about the features
 	boolean m_withContent = false; // by default all documents' content has been released
@@ -40,6 +41,34 @@ public class _Corpus {
 	
 	public void reset() {
 		m_collection.clear();
+		m_cache = null;
+	}
+	
+	//serve the documents from the cache, they are decoded one by one when accessed through getDoc()
+	//and all at once only when the whole collection is requested
+	public void setCache(CorpusCache cache) {
+		reset();
+		m_cache = cache;
+	}
+	
+	//decode the documents left in the cache into m_collection
+	void materialize() {
+		if (m_cache==null)
+			return;
+		
+		m_collection.ensureCapacity(m_cache.getSize());
+		for(int i=0; i<m_cache.getSize(); i++)
+			m_collection.add(m_cache.getDoc(i));
+		m_cache = null;
+	}
+	
+	public _Doc getDoc(int i) {
+		return m_cache!=null ? m_cache.getDoc(i) : m_collection.get(i);
+	}
+	
+	//read-only access: a document not decoded yet is not kept by the cache
+	_Doc readDoc(int i) {
+		return m_cache!=null ? m_cache.readDoc(i) : m_collection.get(i);
 	}
 	
 	public void setContent(boolean content) {
@@ -64,31 +93,32 @@ public class _Corpus {
 	
 	public int getClassSize() {
 		HashSet<Integer> labelSet = new HashSet<Integer>();
-		for(_Doc d:m_collection)
-			labelSet.add(d.getYLabel());
+		for(int i=0; i<getSize(); i++)
+			labelSet.add(readDoc(i).getYLabel());
 		return labelSet.size();
 	}
 	
 	//Initialize the m_mask, the default value is false.
 	public void setMasks() {
-		this.m_mask = new int[this.m_collection.size()];
+		this.m_mask = new int[getSize()];
 	}
 	
 	//Get all the documents of the corpus.
 	public ArrayList<_Doc> getCollection(){
+		materialize();
 		return this.m_collection;
 	}
 	
 	//Get the corpus's size, which is the total number of documents.
 	public int getSize(){
-		return m_collection.size();
+		return m_cache!=null ? m_cache.getSize() : m_collection.size();
 	}
 	
 	public int getLargestSentenceSize()
 	{
 		int max = 0;
-		for(_Doc d:m_collection) {
-			int length = d.getSenetenceSize();
+		for(int i=0; i<getSize(); i++) {
+			int length = readDoc(i).getSenetenceSize();
 			if(length > max)
 				max = length;
 		}
@@ -108,13 +138,30 @@ public class _Corpus {
 		}
 	}
 	
+	//a corpus over copies of the documents with their own topic state (see _Doc.forkTopicState()), e.g., for a concurrent
+	//cross-validation fold of a topic model; the features, their statistics and the masks are shared with this corpus
+	public _Corpus forkTopicState() {
+		ArrayList<_Doc> docs = getCollection();
+		_Corpus c = new _Corpus();
+		c.m_features = m_features;
+		c.m_featureStat = m_featureStat;
+		c.m_withContent = m_withContent;
+		c.m_mask = m_mask;
+		c.m_collection.ensureCapacity(docs.size());
+		for(_Doc d:docs)
+			c.m_collection.add(d.forkTopicState());
+		return c;
+	}
+	
 	//Add a new doc to the corpus.
 	public void addDoc(_Doc doc){
+		materialize();
 		m_collection.add(doc);
 	}
 	
 	//Add a set of docs to the corpus.
 	public void addDocs(ArrayList<_Review> docs){
+		materialize();
 		m_collection.addAll(docs);
 	}
 	
@@ -125,7 +172,7 @@ public class _Corpus {
 	
 	public void mapLabels(int threshold) {
 		int y;
-		for(_Doc d:m_collection) {
+		for(_Doc d:getCollection()) {
 			y = d.getYLabel();
 			if (y<threshold)
 				d.setYLabel(0);
@@ -143,7 +190,8 @@ public class _Corpus {
 		
 		try {
 			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename)));
-			for(_Doc doc:m_collection) {
+			for(int i=0; i<getSize(); i++) {
+				_Doc doc = readDoc(i);
 				writer.write(String.format("%d", doc.getYLabel()));
 				for(_SparseFeature fv:doc.getSparse())
 					writer.write(String.format(" %d:%f", fv.getIndex()+1, fv.getValue()));//index starts from 1
@@ -151,7 +199,7 @@ public class _Corpus {
 			}
 			writer.close();
 			
-			System.out.format("%d feature vectors saved to %s\n", m_collection.size(), filename);
+			System.out.format("%d feature vectors saved to %s\n", getSize(), filename);
 		} catch (IOException e) {
 			e.printStackTrace();
 		} 
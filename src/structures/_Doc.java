@@ -15,7 +15,7 @@ import utils.Utils;
  * @author lingong
  * General structure to present a document for DM/ML/IR
  */
-public class _Doc extends _DocBase implements Comparable<_Doc> {
+public class _Doc extends _DocBase implements Comparable<_Doc>, Cloneable {
 	public enum rType {
 		TRAIN, // for training the global model
 		ADAPTATION, // for training the personalized model
@@ -349,6 +349,31 @@ public class _Doc extends _DocBase implements Comparable<_Doc> {
 			m_words[i] = t;
 		}
 	}
+	
+	//a copy for another run of a topic model (e.g., a concurrent cross-validation fold): the features and the other content are shared,
+	//while the topic state is left for the model to initialize; the subclasses with topic state of their own should reset it as well
+	public _Doc forkTopicState() {
+		_Doc d;
+		try {
+			d = (_Doc)clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e); // _Doc is Cloneable
+		}
+		
+		d.m_topics = null;
+		d.m_sstat = null;
+		d.m_phi = null;
+		d.m_words = null;
+		d.m_testWords = null;
+		d.m_testLength = 0;
+		d.m_rand = null;
+		if (m_sentences!=null) {
+			d.m_sentences = new _Stn[m_sentences.length];
+			for(int i=0; i<m_sentences.length; i++)
+				d.m_sentences[i] = m_sentences[i].forkTopicState();
+		}
+		return d;
+	}
 
 	@Override
 	public int compareTo(_Doc d) {
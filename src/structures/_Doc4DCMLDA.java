@@ -5,23 +5,61 @@ import java.util.Arrays;
 
 public class _Doc4DCMLDA extends _Doc{
 	
+	//word-topic statistics of the words in this document only, column n is for the word m_wordTopic_index[n]
+	public int[] m_wordTopic_index; // ascending vocabulary indices
 	public double[][] m_wordTopic_stat;
 	public double[][] m_wordTopic_prob;
+	public double[] m_wordTopic_mass; // m_wordTopic_prob[k] accumulated over the whole vocabulary, including the words not in this document
 	
 	public _Doc4DCMLDA(int ID, String name, String title, String source, int ylabel){
 		super(ID, source, ylabel);
 	
 	}
 	
+	@Override
+	public _Doc forkTopicState() {
+		_Doc4DCMLDA d = (_Doc4DCMLDA)super.forkTopicState();
+		d.m_wordTopic_index = null;
+		d.m_wordTopic_stat = null;
+		d.m_wordTopic_prob = null;
+		d.m_wordTopic_mass = null;
+		return d;
+	}
+	
+	protected void setWordTopicIndex(){
+		m_wordTopic_index = new int[m_x_sparse.length];
+		for(int n=0; n<m_x_sparse.length; n++)
+			m_wordTopic_index[n] = m_x_sparse[n].getIndex();
+		Arrays.sort(m_wordTopic_index);
+	}
+	
 	protected void setWordTopicStat(int k, int vocalSize){
+		setWordTopicIndex();
 		
-		m_wordTopic_stat = new double[k][vocalSize];
-		for(int i=0; i<k; i++)
-			Arrays.fill(m_wordTopic_stat[i], 0);
-		
-		m_wordTopic_prob = new double[k][vocalSize];
-		for(int i=0; i<k; i++)
+		m_wordTopic_stat = new double[k][m_wordTopic_index.length];
+		m_wordTopic_prob = new double[k][m_wordTopic_index.length];
+		m_wordTopic_mass = new double[k];
+	}
+	
+	//column of word wid in m_wordTopic_stat and m_wordTopic_prob, negative if the word is not in this document
+	public int getWordTopicColumn(int wid){
+		return WordTopicTable.column(m_wordTopic_index, wid);
+	}
+	
+	//p(w|z) estimated in this document, zero for the words not in it
+	public double getWordTopicProb(int k, int wid){
+		return WordTopicTable.prob(m_wordTopic_prob, m_wordTopic_index, k, wid);
+	}
+	
+	public void clearWordTopicProb(){
+		for(int i=0; i<m_wordTopic_prob.length; i++)
 			Arrays.fill(m_wordTopic_prob[i], 0);
+		Arrays.fill(m_wordTopic_mass, 0);
+	}
+	
+	//normalize m_wordTopic_prob[k] by the mass accumulated over the whole vocabulary
+	public void normalizeWordTopicProb(){
+		WordTopicTable.normalize(m_wordTopic_prob, m_wordTopic_mass);
 	}
 	
 	public void setTopics4Gibbs(int k, double alpha, int vocalSize){
@@ -36,7 +74,7 @@ public class _Doc4DCMLDA extends _Doc{
 				m_words[wIndex] = new _Word(wid, tid);
 				m_sstat[tid] ++;
 				
-				m_wordTopic_stat[tid][wid] ++;
+				m_wordTopic_stat[tid][getWordTopicColumn(wid)] ++;
 				wIndex ++;
 			}
 		}
@@ -71,7 +109,7 @@ public class _Doc4DCMLDA extends _Doc{
 					tid = m_rand.nextInt(k);
 					m_words[wTrainIndex] = new _Word(wid, tid);
 					wTrainIndex ++;
-					m_wordTopic_stat[tid][wid] ++;
+					m_wordTopic_stat[tid][getWordTopicColumn(wid)] ++;
 					m_sstat[tid] ++;
 				}
 				wIndex ++;
@@ -1,6 +1,6 @@
 package structures;
 
-import utils.Utils;
+import utils.Numerics;
 
 /**
  * Created by lulin on 3/28/18.
@@ -17,6 +17,16 @@ public class _Doc4ETBIR extends _Review{
         super(ID, source, ylabel, userID,  prodID, "", timeStamp);
     }
     
+    @Override
+    public _Doc forkTopicState() {
+        _Doc4ETBIR d = (_Doc4ETBIR)super.forkTopicState();
+        d.m_mu = null;
+        d.m_Sigma = null;
+        d.m_sigmaSqrt = null;
+        d.m_logZeta = 0;
+        return d;
+    }
+    
     //create necessary structure for variational inference    
   	public void setTopics4Variational(int k, double alpha, double mu, double sigma) {
     	super.setTopics4Variational(k, alpha);
@@ -32,7 +42,7 @@ public class _Doc4ETBIR extends _Review{
             if (i==0)
             	m_logZeta = m_mu[i] + 0.5*m_Sigma[i];
             else
-            	m_logZeta = Utils.logSum(m_logZeta, m_mu[i] + 0.5*m_Sigma[i]);
+            	m_logZeta = Numerics.logSum(m_logZeta, m_mu[i] + 0.5*m_Sigma[i]);
         }
   	}
 }
@@ -16,16 +16,18 @@ public class _Doc4SparseDCMLDA extends _Doc4DCMLDA{
 		m_MStepIter = 0;
 	}
 	
+	@Override
+	public _Doc forkTopicState() {
+		_Doc4SparseDCMLDA d = (_Doc4SparseDCMLDA)super.forkTopicState();
+		d.m_topicIndicator = null;
+		d.m_topicIndicator_prob = null;
+		return d;
+	}
+	
 	protected void setWordTopicStat(int k, int vocalSize){
 		m_MStepIter = 0;
 		m_alphaDoc = 0;
-		m_wordTopic_stat = new double[k][vocalSize];
-		for(int i=0; i<k; i++)
-			Arrays.fill(m_wordTopic_stat[i], 0);
-		
-		m_wordTopic_prob = new double[k][vocalSize];
-		for(int i=0; i<k; i++)
-			Arrays.fill(m_wordTopic_prob[i], 0);
+		super.setWordTopicStat(k, vocalSize);
 		
 		m_topicIndicator = new boolean[k];
 		for(int i=0; i<k; i++)
@@ -65,7 +67,7 @@ public class _Doc4SparseDCMLDA extends _Doc4DCMLDA{
 				m_words[wIndex] = new _Word(wid, tid);
 				m_sstat[tid] ++;
 				
-				m_wordTopic_stat[tid][wid] ++;
+				m_wordTopic_stat[tid][getWordTopicColumn(wid)] ++;
 				wIndex ++;
 			}
 		}
@@ -146,7 +148,7 @@ public class _Doc4SparseDCMLDA extends _Doc4DCMLDA{
 				} while (m_topicIndicator[tid] == false);
 				m_words[wIndex] = new _Word(wid, tid);
 				m_sstat[tid] ++;
-				m_wordTopic_stat[tid][wid] ++;
+				m_wordTopic_stat[tid][getWordTopicColumn(wid)] ++;
 
 				wIndex ++;
 			}
@@ -156,9 +158,8 @@ public class _Doc4SparseDCMLDA extends _Doc4DCMLDA{
 	protected void setWordTopicStatCluster(int k, int vocalSize){
 		m_MStepIter = 0;
 		m_alphaDoc = 0;
-		m_wordTopic_stat = new double[k][vocalSize];
-		for(int i=0; i<k; i++)
-			Arrays.fill(m_wordTopic_stat[i], 0);
+		setWordTopicIndex();
+		m_wordTopic_stat = new double[k][m_wordTopic_index.length];
 		
 		m_topicIndicator = new boolean[k];
 		for(int i=0; i<k; i++)
@@ -27,6 +27,12 @@ public abstract class _DocBase {
 	double m_weight = 1.0; // instance weight for supervised model training (will be reset by PageRank)
 	protected _SparseFeature[] m_x_sparse; // sparse representation of features: default value will be zero.
 	
+	// packed snapshot of m_x_sparse as parallel primitive arrays, for the allocation-free fast paths in Utils
+	// it is a speed-only cache: m_x_sparse stays the primary storage, a packed document costs 12 more bytes per feature until resetPackedSpVct()
+	// m_x_indices is written last and read first, so that a thread seeing it also sees the matching m_x_values
+	volatile int[] m_x_indices;
+	double[] m_x_values;
+	
 	public void setWeight(double w) {
 		m_weight = w;
 	}
@@ -135,15 +141,58 @@ public abstract class _DocBase {
 	//Create the sparse vector for the document, taking value from different sections
 	public void createSpVct(ArrayList<HashMap<Integer, Double>> spVcts) {
 		m_x_sparse = Utils.createSpVct(spVcts);
+		resetPackedSpVct();
 		calcTotalLength();
 	}
 	
 	//Create the sparse vector for the document.
 	public void createSpVct(HashMap<Integer, Double> spVct) {
 		m_x_sparse = Utils.createSpVct(spVct);
+		resetPackedSpVct();
+		calcTotalLength();
+	}
+	
+	//Create the sparse vector for the document from a reusable primitive map.
+	public void createSpVct(IntDoubleMap spVct) {
+		m_x_sparse = spVct.toSpVct();
+		resetPackedSpVct();
 		calcTotalLength();
 	}
 	
+	//Snapshot the current sparse vector into parallel index/value arrays.
+	//NOTE: the snapshot does not follow in-place changes of the _SparseFeature values, whoever changes them has to call resetPackedSpVct().
+	public synchronized void packSpVct() {
+		m_x_values = getValues();
+		m_x_indices = getIndices();
+	}
+	
+	//also releases the snapshot memory once a batch of similarity computations is over
+	public synchronized void resetPackedSpVct() {
+		m_x_indices = null;
+		m_x_values = null;
+	}
+	
+	public boolean isPacked() {
+		return m_x_indices != null;
+	}
+	
+	//feature indices in ascending order, packed on demand
+	public int[] getPackedIndices() {
+		int[] indices = m_x_indices;
+		if (indices==null) {
+			packSpVct();
+			indices = m_x_indices;
+		}
+		return indices;
+	}
+	
+	//feature values aligned with getPackedIndices(), packed on demand
+	public double[] getPackedValues() {
+		if (m_x_indices==null)
+			packSpVct();
+		return m_x_values;
+	}
+	
 	// Added by Lin for language model.
 	_SparseFeature[] m_lm_x_sparse;
 	public void createLMSpVct(HashMap<Integer, Double> spVct){
@@ -152,6 +201,7 @@ public abstract class _DocBase {
 	
 	public void setSpVct(_SparseFeature[] x) {
 		m_x_sparse = x;
+		resetPackedSpVct();
 		calcTotalLength();
 	}
 	
@@ -22,6 +22,12 @@ public class _ParentDoc extends _Doc {
 		setTitle(title);
 	}
 	
+	//the copies would still point to the original child documents
+	@Override
+	public _Doc forkTopicState() {
+		throw new UnsupportedOperationException("The topic state of parent documents cannot be forked!");
+	}
+	
 	public void initFeatureWeight(int featureLen){
 		m_featureWeight = new double[featureLen];
 		Arrays.fill(m_featureWeight, 0);
@@ -8,8 +8,11 @@ import utils.Utils;
 
 public class _ParentDoc4DCM extends _ParentDoc {
 	
+	//word-topic statistics shared by this document and its child documents, column n is for the word m_wordTopic_index[n]
+	public int[] m_wordTopic_index; // ascending vocabulary indices of the words in this document or its child documents
 	public double[][] m_wordTopic_stat;
 	public double[][] m_wordTopic_prob;
+	public double[] m_wordTopic_mass; // m_wordTopic_prob[k] accumulated over the whole vocabulary
 	public double[] m_topic_stat;
 	public double[][] m_lambda_stat;
 	public double[] m_lambda_topicStat;
@@ -32,11 +35,12 @@ public class _ParentDoc4DCM extends _ParentDoc {
 		m_lambda_stat = new double[k][vocalSize];
 		m_lambda_topicStat = new double[k];
 
-		m_wordTopic_prob = new double[k][vocalSize];
+		setWordTopicIndex();
+		m_wordTopic_prob = new double[k][m_wordTopic_index.length];
+		m_wordTopic_mass = new double[k];
 
 		for(int i=0; i<k; i++) {
 			Arrays.fill(m_lambda_stat[i], beta);
-			Arrays.fill(m_wordTopic_prob[i], 0);
 			m_lambda_topicStat[i] = Utils.sumOfArray(m_lambda_stat[i]);
 		}
 
@@ -57,17 +61,51 @@ public class _ParentDoc4DCM extends _ParentDoc {
 		}
 	}
 
+	protected void setWordTopicIndex(){
+		int size = m_x_sparse.length;
+		for(_ChildDoc cDoc:m_childDocs)
+			size += cDoc.getSparse().length;
+		
+		int[] index = new int[size];
+		size = 0;
+		for(_SparseFeature fv:m_x_sparse)
+			index[size++] = fv.getIndex();
+		for(_ChildDoc cDoc:m_childDocs){
+			for(_SparseFeature fv:cDoc.getSparse())
+				index[size++] = fv.getIndex();
+		}
+		Arrays.sort(index);
+		
+		size = 0;
+		for(int i=0; i<index.length; i++){
+			if (i==0 || index[i]!=index[i-1])
+				index[size++] = index[i];
+		}
+		m_wordTopic_index = Arrays.copyOf(index, size);
+	}
+	
 	protected void setWordTopicStat(int k, int vocalSize){
 		m_topic_stat = new double[k];
-		Arrays.fill(m_topic_stat, 0);
-		
-		m_wordTopic_stat = new double[k][vocalSize];
-		for(int i=0; i<k; i++)
-			Arrays.fill(m_wordTopic_stat[i], 0);
 		
-		m_wordTopic_prob = new double[k][vocalSize];
-		for(int i=0; i<k; i++)
-			Arrays.fill(m_wordTopic_prob[i], 0);
+		setWordTopicIndex();
+		m_wordTopic_stat = new double[k][m_wordTopic_index.length];
+		m_wordTopic_prob = new double[k][m_wordTopic_index.length];
+		m_wordTopic_mass = new double[k];
+	}
+	
+	//column of word wid in m_wordTopic_stat and m_wordTopic_prob, negative if the word is neither in this document nor in its child documents
+	public int getWordTopicColumn(int wid){
+		return WordTopicTable.column(m_wordTopic_index, wid);
+	}
+	
+	//p(w|z) estimated in this document, zero for the words not in it
+	public double getWordTopicProb(int k, int wid){
+		return WordTopicTable.prob(m_wordTopic_prob, m_wordTopic_index, k, wid);
+	}
+	
+	//normalize m_wordTopic_prob[k] by the mass accumulated over the whole vocabulary
+	public void normalizeWordTopicProb(){
+		WordTopicTable.normalize(m_wordTopic_prob, m_wordTopic_mass);
 	}
 	
 	public void setTopics4Gibbs(int k, double alpha, int vocalSize) {
@@ -82,7 +120,7 @@ public class _ParentDoc4DCM extends _ParentDoc {
 				m_words[wIndex] = new _Word(wid, tid);// randomly initializing the topics inside a document
 				m_sstat[tid] ++; // collect the topic proportion
 				
-				m_wordTopic_stat[tid][wid] ++;
+				m_wordTopic_stat[tid][getWordTopicColumn(wid)] ++;
 				m_topic_stat[tid] ++;
 				wIndex ++;
 			}
@@ -123,7 +161,7 @@ public class _ParentDoc4DCM extends _ParentDoc {
 					tid = m_rand.nextInt(k);
 					m_words[wTrainIndex] = new _Word(wid, tid);
 					wTrainIndex ++;
-					m_wordTopic_stat[tid][wid] ++;
+					m_wordTopic_stat[tid][getWordTopicColumn(wid)] ++;
 					m_topic_stat[tid] ++;
 					m_sstat[tid] ++;
 				}
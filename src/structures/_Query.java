@@ -1,95 +1,209 @@
 package structures;
 
 import java.util.ArrayList;
-import java.util.Collections;
 
 import Classifier.supervised.liblinear.Feature;
+import Classifier.supervised.liblinear.FeatureNode;
 import utils.Utils;
 
+/**
+ * A query with its documents packed in primitive arrays by createRankingPairs():
+ * the features as a row-major matrix, the labels and the ranking scores, indexed by document.
+ * The ranking pairs are not materialized: with the documents ordered by descending label,
+ * every document is preferred to all the documents after its own label group.
+ */
 public class _Query {
-	public ArrayList<_QUPair> m_docList;
+	public ArrayList<_QUPair> m_docList; // released once packed
 	int m_pairSize;
-	
+
+	int m_size, m_featureSize;
+	double[] m_features; // m_features[i*m_featureSize+f]: feature f of document i
+	int[] m_labels;
+	double[] m_scores; // ranking scores by the latest score()
+
+	int[] m_rank; // m_rank[r]: document ranked at r by descending score
+	int[] m_buffer; // scratch of sortByScore()
+	int[] m_byLabel; // documents by descending label
+	int[] m_worseStart; // m_byLabel[m_worseStart[p], m_size) have smaller labels than m_byLabel[p]
+
 	public _Query(){
 		m_docList = new ArrayList<_QUPair>();
 		m_pairSize = 0;
 	}
-	
+
 	@Override
 	public String toString() {
-		return String.format("%d:%d", m_docList.size(), m_pairSize);
+		return String.format("%d:%d", m_size, m_pairSize);
 	}
-	
-	public void addQUPair(_QUPair pair){ m_docList.add(pair); }
-	
+
+	public void addQUPair(_QUPair pair){
+		m_docList.add(pair);
+		m_size ++;
+	}
+
+	//pack the documents and count the pairs with different labels
 	public int createRankingPairs() {
-		_QUPair qui, quj;
-		for(int i=0; i<m_docList.size(); i++) {
-			qui = m_docList.get(i);
-			for(int j=0; j<i; j++) {
-				quj = m_docList.get(j);
-				
-				if (qui.m_y > quj.m_y) {
-					qui.addWorseURL(quj);
-					quj.addBetterURL(qui);
-					m_pairSize ++;
-				} else if (qui.m_y < quj.m_y) {
-					qui.addBetterURL(quj);
-					quj.addWorseURL(qui);
-					m_pairSize ++;
-				}
-			}
+		m_featureSize = m_size>0 ? m_docList.get(0).m_rankFv.length : 0;
+		m_features = new double[m_size*m_featureSize];
+		m_labels = new int[m_size];
+		m_scores = new double[m_size];
+		m_rank = new int[m_size];
+		m_buffer = new int[m_size];
+		for(int i=0; i<m_size; i++) {
+			_QUPair qu = m_docList.get(i);
+			System.arraycopy(qu.m_rankFv, 0, m_features, i*m_featureSize, m_featureSize);
+			m_labels[i] = qu.m_y;
+			m_rank[i] = i;
+		}
+		m_docList.clear();
+
+		//stable counting by label in descending order, labels are small non-negative grades
+		int maxLabel = 0;
+		for(int y:m_labels)
+			maxLabel = Math.max(maxLabel, y);
+		int[] start = new int[maxLabel+2];
+		for(int y:m_labels)
+			start[maxLabel-y+1] ++;
+		for(int l=0; l<=maxLabel; l++)
+			start[l+1] += start[l];
+
+		m_byLabel = new int[m_size];
+		m_worseStart = new int[m_size];
+		for(int i=0; i<m_size; i++)
+			m_byLabel[start[maxLabel-m_labels[i]]++] = i;//start[l] ends up at the end of group l
+
+		m_pairSize = 0;
+		for(int p=0; p<m_size; p++) {
+			m_worseStart[p] = start[maxLabel-m_labels[m_byLabel[p]]];
+			m_pairSize += m_size - m_worseStart[p];
 		}
 		return m_pairSize;
 	}
-	
-	public void sortDocs() {
-		Collections.sort(m_docList);//sort documents by predicted ranking score
-	}
-	
+
 	public int getPairSize() {
 		return m_pairSize;
 	}
-	
+
 	public int getDocSize() {
-		return m_docList.size();
+		return m_size;
+	}
+
+	public int getFeatureSize() {
+		return m_featureSize;
+	}
+
+	public double[] getFeatures() {
+		return m_features;
+	}
+
+	public int[] getLabels() {
+		return m_labels;
+	}
+
+	public double[] getScores() {
+		return m_scores;
+	}
+
+	public int[] getRank() {
+		return m_rank;
+	}
+
+	public int[] getLabelOrder() {
+		return m_byLabel;
 	}
-	
+
+	public int[] getWorseStart() {
+		return m_worseStart;
+	}
+
+	public void score(double[] w) {
+		for(int i=0, offset=0; i<m_size; i++, offset+=m_featureSize) {
+			double sum = 0;
+			for(int f=0; f<m_featureSize; f++)
+				sum += w[f] * m_features[offset+f];
+			m_scores[i] = sum;
+		}
+	}
+
+	//stable merge sort of m_rank by descending score, ties keep the previous ranking
+	public void sortByScore() {
+		int[] src = m_rank, dst = m_buffer;
+		for(int width=1; width<m_size; width*=2) {
+			for(int lo=0; lo<m_size; lo+=2*width) {
+				int mid = Math.min(lo+width, m_size), hi = Math.min(lo+2*width, m_size), i = lo, j = mid, k = lo;
+				while(i<mid && j<hi)
+					dst[k++] = m_scores[src[j]]>m_scores[src[i]] ? src[j++] : src[i++];
+				while(i<mid)
+					dst[k++] = src[i++];
+				while(j<hi)
+					dst[k++] = src[j++];
+			}
+			int[] t = src;
+			src = dst;
+			dst = t;
+		}
+		m_rank = src;
+		m_buffer = dst;
+	}
+
+	//\sum log P(d_i>d_j) over the pairs under the latest scores
+	public double getPairLogLikelihood() {
+		double obj = 0, r;
+		for(int p=0; p<m_size; p++) {
+			double s = m_scores[m_byLabel[p]];
+			for(int q=m_worseStart[p]; q<m_size; q++) {
+				if ((r=Utils.logistic(s-m_scores[m_byLabel[q]]))>0)
+					obj += Math.log(r);
+			}
+		}
+		return obj;
+	}
+
+	//pairs not ranked in the order of their labels under the latest scores
+	public int getMisorder() {
+		int misorder = 0;
+		for(int p=0; p<m_size; p++) {
+			double s = m_scores[m_byLabel[p]];
+			for(int q=m_worseStart[p]; q<m_size; q++) {
+				if (s<=m_scores[m_byLabel[q]])
+					misorder ++;
+			}
+		}
+		return misorder;
+	}
+
+	//for RankSVM
+	Feature[] getDiffFv(int i, int j) {
+		ArrayList<Feature> fvs = new ArrayList<Feature>();
+		double value;
+		for(int f=0; f<m_featureSize; f++) {
+			value = m_features[i*m_featureSize+f] - m_features[j*m_featureSize+f];
+			if (value != 0)
+				fvs.add(new FeatureNode(f+1, value));
+		}
+
+		if (fvs.size()==0)
+			return null;
+		return fvs.toArray(new Feature[fvs.size()]);
+	}
+
 	public void extractPairs4RankSVM(ArrayList<Feature[]> fvs, ArrayList<Integer> labels) {
 		boolean negSgn = (fvs.size()%2)==0;
 		Feature[] fvct;
-		for(_QUPair di:m_docList) {
-			if (di.m_betterURLs==null)
-				continue;
-			
-			if (negSgn) {
-				for(_QUPair dj:di.m_betterURLs) {
-					if ((fvct=di.getDiffFv(dj)) != null) {
+		for(int i=0; i<m_size; i++) {
+			for(int j=0; j<m_size; j++) {
+				if (m_labels[j] <= m_labels[i])
+					continue;
+
+				if (negSgn) {
+					if ((fvct=getDiffFv(i, j)) != null) {
 						fvs.add(fvct);
 						labels.add(-1);
 					}
+				} else if ((fvct=getDiffFv(j, i)) != null) {
+					fvs.add(fvct);
+					labels.add(1);
 				}
-			} else {
-				for(_QUPair dj:di.m_betterURLs) {
-					if ((fvct=dj.getDiffFv(di)) != null) {
-						fvs.add(fvct);
-						labels.add(1);
-					}
-				}
-			}
-		}
-	}
-	
-	public void extractPairs4RankNet(ArrayList<double[]> fvs) {
-		double[] diff;
-		for(_QUPair di:m_docList) {
-			if (di.m_worseURLs==null)
-				continue;			
-			
-			for(_QUPair dj:di.m_worseURLs) {
-				diff = Utils.diff(di.m_rankFv, dj.m_rankFv);
-				if (diff!=null)
-					fvs.add(diff);	
 			}
 		}
 	}
@@ -226,6 +226,15 @@ public class _Stn {
 		m_topic = i;
 	}
 	
+	//a copy sharing the content and the transition features of this sentence, but with a topic state of its own
+	_Stn forkTopicState() {
+		_Stn s = new _Stn(m_index, m_x_sparse, m_rawTokens, m_sentencePOSTag, m_rawSource);
+		s.m_transitFv = m_transitFv;
+		s.m_sentiTransitFv = m_sentiTransitFv;
+		s.m_sentimentLabel = m_sentimentLabel;
+		return s;
+	}
+	
 	
 	//annotate by all the words
 	public int AnnotateByKeyword(Set<Integer> keywords){
@@ -68,6 +68,19 @@ public class _stat {
 	public void minusNTTF(int index, double n){
 		this.m_TTF[index] -= n;
 	}
+	
+	//The TTF of a feature is added by n.
+	public void addNTTF(int index, double n){
+		this.m_TTF[index] += n;
+	}
+	
+	//Merge the statistics collected by another accumulator (e.g., a thread-local one) into this one.
+	public void add(_stat stat){
+		for(int i=0; i<m_DF.length && i<stat.m_DF.length; i++){
+			m_DF[i] += stat.m_DF[i];
+			m_TTF[i] += stat.m_TTF[i];
+		}
+	}
 }
 
 
@@ -8,6 +8,7 @@ import LBFGS.LBFGS;
 import LBFGS.LBFGS.ExceptionWithIflag;
 import structures.*;
 import topicmodels.LDA.LDA_Variational;
+import utils.Numerics;
 import utils.Utils;
 
 public class CTM extends LDA_Variational {
@@ -22,6 +23,8 @@ public class CTM extends LDA_Variational {
     public int len1;
     public int len2;
 
+    protected LBFGS optimizer = new LBFGS(); // reused by opt_lambda() and opt_nu() across the documents
+
     public CTM(int emMaxIter, double emConverge,
                double beta, _Corpus corpus, double lambda,
                int number_of_topics, double alpha, int varMaxIter, double varConverge){
@@ -313,7 +316,6 @@ public class CTM extends LDA_Variational {
     }
 
     public void opt_phi(_Doc d){
-        double logSum = 0.0;
         _Doc4ETBIR doc = (_Doc4ETBIR)d;
 
         _SparseFeature[] fv = doc.getSparse();
@@ -326,11 +328,7 @@ public class CTM extends LDA_Variational {
 
             }
 
-            logSum = Utils.logSum(doc.m_phi[n]);
-            for(int i=0; i<len1; i++){
-                doc.m_phi[n][i] = Math.exp(doc.m_phi[n][i]-logSum);
-
-            }
+            Numerics.expNormalize(doc.m_phi[n], len1);
 
         }
     }
@@ -357,7 +355,7 @@ public class CTM extends LDA_Variational {
         try{
             do{
                 fValue = calcLambdaFuncGradient(doc, x, x_g);
-                LBFGS.lbfgs(xSize, 4, x, fValue, x_g, false, x_diag, iprint, eps, 1e-16, iflag);
+                optimizer.lbfgs(xSize, 4, x, fValue, x_g, false, x_diag, iprint, eps, 1e-16, iflag);
             }while(iflag[0]!=0 && iter++<15);
 
         }catch(ExceptionWithIflag e){
@@ -445,7 +443,7 @@ public class CTM extends LDA_Variational {
         try{
             do{
                 fValue = calcNuFuncGradient(doc, x, x_g);
-                LBFGS.lbfgs(xSize, 4, x, fValue, x_g, false, x_diag, iprint, 1e-6, 1e-32, iflag);
+                optimizer.lbfgs(xSize, 4, x, fValue, x_g, false, x_diag, iprint, 1e-6, 1e-32, iflag);
             }while(iflag[0]!=0 && iter++<15);
 
         }catch(ExceptionWithIflag e){
@@ -626,7 +624,7 @@ public class CTM extends LDA_Variational {
                 double[] gamma = new double[number_of_topics];
                 Arrays.fill(gamma, 0);
                 for(_Doc d:entryU.getValue()) {
-                    double sum = Utils.logSum(((_Doc4ETBIR)d).m_mu);
+                    double sum = Numerics.logSumExp(((_Doc4ETBIR)d).m_mu);
                     for (int i = 0; i < number_of_topics; i++) {
                         gamma[i] += Math.exp(((_Doc4ETBIR)d).m_mu[i] - sum);
                     }
@@ -713,7 +711,7 @@ public class CTM extends LDA_Variational {
                 softmaxWriter.write(String.format("No. %d Doc(user: %s, item: %s) ***************\n", idx,
                         ((_Doc4ETBIR) m_trainSet.get(idx)).getUserID(),
                         ((_Doc4ETBIR) m_trainSet.get(idx)).getItemID()));
-                double sum = Utils.logSum(((_Doc4ETBIR) m_trainSet.get(idx)).m_mu)+1;
+                double sum = Numerics.logSumExp(((_Doc4ETBIR) m_trainSet.get(idx)).m_mu)+1;
                 for (int i = 0; i < number_of_topics; i++) {
                     softmaxWriter.format("%.5f\t", Math.exp(((_Doc4ETBIR) m_trainSet.get(idx)).m_mu[i] - sum));
                 }
@@ -17,6 +17,7 @@ import structures._Doc4DCMLDA;
 import structures._RankItem;
 import structures._Word;
 import topicmodels.LDA.LDA_Gibbs;
+import utils.Numerics;
 import utils.Utils;
 
 public class DCMLDA extends LDA_Gibbs {
@@ -139,8 +140,12 @@ public class DCMLDA extends LDA_Gibbs {
 			long startTime = System.currentTimeMillis();
 			for (int j = 0; j < number_of_iteration; j++) {//why should we have this inner loop?
 				init();
-				for (_Doc d : m_trainSet)
-					calculate_E_step(d);
+				if (m_samplingCores>1)
+					multithread_E_step();
+				else {
+					for (_Doc d : m_trainSet)
+						calculate_E_step(d);
+				}
 			}
 			long endTime = System.currentTimeMillis();
 
@@ -193,6 +198,7 @@ public class DCMLDA extends LDA_Gibbs {
 
 		
 		finalEst();
+		close();
 
 		long endtime = System.currentTimeMillis() - starttime;
 		System.out
@@ -232,14 +238,15 @@ public class DCMLDA extends LDA_Gibbs {
 		
 		DCMDoc.permutation();
 		double p;
-		int wid, tid;
+		int wid, tid, n;
 		for(_Word w:DCMDoc.getWords()) {
 			wid = w.getIndex();
 			tid = w.getTopic();
+			n = DCMDoc.getWordTopicColumn(wid);
 			
 			//remove the word's topic assignment
 			DCMDoc.m_sstat[tid]--;
-			DCMDoc.m_wordTopic_stat[tid][wid]--;
+			DCMDoc.m_wordTopic_stat[tid][n]--;
 			
 			if(m_collectCorpusStats)
 				word_topic_sstat[tid][wid] --;
@@ -247,7 +254,7 @@ public class DCMLDA extends LDA_Gibbs {
 			//perform random sampling
 			p = 0;
 			for(tid=0; tid<number_of_topics; tid++){
-				m_topicProbCache[tid] = topicInDocProb(tid, DCMDoc) * wordTopicProb(tid, wid, DCMDoc);
+				m_topicProbCache[tid] = topicInDocProb(tid, DCMDoc) * wordTopicProb(tid, wid, n, DCMDoc);
 				p += m_topicProbCache[tid];	
 			}
 			p *= m_rand.nextDouble();
@@ -261,7 +268,7 @@ public class DCMLDA extends LDA_Gibbs {
 			//assign the selected topic to word
 			w.setTopic(tid);
 			DCMDoc.m_sstat[tid]++;
-			DCMDoc.m_wordTopic_stat[tid][wid]++;
+			DCMDoc.m_wordTopic_stat[tid][n]++;
 			
 			if(m_collectCorpusStats)
 				word_topic_sstat[tid][wid]++;
@@ -278,9 +285,14 @@ public class DCMLDA extends LDA_Gibbs {
 	// p(w|z)
 	protected double wordTopicProb(int tid, int wid, _Doc d) {
 		_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA) d;
+		return wordTopicProb(tid, wid, DCMDoc.getWordTopicColumn(wid), DCMDoc);
+	}
 	
-		return (DCMDoc.m_wordTopic_stat[tid][wid] + m_beta[tid][wid])
-				/ (DCMDoc.m_sstat[tid] + m_totalBeta[tid]);
+	// p(w|z) with n the column of word wid in the document's statistics
+	protected double wordTopicProb(int tid, int wid, int n, _Doc4DCMLDA d) {
+		double stat = n<0 ? 0 : d.m_wordTopic_stat[tid][n];
+		return (stat + m_beta[tid][wid])
+				/ (d.m_sstat[tid] + m_totalBeta[tid]);
 	}
 
 	@Override
@@ -298,11 +310,14 @@ public class DCMLDA extends LDA_Gibbs {
 	protected void collectStats(_Doc d) {
 		_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA)d;
 		
+		int[] index = DCMDoc.m_wordTopic_index;
 		for (int k = 0; k < this.number_of_topics; k++) {
 			d.m_topics[k] += d.m_sstat[k] + m_alpha[k];
 
-			for (int v = 0; v < vocabulary_size; v++)
-				DCMDoc.m_wordTopic_prob[k][v] += DCMDoc.m_wordTopic_stat[k][v] + m_beta[k][v];
+			//the words not in the document only add m_beta[k][v] to the mass
+			for (int n = 0; n < index.length; n++)
+				DCMDoc.m_wordTopic_prob[k][n] += DCMDoc.m_wordTopic_stat[k][n] + m_beta[k][index[n]];
+			DCMDoc.m_wordTopic_mass[k] += Utils.sumOfArray(DCMDoc.m_wordTopic_stat[k]) + m_totalBeta[k];
 		}
 
 	}
@@ -341,11 +356,11 @@ public class DCMLDA extends LDA_Gibbs {
 				m_alphaAuxilary[k] += tempProb * tempProb;
 				if (DCMDoc.m_sstat[k] == 0) 
 					continue;
-				for (int v = 0; v < vocabulary_size; v++) {
-					tempProb = DCMDoc.m_wordTopic_stat[k][v]
+				for (int n = 0; n < DCMDoc.m_wordTopic_index.length; n++) {
+					tempProb = DCMDoc.m_wordTopic_stat[k][n]
 							/ DCMDoc.m_sstat[k];
 
-					topic_term_probabilty[k][v] += tempProb;				
+					topic_term_probabilty[k][DCMDoc.m_wordTopic_index[n]] += tempProb;				
 				}
 			}
 		}
@@ -377,19 +392,19 @@ public class DCMLDA extends LDA_Gibbs {
 		do {
 			double totalAlphaDenominator = 0;
 			m_totalAlpha = Utils.sumOfArray(m_alpha);
-			double digAlpha = Utils.digamma(m_totalAlpha);
+			double digAlpha = Numerics.digamma(m_totalAlpha);
 
 			double deltaAlpha = 0;
 
 			for (_Doc d : m_trainSet) 
-				totalAlphaDenominator += Utils.digamma(d.getTotalDocLength() + m_totalAlpha) - digAlpha;
+				totalAlphaDenominator += Numerics.digamma(d.getTotalDocLength() + m_totalAlpha) - digAlpha;
 			
 			//is it ok to do this dimension by dimension?
 			diff = 0;
 			for (int k = 0; k < number_of_topics; k++) {
-				double totalAlphaNumerator = 0;
+				double totalAlphaNumerator = 0, digAlpha4K = Numerics.digamma(m_alpha[k]);
 				for (_Doc d : m_trainSet) 
-					totalAlphaNumerator += Utils.digamma(m_alpha[k] + d.m_sstat[k]) - Utils.digamma(m_alpha[k]);
+					totalAlphaNumerator += Numerics.digamma(m_alpha[k] + d.m_sstat[k]) - digAlpha4K;
 
 				deltaAlpha = totalAlphaNumerator / totalAlphaDenominator;
 
@@ -415,46 +430,17 @@ public class DCMLDA extends LDA_Gibbs {
 		double diff = 0;
 		int iteration = 0;
 
+		WordTopicCounts counts = new WordTopicCounts(vocabulary_size);
+		for (_Doc d : m_trainSet) {
+			_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA)d;
+			counts.add(DCMDoc.m_wordTopic_index, DCMDoc.m_wordTopic_stat[tid], DCMDoc.m_sstat[tid]);
+		}
+		
 		do {
-			double deltaBeta = 0;
-			double wordNum4Tid = 0;
-			double[] wordNum4Tid4V = new double[vocabulary_size];
-			double totalBetaDenominator = 0;
-			double[] totalBetaNumerator = new double[vocabulary_size];
-			m_totalBeta[tid] = Utils.sumOfArray(m_beta[tid]);
-			double digBeta4Tid = Utils.digamma(m_totalBeta[tid]);
-
-			for (_Doc d : m_trainSet) {
-				_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA)d;
-				totalBetaDenominator += Utils.digamma(m_totalBeta[tid] + DCMDoc.m_sstat[tid]) - digBeta4Tid;
-				for (int v = 0; v < vocabulary_size; v++) {
-					wordNum4Tid += DCMDoc.m_wordTopic_stat[tid][v];
-					wordNum4Tid4V[v] += DCMDoc.m_wordTopic_stat[tid][v];
-					totalBetaNumerator[v] += Utils.digamma(m_beta[tid][v] + DCMDoc.m_wordTopic_stat[tid][v])- Utils.digamma(m_beta[tid][v]);
-				}
-			}
-
-			diff = 0;
-			for (int v = 0; v < vocabulary_size; v++) {
-				if (wordNum4Tid == 0)
-					break;//this is almost impossible
-				else if (wordNum4Tid4V[v] == 0) 
-					deltaBeta = 0;//why this goes to zero?
-				else
-					deltaBeta = totalBetaNumerator[v] / totalBetaDenominator;
-				
-				double newBeta = m_beta[tid][v] * deltaBeta + d_beta;
-
-				double t_diff = Math.abs(m_beta[tid][v] - newBeta);
-				if (t_diff > diff)
-					diff = t_diff;
-
-				m_beta[tid][v] = newBeta;
-			}
-
+			diff = counts.update(m_beta[tid], 1, d_beta);
 			iteration++;
-
 		} while ((diff > m_newtonConverge) && (iteration < m_newtonIter));
+		m_totalBeta[tid] = Utils.sumOfArray(m_beta[tid]);
 
 		System.out.format("[Info]beta update finishes at iteration %d, diff: %.3f", iteration, diff);
 	}
@@ -511,12 +497,14 @@ public class DCMLDA extends LDA_Gibbs {
 		docLogLikelihood -= Utils.lgamma(d.getTotalDocLength() + m_totalAlpha);
 
 		for (int k = 0; k < number_of_topics; k++) {
-			for (int v = 0; v < vocabulary_size; v++) {
-				double term = Utils.lgamma(DCMDoc.m_wordTopic_stat[k][v]
-						+ m_beta[k][v]);
+			//lgamma(0+beta)-lgamma(beta) is zero for the words not in the document
+			for (int n = 0; n < DCMDoc.m_wordTopic_index.length; n++) {
+				double beta = m_beta[k][DCMDoc.m_wordTopic_index[n]];
+				double term = Utils.lgamma(DCMDoc.m_wordTopic_stat[k][n]
+						+ beta);
 				docLogLikelihood += term;
 
-				term = Utils.lgamma(m_beta[k][v]);
+				term = Utils.lgamma(beta);
 				docLogLikelihood -= term;
 
 			}
@@ -548,8 +536,7 @@ public class DCMLDA extends LDA_Gibbs {
 		
 		_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA)d;
 		
-		for (int i = 0; i < number_of_topics; i++)
-			Utils.L1Normalization(DCMDoc.m_wordTopic_prob[i]);
+		DCMDoc.normalizeWordTopicProb();
 		Utils.L1Normalization(d.m_topics);
 
 	}
@@ -616,9 +603,7 @@ public class DCMLDA extends LDA_Gibbs {
 	public void initTestDoc(_Doc d) {
 		_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA)d;
 		
-		for (int k = 0; k < number_of_topics; k++) {
-			Arrays.fill(DCMDoc.m_wordTopic_prob[k], 0);
-		}
+		DCMDoc.clearWordTopicProb();
 
 		int testLength = (int) (m_testWord4PerplexityProportion * DCMDoc
 				.getTotalDocLength());
@@ -627,7 +612,7 @@ public class DCMLDA extends LDA_Gibbs {
 		for (_Word w : DCMDoc.getWords()) {
 			int wid = w.getIndex();
 			int tid = w.getTopic();
-			DCMDoc.m_wordTopic_stat[tid][wid]++;
+			DCMDoc.m_wordTopic_stat[tid][DCMDoc.getWordTopicColumn(wid)]++;
 
 		}
 	}
@@ -638,11 +623,11 @@ public class DCMLDA extends LDA_Gibbs {
 		_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA)d;
 		
 		for (_Word w : DCMDoc.getTestWords()) {
-			int wid = w.getIndex();
+			int n = DCMDoc.getWordTopicColumn(w.getIndex());
 			double wordLogLikelihood = 0;
 
 			for (int k = 0; k < number_of_topics; k++) {
-				double wordPerTopicLikelihood = DCMDoc.m_topics[k]*DCMDoc.m_wordTopic_prob[k][wid];
+				double wordPerTopicLikelihood = DCMDoc.m_topics[k]*DCMDoc.m_wordTopic_prob[k][n];
 				wordLogLikelihood += wordPerTopicLikelihood;
 			}
 			
@@ -658,10 +643,10 @@ public class DCMLDA extends LDA_Gibbs {
 		_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA)d;
 		
 		for (_Word w : DCMDoc.getWords()) {
-			int wid = w.getIndex();
+			int n = DCMDoc.getWordTopicColumn(w.getIndex());
 			double wordLikelihood = 0;
 			for (int k = 0; k < number_of_topics; k++) {
-				wordLikelihood += DCMDoc.m_topics[k]*DCMDoc.m_wordTopic_prob[k][wid];
+				wordLikelihood += DCMDoc.m_topics[k]*DCMDoc.m_wordTopic_prob[k][n];
 			}
 			likelihood += Math.log(wordLikelihood);
 		}
@@ -0,0 +1,91 @@
+package topicmodels.DCM;
+
+import java.util.Arrays;
+
+import utils.Numerics;
+import utils.Utils;
+
+/**
+ * Nonzero word-topic counts of one topic over a set of documents, for the fixed-point update of the
+ * Dirichlet-multinomial parameters of the topic, i.e., beta_v <- beta_v * \sum_d[psi(beta_v+n_dv)-psi(beta_v)] / \sum_d[psi(|beta|+n_d)-psi(|beta|)].
+ * The counts do not change during the iterations, so they are grouped by word and sorted once;
+ * each iteration then only visits the nonzero counts and evaluates the digamma differences by Numerics.digammaDiffSum().
+ */
+public class WordTopicCounts {
+	int m_vocabularySize;
+
+	long[] m_entries; // word<<32 | count, collected by add()
+	int m_size;
+	int[] m_docCounts; // topic count of each document
+	int m_docSize;
+
+	int[] m_offset; // counts of word v are m_counts[m_offset[v], m_offset[v+1]), ascending
+	int[] m_counts;
+
+	public WordTopicCounts(int vocabularySize) {
+		m_vocabularySize = vocabularySize;
+		m_entries = new long[1024];
+		m_docCounts = new int[256];
+	}
+
+	//counts stat[n] of word index[n] in a document, and the document's total count total of the topic
+	public void add(int[] index, double[] stat, double total) {
+		for(int n=0; n<stat.length; n++) {
+			if (stat[n]<=0)
+				continue;
+			if (m_size==m_entries.length)
+				m_entries = Arrays.copyOf(m_entries, 2*m_size);
+			m_entries[m_size++] = ((long)index[n]<<32) | (int)stat[n];
+		}
+
+		if (total>0) {
+			if (m_docSize==m_docCounts.length)
+				m_docCounts = Arrays.copyOf(m_docCounts, 2*m_docSize);
+			m_docCounts[m_docSize++] = (int)total;
+		}
+		m_offset = null;
+	}
+
+	void build() {
+		Arrays.sort(m_entries, 0, m_size);
+		Arrays.sort(m_docCounts, 0, m_docSize);
+
+		m_offset = new int[m_vocabularySize+1];
+		m_counts = new int[m_size];
+		for(int i=0; i<m_size; i++) {
+			m_offset[(int)(m_entries[i]>>>32)+1] ++;
+			m_counts[i] = (int)m_entries[i];
+		}
+		for(int v=0; v<m_vocabularySize; v++)
+			m_offset[v+1] += m_offset[v];
+	}
+
+	public boolean isEmpty() {
+		return m_size==0;
+	}
+
+	/**
+	 * One fixed-point iteration over param, with scale*param as the Dirichlet parameters:
+	 * param_v <- param_v * \sum_d[psi(x_v+n_dv)-psi(x_v)] / \sum_d[psi(|x|+n_d)-psi(|x|)] + smoothing, x = scale*param,
+	 * the words without any count are set to smoothing and param is left unchanged if there is no count at all.
+	 * Return the largest change of param.
+	 */
+	public double update(double[] param, double scale, double smoothing) {
+		if (isEmpty())
+			return 0;
+		else if (m_offset==null)
+			build();
+
+		double total = scale * Utils.sumOfArray(param);
+		double denominator = Numerics.digammaDiffSum(total, m_docCounts, 0, m_docSize), diff = 0;
+		for(int v=0; v<m_vocabularySize; v++) {
+			double newParam = smoothing;
+			if (m_offset[v]<m_offset[v+1])
+				newParam += param[v] * Numerics.digammaDiffSum(scale*param[v], m_counts, m_offset[v], m_offset[v+1]) / denominator;
+
+			diff = Math.max(diff, Math.abs(param[v] - newParam));
+			param[v] = newParam;
+		}
+		return diff;
+	}
+}
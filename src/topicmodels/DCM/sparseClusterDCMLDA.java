@@ -199,15 +199,16 @@ public class sparseClusterDCMLDA extends sparseDCMLDA {
 			term0 = 0;
 			product = 0;
 
-			for (int v = 0; v < vocabulary_size; v++) {
-				if (DCMDoc.m_wordTopic_stat[k][v] == 0)
+			for (int n = 0; n < DCMDoc.m_wordTopic_index.length; n++) {
+				if (DCMDoc.m_wordTopic_stat[k][n] == 0)
 					continue;
+				int v = DCMDoc.m_wordTopic_index[n];
 				// term00 = m_beta[k][v] + m_clusterTopicWordStats[0][k][v];
 				termc0 = m_beta[k][v]
 						+ m_clusterTopicWordStats[clusterIndex][k][v];
 
 				iter += 1;
-				product += logGammaRatio(termc0, DCMDoc.m_wordTopic_stat[k][v]);
+				product += logGammaRatio(termc0, DCMDoc.m_wordTopic_stat[k][n]);
 			}
 			if (DCMDoc.m_sstat[k] == 0)
 				continue;
@@ -261,16 +262,17 @@ public class sparseClusterDCMLDA extends sparseDCMLDA {
 	}
 
 	protected void sampleTopicAssignment(_Doc4SparseDCMLDA DCMDoc) {
-		int wid, tid;
+		int wid, tid, n;
 		double p;
 
 		int clusterIndex = DCMDoc.m_clusterIndicator;
 		for (_Word w : DCMDoc.getWords()) {
 			wid = w.getIndex();
 			tid = w.getTopic();
+			n = DCMDoc.getWordTopicColumn(wid);
 
 			DCMDoc.m_sstat[tid]--;
-			DCMDoc.m_wordTopic_stat[tid][wid]--;
+			DCMDoc.m_wordTopic_stat[tid][n]--;
 
 			if (m_collectCorpusStats) {
 				word_topic_sstat[tid][wid]--;
@@ -318,7 +320,7 @@ public class sparseClusterDCMLDA extends sparseDCMLDA {
 
 			w.setTopic(tid);
 			DCMDoc.m_sstat[tid]++;
-			DCMDoc.m_wordTopic_stat[tid][wid]++;
+			DCMDoc.m_wordTopic_stat[tid][n]++;
 
 			if (m_collectCorpusStats) {
 				word_topic_sstat[tid][wid]++;
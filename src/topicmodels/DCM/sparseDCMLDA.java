@@ -68,12 +68,13 @@ public class sparseDCMLDA extends DCMLDA{
 		docLogLikelihood -= Utils.lgamma(DCMDoc.getTotalDocLength() + DCMDoc.m_alphaDoc);
 
 		for (int k = 0; k < number_of_topics; k++) {
-			for (int v = 0; v < vocabulary_size; v++) {
-				double term = Utils.lgamma(DCMDoc.m_wordTopic_stat[k][v] + m_mu
-						* m_beta[k][v]);
+			for (int n = 0; n < DCMDoc.m_wordTopic_index.length; n++) {
+				double beta = m_beta[k][DCMDoc.m_wordTopic_index[n]];
+				double term = Utils.lgamma(DCMDoc.m_wordTopic_stat[k][n] + m_mu
+						* beta);
 				docLogLikelihood += term;
 
-				term = Utils.lgamma(m_mu * m_beta[k][v]);
+				term = Utils.lgamma(m_mu * beta);
 				docLogLikelihood -= term;
 
 			}
@@ -123,16 +124,17 @@ public class sparseDCMLDA extends DCMLDA{
 	}
 	
 	protected void sampleTopicAssignment(_Doc4SparseDCMLDA DCMDoc){
-		int wid, tid;
+		int wid, tid, n;
 		double p;
 		
 		
 		for(_Word w:DCMDoc.getWords()){
 			wid = w.getIndex();
 			tid = w.getTopic();
+			n = DCMDoc.getWordTopicColumn(wid);
 			
 			DCMDoc.m_sstat[tid] --;
-			DCMDoc.m_wordTopic_stat[tid][wid]--;
+			DCMDoc.m_wordTopic_stat[tid][n]--;
 			
 			if(m_collectCorpusStats)
 				word_topic_sstat[tid][wid] --;
@@ -147,7 +149,7 @@ public class sparseDCMLDA extends DCMLDA{
 				m_topicProbCache[tid] = 0;
 				if(DCMDoc.m_topicIndicator[tid]==false)
 					continue;
-				m_topicProbCache[tid] = topicInDocProb(tid, denominator, DCMDoc) * wordTopicProb(tid, wid, DCMDoc);
+				m_topicProbCache[tid] = topicInDocProb(tid, denominator, DCMDoc) * wordTopicProb(tid, wid, n, DCMDoc);
 				
 				if(m_topicProbCache[tid]<0)
 					System.out.println("negative\t"+m_topicProbCache[tid]);
@@ -163,7 +165,7 @@ public class sparseDCMLDA extends DCMLDA{
 			
 			w.setTopic(tid);
 			DCMDoc.m_sstat[tid] ++;
-			DCMDoc.m_wordTopic_stat[tid][wid] ++;
+			DCMDoc.m_wordTopic_stat[tid][n] ++;
 			
 			if(m_collectCorpusStats)
 				word_topic_sstat[tid][wid] ++;
@@ -225,11 +227,10 @@ public class sparseDCMLDA extends DCMLDA{
 	}
 	
 	@Override
-	protected double wordTopicProb(int tid, int wid, _Doc d) {
-		_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA) d;
-
-		return (DCMDoc.m_wordTopic_stat[tid][wid] + m_mu * m_beta[tid][wid])
-				/ (DCMDoc.m_sstat[tid] + m_mu * m_totalBeta[tid]);
+	protected double wordTopicProb(int tid, int wid, int n, _Doc4DCMLDA d) {
+		double stat = n<0 ? 0 : d.m_wordTopic_stat[tid][n];
+		return (stat + m_mu * m_beta[tid][wid])
+				/ (d.m_sstat[tid] + m_mu * m_totalBeta[tid]);
 	}
 
 	@Override
@@ -307,60 +308,18 @@ public class sparseDCMLDA extends DCMLDA{
 
 		double diff = 0;
 		int iteration = 0;
-		double smoothingBeta = 0.1;
-
-		do {
-			diff = 0;
-			double deltaBeta = 0;
-			double wordNum4Tid = 0;
-			double[] wordNum4Tid4V = new double[vocabulary_size];
-			double totalBetaDenominator = 0;
-			double[] totalBetaNumerator = new double[vocabulary_size];
-			Arrays.fill(totalBetaNumerator, 0);
-			Arrays.fill(wordNum4Tid4V, 0);
-			m_totalBeta[tid] = Utils.sumOfArray(m_beta[tid]);
-			double digBeta4Tid = Utils.digamma(m_mu * m_totalBeta[tid]);
-
-			for (_Doc d : m_trainSet) {
-				_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA) d;
-				totalBetaDenominator += Utils.digamma(m_mu * m_totalBeta[tid]
-						+ DCMDoc.m_sstat[tid])
-						- digBeta4Tid;
-				for (int v = 0; v < vocabulary_size; v++) {
-					wordNum4Tid += DCMDoc.m_wordTopic_stat[tid][v];
-					wordNum4Tid4V[v] += DCMDoc.m_wordTopic_stat[tid][v];
-					totalBetaNumerator[v] += Utils.digamma(m_mu
-							* m_beta[tid][v]
-							+ DCMDoc.m_wordTopic_stat[tid][v]);
-					totalBetaNumerator[v] -= Utils.digamma(m_mu
-							* m_beta[tid][v]);
-				}
-			}
-
-			for (int v = 0; v < vocabulary_size; v++) {
-				if (wordNum4Tid == 0)
-					break;
-				if (wordNum4Tid4V[v] == 0) {
-					deltaBeta = 0;
-
-				} else {
-					deltaBeta = totalBetaNumerator[v] / totalBetaDenominator;
-
-				}
-
-				double newBeta = m_beta[tid][v] * deltaBeta + d_beta;
-
-				double t_diff = Math.abs(m_beta[tid][v] - newBeta);
-				if (t_diff > diff)
-					diff = t_diff;
-
-				m_beta[tid][v] = newBeta;
 
-			}
+		WordTopicCounts counts = new WordTopicCounts(vocabulary_size);
+		for (_Doc d : m_trainSet) {
+			_Doc4DCMLDA DCMDoc = (_Doc4DCMLDA) d;
+			counts.add(DCMDoc.m_wordTopic_index, DCMDoc.m_wordTopic_stat[tid], DCMDoc.m_sstat[tid]);
+		}
 
+		do {
+			diff = counts.update(m_beta[tid], m_mu, d_beta);
 			iteration++;
-
 		} while ((diff > m_newtonConverge) && (iteration < m_newtonIter));
+		m_totalBeta[tid] = Utils.sumOfArray(m_beta[tid]);
 
 		System.out.println("iteration\t" + iteration);
 
@@ -415,10 +374,11 @@ public class sparseDCMLDA extends DCMLDA{
 					continue;
 				DCMDoc.m_topics[k] = DCMDoc.m_sstat[k] + m_alpha[k];
 	
-				for (int v = 0; v < vocabulary_size; v++){
-					DCMDoc.m_wordTopic_prob[k][v] = DCMDoc.m_wordTopic_stat[k][v]
-							+ m_mu * m_beta[k][v];
+				for (int n = 0; n < DCMDoc.m_wordTopic_index.length; n++){
+					DCMDoc.m_wordTopic_prob[k][n] = DCMDoc.m_wordTopic_stat[k][n]
+							+ m_mu * m_beta[k][DCMDoc.m_wordTopic_index[n]];
 				}
+				DCMDoc.m_wordTopic_mass[k] = Utils.sumOfArray(DCMDoc.m_wordTopic_stat[k]) + m_mu * m_totalBeta[k];
 			}
 		}
 	}
@@ -427,8 +387,7 @@ public class sparseDCMLDA extends DCMLDA{
 	protected void estThetaInDoc(_Doc d){
 		
 		_Doc4SparseDCMLDA DCMDoc = (_Doc4SparseDCMLDA) d;
-		for (int i = 0; i < number_of_topics; i++)
-			Utils.L1Normalization(DCMDoc.m_wordTopic_prob[i]);
+		DCMDoc.normalizeWordTopicProb();
 		Utils.L1Normalization(d.m_topics);
 
 		DCMDoc.m_topicIndicator_distribution /= DCMDoc.m_MStepIter
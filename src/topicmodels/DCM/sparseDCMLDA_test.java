@@ -241,9 +241,9 @@ public class sparseDCMLDA_test extends sparseDCMLDA{
 			for (int i = 0; i < number_of_topics; i++) {
 				MyPriorityQueue<_RankItem> fVector = new MyPriorityQueue<_RankItem>(
 						k);
-				for (int v = 0; v < vocabulary_size; v++) {
-					String featureName = m_corpus.getFeature(v);
-					double wordProb = DCMDoc.m_wordTopic_prob[i][v];
+				for (int n = 0; n < DCMDoc.m_wordTopic_index.length; n++) {
+					String featureName = m_corpus.getFeature(DCMDoc.m_wordTopic_index[n]);
+					double wordProb = DCMDoc.m_wordTopic_prob[i][n];
 					_RankItem ri = new _RankItem(featureName, wordProb);
 					fVector.add(ri);
 				}
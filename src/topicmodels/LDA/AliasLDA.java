@@ -0,0 +1,215 @@
+package topicmodels.LDA;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import structures._Corpus;
+import structures._Doc;
+import structures._Word;
+
+/**
+ *
+ * Gibbs sampling for LDA with Metropolis-Hastings corrected alias proposals
+ * Li, Aaron Q., et al. "Reducing the sampling complexity of topic models." KDD 2014.
+ * Yuan, Jinhui, et al. "LightLDA: Big topic models on modest computer clusters." WWW 2015.
+ * The conditional p(z=k|.) \propto (n_dk + alpha) * p(w|k) is split into a sparse document bucket n_dk * p(w|k),
+ * which is computed exactly over the k_d topics present in the document, and a dense bucket alpha * p(w|k),
+ * which is drawn from a stale per-word alias table; the bias of the stale table is corrected by MH.
+ * Per-token cost is O(k_d) plus amortized O(1) for the alias table (rebuilt after every K draws).
+ */
+public class AliasLDA extends LDA_Gibbs {
+	protected int m_mhSteps; // number of MH steps per token
+
+	AliasTable[] m_aliasTables; // per-word alias table of alpha * p(w|k), created on demand
+	int[] m_aliasUsage; // remaining draws before the table needs to be rebuilt
+
+	// sparse doc-topic bucket for the current document
+	int[] m_docTopicCount; // n_dk without alpha
+	int[] m_docTopics; // topics with n_dk>0
+	int[] m_docTopicPos; // position of the topic in m_docTopics, -1 if absent
+	int m_docTopicSize;
+
+	public AliasLDA(int number_of_iteration, double converge, double beta,
+			_Corpus c, double lambda,
+			int number_of_topics, double alpha, double burnIn, int lag, int mhSteps) {
+		super(number_of_iteration, converge, beta, c, lambda, number_of_topics, alpha, burnIn, lag);
+		m_mhSteps = mhSteps;
+	}
+
+	public AliasLDA(int number_of_iteration, double converge, double beta,
+			_Corpus c, double lambda,
+			int number_of_topics, double alpha, double burnIn, int lag) {
+		this(number_of_iteration, converge, beta, c, lambda, number_of_topics, alpha, burnIn, lag, 2);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AliasLDA[k:%d, alpha:%.2f, beta:%.2f, MH:%d, trainProportion:%.2f, Gibbs Sampling]", number_of_topics, d_alpha, d_beta, m_mhSteps, 1-m_testWord4PerplexityProportion);
+	}
+
+	@Override
+	protected void initialize_probability(Collection<_Doc> collection) {
+		if (m_topicProbCache.length != number_of_topics)//topic size might be reset by the seed words
+			m_topicProbCache = new double[number_of_topics];
+
+		super.initialize_probability(collection);
+
+		//all the word-topic statistics are reset, so are the alias tables
+		if (m_aliasTables==null || m_docTopicCount.length != number_of_topics) {
+			m_aliasTables = new AliasTable[vocabulary_size];
+			m_aliasUsage = new int[vocabulary_size];
+
+			m_docTopicCount = new int[number_of_topics];
+			m_docTopics = new int[number_of_topics];
+			m_docTopicPos = new int[number_of_topics];
+			Arrays.fill(m_docTopicPos, -1);
+		} else
+			Arrays.fill(m_aliasUsage, 0);
+	}
+
+	@Override
+	protected LDA_Gibbs createSampler(LDA_Gibbs last) {
+		AliasLDA sampler = (AliasLDA)super.createSampler(last);
+		if (last==null) {//each thread keeps its own alias tables built from its local statistics
+			sampler.m_aliasTables = new AliasTable[vocabulary_size];
+			sampler.m_aliasUsage = new int[vocabulary_size];
+			
+			sampler.m_docTopicCount = new int[number_of_topics];
+			sampler.m_docTopics = new int[number_of_topics];
+			sampler.m_docTopicPos = new int[number_of_topics];
+			Arrays.fill(sampler.m_docTopicPos, -1);
+		} else {
+			AliasLDA lastSampler = (AliasLDA)last;
+			sampler.m_aliasTables = lastSampler.m_aliasTables;
+			sampler.m_aliasUsage = lastSampler.m_aliasUsage;
+			
+			sampler.m_docTopicCount = lastSampler.m_docTopicCount;
+			sampler.m_docTopics = lastSampler.m_docTopics;
+			sampler.m_docTopicPos = lastSampler.m_docTopicPos;
+		}
+		sampler.m_docTopicSize = 0;
+		return sampler;
+	}
+	
+	protected AliasTable getAliasTable(int wid) {
+		AliasTable table = m_aliasTables[wid];
+		if (table==null) {
+			table = new AliasTable(number_of_topics);
+			m_aliasTables[wid] = table;
+		}
+
+		if (m_aliasUsage[wid]<=0) {
+			double[] weights = table.getWeights();
+			for(int k=0; k<number_of_topics; k++)
+				weights[k] = d_alpha * wordByTopicProb(k, wid);
+			table.build();
+			m_aliasUsage[wid] = number_of_topics;
+		}
+
+		m_aliasUsage[wid] --;
+		return table;
+	}
+
+	void loadDocTopics(_Doc d) {
+		for(_Word w:d.getWords())
+			addDocTopic(w.getTopic());
+	}
+
+	void clearDocTopics() {
+		for(int i=0; i<m_docTopicSize; i++) {
+			m_docTopicCount[m_docTopics[i]] = 0;
+			m_docTopicPos[m_docTopics[i]] = -1;
+		}
+		m_docTopicSize = 0;
+	}
+
+	void addDocTopic(int tid) {
+		if (m_docTopicCount[tid]++ == 0) {
+			m_docTopicPos[tid] = m_docTopicSize;
+			m_docTopics[m_docTopicSize++] = tid;
+		}
+	}
+
+	void removeDocTopic(int tid) {
+		if (--m_docTopicCount[tid] == 0) {//swap the last topic into its position
+			int pos = m_docTopicPos[tid], last = m_docTopics[--m_docTopicSize];
+			m_docTopics[pos] = last;
+			m_docTopicPos[last] = pos;
+			m_docTopicPos[tid] = -1;
+		}
+	}
+
+	//proposal probability (unnormalized) of topic tid
+	double proposalProb(int tid, int wid, AliasTable table) {
+		return m_docTopicCount[tid] * wordByTopicProb(tid, wid) + table.getWeight(tid);
+	}
+
+	//target probability (unnormalized) of topic tid, the same as in LDA_Gibbs
+	double targetProb(int tid, int wid, _Doc d) {
+		return topicInDocProb(tid, d) * wordByTopicProb(tid, wid);
+	}
+
+	@Override
+	public double calculate_E_step(_Doc d) {
+		d.permutation();
+		loadDocTopics(d);
+
+		double p, docMass, accept;
+		int wid, tid, s, t;
+		AliasTable table;
+		for(_Word w:d.getWords()) {
+			wid = w.getIndex();
+			tid = w.getTopic();
+
+			//remove the word's topic assignment
+			d.m_sstat[tid] --;
+			removeDocTopic(tid);
+			if (m_collectCorpusStats) {
+				word_topic_sstat[tid][wid] --;
+				m_sstat[tid] --;
+			}
+
+			//sparse bucket: exact over the topics in the document
+			docMass = 0;
+			for(int i=0; i<m_docTopicSize; i++) {
+				m_topicProbCache[i] = m_docTopicCount[m_docTopics[i]] * wordByTopicProb(m_docTopics[i], wid);
+				docMass += m_topicProbCache[i];
+			}
+			table = getAliasTable(wid);
+
+			//MH chain starting from the current assignment
+			s = tid;
+			for(int mh=0; mh<m_mhSteps; mh++) {
+				p = (docMass + table.getTotal()) * m_rand.nextDouble();
+				if (p<docMass) {
+					t = 0;
+					while(t<m_docTopicSize-1 && (p-=m_topicProbCache[t])>0)
+						t ++;
+					t = m_docTopics[t];
+				} else
+					t = table.sample(m_rand);
+
+				if (t==s)
+					continue;
+
+				accept = targetProb(t, wid, d) * proposalProb(s, wid, table)
+						/ (targetProb(s, wid, d) * proposalProb(t, wid, table));
+				if (accept>=1 || m_rand.nextDouble()<accept)
+					s = t;
+			}
+			tid = s;
+
+			//assign the selected topic to word
+			w.setTopic(tid);
+			d.m_sstat[tid] ++;
+			addDocTopic(tid);
+			if (m_collectCorpusStats) {
+				word_topic_sstat[tid][wid] ++;
+				m_sstat[tid] ++;
+			}
+		}
+
+		clearDocTopics();
+		return 0;
+	}
+}
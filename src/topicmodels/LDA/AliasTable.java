@@ -0,0 +1,87 @@
+package topicmodels.LDA;
+
+import java.util.Random;
+
+/**
+ * Walker's alias table for drawing from a fixed discrete distribution in O(1),
+ * after an O(K) construction (Vose's variant).
+ * The unnormalized weights used to build the table are kept, since Metropolis-Hastings
+ * correction needs the proposal probability of any outcome.
+ */
+public class AliasTable {
+	double[] m_weights; // unnormalized weights when the table was built
+	double[] m_prob; // probability of keeping the bin
+	int[] m_alias; // the alternative outcome of the bin
+	double m_total; // sum of the weights
+
+	int[] m_small, m_large; // working space for construction
+
+	public AliasTable(int size) {
+		m_weights = new double[size];
+		m_prob = new double[size];
+		m_alias = new int[size];
+		m_small = new int[size];
+		m_large = new int[size];
+	}
+
+	//the caller fills in getWeights() and then builds the table
+	public double[] getWeights() {
+		return m_weights;
+	}
+
+	public double getWeight(int k) {
+		return m_weights[k];
+	}
+
+	public double getTotal() {
+		return m_total;
+	}
+
+	public void build() {
+		int size = m_weights.length, s = 0, l = 0;
+		m_total = 0;
+		for(int k=0; k<size; k++)
+			m_total += m_weights[k];
+
+		if (m_total<=0)
+			return;
+
+		for(int k=0; k<size; k++) {
+			m_prob[k] = m_weights[k] * size / m_total;
+			if (m_prob[k]<1)
+				m_small[s++] = k;
+			else
+				m_large[l++] = k;
+		}
+
+		int less, more;
+		while(s>0 && l>0) {
+			less = m_small[--s];
+			more = m_large[--l];
+
+			m_alias[less] = more;
+			m_prob[more] -= 1 - m_prob[less];
+			if (m_prob[more]<1)
+				m_small[s++] = more;
+			else
+				m_large[l++] = more;
+		}
+
+		//numerical residuals
+		while(l>0) {
+			more = m_large[--l];
+			m_prob[more] = 1;
+			m_alias[more] = more;
+		}
+		while(s>0) {
+			less = m_small[--s];
+			m_prob[less] = 1;
+			m_alias[less] = less;
+		}
+	}
+
+	public int sample(Random rand) {
+		int k = rand.nextInt(m_prob.length);
+		return rand.nextDouble()<m_prob[k] ? k : m_alias[k];
+	}
+}
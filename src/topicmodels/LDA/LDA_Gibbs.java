@@ -2,11 +2,14 @@ package topicmodels.LDA;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Random;
 
+import structures._ChildDoc;
 import structures._Corpus;
 import structures._Doc;
 import structures._Word;
+import topicmodels.multithreads.TopicModel_worker;
 import topicmodels.pLSA.pLSA;
 import utils.Utils;
 
@@ -15,13 +18,94 @@ import utils.Utils;
  * @author hongning
  * Gibbs sampling for Latent Dirichlet Allocation model
  * Griffiths, Thomas L., and Mark Steyvers. "Finding scientific topics."
+ * Parallel sampling follows the approximate distributed LDA (AD-LDA) in
+ * Newman, David, et al. "Distributed algorithms for topic models." JMLR 2009.
  */
-public class LDA_Gibbs extends pLSA {
+public class LDA_Gibbs extends pLSA implements Cloneable {
 	protected Random m_rand;
 	protected int m_burnIn; // discard the samples within burn in period
 	protected int m_lag; // lag in accumulating the samples
 	
 	protected double[] m_topicProbCache;
+	
+	protected int m_samplingCores = 0; // number of threads for parallel sampling, 0 means serial sampling
+	protected int m_syncInterval = 0; // synchronize the corpus statistics after every N documents in each thread, 0 means once per sweep
+	
+	//AD-LDA worker: samples its partition of the corpus with a shallow copy of the model working on local corpus statistics
+	public class LDA_Gibbs_worker extends TopicModel_worker {
+		protected LDA_Gibbs m_sampler;
+		protected double[] m_topicStat; // local copy of m_sstat, turned into the delta after sampling
+		protected int m_start, m_end; // documents to be sampled in current round
+		
+		public LDA_Gibbs_worker(int number_of_topics, int vocabulary_size) {
+			super(number_of_topics, vocabulary_size);
+			m_topicStat = new double[number_of_topics];
+		}
+		
+		public int getCorpusSize() {
+			return m_corpus.size();
+		}
+		
+		public void setRange(int start, int end) {
+			m_start = start;
+			m_end = end;
+		}
+		
+		@Override
+		public void run() {
+			//load the latest corpus statistics
+			for(int k=0; k<number_of_topics; k++)
+				System.arraycopy(word_topic_sstat[k], 0, sstat[k], 0, vocabulary_size);
+			System.arraycopy(m_sstat, 0, m_topicStat, 0, number_of_topics);
+			
+			m_sampler.word_topic_sstat = sstat;
+			m_sampler.m_sstat = m_topicStat;
+			m_sampler.m_collectCorpusStats = m_collectCorpusStats;
+			
+			m_likelihood = 0;
+			m_perplexity = 0;
+			m_totalWords = 0;
+			if (m_type == RunType.RT_EM) {
+				for(int i=m_start; i<m_end; i++)
+					m_likelihood += calculate_E_step(m_corpus.get(i));
+				
+				//only the changes made by this thread are merged back, the global statistics are not touched during sampling
+				for(int k=0; k<number_of_topics; k++) {
+					for(int v=0; v<vocabulary_size; v++)
+						sstat[k][v] -= word_topic_sstat[k][v];
+					m_topicStat[k] -= m_sstat[k];
+				}
+			} else if (m_type == RunType.RT_inference) {
+				double loglikelihood;
+				for(_Doc d:m_corpus) {
+					loglikelihood = inference(d);
+					m_perplexity += loglikelihood; // consistent with the serial branch in Evaluation()
+					m_likelihood += loglikelihood;
+					m_totalWords += d.getTotalDocLength();
+				}
+			}
+		}
+		
+		@Override
+		public double calculate_E_step(_Doc d) {
+			return m_sampler.calculate_E_step(d);
+		}
+		
+		@Override
+		public double inference(_Doc d) {
+			return m_sampler.inference(d);
+		}
+		
+		@Override
+		public double accumluateStats(double[][] word_topic_sstat) {
+			if (m_type == RunType.RT_EM) {
+				for(int k=0; k<number_of_topics; k++)
+					m_sstat[k] += m_topicStat[k];
+			}
+			return super.accumluateStats(word_topic_sstat);
+		}
+	}
+	
 	//all computation here is not in log-space!!!
 	public LDA_Gibbs(int number_of_iteration, double converge, double beta,
 			_Corpus c, double lambda, 
@@ -34,6 +118,103 @@ public class LDA_Gibbs extends pLSA {
 		m_topicProbCache = new double[number_of_topics];
 	}
 	
+	//sample the documents in parallel threads, and synchronize the corpus statistics after every syncInterval documents (0 means once per sweep)
+	public void setParallelSampling(int cores, int syncInterval) {
+		m_samplingCores = cores;
+		m_syncInterval = syncInterval;
+		m_multithread = cores>1;
+		m_workers = null;
+	}
+	
+	//a shallow copy of the model for sampling in a thread, the subclasses should allocate their own per-token buffers here
+	protected LDA_Gibbs createSampler(LDA_Gibbs last) {
+		LDA_Gibbs sampler;
+		try {
+			sampler = (LDA_Gibbs)clone();
+		} catch (CloneNotSupportedException e) {
+			e.printStackTrace();
+			return null;
+		}
+		
+		sampler.m_multithread = false;
+		sampler.m_samplingCores = 0;
+		sampler.m_workers = null;
+		sampler.m_workerPool = null;
+		if (last==null) {
+			sampler.m_rand = new Random(m_rand.nextLong());
+			sampler.m_topicProbCache = new double[m_topicProbCache.length];
+		} else {
+			sampler.m_rand = last.m_rand;
+			sampler.m_topicProbCache = last.m_topicProbCache;
+		}
+		return sampler;
+	}
+	
+	//the samplers are refreshed before each sweep since model parameters might have been re-allocated
+	protected void refreshSamplers() {
+		if (m_workers==null) {
+			m_workers = new LDA_Gibbs_worker[m_samplingCores];
+			for(int i=0; i<m_samplingCores; i++)
+				m_workers[i] = new LDA_Gibbs_worker(number_of_topics, vocabulary_size);
+		}
+		
+		for(int i=0; i<m_workers.length; i++) {
+			LDA_Gibbs_worker worker = (LDA_Gibbs_worker)m_workers[i];
+			worker.m_sampler = createSampler(worker.m_sampler);
+		}
+	}
+	
+	//a child document has to be sampled in the same thread as its parent, since it reads and writes the parent's statistics
+	protected int partitionTrainSet() {
+		IdentityHashMap<_Doc, Integer> owners = new IdentityHashMap<_Doc, Integer>();
+		_Doc root;
+		Integer owner;
+		int maxSize = 0;
+		
+		for(int i=0; i<m_workers.length; i++)
+			m_workers[i].clearCorpus();
+		
+		for(_Doc d:m_trainSet) {
+			root = (d instanceof _ChildDoc && ((_ChildDoc)d).m_parentDoc!=null) ? ((_ChildDoc)d).m_parentDoc : d;
+			owner = owners.get(root);
+			if (owner==null) {
+				owner = owners.size() % m_workers.length;
+				owners.put(root, owner);
+			}
+			
+			LDA_Gibbs_worker worker = (LDA_Gibbs_worker)m_workers[owner];
+			worker.addDoc(d);
+			maxSize = Math.max(maxSize, worker.getCorpusSize());
+		}
+		return maxSize;
+	}
+	
+	@Override
+	protected double multithread_E_step() {
+		if (m_samplingCores<=1)
+			return super.multithread_E_step();
+		
+		refreshSamplers();
+		int maxSize = partitionTrainSet(), interval = m_syncInterval>0 ? m_syncInterval : maxSize;
+		
+		double likelihood = 0;
+		for(int start=0; start<maxSize; start+=interval) {
+			for(int i=0; i<m_workers.length; i++) {
+				LDA_Gibbs_worker worker = (LDA_Gibbs_worker)m_workers[i];
+				worker.setRange(Math.min(start, worker.getCorpusSize()), Math.min(start+interval, worker.getCorpusSize()));
+			}
+			likelihood += super.multithread_E_step();
+		}
+		return likelihood;
+	}
+	
+	@Override
+	protected double multithread_inference() {
+		if (m_samplingCores>1)
+			refreshSamplers();
+		return super.multithread_inference();
+	}
+	
 	@Override
 	protected void createSpace() {
 		super.createSpace();
@@ -111,6 +111,7 @@ public class LDA_Gibbs_test extends LDA_Gibbs {
 		double totalWords = 0.0;
 		if (m_multithread) {
 			multithread_inference();
+			close();
 			System.out.println("In thread");
 			for (TopicModelWorker worker : m_workers) {
 				sumLikelihood += worker.getLogLikelihood();
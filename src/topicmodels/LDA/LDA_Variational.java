@@ -11,6 +11,7 @@ import java.util.*;
 
 import structures.*;
 import topicmodels.pLSA.pLSA;
+import utils.Numerics;
 import utils.Utils;
 
 /**
@@ -95,9 +96,9 @@ public class LDA_Variational extends pLSA {
 		}
 		
 		//if we need to use maximum likelihood to estimate alpha
-		double diGammaSum = Utils.digamma(Utils.sumOfArray(d.m_sstat));
+		double diGammaSum = Numerics.digamma(Utils.sumOfArray(d.m_sstat));
 		for(int i=0; i<number_of_topics; i++)
-			m_alphaStat[i] += Utils.digamma(d.m_sstat[i]) - diGammaSum;
+			m_alphaStat[i] += Numerics.digamma(d.m_sstat[i]) - diGammaSum;
 	}
 
 	@Override
@@ -111,21 +112,21 @@ public class LDA_Variational extends pLSA {
 		if (m_varConverge>0)
 			last = calculate_log_likelihood(d);
 		
-		double current = last, converge, logSum, v;
+		double current = last, converge, v;
+		double[] diGamma = new double[number_of_topics];
 		int iter = 0, wid;
 		_SparseFeature[] fv = d.getSparse();
 		
 		do {
 			//variational inference for p(z|w,\phi)
+			Numerics.digamma(d.m_sstat, diGamma, number_of_topics);//the same for all the words
 			for(int n=0; n<fv.length; n++) {
 				wid = fv[n].getIndex();
 				v = fv[n].getValue();
 				for(int i=0; i<number_of_topics; i++)
-					d.m_phi[n][i] = topic_term_probabilty[i][wid] + Utils.digamma(d.m_sstat[i]);
+					d.m_phi[n][i] = topic_term_probabilty[i][wid] + diGamma[i];
 				
-				logSum = Utils.logSum(d.m_phi[n]);
-				for(int i=0; i<number_of_topics; i++)
-					d.m_phi[n][i] = Math.exp(d.m_phi[n][i] - logSum);
+				Numerics.expNormalize(d.m_phi[n]);
 			}
 			
 			//variational inference for p(\theta|\gamma)
@@ -169,13 +170,13 @@ public class LDA_Variational extends pLSA {
 		double alphaSum, diAlphaSum, z, c, c1, c2, diff, deltaAlpha;
 		do {
 			alphaSum = Utils.sumOfArray(m_alpha);
-			diAlphaSum = Utils.digamma(alphaSum);
-			z = docSize * Utils.trigamma(alphaSum);
+			diAlphaSum = Numerics.digamma(alphaSum);
+			z = docSize * Numerics.trigamma(alphaSum);
 			
 			c1 = 0; c2 = 0;
 			for(int k=0; k<number_of_topics; k++) {
-				m_alphaG[k] = docSize * (diAlphaSum - Utils.digamma(m_alpha[k])) + m_alphaStat[k];
-				m_alphaH[k] = -docSize * Utils.trigamma(m_alpha[k]);
+				m_alphaG[k] = docSize * (diAlphaSum - Numerics.digamma(m_alpha[k])) + m_alphaStat[k];
+				m_alphaH[k] = -docSize * Numerics.trigamma(m_alpha[k]);
 				
 				c1 +=  m_alphaG[k] / m_alphaH[k];
 				c2 += 1.0 / m_alphaH[k];
@@ -210,11 +211,11 @@ public class LDA_Variational extends pLSA {
 	public double calculate_log_likelihood(_Doc d) {
 		int wid;
 		double[] diGamma = new double[this.number_of_topics];
-		double logLikelihood = Utils.lgamma(Utils.sumOfArray(m_alpha)) - Utils.lgamma(Utils.sumOfArray(d.m_sstat)), v;
-		double diGammaSum = Utils.digamma(Utils.sumOfArray(d.m_sstat));
+		double logLikelihood = Numerics.lgamma(Utils.sumOfArray(m_alpha)) - Numerics.lgamma(Utils.sumOfArray(d.m_sstat)), v;
+		double diGammaSum = Numerics.digamma(Utils.sumOfArray(d.m_sstat));
 		for(int i=0; i<number_of_topics; i++) {
-			diGamma[i] = Utils.digamma(d.m_sstat[i]) - diGammaSum;
-			logLikelihood += Utils.lgamma(d.m_sstat[i]) - Utils.lgamma(m_alpha[i])
+			diGamma[i] = Numerics.digamma(d.m_sstat[i]) - diGammaSum;
+			logLikelihood += Numerics.lgamma(d.m_sstat[i]) - Numerics.lgamma(m_alpha[i])
 					+ (m_alpha[i] - d.m_sstat[i]) * diGamma[i];
 		}
 		
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Callable;
 
 import structures._Corpus;
 import structures._Doc;
@@ -11,7 +12,9 @@ import topicmodels.markovmodel.HTSM;
 import topicmodels.multithreads.TopicModelWorker;
 import topicmodels.multithreads.TopicModel_worker;
 import topicmodels.multithreads.TopicModel_worker.RunType;
+import utils.ExperimentRunner;
 import utils.Utils;
+import utils.WorkerPool;
 
 public abstract class TopicModel {
 	protected int number_of_topics;
@@ -36,8 +39,8 @@ public abstract class TopicModel {
 	protected boolean m_collectCorpusStats; // if we will collect corpus-level statistics (for efficiency purpose)
 	
 	protected boolean m_multithread = false; // by default we do not use multi-thread mode
-	protected Thread[] m_threadpool = null;
 	protected TopicModelWorker[] m_workers = null;
+	protected WorkerPool m_workerPool = null; // long-lived threads shared by all the multi-thread phases across EM iterations
 	
 	protected double m_testWord4PerplexityProportion;
 	
@@ -183,28 +186,71 @@ public abstract class TopicModel {
 	}
 	
 
-	protected double multithread_E_step() {
-		for(int i=0; i<m_workers.length; i++) {
-			m_workers[i].setType(RunType.RT_EM);
-			m_threadpool[i] = new Thread(m_workers[i]);
-			m_threadpool[i].start();
+	//run one round of the workers in the persistent pool, the pool is only (re-)created when more threads are needed
+	protected void runWorkers(Runnable[] workers) {
+		if (m_workerPool==null || m_workerPool.size()<workers.length) {
+			if (m_workerPool!=null)
+				m_workerPool.shutdown();
+			m_workerPool = new WorkerPool(workers.length);
 		}
-		
-		//wait till all finished
-		for(Thread thread:m_threadpool){
-			try {
-				thread.join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+		m_workerPool.execute(workers);
+	}
+	
+	//release the threads of the worker pool at the end of EM or inference, runWorkers() creates a new pool if needed
+	public void close() {
+		if (m_workerPool!=null) {
+			m_workerPool.shutdown();
+			m_workerPool = null;
 		}
+	}
+	
+	protected double multithread_E_step() {
+		for(int i=0; i<m_workers.length; i++)
+			m_workers[i].setType(RunType.RT_EM);
+		runWorkers(m_workers);
 		
 		double likelihood = 0;
-		for(TopicModelWorker worker:m_workers)
-			likelihood += worker.accumluateStats(word_topic_sstat);
+		for(TopicModelWorker worker:m_workers) {
+			if (worker instanceof TopicModel_worker)
+				likelihood += worker.accumluateStats(null);// word-topic statistics are reduced in parallel below
+			else
+				likelihood += worker.accumluateStats(word_topic_sstat);
+		}
+		reduceWordTopicStats();
 		return likelihood;
 	}
 	
+	//sum up the workers' word-topic statistics into word_topic_sstat, each thread reduces one block of the vocabulary
+	protected void reduceWordTopicStats() {
+		final ArrayList<double[][]> sstats = new ArrayList<double[][]>();
+		for(TopicModelWorker worker:m_workers) {
+			if (worker instanceof TopicModel_worker)
+				sstats.add(((TopicModel_worker)worker).getSstat());
+		}
+		if (sstats.isEmpty())
+			return;
+		
+		int blocks = m_workers.length;
+		final int blockSize = (vocabulary_size + blocks - 1) / blocks;
+		Runnable[] reducers = new Runnable[blocks];
+		for(int b=0; b<blocks; b++) {
+			final int start = b*blockSize, end = Math.min(vocabulary_size, start+blockSize);
+			reducers[b] = new Runnable() {
+				@Override
+				public void run() {
+					for(double[][] sstat:sstats) {
+						for(int k=0; k<sstat.length && k<word_topic_sstat.length; k++) {
+							double[] src = sstat[k], dst = word_topic_sstat[k];
+							for(int v=start; v<end && v<src.length; v++)
+								dst[v] += src[v];
+						}
+					}
+				}
+			};
+		}
+		runWorkers(reducers);
+	}
+	
 	protected double multithread_inference() {
 		//clear up for adding new testing documents
 		for(int i=0; i<m_workers.length; i++) {
@@ -226,20 +272,8 @@ public abstract class TopicModel {
 				workerID++;
 			}
 		}
-			
-		for(int i=0; i<m_workers.length; i++) {
-			m_threadpool[i] = new Thread(m_workers[i]);
-			m_threadpool[i].start();
-		}
 		
-		//wait till all finished
-		for(Thread thread:m_threadpool){
-			try {
-				thread.join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
+		runWorkers(m_workers);
 		return 0;
 	}
 
@@ -298,6 +332,7 @@ public abstract class TopicModel {
 		} while (++i<this.number_of_iteration);
 		
 		finalEst();
+		close();
 		
 		long endtime = System.currentTimeMillis() - starttime;
 		System.out.format("[Info]Likelihood %.3f after step %s converge to %f after %d seconds...\n", current, i, delta, endtime/1000);
@@ -310,6 +345,7 @@ public abstract class TopicModel {
 		double totalWords = 0.0;
 		if (m_multithread) {
 			multithread_inference();
+			close();
 			System.out.println("[Info]Start evaluation in thread...");
 			for(TopicModelWorker worker:m_workers) {
 				sumLikelihood += worker.getLogLikelihood();
@@ -431,8 +467,7 @@ public abstract class TopicModel {
                 System.out.format("====================\n[Info]Fold No. %d: train size = %d, test size = %d....\n", i, m_trainSet.size(), m_testSet.size());
 
                 long start = System.currentTimeMillis();
-				EM();
-				perf[i] = Evaluation();
+				perf[i] = runFold();
                 System.out.format("[Info]%s Train/Test finished in %.2f seconds...\n", this.toString(), (System.currentTimeMillis()-start)/1000.0);
 				m_trainSet.clear();
 				m_testSet.clear();
@@ -524,6 +559,99 @@ public abstract class TopicModel {
 		System.out.format("[Stat]Perplexity %.3f+/-%.3f\n", mean, var);
 	}
 
+	//train on m_trainSet and return the perplexity on m_testSet
+	protected double runFold() {
+		EM();
+		return Evaluation();
+	}
+	
+	//train on the given documents of m_corpus and return the perplexity on the given test documents
+	public double runFold(ArrayList<_Doc> trainSet, ArrayList<_Doc> testSet) {
+		m_trainSet = trainSet;
+		m_testSet = testSet;
+		return runFold();
+	}
+	
+	//create a new topic model under the given hyper-parameter setting over the given corpus
+	public interface Factory {
+		TopicModel create(int setting, _Corpus corpus);
+	}
+	
+	static class FoldResult {
+		String m_model; // the trained model is not kept
+		double m_perplexity;
+		double m_time; // in seconds
+		
+		FoldResult(String model, double perplexity, double time) {
+			m_model = model;
+			m_perplexity = perplexity;
+			m_time = time;
+		}
+	}
+	
+	/**
+	 * Random k-fold cross validation of a grid of hyper-parameter settings, where every fold of every setting is trained
+	 * by a new topic model from the factory and at most parallelism of them are trained at the same time.
+	 * Each of them works on a corpus of its own (see _Corpus.forkTopicState()), which shares the features of the documents
+	 * but keeps their topic state apart, so the copies only live while the fold is running.
+	 * The perplexities are reported in the order of settings and folds, and returned as [setting][fold];
+	 * if any fold fails, the failure is thrown once all the other folds are done.
+	 */
+	static public double[][] crossValidation(final int k, final _Corpus c, final Factory factory, int settings, int parallelism) {
+		c.shuffle(k);
+		final int[] masks = c.getMasks();
+		c.getCollection(); // the documents are decoded before being copied by the folds
+		
+		ExperimentRunner<FoldResult> runner = new ExperimentRunner<FoldResult>(parallelism);
+		for(int s=0; s<settings; s++) {
+			for (int i = 0; i < k; i++) {
+				final int setting = s, fold = i;
+				runner.submit(new Callable<FoldResult>() {
+					@Override
+					public FoldResult call() {
+						long start = System.currentTimeMillis();
+						_Corpus corpus = c.forkTopicState();
+						ArrayList<_Doc> docs = corpus.getCollection(), trainSet = new ArrayList<_Doc>(), testSet = new ArrayList<_Doc>();
+						for (int j = 0; j < masks.length; j++) {
+							if( masks[j]==fold ) 
+								testSet.add(docs.get(j));
+							else 
+								trainSet.add(docs.get(j));
+						}
+						
+						TopicModel model = factory.create(setting, corpus);
+						double perplexity;
+						try {
+							perplexity = model.runFold(trainSet, testSet);
+						} finally {
+							model.close(); // release the model's worker threads
+						}
+						return new FoldResult(model.toString(), perplexity, (System.currentTimeMillis()-start)/1000.0);
+					}
+				});
+			}
+		}
+		ArrayList<FoldResult> results = runner.run();
+		
+		double[][] perf = new double[settings][k];
+		for(int s=0; s<settings; s++) {
+			String model = null;
+			for (int i = 0; i < k; i++) {
+				FoldResult result = results.get(s*k + i);
+				model = result.m_model;
+				perf[s][i] = result.m_perplexity;
+				System.out.format("[Info]%s Fold No. %d finished in %.2f seconds with perplexity %.3f...\n", model, i, result.m_time, perf[s][i]);
+			}
+			
+			double mean = Utils.sumOfArray(perf[s])/k, var = 0;
+			for(int i=0; i<k; i++)
+				var += (perf[s][i]-mean) * (perf[s][i]-mean);
+			var = Math.sqrt(var/k);
+			System.out.format("[Stat]%s Perplexity %.3f+/-%.3f\n", model, mean, var);
+		}
+		return perf;
+	}
+	
     public double[] oneFoldValidation(){
         m_trainSet = new ArrayList<_Doc>();
         m_testSet = new ArrayList<_Doc>();
@@ -551,6 +679,7 @@ public abstract class TopicModel {
         double totalWords = 0.0;
         if (m_multithread) {
             multithread_inference();
+            close();
             System.out.println("[Info]Start evaluation in thread");
             for(TopicModelWorker worker:m_workers) {
                 sumLikelihood += worker.getLogLikelihood();
@@ -15,6 +15,7 @@ import structures._RankItem;
 import structures._SparseFeature;
 import structures._Stn;
 import structures._Word;
+import topicmodels.LDA.LDA_Gibbs;
 import utils.Utils;
 
 public class ACCTM extends corrLDA_Gibbs {
@@ -31,6 +32,13 @@ public class ACCTM extends corrLDA_Gibbs {
 		m_kAlpha = d_alpha * number_of_topics;
 	}
 	
+	@Override
+	protected LDA_Gibbs createSampler(LDA_Gibbs last) {
+		ACCTM sampler = (ACCTM)super.createSampler(last);
+		sampler.m_topicProbCache = last==null ? new double[m_topicProbCache.length] : ((ACCTM)last).m_topicProbCache;
+		return sampler;
+	}
+	
 	@Override
 	public String toString(){
 		return String.format("ACCTM [k:%d, alpha:%.2f, beta:%.2f, training proportion:%.2f, Gibbs Sampling]",
@@ -15,6 +15,7 @@ import structures._ParentDoc4DCM;
 import structures._RankItem;
 import structures._Stn;
 import structures._Word;
+import topicmodels.DCM.WordTopicCounts;
 import utils.Utils;
 
 public class DCMCorrLDA extends DCMLDA4AC {
@@ -65,7 +66,7 @@ public class DCMCorrLDA extends DCMLDA4AC {
 						int wid = w.getIndex();
 						int tid = w.getTopic();
 						
-						pDoc.m_wordTopic_stat[tid][wid] ++;
+						pDoc.m_wordTopic_stat[tid][pDoc.getWordTopicColumn(wid)] ++;
 						pDoc.m_topic_stat[tid]++;
 					}
 					computeMu4Doc(cDoc);
@@ -106,20 +107,21 @@ public class DCMCorrLDA extends DCMLDA4AC {
 	
 	protected void sampleInParentDoc(_Doc d){
 		_ParentDoc4DCM pDoc = (_ParentDoc4DCM) d;
-		int wid, tid;
+		int wid, tid, n;
 		double normalizedProb;
 		
 		for (_Word w : pDoc.getWords()) {
 			tid = w.getTopic();
 			wid = w.getIndex();
+			n = pDoc.getWordTopicColumn(wid);
 			
 			pDoc.m_sstat[tid]--;
 			pDoc.m_topic_stat[tid]--;
-			pDoc.m_wordTopic_stat[tid][wid]--;
+			pDoc.m_wordTopic_stat[tid][n]--;
 			
 			normalizedProb = 0;
 			for(tid=0; tid<number_of_topics; tid++){
-				double pWordTopic = parentWordByTopicProb(tid, wid, pDoc);
+				double pWordTopic = parentWordByTopicProb(tid, wid, n, pDoc);
 				double pTopicPDoc = parentTopicInDocProb(tid, pDoc);
 				double pTopicCDoc = parentChildInfluenceProb(tid, pDoc);
 				
@@ -140,13 +142,13 @@ public class DCMCorrLDA extends DCMLDA4AC {
 			w.setTopic(tid);
 			pDoc.m_sstat[tid]++;
 			pDoc.m_topic_stat[tid]++;
-			pDoc.m_wordTopic_stat[tid][wid]++;
+			pDoc.m_wordTopic_stat[tid][n]++;
 		}
 		
 	}
 	
 	protected void sampleInChildDoc(_ChildDoc d){
-		int wid, tid;
+		int wid, tid, n;
 		double normalizedProb;
 		
 		_ParentDoc4DCM pDoc = (_ParentDoc4DCM) d.m_parentDoc;
@@ -154,14 +156,15 @@ public class DCMCorrLDA extends DCMLDA4AC {
 		for(_Word w:d.getWords()){
 			tid = w.getTopic();
 			wid = w.getIndex();
+			n = pDoc.getWordTopicColumn(wid);
 			
-			pDoc.m_wordTopic_stat[tid][wid]--;
+			pDoc.m_wordTopic_stat[tid][n]--;
 			pDoc.m_topic_stat[tid] --;
 			d.m_sstat[tid] --;
 
 			normalizedProb = 0;
 			for (tid = 0; tid < number_of_topics; tid++) {
-				double pWordTopic = childWordByTopicProb(tid, wid, pDoc);
+				double pWordTopic = childWordByTopicProb(tid, wid, n, pDoc);
 				double pTopic = childTopicInDocProb(tid, d, pDoc);
 				
 				m_topicProbCache[tid] = pWordTopic * pTopic;
@@ -181,13 +184,18 @@ public class DCMCorrLDA extends DCMLDA4AC {
 			w.setTopic(tid);
 			d.m_sstat[tid]++;
 			pDoc.m_topic_stat[tid]++;
-			pDoc.m_wordTopic_stat[tid][wid]++;
+			pDoc.m_wordTopic_stat[tid][n]++;
 		}
 	}
 
 	protected double parentWordByTopicProb(int tid, int wid, _ParentDoc4DCM d) {
+		return parentWordByTopicProb(tid, wid, d.getWordTopicColumn(wid), d);
+	}
+	
+	//n is the column of word wid in the document's statistics
+	protected double parentWordByTopicProb(int tid, int wid, int n, _ParentDoc4DCM d) {
 		double prob = 0;
-		prob = (d.m_wordTopic_stat[tid][wid] + m_beta[tid][wid])
+		prob = ((n<0 ? 0 : d.m_wordTopic_stat[tid][n]) + m_beta[tid][wid])
 				/ (d.m_topic_stat[tid] + m_totalBeta[tid]);
 		
 		return prob;
@@ -233,8 +241,12 @@ public class DCMCorrLDA extends DCMLDA4AC {
 	}
 	
 	protected double childWordByTopicProb(int tid, int wid, _ParentDoc4DCM d) {
+		return childWordByTopicProb(tid, wid, d.getWordTopicColumn(wid), d);
+	}
+	
+	protected double childWordByTopicProb(int tid, int wid, int n, _ParentDoc4DCM d) {
 		double prob = 0;
-		prob = (d.m_wordTopic_stat[tid][wid] + m_beta[tid][wid])
+		prob = ((n<0 ? 0 : d.m_wordTopic_stat[tid][n]) + m_beta[tid][wid])
 				/ (d.m_topic_stat[tid] + m_totalBeta[tid]);
 		return prob;
 	}
@@ -288,9 +300,9 @@ public class DCMCorrLDA extends DCMLDA4AC {
 					
 					if(pDoc.m_sstat[k] == 0)
 						continue;
-					for(int v=0; v<vocabulary_size; v++){
-						tempProb = pDoc.m_wordTopic_stat[k][v]/pDoc.m_topic_stat[k];
-						topic_term_probabilty[k][v] += tempProb;
+					for(int n=0; n<pDoc.m_wordTopic_index.length; n++){
+						tempProb = pDoc.m_wordTopic_stat[k][n]/pDoc.m_topic_stat[k];
+						topic_term_probabilty[k][pDoc.m_wordTopic_index[n]] += tempProb;
 					}
 				}
 				parentDocNum += 1;
@@ -438,61 +450,23 @@ public class DCMCorrLDA extends DCMLDA4AC {
 	
 	protected void updateBeta(int tid){
 		double diff = 0;
-		double smoothingBeta = 0.1;
 		
 		int iteration = 0;
-		do{
-			diff = 0;
-			
-			double deltaBeta = 0;
-			double wordNum4Tid = 0;
-			
-			double[] wordNum4Tid4V = new double[vocabulary_size];
-			double totalBetaDenominator = 0;
-			double[] totalBetaNumerator = new double[vocabulary_size];
-			
-			Arrays.fill(totalBetaNumerator, 0);
-			Arrays.fill(wordNum4Tid4V, 0);
-			
-			m_totalBeta[tid] = Utils.sumOfArray(m_beta[tid]);
-			double digBeta4Tid = Utils.digamma(m_totalBeta[tid]);
-			
-			for(_Doc d:m_trainSet){
-				if(d instanceof _ParentDoc){
-					_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d;
-					totalBetaDenominator += Utils.digamma(m_totalBeta[tid]+pDoc.m_topic_stat[tid])-digBeta4Tid;
-					for(int v=0; v<vocabulary_size; v++){
-						wordNum4Tid += pDoc.m_wordTopic_stat[tid][v];
-						wordNum4Tid4V[v] += pDoc.m_wordTopic_stat[tid][v];
-						
-						totalBetaNumerator[v] += Utils.digamma(m_beta[tid][v]+pDoc.m_wordTopic_stat[tid][v]);
-						totalBetaNumerator[v] -= Utils.digamma(m_beta[tid][v]);
-					}
-				}
-				
-			}
-			
-			for(int v=0; v<vocabulary_size; v++){
-				if(wordNum4Tid == 0)
-					break;
-				if(wordNum4Tid4V[v] == 0){
-					deltaBeta = 0;
-				}else{
-					deltaBeta = totalBetaNumerator[v]/totalBetaDenominator;
-				}
-					
-				double newBeta = m_beta[tid][v]*deltaBeta+d_beta;
-				double t_diff = Math.abs(m_beta[tid][v]-newBeta);
-				if(t_diff>diff)
-					diff = t_diff;
-				
-				m_beta[tid][v] = newBeta;
+		WordTopicCounts counts = new WordTopicCounts(vocabulary_size);
+		for(_Doc d:m_trainSet){
+			if(d instanceof _ParentDoc){
+				_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d;
+				counts.add(pDoc.m_wordTopic_index, pDoc.m_wordTopic_stat[tid], pDoc.m_topic_stat[tid]);
 			}
-			
+		}
+		
+		do{
+			diff = counts.update(m_beta[tid], 1, d_beta);
 			iteration ++;
 			
 			// System.out.println("beta iteration\t"+iteration);
 		}while(diff > m_newtonConverge);
+		m_totalBeta[tid] = Utils.sumOfArray(m_beta[tid]);
 		
 		// System.out.println("beta iteration\t" + iteration);
 	}
@@ -512,9 +486,10 @@ public class DCMCorrLDA extends DCMLDA4AC {
 			_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d;
 			for(int k=0; k<number_of_topics; k++){
 				pDoc.m_topics[k] += pDoc.m_sstat[k]+m_alpha[k];
-				for(int v=0; v<vocabulary_size; v++){
-					pDoc.m_wordTopic_prob[k][v] += pDoc.m_wordTopic_stat[k][v]+m_beta[k][v];
+				for(int n=0; n<pDoc.m_wordTopic_index.length; n++){
+					pDoc.m_wordTopic_prob[k][n] += pDoc.m_wordTopic_stat[k][n]+m_beta[k][pDoc.m_wordTopic_index[n]];
 				}
+				pDoc.m_wordTopic_mass[k] += Utils.sumOfArray(pDoc.m_wordTopic_stat[k])+m_totalBeta[k];
 			}
 		}else if(d instanceof _ChildDoc){
 			_ChildDoc cDoc = (_ChildDoc)d;
@@ -575,11 +550,12 @@ public class DCMCorrLDA extends DCMLDA4AC {
 		docLogLikelihood -= Utils.lgamma(parentDocLength+m_totalAlpha);
 		
 		for(int k=0; k<number_of_topics; k++){
-			for(int v=0; v<vocabulary_size; v++){
-				double term = Utils.lgamma(d.m_wordTopic_stat[k][v]+m_beta[k][v]);
+			for(int n=0; n<d.m_wordTopic_index.length; n++){
+				double beta = m_beta[k][d.m_wordTopic_index[n]];
+				double term = Utils.lgamma(d.m_wordTopic_stat[k][n]+beta);
 				docLogLikelihood += term;
 				
-				term = Utils.lgamma(m_beta[k][v]);
+				term = Utils.lgamma(beta);
 				docLogLikelihood -= term;
 			}
 			
@@ -603,10 +579,8 @@ public class DCMCorrLDA extends DCMLDA4AC {
 	
 	protected void estThetaInDoc(_Doc d) {
 
-		if (d instanceof _ParentDoc4DCM) {
-			for (int i = 0; i < number_of_topics; i++)
-				Utils.L1Normalization(((_ParentDoc4DCM) d).m_wordTopic_prob[i]);
-		}
+		if (d instanceof _ParentDoc4DCM)
+			((_ParentDoc4DCM) d).normalizeWordTopicProb();
 		Utils.L1Normalization(d.m_topics);
 
 	}
@@ -629,7 +603,7 @@ public class DCMCorrLDA extends DCMLDA4AC {
 				int wid = w.getIndex();
 				int tid = w.getTopic();
 				
-				pDoc.m_wordTopic_stat[tid][wid] ++;
+				pDoc.m_wordTopic_stat[tid][pDoc.getWordTopicColumn(wid)] ++;
 				pDoc.m_topic_stat[tid] ++;
 			}
 			
@@ -647,11 +621,11 @@ public class DCMCorrLDA extends DCMLDA4AC {
 		_ParentDoc4DCM pDoc = (_ParentDoc4DCM)cDoc.m_parentDoc;
 		
 		for(_Word w:cDoc.getTestWords()){
-			int wid= w.getIndex();
+			int n = pDoc.getWordTopicColumn(w.getIndex());
 			
 			double wordLogLikelihood = 0;
 			for(int k=0; k<number_of_topics; k++){
-				double wordPerTopicLikelihood = cDoc.m_topics[k]*pDoc.m_wordTopic_prob[k][wid];
+				double wordPerTopicLikelihood = cDoc.m_topics[k]*pDoc.m_wordTopic_prob[k][n];
 				wordLogLikelihood += wordPerTopicLikelihood;
 			}
 			
@@ -9,6 +9,7 @@ import structures._Corpus;
 import structures._Doc;
 import structures._ParentDoc;
 import structures._ParentDoc4DCM;
+import topicmodels.DCM.WordTopicCounts;
 import topicmodels.multithreads.updateParam_worker;
 import topicmodels.multithreads.updateParam_worker.RunType;
 import utils.Utils;
@@ -65,56 +66,17 @@ public class DCMCorrLDA_multi extends DCMCorrLDA{
 			System.out.println("topic optimization\t"+tid);
 			double diff = 0;
 			int iteration = 0;
-			double smoothingBeta = 0.1;
-			double totalBeta = 0;
 			
-			do{
-				diff = 0;
-				
-				double deltaBeta = 0;
-				double wordNum = 0;
-				
-				double[] wordNum4V = new double[vocabulary_size];
-				double totalBetaDenominator = 0;
-				double[] totalBetaNumerator = new double[vocabulary_size];
-				
-				Arrays.fill(totalBetaNumerator, 0);
-				Arrays.fill(wordNum4V, 0);
-				
-				totalBeta = Utils.sumOfArray(param);
-				double digBeta = Utils.digamma(totalBeta);
-				
-				for(_Doc d:m_trainSet){
-					if(d instanceof _ParentDoc){
-						_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d;
-						totalBetaDenominator += Utils.digamma(totalBeta+pDoc.m_topic_stat[tid])-digBeta;
-						for(int v=0; v<vocabulary_size; v++){
-							wordNum += pDoc.m_wordTopic_stat[tid][v];
-							wordNum4V[v] += pDoc.m_wordTopic_stat[tid][v];
-							
-							totalBetaNumerator[v] += Utils.digamma(param[v]+pDoc.m_wordTopic_stat[tid][v]);
-							totalBetaNumerator[v] -= Utils.digamma(param[v]);
-						}
-					}
-					
-				}
-				
-				for(int v=0; v<vocabulary_size; v++){
-					if(wordNum == 0)
-						break;
-					if(wordNum4V[v] == 0){
-						deltaBeta = 0;
-					}else{
-						deltaBeta = totalBetaNumerator[v]/totalBetaDenominator;
-					}
-						
-					double newBeta = param[v]*deltaBeta+d_beta;
-					double t_diff = Math.abs(param[v]-newBeta);
-					if(t_diff>diff)
-						diff = t_diff;
-					
-					param[v] = newBeta;
+			WordTopicCounts counts = new WordTopicCounts(vocabulary_size);
+			for(_Doc d:m_trainSet){
+				if(d instanceof _ParentDoc){
+					_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d;
+					counts.add(pDoc.m_wordTopic_index, pDoc.m_wordTopic_stat[tid], pDoc.m_topic_stat[tid]);
 				}
+			}
+			
+			do{
+				diff = counts.update(param, 1, d_beta);
 				
 				iteration ++;
 				if(iteration > m_newtonIter)
@@ -148,7 +110,6 @@ public class DCMCorrLDA_multi extends DCMCorrLDA{
 		
 		int cores = Runtime.getRuntime().availableProcessors();
 		
-		m_threadpool = new Thread[cores];
 		m_updateParamWorkers = new DCMCorrLDA_MultiWorker[cores];
 		
 		for(int i=0; i<cores; i++)
@@ -162,19 +123,9 @@ public class DCMCorrLDA_multi extends DCMCorrLDA{
 	}
 	
 	protected void updateBeta(){
-		for(int i=0; i<m_updateParamWorkers.length; i++){
+		for(int i=0; i<m_updateParamWorkers.length; i++)
 			m_updateParamWorkers[i].setType(RunType.RT_EM);
-			m_threadpool[i] = new Thread(m_updateParamWorkers[i]);
-			m_threadpool[i].start();
-		}
-		
-		for(Thread thread:m_threadpool){
-			try{
-				thread.join();
-			}catch(InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
+		runWorkers(m_updateParamWorkers);
 	}
 	
 	protected void updateParameter(int iter, File weightIterFolder) {
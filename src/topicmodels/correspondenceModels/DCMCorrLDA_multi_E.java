@@ -37,21 +37,22 @@ public class DCMCorrLDA_multi_E extends DCMCorrLDA{
 		
 		protected void sampleInParentDoc(_Doc d){
 			_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d;
-			int wid, tid;
+			int wid, tid, n;
 			double normalizedProb;
 			
 			for(_Word w:pDoc.getWords()){
 				tid = w.getTopic();
 				wid = w.getIndex();
+				n = pDoc.getWordTopicColumn(wid);
 				
 				pDoc.m_sstat[tid] --;
 				pDoc.m_topic_stat[tid] --;
-				pDoc.m_wordTopic_stat[tid][wid] --;
+				pDoc.m_wordTopic_stat[tid][n] --;
 				
 				normalizedProb = 0;
 				
 				for(tid=0; tid<number_of_topics; tid++){
-					double pWordTopic = parentWordByTopicProb(tid, wid, pDoc);
+					double pWordTopic = parentWordByTopicProb(tid, wid, n, pDoc);
 					double pTopicPDoc = parentTopicInDocProb(tid, pDoc);
 					double pTopicCDoc = parentChildInfluenceProb(tid, pDoc);
 					
@@ -72,12 +73,12 @@ public class DCMCorrLDA_multi_E extends DCMCorrLDA{
 				w.setTopic(tid);
 				pDoc.m_sstat[tid] ++;
 				pDoc.m_topic_stat[tid] ++;
-				pDoc.m_wordTopic_stat[tid][wid] ++;
+				pDoc.m_wordTopic_stat[tid][n] ++;
 			}
 		}
 		
 		protected void sampleInChildDoc(_ChildDoc d){
-			int wid, tid;
+			int wid, tid, n;
 			double normalizedProb;
 			
 			_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d.m_parentDoc;
@@ -85,14 +86,15 @@ public class DCMCorrLDA_multi_E extends DCMCorrLDA{
 			for(_Word w:d.getWords()){
 				tid = w.getTopic();
 				wid = w.getIndex();
+				n = pDoc.getWordTopicColumn(wid);
 				
-				pDoc.m_wordTopic_stat[tid][wid] --;
+				pDoc.m_wordTopic_stat[tid][n] --;
 				pDoc.m_topic_stat[tid] --;
 				d.m_sstat[tid] --;
 				
 				normalizedProb = 0;
 				for(tid=0; tid<number_of_topics; tid++){
-					double pWordTopic = childWordByTopicProb(tid, wid, pDoc);
+					double pWordTopic = childWordByTopicProb(tid, wid, n, pDoc);
 					double pTopic = childTopicInDocProb(tid, d, pDoc);
 					
 					alphaStat[tid] = pWordTopic * pTopic;
@@ -112,7 +114,7 @@ public class DCMCorrLDA_multi_E extends DCMCorrLDA{
 				w.setTopic(tid);
 				d.m_sstat[tid]++;
 				pDoc.m_topic_stat[tid]++;
-				pDoc.m_wordTopic_stat[tid][wid]++;
+				pDoc.m_wordTopic_stat[tid][n]++;
 			}
 		}
 
@@ -140,7 +142,6 @@ public class DCMCorrLDA_multi_E extends DCMCorrLDA{
 	
 	protected void initialize_probability(Collection<_Doc> collection){
 		int cores = Runtime.getRuntime().availableProcessors();
-		m_threadpool = new Thread[cores];
 		m_workers = new DCMCorrLDA_worker[cores];
 		
 		for(int i=0; i<cores; i++)
@@ -243,6 +244,7 @@ public class DCMCorrLDA_multi_E extends DCMCorrLDA{
 		} while (++i < this.number_of_iteration);
 
 		finalEst();
+		close();
 
 		long endtime = System.currentTimeMillis() - starttime;
 		System.out
@@ -254,19 +256,9 @@ public class DCMCorrLDA_multi_E extends DCMCorrLDA{
 	}
 	
 	protected double multithread_E_step(){
-		for(int i=0; i<m_workers.length; i++){
+		for(int i=0; i<m_workers.length; i++)
 			m_workers[i].setType(RunType.RT_EM);
-			m_threadpool[i] = new Thread(m_workers[i]);
-			m_threadpool[i].start();
-		}
-		
-		for(Thread thread:m_threadpool){
-			try{
-				thread.join();
-			}catch(InterruptedException e){
-				e.printStackTrace();
-			}
-		}
+		runWorkers(m_workers);
 		return 0;
 	}
 
@@ -159,9 +159,9 @@ public class DCMCorrLDA_test extends DCMCorrLDA {
 			for (int i = 0; i < number_of_topics; i++) {
 				MyPriorityQueue<_RankItem> fVector = new MyPriorityQueue<_RankItem>(
 						k);
-				for (int v = 0; v < vocabulary_size; v++) {
-					String featureName = m_corpus.getFeature(v);
-					double wordProb = pDoc.m_wordTopic_prob[i][v];
+				for (int n = 0; n < pDoc.m_wordTopic_index.length; n++) {
+					String featureName = m_corpus.getFeature(pDoc.m_wordTopic_index[n]);
+					double wordProb = pDoc.m_wordTopic_prob[i][n];
 
 					_RankItem ri = new _RankItem(featureName, wordProb);
 					fVector.add(ri);
@@ -15,6 +15,7 @@ import structures._ParentDoc4DCM;
 import structures._RankItem;
 import structures._Stn;
 import structures._Word;
+import topicmodels.DCM.WordTopicCounts;
 import utils.Utils;
 
 /**
@@ -70,8 +71,12 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 			long eStartTime = System.currentTimeMillis();
 			for (int j = 0; j < number_of_iteration; j++) {
 				init();
-				for (_Doc d : m_trainSet)
-					calculate_E_step(d);
+				if (m_samplingCores>1)
+					multithread_E_step();
+				else {
+					for (_Doc d : m_trainSet)
+						calculate_E_step(d);
+				}
 			}
 			long eEndTime = System.currentTimeMillis();
 
@@ -123,6 +128,7 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 		} while (++i < this.number_of_iteration);
 
 		finalEst();
+		close();
 
 		long endtime = System.currentTimeMillis() - starttime;
 		System.out
@@ -161,7 +167,7 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 						int wid = w.getIndex();
 						int tid = w.getTopic();
 						
-						pDoc.m_wordTopic_stat[tid][wid] ++;
+						pDoc.m_wordTopic_stat[tid][pDoc.getWordTopicColumn(wid)] ++;
 						pDoc.m_topic_stat[tid] ++;
 
 						word_topic_sstat[tid][wid]++;
@@ -188,23 +194,24 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 	
 	protected void sampleInParentDoc(_Doc d){
 		_ParentDoc4DCM pDoc = (_ParentDoc4DCM) d;
-		int wid, tid;
+		int wid, tid, n;
 		double normalizedProb;
 		
 		for (_Word w : pDoc.getWords()) {
 			tid = w.getTopic();
 			wid = w.getIndex();
+			n = pDoc.getWordTopicColumn(wid);
 			
 			pDoc.m_sstat[tid]--;
 			pDoc.m_topic_stat[tid]--;
-			pDoc.m_wordTopic_stat[tid][wid]--;
+			pDoc.m_wordTopic_stat[tid][n]--;
 			
 			if (!m_collectCorpusStats)
 				word_topic_sstat[tid][wid]--;
 
 			normalizedProb = 0;
 			for(tid=0; tid<number_of_topics; tid++){
-				double pWordTopic = wordTopicProb(tid, wid, pDoc);
+				double pWordTopic = wordTopicProb(tid, wid, n, pDoc);
 				double pTopicPDoc = topicInDocProb(tid, pDoc);
 				
 				m_topicProbCache[tid] = pWordTopic*pTopicPDoc;
@@ -224,7 +231,7 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 			w.setTopic(tid);
 			pDoc.m_sstat[tid]++;
 			pDoc.m_topic_stat[tid]++;
-			pDoc.m_wordTopic_stat[tid][wid]++;
+			pDoc.m_wordTopic_stat[tid][n]++;
 
 			if (!m_collectCorpusStats)
 				word_topic_sstat[tid][wid]++;
@@ -234,7 +241,7 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 	}
 	
 	protected void sampleInChildDoc(_ChildDoc d){
-		int wid, tid;
+		int wid, tid, n;
 		double normalizedProb;
 		
 		_ParentDoc4DCM pDoc = (_ParentDoc4DCM) d.m_parentDoc;
@@ -242,8 +249,9 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 		for(_Word w:d.getWords()){
 			tid = w.getTopic();
 			wid = w.getIndex();
+			n = pDoc.getWordTopicColumn(wid);
 			
-			pDoc.m_wordTopic_stat[tid][wid]--;
+			pDoc.m_wordTopic_stat[tid][n]--;
 			pDoc.m_topic_stat[tid] --;
 			d.m_sstat[tid] --;
 
@@ -252,7 +260,7 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 
 			normalizedProb = 0;
 			for (tid = 0; tid < number_of_topics; tid++) {
-				double pWordTopic = wordTopicProb(tid, wid, pDoc);
+				double pWordTopic = wordTopicProb(tid, wid, n, pDoc);
 				double pTopic = topicInDocProb(tid, d);
 				
 				m_topicProbCache[tid] = pWordTopic * pTopic;
@@ -272,7 +280,7 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 			w.setTopic(tid);
 			d.m_sstat[tid]++;
 			pDoc.m_topic_stat[tid]++;
-			pDoc.m_wordTopic_stat[tid][wid]++;
+			pDoc.m_wordTopic_stat[tid][n]++;
 
 			if (!m_collectCorpusStats)
 				word_topic_sstat[tid][wid]--;
@@ -287,7 +295,12 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 	}
 	
 	protected double wordTopicProb(int tid, int wid, _ParentDoc4DCM d){
-		double term1 = d.m_wordTopic_stat[tid][wid];
+		return wordTopicProb(tid, wid, d.getWordTopicColumn(wid), d);
+	}
+	
+	//n is the column of word wid in the document's statistics
+	protected double wordTopicProb(int tid, int wid, int n, _ParentDoc4DCM d){
+		double term1 = n<0 ? 0 : d.m_wordTopic_stat[tid][n];
 		
 		return (term1+m_beta[tid][wid])/(d.m_sstat[tid]+m_totalBeta[tid]);
 	}
@@ -335,9 +348,10 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 		for (int k = 0; k < this.number_of_topics; k++) {
 			d.m_topics[k] += d.m_sstat[k] + m_alpha[k];
 
-			for (int v = 0; v < vocabulary_size; v++){
-				d.m_wordTopic_prob[k][v] += d.m_wordTopic_stat[k][v] + m_beta[k][v];
+			for (int n = 0; n < d.m_wordTopic_index.length; n++){
+				d.m_wordTopic_prob[k][n] += d.m_wordTopic_stat[k][n] + m_beta[k][d.m_wordTopic_index[n]];
 			}
+			d.m_wordTopic_mass[k] += Utils.sumOfArray(d.m_wordTopic_stat[k]) + m_totalBeta[k];
 		}
 
 	}
@@ -363,11 +377,11 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 					m_sstat[k] += tempProb;
 					if (pDoc.m_sstat[k] == 0)
 						continue;
-					for (int v = 0; v < vocabulary_size; v++) {
-						tempProb = pDoc.m_wordTopic_prob[k][v]
+					for (int n = 0; n < pDoc.m_wordTopic_index.length; n++) {
+						tempProb = pDoc.m_wordTopic_stat[k][n]
 								/pDoc.m_sstat[k];
 	
-						topic_term_probabilty[k][v] += tempProb;
+						topic_term_probabilty[k][pDoc.m_wordTopic_index[n]] += tempProb;
 					}
 				}
 				
@@ -462,61 +476,22 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 
 		double diff = 0;
 		int iteration = 0;
-		double smoothingBeta = 0.1;
-
-		do {
-			diff = 0;
-			double deltaBeta = 0;
-			double wordNum4Tid = 0;
-			double[] wordNum4Tid4V = new double[vocabulary_size];
-			double totalBetaDenominator = 0;
-			double[] totalBetaNumerator = new double[vocabulary_size];
-			Arrays.fill(totalBetaNumerator, 0);
-			Arrays.fill(wordNum4Tid4V, 0);
-			m_totalBeta[tid] = Utils.sumOfArray(m_beta[tid]);
-			double digBeta4Tid = Utils.digamma(m_totalBeta[tid]);
-
-			for (_Doc d : m_trainSet) {
-				if(d instanceof _ParentDoc4DCM){
-					_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d;
-					totalBetaDenominator += Utils.digamma(m_totalBeta[tid]
-							+ pDoc.m_topic_stat[tid])
-							- digBeta4Tid;
-					for (int v = 0; v < vocabulary_size; v++) {
-						wordNum4Tid += pDoc.m_wordTopic_stat[tid][v];
-						wordNum4Tid4V[v] += pDoc.m_wordTopic_stat[tid][v];
-						totalBetaNumerator[v] += Utils.digamma(m_beta[tid][v]
-								+ pDoc.m_wordTopic_stat[tid][v]);
-						totalBetaNumerator[v] -= Utils.digamma(m_beta[tid][v]);
-					}
-				}
-			}
-
-			for (int v = 0; v < vocabulary_size; v++) {
-				if (wordNum4Tid == 0)
-					break;
-				if (wordNum4Tid4V[v] == 0) {
-					deltaBeta = 0;
-
-				} else {
-					deltaBeta = totalBetaNumerator[v] / totalBetaDenominator;
-
-				}
-				
-				double newBeta = m_beta[tid][v] * deltaBeta + d_beta;
-
-				double t_diff = Math.abs(m_beta[tid][v] - newBeta);
-				if (t_diff > diff)
-					diff = t_diff;
-
-				m_beta[tid][v] = newBeta;
 
+		WordTopicCounts counts = new WordTopicCounts(vocabulary_size);
+		for (_Doc d : m_trainSet) {
+			if(d instanceof _ParentDoc4DCM){
+				_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d;
+				counts.add(pDoc.m_wordTopic_index, pDoc.m_wordTopic_stat[tid], pDoc.m_topic_stat[tid]);
 			}
+		}
 
+		do {
+			diff = counts.update(m_beta[tid], 1, d_beta);
 			iteration++;
 
 			System.out.println("beta iteration\t" + iteration);
 		} while (diff > m_newtonConverge);
+		m_totalBeta[tid] = Utils.sumOfArray(m_beta[tid]);
 
 		System.out.println("iteration\t" + iteration);
 
@@ -576,12 +551,13 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 		docLogLikelihood -= Utils.lgamma(parentDocLength + m_totalAlpha);
 
 		for (int k = 0; k < number_of_topics; k++) {
-			for (int v = 0; v < vocabulary_size; v++) {
-				double term = Utils.lgamma(d.m_wordTopic_stat[k][v]
-						+ m_beta[k][v]);
+			for (int n = 0; n < d.m_wordTopic_index.length; n++) {
+				double beta = m_beta[k][d.m_wordTopic_index[n]];
+				double term = Utils.lgamma(d.m_wordTopic_stat[k][n]
+						+ beta);
 				docLogLikelihood += term;
 
-				term = Utils.lgamma(m_beta[k][v]);
+				term = Utils.lgamma(beta);
 				docLogLikelihood -= term;
 
 			}
@@ -617,9 +593,7 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 
 	protected void estThetaInDoc(_Doc d) {
 		if(d instanceof _ParentDoc4DCM){
-			_ParentDoc4DCM pDoc = (_ParentDoc4DCM) d;
-			for (int i = 0; i < number_of_topics; i++)
-				Utils.L1Normalization(pDoc.m_wordTopic_prob[i]);
+			((_ParentDoc4DCM) d).normalizeWordTopicProb();
 		}
 		Utils.L1Normalization(d.m_topics);
 	}
@@ -666,7 +640,7 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 			for (_Word w : d.getWords()) {
 				int wid = w.getIndex();
 				int tid = w.getTopic();
-				pDoc.m_wordTopic_stat[tid][wid]++;
+				pDoc.m_wordTopic_stat[tid][pDoc.getWordTopicColumn(wid)]++;
 				pDoc.m_topic_stat[tid] ++;
 			}
 			sampleTestSet.add(cDoc);
@@ -678,11 +652,11 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 		double likelihood = 0;
 		
 		for (_Word w : d.getWords()) {
-			int wid = w.getIndex();
+			int n = d.getWordTopicColumn(w.getIndex());
 			double wordLikelihood = 0;
 			for (int k = 0; k < number_of_topics; k++) {
 				wordLikelihood += d.m_topics[k]
-						* d.m_wordTopic_prob[k][wid];
+						* d.m_wordTopic_prob[k][n];
 			}
 			likelihood += Math.log(wordLikelihood);
 		}
@@ -696,11 +670,11 @@ public class DCMLDA4AC extends LDAGibbs4AC {
 		_ParentDoc4DCM pDoc = (_ParentDoc4DCM)d.m_parentDoc;
 		
 		for (_Word w : d.getWords()) {
-			int wid = w.getIndex();
+			int n = pDoc.getWordTopicColumn(w.getIndex());
 			double wordLikelihood = 0;
 			for (int k = 0; k < number_of_topics; k++) {
 				wordLikelihood += d.m_topics[k]
-						* pDoc.m_wordTopic_prob[k][wid];
+						* pDoc.m_wordTopic_prob[k][n];
 			}
 			likelihood += Math.log(wordLikelihood);
 		}
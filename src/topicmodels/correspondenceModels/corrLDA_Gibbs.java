@@ -12,6 +12,7 @@ import structures._ParentDoc;
 import structures._SparseFeature;
 import structures._Stn;
 import structures._Word;
+import topicmodels.LDA.LDA_Gibbs;
 import utils.Utils;
 
 public class corrLDA_Gibbs extends LDAGibbs4AC {
@@ -28,6 +29,13 @@ public class corrLDA_Gibbs extends LDAGibbs4AC {
 		m_topicProbCache = new double[number_of_topics];
 	}
 	
+	@Override
+	protected LDA_Gibbs createSampler(LDA_Gibbs last) {
+		corrLDA_Gibbs sampler = (corrLDA_Gibbs)super.createSampler(last);
+		sampler.m_topicProbCache = last==null ? new double[m_topicProbCache.length] : ((corrLDA_Gibbs)last).m_topicProbCache;
+		return sampler;
+	}
+	
 	@Override
 	protected void initialize_probability(Collection<_Doc> collection){
 		createSpace();
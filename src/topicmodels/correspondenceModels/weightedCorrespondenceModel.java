@@ -31,6 +31,7 @@ public class weightedCorrespondenceModel extends LDA_Variational {
     protected int m_parentDocNum;
     protected int m_childDocNum;
     protected double m_lbfgsConverge;
+    protected LBFGS m_optimizer = new LBFGS(); // reused by the per-document gamma and pi updates
 
     public weightedCorrespondenceModel(int number_of_iteration, double converge, double beta,
                                        _Corpus c, double lambda, int number_of_topics, double alpha,
@@ -342,7 +343,7 @@ public class weightedCorrespondenceModel extends LDA_Variational {
             do{
                 double diff = 0;
                 fValue = gammaFuncGradientVal(pDoc, gamma, gammaGradient);
-                LBFGS.lbfgs(fSize, 4, gamma, fValue, gammaGradient, false, gammaDiag, iprint, 1e-2, 1e-10, iflag);
+                m_optimizer.lbfgs(fSize, 4, gamma, fValue, gammaGradient, false, gammaDiag, iprint, 1e-2, 1e-10, iflag);
 
                 for(int k=0; k<fSize; k++){
                     double tempDiff = 0;
@@ -531,7 +532,7 @@ public class weightedCorrespondenceModel extends LDA_Variational {
                     double diff = 0;
 
                     fValue = piFuncGradientVal(pDoc, gammaSum, cDoc, pi, piGradient);
-                    LBFGS.lbfgs(fSize, 4, pi, fValue, piGradient, false, piDiag, iprint, 1e-2, 1e-10, iflag);
+                    m_optimizer.lbfgs(fSize, 4, pi, fValue, piGradient, false, piDiag, iprint, 1e-2, 1e-10, iflag);
 
                     for(int k=0; k<fSize; k++){
                         double tempDiff = 0;
@@ -869,9 +870,10 @@ public class weightedCorrespondenceModel extends LDA_Variational {
 
     protected void estTopicWordDistribution4Parent(_ParentDoc4DCM pDoc){
         for(int k=0; k<number_of_topics; k++){
-            for(int v=0; v<vocabulary_size; v++){
-                pDoc.m_wordTopic_prob[k][v] = pDoc.m_lambda_stat[k][v]/pDoc.m_lambda_topicStat[k];
+            for(int n=0; n<pDoc.m_wordTopic_index.length; n++){
+                pDoc.m_wordTopic_prob[k][n] = pDoc.m_lambda_stat[k][pDoc.m_wordTopic_index[n]]/pDoc.m_lambda_topicStat[k];
             }
+            pDoc.m_wordTopic_mass[k] = 1;
         }
     }
 
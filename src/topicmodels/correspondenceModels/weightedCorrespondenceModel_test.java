@@ -204,7 +204,7 @@ public class weightedCorrespondenceModel_test extends weightedCorrespondenceMode
                         k);
                 for (int v = 0; v < vocabulary_size; v++) {
                     String featureName = m_corpus.getFeature(v);
-                    double wordProb = pDoc.m_wordTopic_prob[i][v];
+                    double wordProb = pDoc.m_lambda_stat[i][v]/pDoc.m_lambda_topicStat[i];
 
                     _RankItem ri = new _RankItem(featureName, wordProb);
                     fVector.add(ri);
@@ -6,10 +6,10 @@ import java.util.*;
 import Analyzer.BipartiteAnalyzer;
 import org.apache.commons.math3.linear.LUDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
 
 import structures.*;
 import topicmodels.LDA.LDA_Variational;
+import utils.Numerics;
 import utils.Utils;
 
 /**
@@ -63,6 +63,31 @@ public class TUIR extends LDA_Variational {
     protected double[] m_totalWords_array;
     protected double[] m_docSize_array;
 
+    /**
+     * Scratch space of the variational updates (adagrad accumulators, K*K statistics and the matrix to be inverted),
+     * so that the updates do not allocate; every thread running the E-step owns one of them.
+     */
+    protected static class VarBuffer {
+        double[] m_muH, m_sigmaH;
+        double[] m_pNuStats, m_etaG, m_etaH, m_etaLog;
+        double[] m_vector;
+        double[][] m_etaMu, m_pSumStats, m_matrix;
+
+        public VarBuffer(int k) {
+            m_muH = new double[k];
+            m_sigmaH = new double[k];
+            m_pNuStats = new double[k];
+            m_etaG = new double[k];
+            m_etaH = new double[k];
+            m_etaLog = new double[k];
+            m_vector = new double[k];
+            m_etaMu = new double[k][k];
+            m_pSumStats = new double[k][k];
+            m_matrix = new double[k][k];
+        }
+    }
+    protected VarBuffer m_varBuffer; // for the single thread E-step and inference
+
     public TUIR(int emMaxIter, double emConverge,
                 double beta, _Corpus corpus, double lambda,
                 int number_of_topics, double alpha, int varMaxIter, double varConverge, //LDA_variational
@@ -97,6 +122,7 @@ public class TUIR extends LDA_Variational {
         m_alphaStat = new double[number_of_topics];
         m_alphaG = new double[number_of_topics];
         m_alphaH = new double[number_of_topics];
+        m_varBuffer = new VarBuffer(number_of_topics);
 
         Arrays.fill(m_alpha, d_alpha);
     }
@@ -218,23 +244,35 @@ public class TUIR extends LDA_Variational {
     }
 
     protected double varInference4User(_User u){
+        return varInference4User(u, m_varBuffer);
+    }
+
+    protected double varInference4User(_User u, VarBuffer buffer){
         // since updating nu will not influence sigmaP, we do not need loop outside
         if(!m_mode.equals("Item")) {//if not TUIR_Item model which disable the user component
-            update_SigmaP(u);
-            update_nu(u);
+            update_SigmaP(u, buffer);
+            update_nu(u, buffer);
         }
-        return calc_log_likelihood_per_user(u);
+        return calc_log_likelihood_per_user(u, buffer);
     }
 
     protected double varInference4Item(_Product i){
+        return varInference4Item(i, m_varBuffer);
+    }
+
+    protected double varInference4Item(_Product i, VarBuffer buffer){
         //since only one variable, we do not need to loop outside
         if(!m_mode.equals("User"))
-            update_eta(i);
+            update_eta(i, buffer);
 
         return calc_log_likelihood_per_item(i);
     }
 
     protected double varInference4Doc(_Doc d, _User u, _Product i) {
+        return varInference4Doc(d, u, i, m_varBuffer);
+    }
+
+    protected double varInference4Doc(_Doc d, _User u, _Product i, VarBuffer buffer) {
         double current = 0.0, last = 1.0, converge = 0.0;
         int iter = 0;
 
@@ -243,9 +281,9 @@ public class TUIR extends LDA_Variational {
             warning = false;
             update_phi(d);
             update_zeta(d);//update zeta whenever mu and sigmaTheta are updated
-            update_mu(d, u ,i);
+            update_mu(d, u ,i, buffer.m_muH);
             update_zeta(d);
-            update_SigmaTheta(d);
+            update_SigmaTheta(d, buffer.m_sigmaH);
             update_zeta(d);
 
             current = calc_log_likelihood_per_doc(d, u, i);
@@ -268,7 +306,6 @@ public class TUIR extends LDA_Variational {
     //variational inference for p(z|w,\phi) for each document
     void update_phi(_Doc doc){
         _Doc4ETBIR d = (_Doc4ETBIR) doc;
-        double logSum;
         int wid;
         _SparseFeature[] fv = d.getSparse();
 
@@ -279,11 +316,9 @@ public class TUIR extends LDA_Variational {
                 d.m_phi[n][k] = topic_term_probabilty[k][wid] + d.m_mu[k];
 
             // normalize
-            logSum = Utils.logSum(d.m_phi[n]);
-            for (int k = 0; k < number_of_topics; k++) {
-                d.m_phi[n][k] = Math.exp(d.m_phi[n][k] - logSum);
+            Numerics.expNormalize(d.m_phi[n]);
+            for (int k = 0; k < number_of_topics; k++)
                 d.m_sstat[k] += fv[n].getValue() * d.m_phi[n][k];
-            }
         }
     }
 
@@ -293,11 +328,11 @@ public class TUIR extends LDA_Variational {
         //estimate zeta in log space
         d.m_logZeta = d.m_mu[0] + 0.5 * d.m_Sigma[0];
         for (int k = 1; k < number_of_topics; k++)
-            d.m_logZeta = Utils.logSum(d.m_logZeta, d.m_mu[k] + 0.5 * d.m_Sigma[k]);
+            d.m_logZeta = Numerics.logSum(d.m_logZeta, d.m_mu[k] + 0.5 * d.m_Sigma[k]);
     }
 
     // alternative: line search / fixed-stepsize gradient descent
-    void update_mu(_Doc d, _User u, _Product i){
+    void update_mu(_Doc d, _User u, _Product i, double[] muH){
         _Doc4ETBIR doc = (_Doc4ETBIR) d;
         _User4ETBIR user = (_User4ETBIR) u;
         _Product4ETBIR item = (_Product4ETBIR) i;
@@ -309,7 +344,6 @@ public class TUIR extends LDA_Variational {
         double moment, norm;
         double etaSum = Utils.sumOfArray(item.m_eta);
 
-        double[] muH = new double[number_of_topics];
         Arrays.fill(muH, 1.0);
         boolean warning;
         do {
@@ -343,14 +377,13 @@ public class TUIR extends LDA_Variational {
         } while (!warning && iter++ < iterMax && Math.abs(diff) > cvg);
     }
 
-    private void update_SigmaTheta(_Doc doc){
+    private void update_SigmaTheta(_Doc doc, double[] sigmaH){
         _Doc4ETBIR d = (_Doc4ETBIR) doc;
         double fValue = 1.0, lastFValue = 1.0, cvg = 1e-6, diff, iterMax = 20, iter = 0;
         double stepsize = 1e-4, moment;
         double sigmaG; // gradient for Sigma
         int N = d.getTotalDocLength();
 
-        double[] sigmaH = new double[number_of_topics];
         Arrays.fill(sigmaH, 1.0);
 
         for(int k=0; k < number_of_topics; k++)
@@ -389,7 +422,7 @@ public class TUIR extends LDA_Variational {
     }
 
     //variational inference for p(P|\nu,\Sigma) for each user
-    private void update_SigmaP(_User user){
+    private void update_SigmaP(_User user, VarBuffer buffer){
         _User4ETBIR u = (_User4ETBIR) user;
 
         int idx = m_usersIndex.get(u.getUserID());
@@ -397,24 +430,82 @@ public class TUIR extends LDA_Variational {
         if(m_mapByUser.containsKey(idx))
             Iu = m_mapByUser.get(idx);//all the items reviewed by this user
 
-        RealMatrix eta_stat_sigma = MatrixUtils.createRealIdentityMatrix(number_of_topics).scalarMultiply(m_sigma);
+        // the precision matrix is accumulated in its lower triangle: \sigma*I + \sum_i \rho/(eta0*(eta0+1)) * (diag(eta_i) + eta_i*eta_i')
+        double[][] eta_stat_sigma = buffer.m_matrix;
+        for (int l = 0; l < number_of_topics; l++) {
+            Arrays.fill(eta_stat_sigma[l], 0, l+1, 0);
+            eta_stat_sigma[l][l] = m_sigma;
+        }
         for (Integer itemIdx : Iu) {
             _Product4ETBIR item = (_Product4ETBIR) m_items.get(itemIdx);
 
-            RealMatrix eta_vec = MatrixUtils.createColumnRealMatrix(item.m_eta);
             double eta0 = Utils.sumOfArray(item.m_eta);
-            RealMatrix eta_stat_i = MatrixUtils.createRealDiagonalMatrix(item.m_eta).add(eta_vec.multiply(eta_vec.transpose()));
+            double scale = m_rho / (eta0 * (eta0 + 1.0));
+            for (int l = 0; l < number_of_topics; l++) {
+                double v = scale * item.m_eta[l];
+                for (int j = 0; j < l; j++)
+                    eta_stat_sigma[l][j] += v * item.m_eta[j];
+                eta_stat_sigma[l][l] += v * (item.m_eta[l] + 1.0);
+            }
+        }
 
-            eta_stat_sigma = eta_stat_sigma.add(eta_stat_i.scalarMultiply(m_rho / (eta0 * (eta0 + 1.0))));
+        //all topics share the same covariance, which is inverted in place of the user's own matrix
+        double[][] sigmaP = u.m_SigmaP[0];
+        if (Double.isNaN(choleskyDecomposition(eta_stat_sigma)))
+            System.err.format("[Warning]Precision matrix of user %s is not positive definite!\n", u.getUserID());
+        else
+            choleskyInverse(eta_stat_sigma, sigmaP, buffer.m_vector);
+        for (int k = 1; k < number_of_topics; k++)
+            u.m_SigmaP[k] = sigmaP;
+    }
+
+    //Cholesky factor of the symmetric positive definite matrix in its lower triangle (in place), return the log-determinant or NaN if the matrix is not positive definite
+    static double choleskyDecomposition(double[][] a) {
+        int n = a.length;
+        double logDet = 0;
+        for (int j = 0; j < n; j++) {
+            double s = a[j][j];
+            for (int p = 0; p < j; p++)
+                s -= a[j][p] * a[j][p];
+            if (!(s > 0))
+                return Double.NaN;
+
+            double d = Math.sqrt(s);
+            a[j][j] = d;
+            logDet += 2 * Math.log(d);
+            for (int i = j + 1; i < n; i++) {
+                double t = a[i][j];
+                for (int p = 0; p < j; p++)
+                    t -= a[i][p] * a[j][p];
+                a[i][j] = t / d;
+            }
         }
+        return logDet;
+    }
 
-        eta_stat_sigma = new LUDecomposition(eta_stat_sigma).getSolver().getInverse();
-        for (int k = 0; k < number_of_topics; k++)
-            u.m_SigmaP[k] = eta_stat_sigma.getData();//all topics share the same covariance
+    //inverse of the matrix from its Cholesky factor L (lower triangle of l), column by column with two triangular solves
+    static void choleskyInverse(double[][] l, double[][] inverse, double[] column) {
+        int n = l.length;
+        for (int c = 0; c < n; c++) {
+            for (int i = 0; i < n; i++) {//L*y = e_c
+                double t = i == c ? 1.0 : 0.0;
+                for (int p = c; p < i; p++)
+                    t -= l[i][p] * column[p];
+                column[i] = i < c ? 0 : t / l[i][i];
+            }
+            for (int i = n - 1; i >= 0; i--) {//L'*x = y
+                double t = column[i];
+                for (int p = i + 1; p < n; p++)
+                    t -= l[p][i] * column[p];
+                column[i] = t / l[i][i];
+            }
+            for (int i = 0; i < n; i++)
+                inverse[i][c] = column[i];
+        }
     }
 
     //variational inference for p(P|\nu,\Sigma) for each user
-    private void update_nu(_User user){
+    private void update_nu(_User user, VarBuffer buffer){
         _User4ETBIR u = (_User4ETBIR) user;
 
         int idx = m_usersIndex.get(u.getUserID());
@@ -422,8 +513,10 @@ public class TUIR extends LDA_Variational {
         if(m_mapByUser.containsKey(idx))
             m_mapByUser.get(idx);
 
-        double[][] etaMu = new double[number_of_topics][number_of_topics];
+        double[][] etaMu = buffer.m_etaMu;
         double eta0;
+        for (int k = 0; k < number_of_topics; k++)
+            Arrays.fill(etaMu[k], 0);
 
         for (Integer itemIdx : Iu) {
             _Product4ETBIR item = (_Product4ETBIR) m_items.get(itemIdx);
@@ -437,6 +530,9 @@ public class TUIR extends LDA_Variational {
         }
 
         double[][] Sigma = u.m_SigmaP[0];
+        double[] rowSum = buffer.m_vector;
+        for (int l = 0; l < number_of_topics; l++)
+            rowSum[l] = Utils.sumOfArray(Sigma[l]);
         for (int k = 0; k < number_of_topics; k++) {
             Utils.scaleArray(etaMu[k], m_rho);
             for(int l=0; l<number_of_topics; l++) {
@@ -444,7 +540,7 @@ public class TUIR extends LDA_Variational {
                 for(int j=0; j<number_of_topics; j++) {
                     u.m_nuP[k][l] += etaMu[k][j] * Sigma[l][j];
                     if(!m_flag_diagonal_lambda){
-                        u.m_nuP[k][l] += m_sigma * m_lambda * Utils.sumOfArray(Sigma[l]);
+                        u.m_nuP[k][l] += m_sigma * m_lambda * rowSum[l];
                     }else {
                         if (j == k) {
                             u.m_nuP[k][l] += m_sigma * m_lambda * Sigma[l][j];
@@ -456,13 +552,16 @@ public class TUIR extends LDA_Variational {
     }
 
     // update eta with non-negative constraint using fix step graident descent
-    private void update_eta(_Product item){
+    private void update_eta(_Product item, VarBuffer buffer){
         _Product4ETBIR i = (_Product4ETBIR) item;
 
         //pre-compute some terms before update eta
         int itemIdx = m_itemsIndex.get(i.getID());
-        double[] pNuStats = new double[number_of_topics];
-        double[][] pSumStats = new double[number_of_topics][number_of_topics];
+        double[] pNuStats = buffer.m_pNuStats;
+        double[][] pSumStats = buffer.m_pSumStats;
+        Arrays.fill(pNuStats, 0);
+        for(int k = 0; k < number_of_topics; k++)
+            Arrays.fill(pSumStats[k], 0);
         ArrayList<Integer> Ui = new ArrayList<>();
         if(m_mapByItem.containsKey(itemIdx))
             m_mapByItem.get(itemIdx);//all users associated with this item
@@ -483,8 +582,9 @@ public class TUIR extends LDA_Variational {
         double fValue = 1.0, lastFValue, cvg = 1e-6, diff, iterMax = 20, iter = 0, alpha0 = Utils.sumOfArray(m_alpha);
         double stepsize = 1e-4;
 
-        double[] etaG = new double[number_of_topics], etaH = new double[number_of_topics];
-        double[] eta_log = new double[number_of_topics];
+        double[] etaG = buffer.m_etaG, etaH = buffer.m_etaH;
+        double[] eta_log = buffer.m_etaLog;
+        Arrays.fill(etaG, 0);
 
         for(int k = 0; k < number_of_topics; k++){
             eta_log[k] = Math.log(i.m_eta[k]);
@@ -495,11 +595,11 @@ public class TUIR extends LDA_Variational {
         do{
             warning = false;
             double eta0 = Utils.sumOfArray(i.m_eta);
-            double diGammaEta0 = Utils.digamma(eta0);
-            double triGammaEta0 = Utils.trigamma(eta0);
+            double diGammaEta0 = Numerics.digamma(eta0);
+            double triGammaEta0 = Numerics.trigamma(eta0);
 
             lastFValue = fValue;
-            fValue = -Utils.lgamma(eta0);
+            fValue = -Numerics.lgamma(eta0);
 
             for(int k = 0; k < number_of_topics; k++) {
                 double gTerm2 = 0.0;
@@ -516,15 +616,15 @@ public class TUIR extends LDA_Variational {
                     term3 += i.m_eta[l] * pSumStats[l][k];
                 }
 
-                etaG[k] = Utils.trigamma(i.m_eta[k]) * i.m_eta[k] * (m_alpha[k] - i.m_eta[k])
+                etaG[k] = Numerics.trigamma(i.m_eta[k]) * i.m_eta[k] * (m_alpha[k] - i.m_eta[k])
                         - triGammaEta0 * i.m_eta[k] * (alpha0 - eta0)
                         + m_rho * i.m_eta[k] * pNuStats[k] / eta0
                         - m_rho * i.m_eta[k] * gTerm2 / (eta0 * eta0)
                         - m_rho * i.m_eta[k] * gTerm3 / (2 * eta0 * (eta0 + 1.0))
                         + m_rho * (2 * eta0 + 1.0) * i.m_eta[k] * gTerm4 / (2 * eta0 * eta0 * (eta0 + 1.0) * (eta0 + 1.0));
 
-                fValue += (m_alpha[k] - i.m_eta[k]) * (Utils.digamma(i.m_eta[k]) - diGammaEta0)
-                        + Utils.lgamma(i.m_eta[k])
+                fValue += (m_alpha[k] - i.m_eta[k]) * (Numerics.digamma(i.m_eta[k]) - diGammaEta0)
+                        + Numerics.lgamma(i.m_eta[k])
                         + m_rho * i.m_eta[k] * pNuStats[k] / eta0
                         - m_rho * i.m_eta[k] * term3 / (2 * eta0 * (eta0 + 1.0));
 
@@ -553,10 +653,10 @@ public class TUIR extends LDA_Variational {
     }
 
     // calculate the likelihood of user-related terms (term2-term7)
-    private double calc_log_likelihood_per_user(_User user){
+    private double calc_log_likelihood_per_user(_User user, VarBuffer buffer){
         _User4ETBIR u = (_User4ETBIR) user;
 
-        double log_likelihood = 0.0;
+        double log_likelihood = 0.0, logDet = 0.0;
         for(int k = 0; k < number_of_topics; k++){
             double temp1 = 0.0;
             for(int l = 0; l < number_of_topics; l++)
@@ -566,25 +666,36 @@ public class TUIR extends LDA_Variational {
             else
                 temp1 += m_lambda * m_lambda - 2 * m_lambda * u.m_nuP[k][k];
 
-            double det = new LUDecomposition(MatrixUtils.createRealMatrix(u.m_SigmaP[k])).getDeterminant();
+            if (k == 0 || u.m_SigmaP[k] != u.m_SigmaP[k-1])//the topics usually share the same covariance
+                logDet = logDeterminant(u.m_SigmaP[k], buffer.m_matrix);
             log_likelihood += -0.5 * (temp1 * m_sigma - number_of_topics)
-                    + 0.5 * (number_of_topics * Math.log(m_sigma) + Math.log(det));
+                    + 0.5 * (number_of_topics * Math.log(m_sigma) + logDet);
         }
 
         return log_likelihood;
     }
 
+    //log-determinant of the covariance matrix, factorized in the given scratch matrix
+    double logDeterminant(double[][] sigma, double[][] scratch) {
+        for (int l = 0; l < number_of_topics; l++)
+            System.arraycopy(sigma[l], 0, scratch[l], 0, l+1);
+        double logDet = choleskyDecomposition(scratch);
+        if (Double.isNaN(logDet))//not positive definite, e.g., due to numerical errors
+            logDet = Math.log(new LUDecomposition(MatrixUtils.createRealMatrix(sigma)).getDeterminant());
+        return logDet;
+    }
+
     // calculate the likelihood of item-related terms (term1-term6)
     private double calc_log_likelihood_per_item(_Product item){
         _Product4ETBIR i = (_Product4ETBIR) item;
 
         double eta0 = Utils.sumOfArray(i.m_eta);
-        double diGammaEtaSum = Utils.digamma(eta0);
+        double diGammaEtaSum = Numerics.digamma(eta0);
 
-        double log_likelihood = Utils.lgamma(Utils.sumOfArray(m_alpha)) - Utils.lgamma(eta0);
+        double log_likelihood = Numerics.lgamma(Utils.sumOfArray(m_alpha)) - Numerics.lgamma(eta0);
         for(int k = 0; k < number_of_topics; k++){
-            log_likelihood += (m_alpha[k] - i.m_eta[k]) * (Utils.digamma(i.m_eta[k]) - diGammaEtaSum);
-            log_likelihood -= Utils.lgamma(m_alpha[k]) - Utils.lgamma(i.m_eta[k]);
+            log_likelihood += (m_alpha[k] - i.m_eta[k]) * (Numerics.digamma(i.m_eta[k]) - diGammaEtaSum);
+            log_likelihood -= Numerics.lgamma(m_alpha[k]) - Numerics.lgamma(i.m_eta[k]);
         }
 
         return log_likelihood;
@@ -633,9 +744,9 @@ public class TUIR extends LDA_Variational {
 
     protected void updateStats4Item(_Product i){
         _Product4ETBIR item = (_Product4ETBIR) i;
-        double digammaSum = Utils.digamma(Utils.sumOfArray(item.m_eta));
+        double digammaSum = Numerics.digamma(Utils.sumOfArray(item.m_eta));
         for(int k = 0; k < number_of_topics; k++)
-            m_alphaStat[k] += Utils.digamma(item.m_eta[k]) - digammaSum;
+            m_alphaStat[k] += Numerics.digamma(item.m_eta[k]) - digammaSum;
     }
 
     protected void updateStats4User(_User u){
@@ -767,6 +878,7 @@ public class TUIR extends LDA_Variational {
 
 //            printTopWords(10);//print out the top words every iteration
         }while(++iter < number_of_iteration && converge > m_converge && !warning);
+        close();
     }
 
     //k-fold cross validation while randomly generating folds.
@@ -794,17 +906,7 @@ public class TUIR extends LDA_Variational {
                 System.out.format("====================\n[Info]Fold No. %d: train size = %d, test size = %d....\n", i, m_trainSet.size(), m_testSet.size());
 
                 long start = System.currentTimeMillis();
-                //train
-                m_bipartite.analyzeBipartite(m_trainSet, "train");
-                m_mapByUser = m_bipartite.getMapByUser();
-                m_mapByItem = m_bipartite.getMapByItem();
-                EM();
-
-                //test
-                m_bipartite.analyzeBipartite(m_testSet, "test");
-                m_mapByUser_test = m_bipartite.getMapByUser_test();
-                m_mapByItem_test = m_bipartite.getMapByItem_test();
-                perf[i] = Evaluation();
+                perf[i] = runFold();
 
                 System.out.format("[Info]%s Train/Test finished in %.2f seconds...\n", this.toString(), (System.currentTimeMillis()-start)/1000.0);
                 m_trainSet.clear();
@@ -820,6 +922,29 @@ public class TUIR extends LDA_Variational {
         System.out.format("[Stat]Perplexity %.3f+/-%.3f\n", mean, var);
     }
 
+    @Override
+    protected double runFold() {
+        //train
+        m_bipartite.analyzeBipartite(m_trainSet, "train");
+        m_mapByUser = m_bipartite.getMapByUser();
+        m_mapByItem = m_bipartite.getMapByItem();
+        EM();
+
+        //test
+        m_bipartite.analyzeBipartite(m_testSet, "test");
+        m_mapByUser_test = m_bipartite.getMapByUser_test();
+        m_mapByItem_test = m_bipartite.getMapByItem_test();
+        return Evaluation();
+    }
+
+    //a new model of a fold in TopicModel.crossValidation() has not analyzed its corpus yet
+    @Override
+    public double runFold(ArrayList<_Doc> trainSet, ArrayList<_Doc> testSet) {
+        if (m_bipartite==null)
+            analyzeCorpus();
+        return super.runFold(trainSet, testSet);
+    }
+
     @Override
     public double[] oneFoldValidation(){
         analyzeCorpus();
@@ -865,6 +990,7 @@ public class TUIR extends LDA_Variational {
         if (m_multithread) {
             System.out.println("[Info]Start evaluation in THREAD...");
             multithread_inference();//split the perplexity in this function
+            close();
         } else {//did not split yet. deprecated
             System.out.println("[Info]Start evaluation in NORMAL...");
 
@@ -938,7 +1064,7 @@ public class TUIR extends LDA_Variational {
 
                 for(_Doc d:entryU.getValue()) {
                     _Doc4ETBIR doc = (_Doc4ETBIR) d;
-                    double expSum = Utils.logSum(doc.m_mu);
+                    double expSum = Numerics.logSumExp(doc.m_mu);
                     for (int i = 0; i < number_of_topics; i++)
                         gamma[i] += Math.exp(doc.m_mu[i]-expSum);
                 }
@@ -1126,7 +1252,7 @@ public class TUIR extends LDA_Variational {
                     inner[i] = Utils.dotProduct(user.m_nuP[i], item.m_eta);
                 }
 
-                double sum = Utils.logSum(inner);
+                double sum = Numerics.logSumExp(inner);
                 for(int i = 0; i < number_of_topics; i++)
                     softmaxWriter.format("%.5f\t", Math.exp(inner[i] - sum));
                 softmaxWriter.println();
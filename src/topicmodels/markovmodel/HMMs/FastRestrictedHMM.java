@@ -3,6 +3,7 @@ package topicmodels.markovmodel.HMMs;
 import java.util.Arrays;
 
 import structures._Doc;
+import utils.Numerics;
 import utils.Utils;
 
 /**
@@ -25,6 +26,15 @@ public class FastRestrictedHMM {
 	
 	_Doc m_docPtr;//pointer to the input document
 	
+	//forward-backward in scaled real space (Rabiner, 1989), which avoids the logSum in every transition;
+	//buffers are flat arrays indexed by t*(constant*number_of_topic)+i and only allocated when enabled
+	boolean m_scaled = false;
+	double m_alphaS[], m_betaS[];
+	double m_expEmission[];//emission probabilities with the maximum at each position factored out
+	double m_emissionMax[];//the factored out maximum in log space
+	double m_expTheta[];
+	double m_scale[];//normalizer of alpha at each position in real space
+	
 	public FastRestrictedHMM(double epsilon, int maxSeqSize, int topicSize, int constant) {
 		m_epsilon = epsilon;//in real space!
 		this.constant = constant;
@@ -42,11 +52,35 @@ public class FastRestrictedHMM {
 	public void setEpsilon(double epsilon) {
 		m_epsilon = epsilon;
 	}
+	
+	public void setScaled(boolean scaled) {
+		m_scaled = scaled;
+		if (scaled && m_alphaS==null) {
+			int maxSeqSize = alpha.length;
+			m_alphaS = new double[maxSeqSize * this.constant * this.number_of_topic];
+			m_betaS = new double[maxSeqSize * this.constant * this.number_of_topic];
+			m_expEmission = new double[maxSeqSize * this.number_of_topic];
+			m_emissionMax = new double[maxSeqSize];
+			m_expTheta = new double[this.number_of_topic];
+			m_scale = new double[maxSeqSize];
+		}
+	}
+	
+	public boolean isScaled() {
+		return m_scaled;
+	}
 		
 	public double ForwardBackward(_Doc d, double[][] emission) {
 		m_docPtr = d;
 		this.length_of_seq = d.getSenetenceSize();
 		
+		if (m_scaled) {
+			initScaledSpace(d.m_topics, emission);
+			double loglik = forwardScaled();
+			backwardScaled();
+			return loglik;
+		}
+		
 		double loglik = initAlpha(d.m_topics, emission[0]) + forwardComputation(emission, d.m_topics);
 		backwardComputation(emission, d.m_topics);		
 		
@@ -59,7 +93,7 @@ public class FastRestrictedHMM {
 		
 		for (int i = 0; i < this.number_of_topic; i++) {
 			alpha[0][i] = local0[i] + theta[i];//document must start with a new topic and a new sentiment
-			norm = Utils.logSum(norm, alpha[0][i]);
+			norm = Numerics.logSum(norm, alpha[0][i]);
 			//the rest set to zero
 			for(int j=1; j<this.constant; j++)
 				alpha[0][i+j*this.number_of_topic] = Double.NEGATIVE_INFINITY;
@@ -82,9 +116,9 @@ public class FastRestrictedHMM {
 			
 			for (int i = 0; i < this.number_of_topic; i++) {
 				alpha[t][i] = logEpsilon + theta[i] + emission[t][i];  // regardless of the previous
-				alpha[t][i+this.number_of_topic] = logOneMinusEpsilon + Utils.logSum(alpha[t-1][i], alpha[t-1][i+this.number_of_topic]) + emission[t][i];
+				alpha[t][i+this.number_of_topic] = logOneMinusEpsilon + Numerics.logSum(alpha[t-1][i], alpha[t-1][i+this.number_of_topic]) + emission[t][i];
 				
-				norm = Utils.logSum(norm, Utils.logSum(alpha[t][i], alpha[t][i+this.number_of_topic]));
+				norm = Numerics.logSum(norm, Numerics.logSum(alpha[t][i], alpha[t][i+this.number_of_topic]));
 			}
 			
 			//normalization
@@ -108,28 +142,127 @@ public class FastRestrictedHMM {
 			logEpsilon = Math.log(getEpsilon(t+1));
 			logOneMinusEpsilon = Math.log(1.0 - getEpsilon(t+1));
 			
-			sum = logEpsilon;
+			sum = Double.NEGATIVE_INFINITY;//log0
 			for (int j = 0; j < this.number_of_topic; j++)
-				sum = Utils.logSum(sum, theta[j] + emission[t+1][j] + beta[t+1][j]);
+				sum = Numerics.logSum(sum, theta[j] + emission[t+1][j] + beta[t+1][j]);
+			sum += logEpsilon;//a new topic is drawn with probability epsilon
 			
 			for (int i = 0; i < this.number_of_topic; i++) {
-				beta[t][i] = Utils.logSum(logOneMinusEpsilon + beta[t+1][i] + emission[t+1][i], sum) - norm_factor[t];
+				beta[t][i] = Numerics.logSum(logOneMinusEpsilon + beta[t+1][i] + emission[t+1][i], sum) - norm_factor[t];
 				beta[t][i + this.number_of_topic] = beta[t][i];
 			}
 		}
 	}
 	
 	public void collectExpectations(double[][] sstat) {
+		if (m_scaled) {
+			collectScaledExpectations(sstat);
+			return;
+		}
+		
 		for(int t=0; t<this.length_of_seq; t++) {
 			double norm = Double.NEGATIVE_INFINITY;//log0
 			for(int i=0; i<this.constant*this.number_of_topic; i++) 
-				norm = Utils.logSum(norm, alpha[t][i] + beta[t][i]);
+				norm = Numerics.logSum(norm, alpha[t][i] + beta[t][i]);
 			
 			for(int i=0; i<this.constant*this.number_of_topic; i++) 
 				sstat[t][i] = Math.exp(alpha[t][i] + beta[t][i] - norm); // convert into original space
 		}
 	}
 	
+	//-----------------Scaled Forward-Backward Algorithm--------------------//
+	//NOTE: all computation in real space, norm_factor still keeps the normalizers in log space
+	void initScaledSpace(double[] theta, double[][] emission) {
+		for (int i = 0; i < this.number_of_topic; i++)
+			m_expTheta[i] = Math.exp(theta[i]);
+		
+		for (int t = 0; t < this.length_of_seq; t++) {
+			double max = Utils.max(emission[t]);
+			m_emissionMax[t] = max;
+			for (int i = 0; i < this.number_of_topic; i++)
+				m_expEmission[t*this.number_of_topic + i] = Math.exp(emission[t][i] - max);
+		}
+	}
+	
+	//normalize alpha at position t and return the log normalizer in the original space
+	double normalizeAlpha(int t, double norm) {
+		int size = this.constant*this.number_of_topic, offset = t*size;
+		for (int i = 0; i < size; i++)
+			m_alphaS[offset + i] /= norm;
+		
+		m_scale[t] = norm;
+		norm_factor[t] = Math.log(norm) + m_emissionMax[t];
+		return norm_factor[t];
+	}
+	
+	double initAlphaScaled() {
+		double norm = 0;
+		for (int i = 0; i < this.number_of_topic; i++) {
+			m_alphaS[i] = m_expTheta[i] * m_expEmission[i];//document must start with a new topic
+			norm += m_alphaS[i];
+		}
+		Arrays.fill(m_alphaS, this.number_of_topic, this.constant*this.number_of_topic, 0);
+		return normalizeAlpha(0, norm);
+	}
+	
+	double forwardScaled() {
+		int size = this.constant*this.number_of_topic, cur, prev, e;
+		double logLikelihood = initAlphaScaled(), norm, epsilon;
+		for (int t = 1; t < this.length_of_seq; t++) {
+			epsilon = getEpsilon(t);
+			cur = t*size;
+			prev = cur - size;
+			e = t*this.number_of_topic;
+			
+			norm = 0;
+			for (int i = 0; i < this.number_of_topic; i++) {
+				m_alphaS[cur + i] = epsilon * m_expTheta[i] * m_expEmission[e + i];
+				m_alphaS[cur + i + this.number_of_topic] = (1.0 - epsilon) * (m_alphaS[prev + i] + m_alphaS[prev + i + this.number_of_topic]) * m_expEmission[e + i];
+				norm += m_alphaS[cur + i] + m_alphaS[cur + i + this.number_of_topic];
+			}
+			logLikelihood += normalizeAlpha(t, norm);
+		}
+		return logLikelihood;
+	}
+	
+	void backwardScaled() {
+		int size = this.constant*this.number_of_topic, cur, next, e;
+		double sum, epsilon;
+		Arrays.fill(m_betaS, (this.length_of_seq-1)*size, this.length_of_seq*size, 1.0);
+		
+		for (int t = this.length_of_seq-2; t >= 0; t--) {
+			epsilon = getEpsilon(t+1);
+			cur = t*size;
+			next = cur + size;
+			e = (t+1)*this.number_of_topic;
+			
+			sum = 0;
+			for (int j = 0; j < this.number_of_topic; j++)
+				sum += m_expTheta[j] * m_expEmission[e + j] * m_betaS[next + j];
+			sum *= epsilon;
+			
+			for (int i = 0; i < this.number_of_topic; i++) {
+				m_betaS[cur + i] = ((1.0 - epsilon) * m_betaS[next + i + this.number_of_topic] * m_expEmission[e + i] + sum) / m_scale[t+1];
+				m_betaS[cur + i + this.number_of_topic] = m_betaS[cur + i];
+			}
+		}
+	}
+	
+	void collectScaledExpectations(double[][] sstat) {
+		int size = this.constant*this.number_of_topic, offset;
+		for(int t=0; t<this.length_of_seq; t++) {
+			double norm = 0;
+			offset = t*size;
+			for(int i=0; i<size; i++) {
+				sstat[t][i] = m_alphaS[offset + i] * m_betaS[offset + i];
+				norm += sstat[t][i];
+			}
+			
+			for(int i=0; i<size; i++) 
+				sstat[t][i] /= norm;
+		}
+	}
+	
 	//-----------------Viterbi Algorithm--------------------//
 	//NOTE: all computation in log space
 	public void computeViterbiAlphas(double[][] emission, double[] theta) {
@@ -2,7 +2,7 @@ package topicmodels.markovmodel.HMMs;
 import java.util.Arrays;
 
 import structures._Doc;
-import utils.Utils;
+import utils.Numerics;
 
 /**
  * 
@@ -15,7 +15,7 @@ import utils.Utils;
 public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 
 	double m_sigma;//probability of sentiment switch
-	double m_transitMatrix[][][];//precompute the topic-sentiment transition matrix
+	double m_transitMatrix[][][];//precompute the topic-sentiment transition matrix (in real space when scaled)
 	
 	public FastRestrictedHMM_sentiment(double epsilon,double sigma, int maxSeqSize, int topicSize) {
 		super(epsilon, maxSeqSize, topicSize, 3); // 3 is constant
@@ -106,7 +106,7 @@ public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 						if(si==sj && ai==aj)
 							m_transitMatrix[t][i][j] = logOneMinusSigma + logOneMinusEpsilon;
 					}
-					sum = Utils.logSum(sum, m_transitMatrix[t][i][j]);
+					sum = Numerics.logSum(sum, m_transitMatrix[t][i][j]);
 				}
 
 				for(int j=0; j<this.constant*this.number_of_topic; j++)
@@ -122,17 +122,17 @@ public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 		if (i<this.number_of_topic) {//both changed
 			for(int j=0; j<this.constant*this.number_of_topic; j++) {
 				if(si!=sentimentMapper(j) && ai!=aspectMapper(j))
-					sum = Utils.logSum(sum, alpha[t][j] + m_transitMatrix[t+1][j][i]);
+					sum = Numerics.logSum(sum, alpha[t][j] + m_transitMatrix[t+1][j][i]);
 			}
 		} else if (i<2*this.number_of_topic) {//only topic changed
 			for(int j=0; j<this.constant*this.number_of_topic; j++) {
 				if(si==sentimentMapper(j) && ai!=aspectMapper(j))
-					sum = Utils.logSum(sum, alpha[t][j] + m_transitMatrix[t+1][j][i]);
+					sum = Numerics.logSum(sum, alpha[t][j] + m_transitMatrix[t+1][j][i]);
 			}
 		} else {//both stay the same
 			for(int j=0; j<this.constant*this.number_of_topic; j++) {
 				if(si==sentimentMapper(j) && ai==aspectMapper(j))
-					sum = Utils.logSum(sum, alpha[t][j] + m_transitMatrix[t+1][j][i]);
+					sum = Numerics.logSum(sum, alpha[t][j] + m_transitMatrix[t+1][j][i]);
 			}
 		}
 	
@@ -159,8 +159,8 @@ public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 					alpha[t][i+this.number_of_topic] = emission[t][i] + sumOfAlphas(i+this.number_of_topic, t-1);  // same sentiment but different topic
 					alpha[t][i+2*this.number_of_topic] = emission[t][i] + sumOfAlphas(i+2*this.number_of_topic, t-1); // same sentiment and same topic
 					
-					norm = Utils.logSum(norm, Utils.logSum(alpha[t][i], alpha[t][i+this.number_of_topic]));
-					norm = Utils.logSum(norm, alpha[t][i+2*this.number_of_topic]);
+					norm = Numerics.logSum(norm, Numerics.logSum(alpha[t][i], alpha[t][i+this.number_of_topic]));
+					norm = Numerics.logSum(norm, alpha[t][i+2*this.number_of_topic]);
 				}
 			}
 			else{//this means this document has partial annotation
@@ -168,14 +168,14 @@ public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 					// both sentiment & topic switch
 					for (int i = 0; i < this.number_of_topic; i++) {
 						alpha[t][i] = emission[t][i] + sumOfAlphas(i, t-1);
-						norm = Utils.logSum(norm, alpha[t][i]);
+						norm = Numerics.logSum(norm, alpha[t][i]);
 					}
 				}
 				else{
 					for (int i = 0; i < this.number_of_topic; i++) {
 						alpha[t][i+this.number_of_topic] = emission[t][i] + sumOfAlphas(i+this.number_of_topic, t-1);  // same sentiment but different topic
 						alpha[t][i+2*this.number_of_topic] = emission[t][i] + sumOfAlphas(i+2*this.number_of_topic, t-1); // same sentiment and same topic
-						norm = Utils.logSum(norm, Utils.logSum(alpha[t][i+this.number_of_topic], alpha[t][i+2*this.number_of_topic]));
+						norm = Numerics.logSum(norm, Numerics.logSum(alpha[t][i+this.number_of_topic], alpha[t][i+2*this.number_of_topic]));
 					}
 				}
 			}
@@ -219,13 +219,13 @@ public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 						
 						if(j<this.number_of_topic) {
 							if (sj!=si && aj!=ai)
-								sum = Utils.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
+								sum = Numerics.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
 						} else if(j<2*this.number_of_topic){
 							if (sj==si && aj!=ai)
-								sum = Utils.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
+								sum = Numerics.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
 						} else {
 							if(sj==si && aj==ai)
-								sum = Utils.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
+								sum = Numerics.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
 						}
 					}
 					sum -= norm_factor[t];
@@ -246,7 +246,7 @@ public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 							tj = topicMapper(j);
 							probj = emission[t+1][tj] + beta[t+1][j];
 							if (sj!=si && aj!=ai)
-								sum = Utils.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
+								sum = Numerics.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
 						}
 						sum -= norm_factor[t];
 
@@ -267,10 +267,10 @@ public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 							probj = emission[t+1][tj] + beta[t+1][j];
 							if(j<2*this.number_of_topic){
 								if (sj==si && aj!=ai)
-									sum = Utils.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
+									sum = Numerics.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
 							} else {	
 								if(si==sj && ai==aj)
-									sum = Utils.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
+									sum = Numerics.logSum(sum, m_transitMatrix[t+1][i][j] + probj);
 							}
 						}
 						sum -= norm_factor[t];
@@ -285,6 +285,127 @@ public class FastRestrictedHMM_sentiment extends FastRestrictedHMM {
 		}
 	}
 	
+	//-----------------Scaled Forward-Backward Algorithm--------------------//
+	//NOTE: all computation in real space
+	void generateScaledTransitionMatrix() {
+		double epsilon, sigma, sum, prob;
+		int size = this.constant*this.number_of_topic;
+		
+		for(int t=1; t<this.length_of_seq;t++){
+			epsilon = getEpsilon(t);
+			sigma = getSigma(t);
+			
+			for(int i=0; i<size; i++){
+				int ai = aspectMapper(i), si = sentimentMapper(i);
+				sum = 0;
+				
+				for(int j=0; j<size; j++){
+					int aj = aspectMapper(j), sj = sentimentMapper(j);
+					
+					prob = 0;
+					if(j<this.number_of_topic) {
+						if(si!=sj && ai!=aj)
+							prob = sigma * epsilon * m_expTheta[j];
+					} else if(j<2*this.number_of_topic) {
+						if(si==sj && ai!=aj)
+							prob = (1.0 - sigma) * epsilon * m_expTheta[topicMapper(j)];
+					} else {
+						if(si==sj && ai==aj)
+							prob = (1.0 - sigma) * (1.0 - epsilon);
+					}
+					m_transitMatrix[t][i][j] = prob;
+					sum += prob;
+				}
+				
+				for(int j=0; j<size; j++)
+					m_transitMatrix[t][i][j] /= sum;
+			}
+		}
+	}
+	
+	//the range of latent states allowed at a position given the sentiment annotations of two consecutive sentences
+	int stateStart(int prevSentiment, int curSentiment) {
+		if (prevSentiment==-1 || curSentiment==-1 || prevSentiment!=curSentiment)
+			return 0;
+		else
+			return this.number_of_topic;//sentiment cannot switch
+	}
+	
+	int stateEnd(int prevSentiment, int curSentiment) {
+		if (prevSentiment!=-1 && curSentiment!=-1 && prevSentiment!=curSentiment)
+			return this.number_of_topic;//sentiment must switch
+		else
+			return this.constant*this.number_of_topic;
+	}
+	
+	@Override
+	double forwardScaled() {
+		generateScaledTransitionMatrix();
+		
+		int size = this.constant*this.number_of_topic, cur, prev, e, start, end;
+		double logLikelihood = initAlphaScaled(), norm, sum;
+		
+		int previousSentenceSenitment = this.m_docPtr.getSentence(0).getStnSentiLabel();
+		int currentSentenceSenitment;
+		
+		for (int t = 1; t < this.length_of_seq; t++) {
+			currentSentenceSenitment = this.m_docPtr.getSentence(t).getStnSentiLabel();
+			start = stateStart(previousSentenceSenitment, currentSentenceSenitment);
+			end = stateEnd(previousSentenceSenitment, currentSentenceSenitment);
+			
+			cur = t*size;
+			prev = cur - size;
+			e = t*this.number_of_topic;
+			Arrays.fill(m_alphaS, cur, cur + size, 0);
+			
+			norm = 0;
+			for (int i = start; i < end; i++) {
+				sum = 0;
+				for (int j = 0; j < size; j++)
+					sum += m_alphaS[prev + j] * m_transitMatrix[t][j][i];
+				m_alphaS[cur + i] = sum * m_expEmission[e + topicMapper(i)];
+				norm += m_alphaS[cur + i];
+			}
+			
+			previousSentenceSenitment = currentSentenceSenitment;
+			logLikelihood += normalizeAlpha(t, norm);
+		}
+		return logLikelihood;
+	}
+	
+	@Override
+	void backwardScaled() {
+		int size = this.constant*this.number_of_topic, cur, next, e, start, end;
+		double sum;
+		Arrays.fill(m_betaS, (this.length_of_seq-1)*size, this.length_of_seq*size, 1.0);
+		
+		int nextSentenceSenitment = this.m_docPtr.getSentence(this.length_of_seq-1).getStnSentiLabel();
+		int currentSentenceSenitment;
+		
+		for (int t = this.length_of_seq-2; t >= 0; t--) {
+			currentSentenceSenitment = this.m_docPtr.getSentence(t).getStnSentiLabel();
+			start = stateStart(currentSentenceSenitment, nextSentenceSenitment);
+			end = stateEnd(currentSentenceSenitment, nextSentenceSenitment);
+			
+			cur = t*size;
+			next = cur + size;
+			e = (t+1)*this.number_of_topic;
+			
+			for (int i = 0; i < this.number_of_topic; i++) {
+				sum = 0;
+				for (int j = start; j < end; j++)
+					sum += m_transitMatrix[t+1][i][j] * m_expEmission[e + topicMapper(j)] * m_betaS[next + j];
+				sum /= m_scale[t+1];
+				
+				//transitions only depend on the aspect and sentiment of the current state
+				m_betaS[cur + i] = sum;
+				m_betaS[cur + i + this.number_of_topic] = sum;
+				m_betaS[cur + i + 2*this.number_of_topic] = sum;
+			}
+			nextSentenceSenitment = currentSentenceSenitment;
+		}
+	}
+	
 	//-----------------Viterbi Algorithm--------------------//
 	//NOTE: all computation in log space
 	@Override
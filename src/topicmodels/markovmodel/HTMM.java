@@ -35,6 +35,7 @@ public class HTMM extends pLSA {
 	
 	double loglik;
 	protected int constant;
+	protected boolean m_scaledHMM = false; // forward-backward in scaled real space instead of log space
 
 	public HTMM(int number_of_iteration, double converge, double beta, _Corpus c, //arguments for general topic model
 			int number_of_topics, double alpha) {//arguments for pLSA	
@@ -73,6 +74,11 @@ public class HTMM extends pLSA {
 		emission = new double[maxSeqSize][this.number_of_topics]; // max|S_d| * K
 	}
 	
+	public void setScaledHMM(boolean scaled) {
+		m_scaledHMM = scaled;
+		m_hmm.setScaled(scaled);
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("HTMM[k:%d, alpha:%.3f, beta:%.3f]", number_of_topics, d_alpha, d_beta);
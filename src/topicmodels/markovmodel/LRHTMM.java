@@ -21,6 +21,7 @@ public class LRHTMM extends HTMM {
 	//feature weight vector
 	double[] m_omega;
 	double[] m_g_omega, m_diag_omega;//gradient and diagnoal for omega estimation
+	LBFGS m_optimizer = new LBFGS();//reused across the M-steps
     
 	public LRHTMM(int number_of_iteration, double converge, double beta, _Corpus c, //arguments for general topic model
 			int number_of_topics, double alpha, //arguments for pLSA	
@@ -79,7 +80,7 @@ public class LRHTMM extends HTMM {
 		try{
 			do {
 				fValue = calcOmegaFuncGradient();
-				LBFGS.lbfgs(fSize, 4, m_omega, fValue, m_g_omega, false, m_diag_omega, iprint, 1e-2, 1e-32, iflag);
+				m_optimizer.lbfgs(fSize, 4, m_omega, fValue, m_g_omega, false, m_diag_omega, iprint, 1e-2, 1e-32, iflag);
 			} while (iflag[0] != 0);
 		} catch (ExceptionWithIflag e){
 			e.printStackTrace();
@@ -27,6 +27,8 @@ public class LRHTSM extends HTSM {
 	//feature weight vector for sentiment
 	protected double[] m_delta;
 	double[] m_g_delta, m_diag_delta;//gradient and diagonal for delta estimation
+	
+	LBFGS m_optimizer = new LBFGS();//reused for omega and delta across the M-steps
     
 	public LRHTSM(int number_of_iteration, double converge, double beta, _Corpus c, //arguments for general topic model
 			int number_of_topics, double alpha, //arguments for pLSA	
@@ -111,7 +113,7 @@ public class LRHTSM extends HTSM {
 		try{
 			do {
 				fValue = calcOmegaFuncGradient();
-				LBFGS.lbfgs(fSize, 4, m_omega, fValue, m_g_omega, false, m_diag_omega, iprint, 1e-2, 1e-32, iflag);
+				m_optimizer.lbfgs(fSize, 4, m_omega, fValue, m_g_omega, false, m_diag_omega, iprint, 1e-2, 1e-32, iflag);
 			} while (iflag[0] != 0);
 		} catch (ExceptionWithIflag e){
 			e.printStackTrace();
@@ -160,7 +162,7 @@ public class LRHTSM extends HTSM {
 		try{
 			do {
 				fValue = calcDeltaFuncGradient();
-				LBFGS.lbfgs(fSize, 4, m_delta, fValue, m_g_delta, false, m_diag_delta, iprint, 1e-2, 1e-32, iflag);
+				m_optimizer.lbfgs(fSize, 4, m_delta, fValue, m_g_delta, false, m_diag_delta, iprint, 1e-2, 1e-32, iflag);
 			} while (iflag[0] != 0);
 		} catch (ExceptionWithIflag e){
 			e.printStackTrace();
@@ -39,6 +39,7 @@ public class LRHTSM_multithread extends LRHTSM {
 			emission = new double[maxSeqSize][number_of_topics]; // max|S_d| * K
 			
 			m_hmm = new LRFastRestrictedHMM_sentiment(m_omega, m_delta, maxSeqSize, number_of_topics); 
+			m_hmm.setScaled(m_scaledHMM);
 	 	}
 		
 		void ComputeEmissionProbsForDoc(_Doc d) {			
@@ -178,7 +179,6 @@ public class LRHTSM_multithread extends LRHTSM {
 	@Override
 	protected void initialize_probability(Collection<_Doc> collection) {
 		int cores = Runtime.getRuntime().availableProcessors();
-		m_threadpool = new Thread[cores];
 		m_workers = new LRHTSM_worker[cores];
 		
 		for(int i=0; i<cores; i++)
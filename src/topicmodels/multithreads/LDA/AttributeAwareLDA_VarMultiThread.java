@@ -17,7 +17,7 @@ import structures._Corpus;
 import structures._Doc;
 import structures._SparseFeature;
 import topicmodels.posteriorRegularization.PairwiseAttributeConstraints;
-import utils.Utils;
+import utils.Numerics;
 
 /**
  * @author hongning
@@ -73,7 +73,7 @@ public class AttributeAwareLDA_VarMultiThread extends LDA_Variational_multithrea
 		
 		void initEstPhi(_Doc d) {
 			int wid;
-			double v, logSum;
+			double v;
 			_SparseFeature fv[] = d.getSparse(), spFea;
 			for(int n=0; n<fv.length; n++) {
 				//allocate the words by attribute and topic combination
@@ -82,22 +82,22 @@ public class AttributeAwareLDA_VarMultiThread extends LDA_Variational_multithrea
 				v = spFea.getValue();												
 				
 				for(int i=0; i<number_of_topics; i++) 
-					d.m_phi[n][i] = v*topic_term_probabilty[i][wid] + Utils.digamma(0.1);
+					d.m_phi[n][i] = v*topic_term_probabilty[i][wid];//the constant digamma(0.1) cancels out in normalization
 				
-				logSum = Utils.logSum(d.m_phi[n]);
-				for(int i=0; i<number_of_topics; i++)
-					d.m_phi[n][i] = Math.exp(d.m_phi[n][i] - logSum);
+				Numerics.expNormalize(d.m_phi[n]);
 			}
 		}
 		
 		public double calculate_E_step_withSegments(_Doc d) {
-			double last = m_varConverge>0?calculate_log_likelihood(d):1, current = last, converge, logSum, v;
+			double last = m_varConverge>0?calculate_log_likelihood(d):1, current = last, converge, v;
+			double[] diGamma = new double[number_of_topics];
 			int iter = 0, wid;
 			double[] values;
 			_SparseFeature fv[] = d.getSparse(), spFea;
 			
 			do {
 				//variational inference for p(z|w,\phi)
+				Numerics.digamma(d.m_sstat, diGamma, number_of_topics);//the same for all the words
 				for(int n=0; n<fv.length; n++) {
 					//allocate the words by attribute and topic combination
 					spFea = fv[n];
@@ -114,17 +114,15 @@ public class AttributeAwareLDA_VarMultiThread extends LDA_Variational_multithrea
 							for(int i=0; i<number_of_topics; i++) {
 								//special organization of topics
 								if (i%m_attributeSize==a)//disable the proportion from the other attributes
-									d.m_phi[n][i] = v*topic_term_probabilty[i][wid] + Utils.digamma(d.m_sstat[i]);
+									d.m_phi[n][i] = v*topic_term_probabilty[i][wid] + diGamma[i];
 							}
 						} else {//mixing part of all possible attributes
 							for(int i=0; i<number_of_topics; i++)
-								d.m_phi[n][i] = Utils.logSum(d.m_phi[n][i], v*topic_term_probabilty[i][wid] + Utils.digamma(d.m_sstat[i]));
+								d.m_phi[n][i] = Numerics.logSum(d.m_phi[n][i], v*topic_term_probabilty[i][wid] + diGamma[i]);
 						}
 					}
 					
-					logSum = Utils.logSum(d.m_phi[n]);
-					for(int i=0; i<number_of_topics; i++)
-						d.m_phi[n][i] = Math.exp(d.m_phi[n][i] - logSum);
+					Numerics.expNormalize(d.m_phi[n]);
 				}
 				
 				//variational inference for p(\theta|\gamma)
@@ -153,7 +151,8 @@ public class AttributeAwareLDA_VarMultiThread extends LDA_Variational_multithrea
 		
 		@Override
 		public double calculate_E_step(_Doc d) {	
-			double last = m_varConverge>0?calculate_log_likelihood(d):1, current = last, converge, logSum, v;
+			double last = m_varConverge>0?calculate_log_likelihood(d):1, current = last, converge, v;
+			double[] diGamma = new double[number_of_topics];
 			int iter = 0, wid;
 			_SparseFeature fv[] = d.getSparse(), spFea;
 			
@@ -173,6 +172,7 @@ public class AttributeAwareLDA_VarMultiThread extends LDA_Variational_multithrea
 			
 			do {
 				//variational inference for p(z|w,\phi)
+				Numerics.digamma(d.m_sstat, diGamma, number_of_topics);//the same for all the words
 				for(int n=0; n<fv.length; n++) {
 					//allocate the words by attribute and topic combination
 					spFea = fv[n];
@@ -184,12 +184,10 @@ public class AttributeAwareLDA_VarMultiThread extends LDA_Variational_multithrea
 						m_tAssignments[i] -= d.m_phi[n][i] * v;
 					
 						//then compute the unregularized posterior
-						d.m_phi[n][i] = v*topic_term_probabilty[i][wid] + Utils.digamma(d.m_sstat[i]);
+						d.m_phi[n][i] = v*topic_term_probabilty[i][wid] + diGamma[i];
 					}
 					
-					logSum = Utils.logSum(d.m_phi[n]);
-					for(int i=0; i<number_of_topics; i++)
-						d.m_phi[n][i] = Math.exp(d.m_phi[n][i] - logSum);
+					Numerics.expNormalize(d.m_phi[n]);
 					
 					// then we are regularizing the PR here
 					m_constraint.reset(d.m_phi[n], m_tAssignments);
@@ -270,7 +268,6 @@ public class AttributeAwareLDA_VarMultiThread extends LDA_Variational_multithrea
 	protected void initialize_probability(Collection<_Doc> collection) {
 		int cores = Runtime.getRuntime().availableProcessors();
 //		int cores = 1;//debugging code
-		m_threadpool = new Thread[cores];
 		m_workers = new AttributeAwareLDA_worker[cores];
 		
 		for(int i=0; i<cores; i++)
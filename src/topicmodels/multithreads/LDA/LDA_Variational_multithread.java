@@ -9,6 +9,7 @@ import structures._SparseFeature;
 import topicmodels.LDA.LDA_Variational;
 import topicmodels.multithreads.TopicModelWorker;
 import topicmodels.multithreads.TopicModel_worker;
+import utils.Numerics;
 import utils.Utils;
 
 public class LDA_Variational_multithread extends LDA_Variational {
@@ -27,21 +28,21 @@ public class LDA_Variational_multithread extends LDA_Variational {
 			if (m_varConverge>0)
 				last = calculate_log_likelihood(d);
 			
-			double current = last, converge, logSum, v;
+			double current = last, converge, v;
+			double[] diGamma = new double[number_of_topics];
 			int iter = 0, wid;
 			_SparseFeature[] fv = d.getSparse();
 			
 			do {
 				//variational inference for p(z|w,\phi)
+				Numerics.digamma(d.m_sstat, diGamma, number_of_topics);//the same for all the words
 				for(int n=0; n<fv.length; n++) {
 					wid = fv[n].getIndex();
 					v = fv[n].getValue();
 					for(int i=0; i<number_of_topics; i++)
-						d.m_phi[n][i] = topic_term_probabilty[i][wid] + Utils.digamma(d.m_sstat[i]);
+						d.m_phi[n][i] = topic_term_probabilty[i][wid] + diGamma[i];
 					
-					logSum = Utils.logSum(d.m_phi[n]);
-					for(int i=0; i<number_of_topics; i++)
-						d.m_phi[n][i] = Math.exp(d.m_phi[n][i] - logSum);
+					Numerics.expNormalize(d.m_phi[n]);
 				}
 				
 				//variational inference for p(\theta|\gamma)
@@ -81,9 +82,9 @@ public class LDA_Variational_multithread extends LDA_Variational {
 					sstat[i][wid] += v*d.m_phi[n][i];
 			}
 			
-			double diGammaSum = Utils.digamma(Utils.sumOfArray(d.m_sstat));
+			double diGammaSum = Numerics.digamma(Utils.sumOfArray(d.m_sstat));
 			for(int i=0; i<number_of_topics; i++)
-				alphaStat[i] += Utils.digamma(d.m_sstat[i]) - diGammaSum;
+				alphaStat[i] += Numerics.digamma(d.m_sstat[i]) - diGammaSum;
 		}
 		
 		// this is directly copied from LDA_Variational.java
@@ -125,7 +126,6 @@ public class LDA_Variational_multithread extends LDA_Variational {
 	@Override
 	protected void initialize_probability(Collection<_Doc> collection) {
 		int cores = Runtime.getRuntime().availableProcessors();
-		m_threadpool = new Thread[cores];
 		m_workers = new LDA_worker[cores];
 		
 		for(int i=0; i<cores; i++)
@@ -89,11 +89,18 @@ public abstract class TopicModel_worker implements TopicModelWorker {
 			Arrays.fill(sstat[i], 0);			
 	}
 
+	public double[][] getSstat() {
+		return sstat;
+	}
+
+	//word_topic_sstat can be null if the caller reduces the word-topic statistics by itself (see TopicModel.reduceWordTopicStats())
 	@Override
 	public double accumluateStats(double[][] word_topic_sstat) {
-		for(int k=0; k<number_of_topics; k++) {
-			for(int v=0; v<vocabulary_size; v++)
-				word_topic_sstat[k][v] += sstat[k][v];
+		if (word_topic_sstat!=null) {
+			for(int k=0; k<number_of_topics; k++) {
+				for(int v=0; v<vocabulary_size; v++)
+					word_topic_sstat[k][v] += sstat[k][v];
+			}
 		}
 		return m_likelihood;
 	}	
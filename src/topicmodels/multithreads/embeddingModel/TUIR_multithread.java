@@ -6,15 +6,25 @@ import topicmodels.multithreads.EmbedModelWorker;
 import topicmodels.multithreads.EmbedModel_worker;
 import topicmodels.multithreads.TopicModelWorker;
 import topicmodels.multithreads.TopicModel_worker;
+import utils.Numerics;
 import utils.Utils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TUIR_multithread extends TUIR {
     protected EmbedModelWorker[] m_userWorkers = null;
     protected EmbedModelWorker[] m_itemWorkers = null;
 
+    //documents, users and items of each phase are claimed by the workers one at a time (rather than split evenly beforehand),
+    //so that the threads getting cheap ones take over the remaining work; statistics are still collected per worker and reduced afterwards
+    protected ArrayList<_Doc> m_docQueue = new ArrayList<_Doc>();
+    protected ArrayList<_User> m_userQueue = new ArrayList<_User>();
+    protected ArrayList<_Product> m_itemQueue = new ArrayList<_Product>();
+    protected AtomicInteger m_nextDoc = new AtomicInteger(), m_nextUser = new AtomicInteger(), m_nextItem = new AtomicInteger();
+
     public class Doc_worker extends TopicModel_worker {
         //5 dimensions: coldstart, coldstart_user, coldstart_item, warmstart, overall;
         /*
@@ -31,8 +41,11 @@ public class TUIR_multithread extends TUIR {
         protected double eta_mean_Stats;
         protected double eta_p_Stats;
 
+        protected VarBuffer m_varBuffer;
+
         public Doc_worker(int number_of_topics, int vocabulary_size) {
             super(number_of_topics, vocabulary_size);
+            m_varBuffer = new VarBuffer(number_of_topics);
             likelihood_array = new double[5];
             totalWords_array = new double[5];
             docSize_array = new double[5];
@@ -58,7 +71,9 @@ public class TUIR_multithread extends TUIR {
             Arrays.fill(docSize_array, 0);
 
             double loglikelihood;
-            for(_Doc d:m_corpus) {
+            int n, size = m_docQueue.size();
+            while((n = m_nextDoc.getAndIncrement()) < size) {
+                _Doc d = m_docQueue.get(n);
                 if (m_type == TopicModel_worker.RunType.RT_EM)
                     m_likelihood += calculate_E_step(d);
                 else if (m_type == TopicModel_worker.RunType.RT_inference) {
@@ -94,7 +109,7 @@ public class TUIR_multithread extends TUIR {
             _Doc4ETBIR doc = (_Doc4ETBIR)d;
             String userID = doc.getUserID();
             String itemID = doc.getItemID();
-            double cur = varInference4Doc(doc, m_users.get(m_usersIndex.get(userID)),  m_items.get(m_itemsIndex.get(itemID)));
+            double cur = varInference4Doc(doc, m_users.get(m_usersIndex.get(userID)),  m_items.get(m_itemsIndex.get(itemID)), m_varBuffer);
             updateStats4Doc(doc);
             return cur;
         }
@@ -173,8 +188,11 @@ public class TUIR_multithread extends TUIR {
 
         protected double[] alphaStat;
 
+        protected VarBuffer m_varBuffer;
+
         public Item_worker(int number_of_topics, int vocabulary_size) {
             super(number_of_topics, vocabulary_size);
+            m_varBuffer = new VarBuffer(number_of_topics);
             alphaStat = new double[number_of_topics];
             likelihood_array = new double[5];
         }
@@ -187,12 +205,13 @@ public class TUIR_multithread extends TUIR {
             Arrays.fill(likelihood_array, 0);
 
             double loglikelihood;
-            for (Object o : m_objects) {
-                _Product4ETBIR i = (_Product4ETBIR) o;
+            int n, size = m_itemQueue.size();
+            while((n = m_nextItem.getAndIncrement()) < size) {
+                _Product4ETBIR i = (_Product4ETBIR) m_itemQueue.get(n);
                 if (m_type == TopicModel_worker.RunType.RT_EM)
                     m_likelihood += calculate_E_step(i);
                 else if (m_type == TopicModel_worker.RunType.RT_inference) {
-                    loglikelihood = inference(i);
+                    loglikelihood = varInference4Item(i, m_varBuffer);
 
                     int coldstartIdx = 3; //default is warm
                     if(!m_mapByItem.containsKey(m_itemsIndex.get(i.getID()))){//item cold start
@@ -217,15 +236,15 @@ public class TUIR_multithread extends TUIR {
         @Override
         public double calculate_E_step(Object o) {
             _Product4ETBIR i = (_Product4ETBIR) o;
-            double cur = varInference4Item(i);
+            double cur = varInference4Item(i, m_varBuffer);
             updateStats4Item(i);
             return cur;
         }
 
         protected void updateStats4Item(_Product4ETBIR item){
-            double digammaSum = Utils.digamma(Utils.sumOfArray(item.m_eta));
+            double digammaSum = Numerics.digamma(Utils.sumOfArray(item.m_eta));
             for(int k = 0; k < number_of_topics; k++)
-                alphaStat[k] += Utils.digamma(item.m_eta[k]) - digammaSum;
+                alphaStat[k] += Numerics.digamma(item.m_eta[k]) - digammaSum;
         }
 
         @Override
@@ -248,8 +267,11 @@ public class TUIR_multithread extends TUIR {
         double pStats;
         double lambda_Stats;
 
+        protected VarBuffer m_varBuffer;
+
         public User_worker(int number_of_topics, int vocabulary_size) {
             super(number_of_topics, vocabulary_size);
+            m_varBuffer = new VarBuffer(number_of_topics);
             likelihood_array = new double[5];
         }
 
@@ -263,12 +285,13 @@ public class TUIR_multithread extends TUIR {
             Arrays.fill(likelihood_array, 0);
 
             double loglikelihood = 0.0;
-            for (Object o : m_objects) {
-                _User4ETBIR u = (_User4ETBIR) o;
+            int n, size = m_userQueue.size();
+            while((n = m_nextUser.getAndIncrement()) < size) {
+                _User4ETBIR u = (_User4ETBIR) m_userQueue.get(n);
                 if (m_type == TopicModel_worker.RunType.RT_EM)
                     m_likelihood += calculate_E_step(u);
                 else if (m_type == TopicModel_worker.RunType.RT_inference) {
-                    loglikelihood = inference(u);
+                    loglikelihood = varInference4User(u, m_varBuffer);
 
                     int coldstartIdx = 3;//default is warm
                     if(!m_mapByUser.containsKey(m_usersIndex.get(u.getUserID()))){//user cold start
@@ -293,7 +316,7 @@ public class TUIR_multithread extends TUIR {
         @Override
         public double calculate_E_step(Object o) {
             _User4ETBIR u = (_User4ETBIR) o;
-            double cur = varInference4User(u);
+            double cur = varInference4User(u, m_varBuffer);
             updateStats4User(u);
             return cur;
         }
@@ -301,15 +324,16 @@ public class TUIR_multithread extends TUIR {
         protected void updateStats4User(_User u){
             _User4ETBIR user = (_User4ETBIR) u;
             for(int k = 0; k < number_of_topics; k++){
+                double nuSum = Utils.sumOfArray(user.m_nuP[k]);
                 for(int l = 0; l < number_of_topics; l++){
                     if(!m_flag_diagonal_lambda)
                         pStats += user.m_SigmaP[k][l][l] + user.m_nuP[k][l] * user.m_nuP[k][l]
-                                - 2 * m_lambda * Utils.sumOfArray(user.m_nuP[k]) + m_lambda * m_lambda * number_of_topics;
+                                - 2 * m_lambda * nuSum + m_lambda * m_lambda * number_of_topics;
                     else
                         pStats += user.m_SigmaP[k][l][l] + user.m_nuP[k][l] * user.m_nuP[k][l] - 2 * m_lambda * user.m_nuP[k][k] + m_lambda * m_lambda;
                 }
                 if(!m_flag_diagonal_lambda)
-                    lambda_Stats += Utils.sumOfArray(user.m_nuP[k]);
+                    lambda_Stats += nuSum;
                 else//if assume the prior of P'mean to be diagonal
                     lambda_Stats += user.m_nuP[k][k];
             }
@@ -340,7 +364,6 @@ public class TUIR_multithread extends TUIR {
 
     protected void initialize_probability(Collection<_Doc> collection) {
         int cores = Runtime.getRuntime().availableProcessors();
-        m_threadpool = new Thread[cores];
         m_workers = new TUIR_multithread.Doc_worker[cores];
         m_itemWorkers = new TUIR_multithread.Item_worker[cores];
         m_userWorkers = new TUIR_multithread.User_worker[cores];
@@ -351,26 +374,23 @@ public class TUIR_multithread extends TUIR {
             m_userWorkers[i] = new TUIR_multithread.User_worker(number_of_topics, vocabulary_size);
         }
 
-        int workerID = 0;
-        for(_Doc d:collection) {
-            m_workers[workerID%cores].addDoc(d);
-            workerID++;
-        }
-        workerID = 0;
-        for(int i_idx : m_mapByItem.keySet()){
-            m_itemWorkers[workerID%cores].addObject(m_items.get(i_idx));
-            workerID++;
-        }
-        workerID = 0;
-        for(int u_idx:m_mapByUser.keySet()) {
-            m_userWorkers[workerID%cores].addObject(m_users.get(u_idx));
-            workerID++;
-        }
+        fillQueues(collection, m_mapByUser.keySet(), m_mapByItem.keySet());
 
         super.initialize_probability(collection);
     }
 
 
+    protected void fillQueues(Collection<_Doc> docs, Collection<Integer> users, Collection<Integer> items) {
+        m_docQueue.clear();
+        m_docQueue.addAll(docs);
+        m_userQueue.clear();
+        for(int u_idx:users)
+            m_userQueue.add(m_users.get(u_idx));
+        m_itemQueue.clear();
+        for(int i_idx:items)
+            m_itemQueue.add(m_items.get(i_idx));
+    }
+
     @Override
     protected void init() { // clear up for next iteration
         super.init();
@@ -380,22 +400,17 @@ public class TUIR_multithread extends TUIR {
             worker.resetStats();
         for(EmbedModelWorker worker:m_userWorkers)
             worker.resetStats();
+        m_nextDoc.set(0);
+        m_nextUser.set(0);
+        m_nextItem.set(0);
     }
 
     protected double multithread_general(EmbedModelWorker[] workers){
         double likelihood = 0.0;
-        for (int i = 0; i < workers.length; i++) {
+        for (int i = 0; i < workers.length; i++)
             workers[i].setType(TopicModel_worker.RunType.RT_EM);
-            m_threadpool[i] = new Thread(workers[i]);
-            m_threadpool[i].start();
-        }
-        for (Thread thread : m_threadpool) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        runWorkers(workers);
+
         for (EmbedModelWorker worker : workers)
             likelihood += worker.accumluateStats();
 
@@ -457,36 +472,15 @@ public class TUIR_multithread extends TUIR {
         int iter = 0;
         double likelihood, last = -1.0, converge;
 
-        //clear up for adding new testing documents
-        for(int i=0; i<m_workers.length; i++) {
+        for(int i=0; i<m_workers.length; i++)
             m_workers[i].setType(TopicModel_worker.RunType.RT_inference);
-            m_workers[i].clearCorpus();
-        }
-        for(int i = 0; i < m_itemWorkers.length; i++){
+        for(int i = 0; i < m_itemWorkers.length; i++)
             m_itemWorkers[i].setType(TopicModel_worker.RunType.RT_inference);
-            m_itemWorkers[i].clearObjects();
-        }
-        for(int i = 0;i < m_userWorkers.length; i++){
+        for(int i = 0;i < m_userWorkers.length; i++)
             m_userWorkers[i].setType(TopicModel_worker.RunType.RT_inference);
-            m_userWorkers[i].clearObjects();
-        }
 
-        //evenly allocate the testing work load
-        int workerID = 0;
-        for(_Doc d:m_testSet) {
-            m_workers[workerID % m_workers.length].addDoc(d);
-            workerID++;
-        }
-        workerID = 0;
-        for(int i_idx:m_mapByItem_test.keySet()){
-            m_itemWorkers[workerID%m_itemWorkers.length].addObject(m_items.get(i_idx));
-            workerID++;
-        }
-        workerID = 0;
-        for(int u_idx:m_mapByUser_test.keySet()){
-            m_userWorkers[workerID%m_userWorkers.length].addObject(m_users.get(u_idx));
-            workerID++;
-        }
+        //the testing work load is claimed by the workers from the queues
+        fillQueues(m_testSet, m_mapByUser_test.keySet(), m_mapByItem_test.keySet());
 
         do {
             init();
@@ -496,43 +490,9 @@ public class TUIR_multithread extends TUIR {
             Arrays.fill(m_docSize_array, 0);
 
             //run
-            for (int i = 0; i < m_workers.length; i++) {
-                m_threadpool[i] = new Thread(m_workers[i]);
-                m_threadpool[i].start();
-            }
-
-            //wait till all finished
-            for (Thread thread : m_threadpool) {
-                try {
-                    thread.join();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            for (int i = 0; i < m_userWorkers.length; i++) {
-                m_threadpool[i] = new Thread(m_userWorkers[i]);
-                m_threadpool[i].start();
-            }
-            for (Thread thread : m_threadpool) {
-                try {
-                    thread.join();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            for (int i = 0; i < m_itemWorkers.length; i++) {
-                m_threadpool[i] = new Thread(m_itemWorkers[i]);
-                m_threadpool[i].start();
-            }
-            for (Thread thread : m_threadpool) {
-                try {
-                    thread.join();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+            runWorkers(m_workers);
+            runWorkers(m_userWorkers);
+            runWorkers(m_itemWorkers);
 
             for (TopicModelWorker worker : m_workers) {
                 Utils.add2Array(m_likelihood_array, ((Doc_worker) worker).getLogLikelihoodArray(), 1);
@@ -82,7 +82,6 @@ public class pLSA_multithread extends pLSA {
 		super.initialize_probability(collection);
 		
 		int cores = Runtime.getRuntime().availableProcessors();
-		m_threadpool = new Thread[cores];
 		m_workers = new pLSA_worker[cores];
 		
 		for(int i=0; i<cores; i++)
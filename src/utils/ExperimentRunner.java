@@ -0,0 +1,101 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of experiments, e.g., the folds of a cross-validation under different hyper-parameters,
+ * with at most m_parallelism of them at the same time. The results are returned in the order of submission,
+ * so that they can be aggregated deterministically. A failed experiment does not stop the others, but the failures are thrown at the end of run().
+ * Experiments submitted with the same key share mutable state (e.g., the topic assignments kept in the documents of a corpus),
+ * and they are run one after another in the order of submission; experiments without a key are independent.
+ */
+public class ExperimentRunner<R> {
+	int m_parallelism;
+	ArrayList<Callable<R>> m_experiments;
+	LinkedHashMap<Object, ArrayList<Integer>> m_groups; // experiments that have to be run in sequence
+
+	public ExperimentRunner(int parallelism) {
+		m_parallelism = Math.max(1, parallelism);
+		m_experiments = new ArrayList<Callable<R>>();
+		m_groups = new LinkedHashMap<Object, ArrayList<Integer>>();
+	}
+
+	public void submit(Callable<R> experiment) {
+		submit(null, experiment);
+	}
+
+	public void submit(Object key, Callable<R> experiment) {
+		if (key==null)
+			key = new Object(); // a group of its own
+
+		ArrayList<Integer> group = m_groups.get(key);
+		if (group==null) {
+			group = new ArrayList<Integer>();
+			m_groups.put(key, group);
+		}
+		group.add(m_experiments.size());
+		m_experiments.add(experiment);
+	}
+
+	//run all the submitted experiments and return their results in the order of submission
+	public ArrayList<R> run() {
+		final ArrayList<Callable<R>> experiments = m_experiments;
+		final ArrayList<ArrayList<Integer>> groups = new ArrayList<ArrayList<Integer>>(m_groups.values());
+		final ArrayList<R> results = new ArrayList<R>(experiments.size());
+		final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+		for(int i=0; i<experiments.size(); i++)
+			results.add(null);
+
+		m_experiments = new ArrayList<Callable<R>>();
+		m_groups = new LinkedHashMap<Object, ArrayList<Integer>>();
+
+		final AtomicInteger nextGroup = new AtomicInteger(0);
+		Runnable[] tasks = new Runnable[Math.min(m_parallelism, groups.size())];
+		for(int t=0; t<tasks.length; t++) {
+			tasks[t] = new Runnable() {
+				@Override
+				public void run() {
+					int g;
+					while((g=nextGroup.getAndIncrement())<groups.size()) {
+						for(int i:groups.get(g)) {
+							R result = null;
+							try {
+								result = experiments.get(i).call();
+							} catch (Exception e) {
+								failures.add(new RuntimeException(String.format("Experiment %d failed", i), e));
+							}
+
+							synchronized(results) {
+								results.set(i, result);
+							}
+						}
+					}
+				}
+			};
+		}
+
+		if (tasks.length==1)
+			tasks[0].run();
+		else if (tasks.length>1) {
+			WorkerPool pool = new WorkerPool(tasks.length);
+			try {
+				pool.execute(tasks);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		if (!failures.isEmpty()) {
+			RuntimeException e = new RuntimeException(String.format("%d of %d experiments failed", failures.size(), experiments.size()), failures.get(0));
+			for(int f=1; f<failures.size(); f++)
+				e.addSuppressed(failures.get(f));
+			throw e;
+		}
+		return results;
+	}
+}
@@ -398,6 +398,61 @@ public class Utils {
 		return similarity;
 	}
 	
+	//Calculate the similarity between two packed sparse vectors (indices in ascending order).
+	public static double dotProduct(int[] idx1, double[] v1, int[] idx2, double[] v2) {
+		if (idx1==null || idx2==null)
+			return 0;
+		
+		double similarity = 0;
+		int p1 = 0, p2 = 0, i1, i2;
+		while (p1 < idx1.length && p2 < idx2.length) {
+			i1 = idx1[p1];
+			i2 = idx2[p2];
+			if (i1 == i2) 
+				similarity += v1[p1++] * v2[p2++];
+			else if (i1 > i2)
+				p2++;
+			else
+				p1++;
+		}
+		return similarity;
+	}
+	
+	public static double cosine(int[] idx1, double[] v1, int[] idx2, double[] v2) {
+		double spVct1L2 = sumOfFeaturesL2(v1), spVct2L2 = sumOfFeaturesL2(v2);
+		if (spVct1L2==0 || spVct2L2==0)
+			return 0;
+		else
+			return dotProduct(idx1, v1, idx2, v2) / spVct1L2 / spVct2L2;
+	}
+	
+	public static double jaccard(int[] idx1, int[] idx2) {
+		if (idx1==null || idx2==null || idx1.length+idx2.length==0)
+			return 0;
+		
+		double overlap = 0;
+		int p1 = 0, p2 = 0;
+		while (p1 < idx1.length && p2 < idx2.length) {
+			if (idx1[p1] == idx2[p2]) {
+				overlap ++;
+				p1++;
+				p2++;
+			} else if (idx1[p1] > idx2[p2])
+				p2++;
+			else
+				p1++;
+		}
+		return overlap/(idx1.length + idx2.length - overlap);
+	}
+	
+	//dot product between a dense weight vector and a packed sparse vector, the bias term is stored at beta[offset]
+	public static double dotProduct(double[] beta, int[] idx, double[] v, int offset){
+		double sum = beta[offset];
+		for(int i=0; i<idx.length; i++)
+			sum += beta[offset + idx[i] + 1] * v[i];
+		return sum;
+	}
+	
 	static public boolean isNumber(String token) {
 		return token.matches("\\d+");
 	}
@@ -745,18 +800,7 @@ public class Utils {
 	{
 	    double x0,x2,xp,gl,gl0;
 	    int n=0, k;
-	    double a[] = {
-	        8.333333333333333e-02,
-	       -2.777777777777778e-03,
-	        7.936507936507937e-04,
-	       -5.952380952380952e-04,
-	        8.417508417508418e-04,
-	       -1.917526917526918e-03,
-	        6.410256410256410e-03,
-	       -2.955065359477124e-02,
-	        1.796443723688307e-01,
-	       -1.39243221690590
-	    };
+	    double a[] = Numerics.LGAMMA_COEF;//shared table, avoid allocating it in every call
 	    
 	    x0 = x;
 	    if (x <= 0.0) return 1e308;
@@ -0,0 +1,110 @@
+package utils;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * A fixed set of long-lived threads driven by two cyclic barriers, so that the workers
+ * of an iterative algorithm (e.g., EM) do not need to be re-created in every iteration.
+ * In each round, the i-th thread runs the i-th task; execute() returns when all of them are finished.
+ * The threads are parked between the rounds, so the owner has to shutdown() the pool when it is no longer needed.
+ * If the round cannot be completed (the caller is interrupted or the barriers are broken), execute() throws
+ * and the pool cannot be used any more.
+ */
+public class WorkerPool {
+	Thread[] m_threads;
+	CyclicBarrier m_start, m_finish;
+
+	volatile Runnable[] m_tasks;
+	volatile Throwable m_error;
+	volatile boolean m_shutdown = false;
+
+	public WorkerPool(int size) {
+		m_start = new CyclicBarrier(size+1);
+		m_finish = new CyclicBarrier(size+1);
+		m_threads = new Thread[size];
+
+		for(int i=0; i<size; i++) {
+			m_threads[i] = new Thread() {
+				int m_id;
+
+				@Override
+				public void run() {
+					try {
+						while(true) {
+							m_start.await();
+							if (m_shutdown)
+								return;
+
+							Runnable[] tasks = m_tasks;
+							if (m_id<tasks.length) {
+								try {
+									tasks[m_id].run();
+								} catch (Throwable e) {
+									m_error = e;
+								}
+							}
+							m_finish.await();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt(); // the worker just exits
+					} catch (BrokenBarrierException e) {
+						// the pool was broken by the caller, the worker just exits
+					}
+				}
+
+				private Thread initialize(int id) {
+					m_id = id;
+					setName("WorkerPool-" + id);
+					setDaemon(true); // idle workers should not keep JVM alive
+					return this;
+				}
+			}.initialize(i);
+			m_threads[i].start();
+		}
+	}
+
+	public int size() {
+		return m_threads.length;
+	}
+
+	//run one round of the tasks (at most size() of them) and wait till all finished
+	public void execute(Runnable[] tasks) {
+		if (tasks.length>m_threads.length)
+			throw new IllegalArgumentException(String.format("%d tasks cannot be executed by %d threads!", tasks.length, m_threads.length));
+
+		if (m_shutdown)
+			throw new IllegalStateException("WorkerPool has been shut down!");
+
+		m_tasks = tasks;
+		m_error = null;
+		try {
+			m_start.await();
+			m_finish.await();
+		} catch (InterruptedException e) {
+			m_shutdown = true; // the barrier is broken, so the workers exit once their tasks are done
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for WorkerPool", e);
+		} catch (BrokenBarrierException e) {
+			m_shutdown = true;
+			throw new RuntimeException("WorkerPool is broken", e);
+		}
+
+		if (m_error!=null)
+			throw new RuntimeException("Worker failed in WorkerPool", m_error);
+	}
+
+	public void shutdown() {
+		if (m_shutdown)
+			return;
+
+		m_shutdown = true;
+		try {
+			m_start.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // the barrier is broken, so the workers exit
+		} catch (BrokenBarrierException e) {
+			// the workers have already exited
+		}
+	}
+}